@@ -1,9 +1,13 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.StringDictionary;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.WarmRestart;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -162,6 +166,16 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table whose line ends with {@code slotted} is stored in slotted pages
+     * (see {@link HeapFile.PageFormat#SLOTTED}), one that ends with
+     * {@code compressed} in a {@link CompressedHeapFile}; both may be given.
+     * A table whose line ends with {@code columnar} is stored column by column
+     * in a {@link ColumnarFile}, and takes no other option.
+     * A string column annotated with {@code dict} (e.g.
+     * {@code status string dict}) stores codes of a {@link StringDictionary}
+     * instead of its values; a columnar table takes no such column.
+     * If the buffer pool has a warm restart dump file, the pages saved in it
+     * are then reloaded in the background (see {@link WarmRestart}).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -171,7 +185,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type [pk] [dict], ...) [slotted] [compressed] | [columnar]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -179,6 +193,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                ArrayList<Integer> dictionaryColumns = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -190,11 +205,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("dict") && types.get(types.size() - 1) == Type.STRING_TYPE)
+                            dictionaryColumns.add(types.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -202,10 +219,41 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                boolean compressed = false;
+                boolean columnar = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("slotted"))
+                        format = HeapFile.PageFormat.SLOTTED;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (option.equalsIgnoreCase("columnar"))
+                        columnar = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                if (columnar && (compressed || format != HeapFile.PageFormat.FIXED || !dictionaryColumns.isEmpty())) {
+                    System.out.println("A columnar table takes no other option: " + name);
+                    System.exit(0);
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                int[] dictAr = dictionaryColumns.stream().mapToInt(Integer::intValue).toArray();
+                DbFile tabHf;
+                if (columnar)
+                    tabHf = new ColumnarFile(dataFile, t);
+                else if (compressed)
+                    tabHf = new CompressedHeapFile(dataFile, t, format, dictAr);
+                else
+                    tabHf = new HeapFile(dataFile, t, format, dictAr);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            // bring back the pages that were hot before the last shutdown
+            WarmRestart warm = Database.getBufferPool().getWarmRestart();
+            if (warm.getFile() != null)
+                warm.reloadInBackground();
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandleManager;
 import simpledb.storage.LogFile;
 
 import java.io.*;
@@ -20,12 +21,14 @@ public class Database {
     private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileHandleManager _fileHandles;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
     private Database() {
         _catalog = new Catalog();
+        _fileHandles = new FileHandleManager();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
         LogFile tmp = null;
         try {
@@ -48,6 +51,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the open data files of the static Database instance */
+    public static FileHandleManager getFileHandleManager() {
+        return _instance.get()._fileHandles;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -62,6 +70,9 @@ public class Database {
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
+            _instance.get()._bufferpool.getPageCleaner().stop();
+            _instance.get()._bufferpool.getWarmRestart().stop();
+            _instance.get()._bufferpool.getSizeController().stop();
             bufferPoolF.set(_instance.get(), new BufferPool(pages));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
@@ -72,7 +83,11 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.getPageCleaner().stop();
+        old._bufferpool.getWarmRestart().stop();
+        old._bufferpool.getSizeController().stop();
+        old._fileHandles.closeAll();
     }
 
 }
@@ -6,6 +6,7 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +29,17 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff));
+        }
+
+        @Override
+        public void write(Field f, byte[] data, int offset) {
+            putInt(((IntField) f).getValue(), data, offset);
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +58,26 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            strLen = Math.max(0, Math.min(strLen, STRING_LEN));
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, byte[] data, int offset) {
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(s.length(), STRING_LEN);
+            putInt(strLen, data, offset);
+            // one byte per char, like DataOutputStream.writeBytes
+            for (int i = 0; i < strLen; i++) {
+                data[offset + 4 + i] = (byte) s.charAt(i);
+            }
+            Arrays.fill(data, offset + 4 + strLen, offset + 4 + STRING_LEN, (byte) 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +96,24 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from getLen() bytes of data starting at offset, in the format
+   *   written by Field.serialize.
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * Write f, a Field of this type, into getLen() bytes of data starting at
+   *   offset, in the format written by Field.serialize.
+   */
+    public abstract void write(Field f, byte[] data, int offset);
+
+    private static void putInt(int v, byte[] data, int offset) {
+        data[offset] = (byte) (v >>> 24);
+        data[offset + 1] = (byte) (v >>> 16);
+        data[offset + 2] = (byte) (v >>> 8);
+        data[offset + 3] = (byte) v;
+    }
+
 }
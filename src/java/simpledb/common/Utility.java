@@ -105,6 +105,12 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
         throws IOException {
         File f = new File(path);
+        // the file is replaced; do not keep using a channel to the old one
+        Database.getFileHandleManager().close(f);
+        // a free-space map of the old file would be wrong for the new one
+        File fsm = new File(path + ".fsm");
+        Database.getFileHandleManager().close(fsm);
+        fsm.delete();
         // touch the file
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
@@ -1,6 +1,9 @@
 package simpledb.execution;
 
+import simpledb.storage.DictionaryField;
 import simpledb.storage.Field;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -14,6 +17,11 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    // the operand as a code of the dictionary last filtered, see filter()
+    private transient StringDictionary operandDictionary;
+    private transient DictionaryField encodedOperand;
+    // size of operandDictionary when the operand was not in it
+    private transient int missingAt = -1;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -106,7 +114,34 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(this.field).compare(this.op, this.operand);
+        Field f = t.getField(this.field);
+        if (f instanceof DictionaryField && this.operand instanceof StringField
+                && (this.op == Op.EQUALS || this.op == Op.NOT_EQUALS)) {
+            // compare codes: the operand is looked up once per dictionary
+            DictionaryField value = encodedOperand(((DictionaryField) f).getDictionary());
+            if (value == null) {
+                return this.op == Op.NOT_EQUALS;
+            }
+            return f.compare(this.op, value);
+        }
+        return f.compare(this.op, this.operand);
+    }
+
+    /**
+     * @return the operand as a field of dictionary d, or null if d has no
+     *   code for it
+     */
+    private DictionaryField encodedOperand(StringDictionary d) {
+        if (d != operandDictionary) {
+            operandDictionary = d;
+            encodedOperand = null;
+            missingAt = -1;
+        }
+        if (encodedOperand == null && (missingAt < 0 || d.size() != missingAt)) {
+            encodedOperand = d.lookup((StringField) this.operand);
+            missingAt = encodedOperand == null ? d.size() : -1;
+        }
+        return encodedOperand;
     }
 
     /**
@@ -5,6 +5,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -22,6 +24,8 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator iterator;
+    // the columns to read, or null for all of them
+    private int[] columns;
 
 
     private static final long serialVersionUID = 1L;
@@ -46,7 +50,7 @@ public class SeqScan implements OpIterator {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        this.iterator = Database.getCatalog().getDatabaseFile(this.tableid).iterator(this.tid);
+        this.iterator = makeIterator();
     }
 
     /**
@@ -82,7 +86,29 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        this.iterator = Database.getCatalog().getDatabaseFile(this.tableid).iterator(this.tid);
+        this.columns = null;
+        this.iterator = makeIterator();
+    }
+
+    /**
+     * Tell the scan that only some columns of the table are needed. Tables
+     * that store their columns apart (see ColumnarFile) then read only those
+     * columns, and leave the other fields of the tuples null; other tables
+     * are scanned as before. Must be called before open().
+     *
+     * @param columns the indexes of the columns needed
+     */
+    public void setColumns(int... columns) {
+        this.columns = columns.clone();
+        this.iterator = makeIterator();
+    }
+
+    private DbFileIterator makeIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (columns != null && file instanceof ColumnarFile) {
+            return ((ColumnarFile) file).iterator(this.tid, columns, null);
+        }
+        return file.iterator(this.tid);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -32,6 +32,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	// non-null while pages are read through memory mappings
+	private volatile MappedFile mapped;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +48,27 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		setMemoryMapped(Boolean.getBoolean(MappedFile.MMAP_PROPERTY));
+	}
+
+	/**
+	 * Choose whether pages are read through memory mappings of the file
+	 * (see {@link MappedFile}) or by streaming from the start of the file.
+	 * Writes are not affected.
+	 */
+	public void setMemoryMapped(boolean on) {
+		MappedFile old = mapped;
+		mapped = on ? (old != null ? old : new MappedFile(f)) : null;
+		if (!on && old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * @return true if pages are read through memory mappings
+	 */
+	public boolean isMemoryMapped() {
+		return mapped != null;
 	}
 
 	/**
@@ -86,50 +109,89 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		int size = (id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize());
+		byte[] pageBuf = new byte[size];
+		try {
+			MappedFile m = mapped;
+			int retval;
+			if (m != null) {
+				retval = m.read(pageOffset(id), pageBuf, 0, size);
+			} else {
+				retval = Database.getFileHandleManager().read(f, pageOffset(id), pageBuf, 0, size);
+			}
+			if (retval == 0) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < size) {
+				throw new IllegalArgumentException("Unable to read "
+						+ size + " bytes from BTreeFile");
+			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			return createPage(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+	// see DbFile.java for javadocs
+	@Override
+	public List<Page> readPages(List<PageId> pids) {
+		long length = f.length();
+		long[] positions = new long[pids.size()];
+		byte[][] bufs = new byte[pids.size()][];
+		for (int i = 0; i < positions.length; i++) {
+			BTreePageId id = (BTreePageId) pids.get(i);
+			int size = (id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize());
+			positions[i] = pageOffset(id);
+			if (positions[i] + size > length) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			bufs[i] = new byte[size];
+		}
+		try {
+			MappedFile m = mapped;
+			if (m != null) {
+				for (int i = 0; i < positions.length; i++) {
+					m.read(positions[i], bufs[i], 0, bufs[i].length);
+				}
+			} else {
+				Database.getFileHandleManager().readCoalesced(f, positions, bufs);
+			}
+			List<Page> pages = new ArrayList<>(positions.length);
+			for (int i = 0; i < positions.length; i++) {
+				pages.add(createPage((BTreePageId) pids.get(i), bufs[i]));
+			}
+			return pages;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return the offset of the page in the file: the root pointer page comes
+	 *   first, followed by the other pages numbered from 1
+	 */
+	private static long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Construct the page of the right type from its bytes.
+	 */
+	private Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -141,16 +203,20 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		Database.getFileHandleManager().write(f, pageOffset(id), data);
+	}
+
+	// see DbFile.java for javadocs
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		long[] positions = new long[pages.size()];
+		byte[][] data = new byte[pages.size()][];
+		for (int i = 0; i < positions.length; i++) {
+			Page page = pages.get(i);
+			positions[i] = pageOffset((BTreePageId) page.getId());
+			data[i] = page.getPageData();
 		}
+		Database.getFileHandleManager().writeCoalesced(f, positions, data);
 	}
 	
 	/**
@@ -832,13 +898,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				Database.getFileHandleManager().write(f, 0, emptyRootPtrData);
+				Database.getFileHandleManager().write(f, emptyRootPtrData.length, emptyLeafData);
 			}
 		}
 
@@ -894,11 +957,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				Database.getFileHandleManager().write(f, f.length(), emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -929,10 +989,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		Database.getFileHandleManager().write(f, pageOffset(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1062,6 +1119,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead.ChainStream readAhead = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1084,6 +1142,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
+		// leaves are scanned along their right-sibling pointers
+		readAhead = Database.getBufferPool().getReadAhead().chain(
+				p -> ((BTreeLeafPage) p).getRightSiblingId());
+		readAhead.accessed(curp);
 		it = curp.iterator();
 	}
 
@@ -1106,6 +1168,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				readAhead.accessed(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1132,6 +1195,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		readAhead = null;
 	}
 }
 
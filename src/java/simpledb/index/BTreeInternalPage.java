@@ -13,6 +13,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.SlotLayout;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -114,6 +115,7 @@ public class BTreeInternalPage extends BTreePage {
 		dis.close();
 
 		setBeforeImage();
+		loggedImage = oldData;
 	}
 
 	/** 
@@ -582,6 +584,20 @@ public class BTreeInternalPage extends BTreePage {
 		return cnt;
 	}
 
+	/**
+	 * The slots are the entries: the key (none for slot 0) and the child
+	 * pointer of each. The parent pointer and the child category belong to
+	 * none.
+	 */
+	public SlotLayout getSlotLayout() {
+		int fixed = INDEX_SIZE + 1;
+		int keySize = td.getFieldType(keyField).getLen();
+		int keysOffset = fixed + header.length;
+		return new SlotLayout(fixed, fixed, numSlots)
+				.region(keysOffset, keySize, 1)
+				.region(keysOffset + keySize * (numSlots - 1), INDEX_SIZE, 0);
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
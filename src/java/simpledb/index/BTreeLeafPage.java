@@ -108,6 +108,7 @@ public class BTreeLeafPage extends BTreePage {
 		dis.close();
 
 		setBeforeImage();
+		loggedImage = oldData;
 	}
 
 	/** 
@@ -455,6 +456,15 @@ public class BTreeLeafPage extends BTreePage {
 		return cnt;
 	}
 
+	/**
+	 * The slots are the tuple slots; the parent and sibling pointers belong
+	 * to none.
+	 */
+	public SlotLayout getSlotLayout() {
+		int fixed = 3 * INDEX_SIZE;
+		return new SlotLayout(fixed, fixed, numSlots).region(fixed + header.length, td.getSize(), 0);
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -20,6 +20,8 @@ import simpledb.transaction.TransactionId;
 public abstract class BTreePage implements Page {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
+	protected volatile long lsn = 0;
+	protected volatile byte[] loggedImage;
 
 	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -29,7 +31,7 @@ public abstract class BTreePage implements Page {
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
-	protected final Byte oldDataLock= (byte) 0;
+	protected final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -134,6 +136,22 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public long getLsn() {
+		return lsn;
+	}
+
+	public void setLsn(long lsn) {
+		this.lsn = lsn;
+	}
+
+	public byte[] getLoggedImage() {
+		return loggedImage;
+	}
+
+	public void setLoggedImage(byte[] image) {
+		this.loggedImage = image;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -9,7 +9,20 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -19,6 +32,79 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * <u> Latching note: </u>
+ * <p>
+ * The pool is split into a power-of-two number of shards, and every PageId
+ * hashes to exactly one of them. Each shard has its own frame table,
+ * replacement policy and latch, so operations on pages of different shards
+ * never contend. Operations on a single page (getPage, flushPage,
+ * discardPage, eviction) hold only the latch of that page's shard.
+ * Operations that sweep the whole pool (flushAllPages, flushPages) visit
+ * the shards one at a time and never hold two shard latches at once.
+ * <p>
+ * Code that needs the whole pool to stand still, such as the LogFile during
+ * abort, checkpoint and recovery, calls {@link #latchAllShards()}, which
+ * takes every shard latch in ascending shard order, and releases them with
+ * {@link #unlatchAllShards()}. The latches are reentrant, so the pool's own
+ * methods may be called while holding them. The lock order is: shard
+ * latches (ascending) before the LogFile monitor; BufferPool may call into
+ * LogFile while holding a shard latch, but never the other way around.
+ * <p>
+ * <u> Off-heap frames: </u>
+ * <p>
+ * Optionally (see {@link #OFF_HEAP_FRAMES_PROPERTY}) the pool allocates one
+ * direct memory region of numPages page-size frames up front and gives each
+ * shard a {@link FrameArena} over its share. HeapFile pages requested
+ * READ_ONLY are then read straight into a frame and handed out as
+ * {@link FramedHeapPage} views, which keep no tuples or before-image on the
+ * heap. A READ_WRITE request for such a page replaces it with an ordinary
+ * HeapPage and frees the frame. Other page types always live on the heap.
+ * <p>
+ * <u> Read-ahead: </u>
+ * <p>
+ * Scans hand the pages they are about to need to the pool's
+ * {@link ReadAhead} engine, which reads them on background threads. A
+ * background read is registered in its shard as a pending load before it is
+ * queued, and does its I/O without holding the shard latch. A getPage that
+ * finds a load still queued takes it over and reads the page itself; one
+ * that finds the load already reading waits for it instead of reading the
+ * page a second time. Either way the scan is never stuck behind the queue.
+ * <p>
+ * <u> Page cleaning: </u>
+ * <p>
+ * When a transaction commits, the pages it dirtied are remembered in their
+ * shards. The {@link PageCleaner} picks such pages up while they are still
+ * dirty with the committing transaction, logs their update records and
+ * marks them clean under the shard latch, forces the log, and only then
+ * writes them, outside the latch and coalesced per file. A page that is
+ * being written this way is not evicted, and flushPage writes it again
+ * itself rather than assume the cleaner's write has landed.
+ * <p>
+ * A committed page takes its state at commit as its before-image, which
+ * is what a later transaction that dirties it and aborts goes back to.
+ * The LogFile rolls back the pages an aborting transaction got logged;
+ * the ones it dirtied that were never logged are reverted in the pool by
+ * transactionComplete.
+ * <p>
+ * Every page keeps the LSN of its last update record ({@link Page#getLsn}),
+ * set when the record is logged. Writers force the log only up to the LSN
+ * of the pages they write, which is free when the record is already on
+ * disk.
+ * <p>
+ * A checkpoint takes the table of dirty pages ({@link #dirtyPages}) with
+ * all shard latches held, but then writes those pages with
+ * {@link #flushPages(Collection)}, one shard latch at a time, while
+ * transactions go on.
+ * <p>
+ * <u> Rings: </u>
+ * <p>
+ * Scans of tables larger than the pool (see {@link #ringFor}) read their
+ * pages into a {@link BufferRing}: the pages are resident like any other,
+ * but each shard remembers which ring they belong to, a ring page in a full
+ * shard is evicted before the policy is asked for a victim, and the oldest
+ * page of an overfull ring is evicted outright. A page used outside its
+ * ring leaves it.
  * 
  * @Threadsafe, all fields are final
  */
@@ -33,24 +119,291 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    // store up to numPages pages
-    private final int numPages;
+    /**
+     * System property that makes {@link #BufferPool(int)} keep HeapFile
+     * pages in off-heap frames, e.g. {@code -Dsimpledb.storage.offHeapFrames=true}.
+     */
+    public static final String OFF_HEAP_FRAMES_PROPERTY = "simpledb.storage.offHeapFrames";
+
+    /** System property for the number of pages in the ring of a large scan. */
+    public static final String RING_PAGES_PROPERTY = "simpledb.storage.ringPages";
 
-    // store pages in a hash map
-    private ConcurrentHashMap<PageId, Page> pages;
+    /**
+     * System property for the size, as a fraction of the pool, above which
+     * a table is scanned through a ring; see {@link #ringFor}.
+     */
+    public static final String RING_THRESHOLD_PROPERTY = "simpledb.storage.ringThreshold";
 
+    /** A shard is only worth its latch if it holds at least this many pages. */
+    private static final int MIN_PAGES_PER_SHARD = 32;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * One stripe of the pool: the pages whose ids hash here, the policy
+     * that picks victims among them, the frames (if any) that hold them and
+     * the latch that protects all of these.
+     */
+    private static final class Shard {
+        final ReentrantLock latch = new ReentrantLock();
+        final HashMap<PageId, Page> pages;
+        final ReplacementPolicy policy;
+        final Predicate<PageId> evictable;
+        int capacity;
+        final FrameArena arena;
+        // background reads registered but not yet installed
+        final HashMap<PageId, Load> loading = new HashMap<>();
+        // dirty pages of committed transactions, with the committer
+        final HashMap<PageId, TransactionId> committed = new HashMap<>();
+        // pages marked clean whose write by the page cleaner is under way
+        final HashSet<PageId> writing = new HashSet<>();
+        // pages read under a ring that nobody else has used since
+        final HashMap<PageId, BufferRing> rings = new HashMap<>();
+
+        Shard(int capacity, ReplacementPolicy policy, FrameArena arena) {
+            this.capacity = capacity;
+            this.pages = new HashMap<>(capacity * 2);
+            this.policy = policy;
+            this.evictable = pid -> pages.containsKey(pid) && !writing.contains(pid);
+            this.arena = arena;
+        }
+    }
+
+    /**
+     * A background read of one page. It is queued, then either started by a
+     * read-ahead thread or claimed by a foreground reader that got there
+     * first; whoever wins does the read.
+     */
+    static final class Load {
+        private static final int QUEUED = 0, READING = 1, CLAIMED = 2;
+
+        final PageId pid;
+        // the ring the page is read into, or null for the shared pool
+        final BufferRing ring;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Load(PageId pid, BufferRing ring) {
+            this.pid = pid;
+            this.ring = ring;
+        }
+
+        /** Take the read over from the background; false if it has started. */
+        boolean claim() {
+            return state.compareAndSet(QUEUED, CLAIMED);
+        }
+
+        /** Start the read in the background; false if it was claimed. */
+        boolean start() {
+            return state.compareAndSet(QUEUED, READING);
+        }
+
+        /** Wait until a started read has been installed or dropped. */
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // store up to numPages pages; see resize
+    private volatile int numPages;
+
+    // pages are striped over the shards by PageId hash
+    private final Shard[] shards;
+    private final int shardMask;
+
+    private final ReadAhead readAhead;
+    private final PageCleaner pageCleaner;
+    private final WarmRestart warmRestart;
+    private final PoolSizeController sizeController;
+
+    private volatile int ringPages;
+    private volatile double ringThreshold;
+
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK-Pro
+     * to choose pages to evict.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, defaultShardCount(numPages), ClockProPolicy::new,
+                Boolean.getBoolean(OFF_HEAP_FRAMES_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with the
+     * default number of shards.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of each shard.
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy> policyFactory) {
+        this(numPages, defaultShardCount(numPages), policyFactory, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards number of latch stripes; rounded down to a power of
+     *                  two and to at most one per page.
+     * @param policyFactory creates the replacement policy of each shard,
+     *                      given the number of pages the shard holds, e.g.
+     *                      {@code LruKPolicy::new}.
+     */
+    public BufferPool(int numPages, int numShards, IntFunction<ReplacementPolicy> policyFactory) {
+        this(numPages, numShards, policyFactory, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards number of latch stripes; rounded down to a power of
+     *                  two and to at most one per page.
+     * @param policyFactory creates the replacement policy of each shard,
+     *                      given the number of pages the shard holds.
+     * @param offHeapFrames if true, allocate numPages off-heap frames and
+     *                      keep HeapFile pages read READ_ONLY in them.
+     * @throws IllegalArgumentException if offHeapFrames is set and the
+     *                      frames would exceed 2GB.
+     */
+    public BufferPool(int numPages, int numShards, IntFunction<ReplacementPolicy> policyFactory,
+                      boolean offHeapFrames) {
         // some code goes here
         this.numPages = numPages;
-        this.pages = new ConcurrentHashMap<PageId, Page>();
+        int n = Integer.highestOneBit(Math.max(1, Math.min(numShards, numPages)));
+        this.shards = new Shard[n];
+        this.shardMask = n - 1;
+        ByteBuffer region = offHeapFrames ? FrameArena.allocateRegion(numPages, pageSize) : null;
+        int frameOffset = 0;
+        for (int i = 0; i < n; i++) {
+            // spread the remainder over the first shards
+            int capacity = numPages / n + (i < numPages % n ? 1 : 0);
+            FrameArena arena = null;
+            if (region != null) {
+                ByteBuffer share = region.duplicate();
+                share.position(frameOffset * pageSize);
+                share.limit((frameOffset + capacity) * pageSize);
+                arena = new FrameArena(share.slice(), pageSize);
+                frameOffset += capacity;
+            }
+            shards[i] = new Shard(capacity, policyFactory.apply(capacity), arena);
+        }
+        this.ringPages = ringPages(numPages);
+        this.ringThreshold = Double.parseDouble(System.getProperty(RING_THRESHOLD_PROPERTY, "1"));
+        this.readAhead = new ReadAhead(this, numPages);
+        this.pageCleaner = new PageCleaner(this);
+        this.sizeController = new PoolSizeController(this);
+        if (Boolean.getBoolean(PageCleaner.PAGE_CLEANER_PROPERTY)) {
+            pageCleaner.start();
+        }
+        String dumpFile = System.getProperty(WarmRestart.DUMP_FILE_PROPERTY);
+        this.warmRestart = new WarmRestart(this, dumpFile == null ? null : new File(dumpFile));
+        if (dumpFile != null) {
+            warmRestart.start();
+        }
+        if (Boolean.getBoolean(PoolSizeController.CONTROLLER_PROPERTY)) {
+            sizeController.start();
+        }
     }
-    
+
+    /** @return the size of the rings of a pool: no more than a quarter of it, as for read-ahead */
+    private static int ringPages(int numPages) {
+        return Math.min(Math.max(1, Integer.getInteger(RING_PAGES_PROPERTY, 32)), numPages / 4);
+    }
+
+    /**
+     * Change the number of pages this pool holds, while it is in use.
+     * The number of shards stays as it was; each shard in turn takes its
+     * share of the new size under its own latch, so getPage calls wait for
+     * at most one shard at a time. When shrinking, a shard evicts pages
+     * (writing dirty ones, as eviction always does) until it fits. Every
+     * shard keeps room for at least one page.
+     * <p>
+     * With off-heap frames, pages beyond the frames allocated when the pool
+     * was created are kept on the heap.
+     *
+     * @param numPages the new maximum number of pages
+     * @throws DbException if some shard could not evict enough pages; its
+     *   extra pages are evicted as soon as they can be
+     */
+    public void resize(int numPages) throws DbException {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("a pool needs at least one page");
+        }
+        DbException failure = null;
+        synchronized (shards) {
+            int n = shards.length;
+            for (int i = 0; i < n; i++) {
+                Shard shard = shards[i];
+                int capacity = Math.max(1, numPages / n + (i < numPages % n ? 1 : 0));
+                shard.latch.lock();
+                try {
+                    shard.capacity = capacity;
+                    shard.policy.setCapacity(capacity);
+                    while (shard.pages.size() > capacity) {
+                        evictPage(shard);
+                    }
+                } catch (DbException e) {
+                    failure = e;
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+            this.numPages = numPages;
+            this.ringPages = ringPages(numPages);
+            readAhead.setPoolPages(numPages);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return a shard count that gives each core a couple of stripes to
+     *   spread over, without making shards so small that hash skew alone
+     *   causes evictions.
+     */
+    private static int defaultShardCount(int numPages) {
+        int byCores = 2 * Runtime.getRuntime().availableProcessors();
+        int bySize = numPages / MIN_PAGES_PER_SHARD;
+        return Integer.highestOneBit(Math.max(1, Math.min(byCores, bySize)));
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    /**
+     * Acquire the latches of all shards, in ascending order. Used by callers
+     * that must keep the whole pool stable (see the latching note above).
+     * Must be paired with {@link #unlatchAllShards()}.
+     */
+    public void latchAllShards() {
+        for (Shard shard : shards) {
+            shard.latch.lock();
+        }
+    }
+
+    /** Release the latches taken by {@link #latchAllShards()}. */
+    public void unlatchAllShards() {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            shards[i].latch.unlock();
+        }
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -81,6 +434,18 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId,
+     * Permissions)}, but if it has to be read, read it into the given ring
+     * (see {@link BufferRing}).
+     *
+     * @param ring the ring of the scan, or null to read into the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
         // Permissions have READ_ONLY, READ_WRITE
@@ -99,17 +464,603 @@ public class BufferPool {
         // if page is present, return it
         // if page is not present, add it to buffer pool and return it
         // if there is insufficient space in buffer pool, evict a page and add new page
-        if (this.pages.containsKey(pid)) {
-            return this.pages.get(pid);
-        } else {
-            // if there is insufficient space in buffer pool, evict a page (not implemented yet)
-            if (this.pages.size() >= this.numPages) {
-                evictPage();
+        Shard shard = shardFor(pid);
+        while (true) {
+            Load load;
+            PageId overflow = null;
+            shard.latch.lock();
+            try {
+                Page page = shard.pages.get(pid);
+                if (page != null) {
+                    if (perm == Permissions.READ_WRITE && page instanceof FramedHeapPage) {
+                        page = unframe(shard, (FramedHeapPage) page);
+                    }
+                    BufferRing owner = shard.rings.get(pid);
+                    if (owner == null || owner != ring) {
+                        // used outside its ring: from now on the policy decides
+                        shard.rings.remove(pid);
+                        shard.policy.pageAccessed(pid);
+                    }
+                    return page;
+                }
+                load = shard.loading.get(pid);
+                if (load == null || load.claim()) {
+                    // nobody is reading it yet: read it here
+                    shard.loading.remove(pid);
+                    // if there is insufficient space in this shard, evict a page
+                    makeRoom(shard, ring);
+                    // add new page to buffer pool in database
+                    page = readPage(shard, pid, perm);
+                    overflow = admit(shard, page, ring);
+                    return page;
+                }
+            } finally {
+                shard.latch.unlock();
+                if (overflow != null) {
+                    releaseRingPage(overflow, ring);
+                }
+            }
+            // a read-ahead thread is reading the page; wait for it, then look again
+            load.await();
+        }
+    }
+
+    /**
+     * @return a ring for a scan of a table of filePages pages if the table
+     *   is larger than the ring threshold times the pool, or null if the scan
+     *   should use the shared pool
+     */
+    public BufferRing ringFor(int filePages) {
+        if (ringPages < 1 || filePages <= ringThreshold * numPages) {
+            return null;
+        }
+        return new BufferRing(ringPages);
+    }
+
+    /**
+     * Set the size, as a fraction of the pool, above which {@link #ringFor}
+     * gives scans a ring; defaults to {@link #RING_THRESHOLD_PROPERTY}, or 1
+     * (tables that do not fit in the pool). Double.POSITIVE_INFINITY turns
+     * rings off.
+     */
+    public void setRingThreshold(double fraction) {
+        this.ringThreshold = fraction;
+    }
+
+    /**
+     * Evict pages of a full shard until one more fits, taking pages of the
+     * given ring first. The caller holds the shard latch.
+     */
+    private void makeRoom(Shard shard, BufferRing ring) throws DbException {
+        while (shard.pages.size() >= shard.capacity) {
+            if (ring == null || !evictRingPage(shard, ring)) {
+                evictPage(shard);
+            }
+        }
+    }
+
+    /**
+     * Make a page resident in a shard with room for it, in the given ring if
+     * not null. The caller holds the shard latch.
+     *
+     * @return a page that no longer fits in the ring, for
+     *   {@link #releaseRingPage} once the latch is released, or null
+     */
+    private PageId admit(Shard shard, Page page, BufferRing ring) {
+        PageId pid = page.getId();
+        shard.pages.put(pid, page);
+        shard.policy.pageAdmitted(pid);
+        if (ring == null) {
+            return null;
+        }
+        shard.rings.put(pid, ring);
+        return ring.add(pid);
+    }
+
+    /**
+     * Evict the oldest page of the ring that lives in the given shard and
+     * can be evicted. The caller holds the shard latch.
+     *
+     * @return false if the ring has no such page
+     */
+    private boolean evictRingPage(Shard shard, BufferRing ring) throws DbException {
+        for (PageId pid : ring.pages()) {
+            if (shardFor(pid) == shard && shard.rings.get(pid) == ring && shard.evictable.test(pid)) {
+                ring.remove(pid);
+                shard.policy.pageRemoved(pid);
+                evict(shard, pid);
+                ring.recycled();
+                return true;
             }
-            // add new page to buffer pool in database
-            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            this.pages.put(pid, page);
-            return page;
+        }
+        return false;
+    }
+
+    /**
+     * Evict a page that dropped out of its ring, unless someone else has
+     * used it since or it can't be evicted now.
+     */
+    private void releaseRingPage(PageId pid, BufferRing ring) {
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            if (shard.rings.get(pid) == ring && shard.evictable.test(pid)) {
+                shard.policy.pageRemoved(pid);
+                evict(shard, pid);
+                ring.recycled();
+            } else if (shard.rings.get(pid) == ring) {
+                shard.rings.remove(pid);
+            }
+        } catch (DbException e) {
+            // it could not be written; the policy evicts it later
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /**
+     * @return the read-ahead engine that scans of this pool use
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @return the background writer of this pool; it runs only once started
+     */
+    public PageCleaner getPageCleaner() {
+        return pageCleaner;
+    }
+
+    /**
+     * @return the saver and reloader of this pool's hot pages; it saves
+     *   them periodically only once started
+     */
+    public WarmRestart getWarmRestart() {
+        return warmRestart;
+    }
+
+    /**
+     * @return the controller that resizes this pool from heap usage; it
+     *   runs only once started
+     */
+    public PoolSizeController getSizeController() {
+        return sizeController;
+    }
+
+    /**
+     * @return the maximum number of pages in this pool
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of pages resident in this pool
+     */
+    int residentPages() {
+        int n = 0;
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                n += shard.pages.size();
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * List the resident pages, hottest first. Each shard's policy ranks its
+     * own pages; the shard lists are merged by relative rank, so the first
+     * tenth of the result holds about the first tenth of every shard.
+     */
+    List<PageId> hotPages() {
+        List<List<PageId>> ranked = new ArrayList<>(shards.length);
+        int total = 0;
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                List<PageId> pids = shard.policy.residentByHotness();
+                pids.removeIf(pid -> !shard.pages.containsKey(pid));
+                ranked.add(pids);
+                total += pids.size();
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+        List<PageId> merged = new ArrayList<>(total);
+        int[] next = new int[ranked.size()];
+        while (merged.size() < total) {
+            // the shard whose next page has the lowest relative rank
+            int best = -1;
+            double bestRank = 2;
+            for (int i = 0; i < ranked.size(); i++) {
+                int size = ranked.get(i).size();
+                if (next[i] < size && (double) next[i] / size < bestRank) {
+                    best = i;
+                    bestRank = (double) next[i] / size;
+                }
+            }
+            merged.add(ranked.get(best).get(next[best]++));
+        }
+        return merged;
+    }
+
+    /**
+     * A page handed to the page cleaner, with the transaction that dirtied
+     * it and the image of the page as logged, which is what gets written.
+     */
+    static final class Cleaning {
+        final Page page;
+        final TransactionId dirtier;
+        final Page image;
+
+        Cleaning(Page page, TransactionId dirtier) {
+            this.page = page;
+            this.dirtier = dirtier;
+            this.image = new PageImage(page);
+        }
+    }
+
+    /**
+     * Take up to limit dirty pages of committed transactions for writing by
+     * the page cleaner. Each page's update record is appended to the log,
+     * the page is marked clean and its image is taken, all under the shard
+     * latch; the page keeps its committed entry until {@link #endCleaning},
+     * so that an abort of a transaction that dirties it meanwhile goes back
+     * to the committed state. The caller must force the log before writing
+     * the images.
+     *
+     * @return the pages to write; empty if there are none, or if the log
+     *   could not be appended to
+     */
+    List<Cleaning> beginCleaning(int limit) {
+        List<Cleaning> batch = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                Iterator<Map.Entry<PageId, TransactionId>> it = shard.committed.entrySet().iterator();
+                while (it.hasNext() && batch.size() < limit) {
+                    Map.Entry<PageId, TransactionId> e = it.next();
+                    if (shard.writing.contains(e.getKey())) {
+                        continue;
+                    }
+                    Page page = shard.pages.get(e.getKey());
+                    if (page == null || page.isDirty() == null) {
+                        // gone or already written
+                        it.remove();
+                        continue;
+                    }
+                    if (!e.getValue().equals(page.isDirty())) {
+                        // dirtied again by a newer transaction; if that one
+                        // aborts, the page goes back to this committer
+                        continue;
+                    }
+                    try {
+                        page.setLsn(Database.getLogFile().logWrite(e.getValue(), page.getBeforeImage(), page));
+                    } catch (IOException ex) {
+                        return batch;
+                    }
+                    page.markDirty(false, null);
+                    shard.writing.add(e.getKey());
+                    batch.add(new Cleaning(page, e.getValue()));
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+            if (batch.size() >= limit) {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Finish writing pages taken by {@link #beginCleaning}. A written page
+     * that is still clean leaves the committed pages; one whose write
+     * failed is marked dirty again, unless it was dirtied or dropped
+     * meanwhile, and stays a committed page either way.
+     */
+    void endCleaning(List<Cleaning> batch, boolean written) {
+        for (Cleaning c : batch) {
+            PageId pid = c.page.getId();
+            Shard shard = shardFor(pid);
+            shard.latch.lock();
+            try {
+                shard.writing.remove(pid);
+                Page page = shard.pages.get(pid);
+                if (written) {
+                    if (page == null || page.isDirty() == null) {
+                        shard.committed.remove(pid, c.dirtier);
+                    }
+                } else if (page == c.page && page.isDirty() == null) {
+                    page.markDirty(true, c.dirtier);
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of dirty pages of committed transactions that the
+     *   page cleaner has not taken yet
+     */
+    int committedDirtyPages() {
+        int n = 0;
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                n += shard.committed.size();
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * List the pages whose latest state may not be on disk: the dirty pages,
+     * and the pages the page cleaner or flushAllPages is writing. The
+     * caller holds all shard latches (see {@link #latchAllShards}).
+     *
+     * @return the LSN of each such page's update record that may not be on
+     *   disk yet, or 0 if the page is dirty but its changes are not logged
+     */
+    Map<PageId, Long> dirtyPages() {
+        Map<PageId, Long> dirty = new HashMap<>();
+        for (Shard shard : shards) {
+            for (Page page : shard.pages.values()) {
+                PageId pid = page.getId();
+                if (shard.writing.contains(pid)) {
+                    dirty.put(pid, page.getLsn());
+                } else if (page.isDirty() != null) {
+                    dirty.put(pid, 0L);
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Register a background read of pid, unless the page is resident or
+     * already being loaded. The caller must pass the returned load to
+     * {@link #runLoad} (on any thread).
+     *
+     * @return the registered load, or null if there is nothing to read
+     */
+    Load reserveLoad(PageId pid) {
+        return reserveLoad(pid, null);
+    }
+
+    /**
+     * Register a background read of pid into the given ring, as
+     * {@link #reserveLoad(PageId)}.
+     */
+    Load reserveLoad(PageId pid, BufferRing ring) {
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            if (shard.pages.containsKey(pid) || shard.loading.containsKey(pid)) {
+                return null;
+            }
+            Load load = new Load(pid, ring);
+            shard.loading.put(pid, load);
+            return load;
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /**
+     * Carry out a background read registered by {@link #reserveLoad}. The
+     * page is read without holding the shard latch and then installed like
+     * a page read by getPage, evicting if needed.
+     *
+     * @return the installed page, or null if a foreground reader claimed the
+     *   load, the page was discarded meanwhile, or it could not be read or
+     *   given room
+     */
+    Page runLoad(Load load) {
+        if (!load.start()) {
+            return null;
+        }
+        PageId pid = load.pid;
+        Shard shard = shardFor(pid);
+        int frame = -1;
+        try {
+            Page page = null;
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                if (shard.arena != null && framed(file) && shard.arena.frameSize() == pageSize) {
+                    shard.latch.lock();
+                    try {
+                        frame = shard.arena.allocate();
+                    } finally {
+                        shard.latch.unlock();
+                    }
+                }
+                page = frame != -1 ? ((HeapFile) file).readPage(pid, shard.arena.frame(frame), frame)
+                        : file.readPage(pid);
+            } catch (RuntimeException e) {
+                // read-ahead is advisory; the scan will report the error when it reads the page
+            }
+            return install(load, page, frame);
+        } finally {
+            load.done.countDown();
+        }
+    }
+
+    /**
+     * Carry out several background reads registered by {@link #reserveLoad}
+     * (on any thread). The pages of each file are read with a single
+     * {@link DbFile#readPages} call, so pages that are adjacent on disk come
+     * in with one read; then each is installed as by {@link #runLoad}. Pages
+     * that go into off-heap frames are read one by one.
+     *
+     * @return the number of pages installed
+     */
+    int runLoads(List<Load> loads) {
+        Map<Integer, List<Load>> byTable = new LinkedHashMap<>();
+        for (Load load : loads) {
+            byTable.computeIfAbsent(load.pid.getTableId(), k -> new ArrayList<>()).add(load);
+        }
+        int installed = 0;
+        for (List<Load> group : byTable.values()) {
+            DbFile file = null;
+            try {
+                file = Database.getCatalog().getDatabaseFile(group.get(0).pid.getTableId());
+            } catch (RuntimeException e) {
+                // the table is gone; runLoad drops the loads below
+            }
+            if (file == null || framed(file) && shards[0].arena != null) {
+                for (Load load : group) {
+                    if (runLoad(load) != null) {
+                        installed++;
+                    }
+                }
+                continue;
+            }
+            List<Load> started = new ArrayList<>();
+            List<PageId> pids = new ArrayList<>();
+            for (Load load : group) {
+                if (load.start()) {
+                    started.add(load);
+                    pids.add(load.pid);
+                }
+            }
+            int done = 0;
+            try {
+                List<Page> pages = null;
+                try {
+                    pages = pids.isEmpty() ? null : file.readPages(pids);
+                } catch (RuntimeException e) {
+                    // read-ahead is advisory; the scan will report the error when it reads the page
+                }
+                for (; done < started.size(); done++) {
+                    Load load = started.get(done);
+                    try {
+                        if (install(load, pages == null ? null : pages.get(done), -1) != null) {
+                            installed++;
+                        }
+                    } finally {
+                        load.done.countDown();
+                    }
+                }
+            } finally {
+                for (; done < started.size(); done++) {
+                    started.get(done).done.countDown();
+                }
+            }
+        }
+        return installed;
+    }
+
+    /**
+     * Install a page read by a background load, unless the load was
+     * discarded meanwhile; the caller signals the load. A frame the page was
+     * read into is released if the page is dropped.
+     *
+     * @return the installed page, or null if it was dropped
+     */
+    private Page install(Load load, Page page, int frame) {
+        PageId pid = load.pid;
+        Shard shard = shardFor(pid);
+        PageId overflow = null;
+        shard.latch.lock();
+        try {
+            // discardPage unregisters the load; then the page read is stale
+            if (page != null && shard.loading.get(pid) == load) {
+                shard.loading.remove(pid);
+                makeRoom(shard, load.ring);
+                overflow = admit(shard, page, load.ring);
+                frame = -1;
+                return page;
+            }
+            if (shard.loading.get(pid) == load) {
+                shard.loading.remove(pid);
+            }
+            return null;
+        } catch (DbException e) {
+            // nothing can be evicted for it; drop the page
+            shard.loading.remove(pid);
+            return null;
+        } finally {
+            if (frame != -1) {
+                shard.arena.release(frame);
+            }
+            shard.latch.unlock();
+            if (overflow != null) {
+                releaseRingPage(overflow, load.ring);
+            }
+        }
+    }
+
+    /**
+     * @return the page if it is resident, without counting it as an access
+     */
+    Page peekPage(PageId pid) {
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            return shard.pages.get(pid);
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if pages of file can be read into frames
+     */
+    private static boolean framed(DbFile file) {
+        return file instanceof HeapFile && ((HeapFile) file).framable();
+    }
+
+    /**
+     * Read a page that is not resident, into a frame of the shard if it is a
+     * HeapFile page wanted for reading only.
+     */
+    private Page readPage(Shard shard, PageId pid, Permissions perm) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (shard.arena != null && perm == Permissions.READ_ONLY && framed(file)
+                && shard.arena.frameSize() == pageSize) {
+            int frame = shard.arena.allocate();
+            if (frame != -1) {
+                try {
+                    return ((HeapFile) file).readPage(pid, shard.arena.frame(frame), frame);
+                } catch (RuntimeException e) {
+                    shard.arena.release(frame);
+                    throw e;
+                }
+            }
+        }
+        return file.readPage(pid);
+    }
+
+    /**
+     * Replace a framed page by an ordinary HeapPage that can be modified,
+     * and free its frame.
+     */
+    private HeapPage unframe(Shard shard, FramedHeapPage framed) throws DbException {
+        HeapPage page;
+        try {
+            page = new HeapPage(framed.getId(), framed.getPageData());
+        } catch (IOException e) {
+            throw new DbException("could not decode page " + framed.getId().getPageNumber()
+                    + ": " + e.getMessage());
+        }
+        shard.pages.put(page.getId(), page);
+        releaseFrame(shard, framed);
+        return page;
+    }
+
+    /** Free the frame of a page that is leaving the shard, if it has one. */
+    private void releaseFrame(Shard shard, Page page) {
+        if (page instanceof FramedHeapPage) {
+            // copy the page out first: callers may still hold the object
+            shard.arena.release(((FramedHeapPage) page).detach());
         }
     }
 
@@ -135,6 +1086,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -154,6 +1106,82 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        if (!commit) {
+            revertPages(tid);
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                for (Page page : shard.pages.values()) {
+                    if (!tid.equals(page.isDirty())) {
+                        continue;
+                    }
+                    // log the page against its old before-image first: the
+                    // COMMIT record comes later, and a crash before it must
+                    // still be able to undo the changes
+                    try {
+                        page.setLsn(Database.getLogFile().logWrite(tid, page.getBeforeImage(), page));
+                        // a later transaction that aborts goes back to this
+                        // state
+                        page.setBeforeImage();
+                    } catch (IOException e) {
+                        // keep the old before-image, which the records
+                        // logged when the page is written can undo with
+                    }
+                    // the page cleaner writes it
+                    shard.committed.put(page.getId(), tid);
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Revert the pages an aborting transaction dirtied (see revert). The
+     * LogFile calls this with the BufferPool latched before it rolls the
+     * transaction back, so that no page of the transaction can be written,
+     * and logged, after its ABORT record.
+     *
+     * @param tid the aborting transaction
+     */
+    void revertPages(TransactionId tid) {
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                for (Page page : new ArrayList<>(shard.pages.values())) {
+                    if (tid.equals(page.isDirty())) {
+                        revert(shard, page);
+                    }
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Undo the changes of an aborted transaction to a page it dirtied in
+     * the pool; the caller holds the shard latch. If the page holds changes
+     * of a committed transaction that are not on disk yet, it goes back to
+     * its before-image, dirty with that committer; otherwise it is
+     * discarded, as the disk has what it should hold once the LogFile has
+     * rolled back the changes that were logged.
+     */
+    private void revert(Shard shard, Page page) {
+        PageId pid = page.getId();
+        TransactionId committer = shard.committed.get(pid);
+        if (committer == null) {
+            discardPage(pid);
+            return;
+        }
+        Page restored = page.getBeforeImage();
+        // the log still ends with the page's last record, which deltas follow
+        restored.setLoggedImage(page.getLoggedImage());
+        restored.setLsn(page.getLsn());
+        restored.markDirty(true, committer);
+        shard.pages.put(pid, restored);
     }
 
     /**
@@ -201,10 +1229,110 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        // like the page cleaner: log, mark clean and take the images under
+        // the latches, then force the log once and write each file's
+        // images together
+        List<Flushing> batch = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                for (Page page : shard.pages.values()) {
+                    PageId pid = page.getId();
+                    TransactionId dirtier = page.isDirty();
+                    // a page the cleaner is writing is clean, but may not be on disk yet
+                    if (dirtier == null && !shard.writing.contains(pid)) {
+                        continue;
+                    }
+                    if (dirtier != null) {
+                        page.setLsn(Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page));
+                    }
+                    Flushing f = new Flushing(page, dirtier, shard.writing.add(pid));
+                    page.markDirty(false, null);
+                    batch.add(f);
+                }
+            } catch (IOException e) {
+                endFlushing(batch, false);
+                throw e;
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        boolean written = false;
+        try {
+            long lsn = 0;
+            for (Flushing f : batch) {
+                lsn = Math.max(lsn, f.image.getLsn());
+            }
+            Database.getLogFile().force(lsn);
+            Map<Integer, List<Page>> byTable = new LinkedHashMap<>();
+            for (Flushing f : batch) {
+                byTable.computeIfAbsent(f.image.getId().getTableId(), k -> new ArrayList<>()).add(f.image);
+            }
+            for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+                Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+            }
+            written = true;
+        } finally {
+            endFlushing(batch, written);
+        }
+    }
 
+    /**
+     * A page being written by flushAllPages, with the image of it that is
+     * written and what to restore if the write fails.
+     */
+    private static final class Flushing {
+        final Page page;
+        final TransactionId dirtier;
+        final Page image;
+        // false if the page cleaner was already writing it
+        final boolean ownsWriting;
+
+        Flushing(Page page, TransactionId dirtier, boolean ownsWriting) {
+            this.page = page;
+            this.dirtier = dirtier;
+            this.image = new PageImage(page);
+            this.ownsWriting = ownsWriting;
+        }
+    }
+
+    /**
+     * Finish the writes of flushAllPages, as {@link #endCleaning} does for
+     * the page cleaner: a written page that is still clean leaves the
+     * committed pages, and one whose write failed is marked dirty again,
+     * unless it was dirtied or dropped meanwhile.
+     */
+    private void endFlushing(List<Flushing> batch, boolean written) {
+        for (Flushing f : batch) {
+            PageId pid = f.page.getId();
+            Shard shard = shardFor(pid);
+            shard.latch.lock();
+            try {
+                if (f.ownsWriting) {
+                    shard.writing.remove(pid);
+                }
+                Page page = shard.pages.get(pid);
+                if (f.dirtier == null) {
+                    // clean already, the page cleaner was writing it
+                    continue;
+                }
+                if (written) {
+                    if (page == null || page.isDirty() == null) {
+                        shard.committed.remove(pid, f.dirtier);
+                    }
+                } else if (page == f.page && page.isDirty() == null) {
+                    page.markDirty(true, f.dirtier);
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -215,34 +1343,172 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            Page page = shard.pages.remove(pid);
+            if (page != null) {
+                shard.policy.pageRemoved(pid);
+                releaseFrame(shard, page);
+            }
+            shard.committed.remove(pid);
+            shard.rings.remove(pid);
+            // a pending background read would bring back the discarded content
+            Load load = shard.loading.remove(pid);
+            if (load != null) {
+                load.claim();
+            }
+        } finally {
+            shard.latch.unlock();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            flushPage(shard, pid);
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /** Flushes a page of the given shard; the caller holds the shard latch. */
+    private void flushPage(Shard shard, PageId pid) throws IOException {
+        Page page = shard.pages.get(pid);
+        if (page == null) {
+            return;
+        }
+        TransactionId dirtier = page.isDirty();
+        // a page the cleaner is writing is clean, but may not be on disk yet
+        if (dirtier != null || shard.writing.contains(pid)) {
+            // write ahead: the update record must be on disk before the page
+            if (dirtier != null) {
+                page.setLsn(Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page));
+            }
+            Database.getLogFile().force(page.getLsn());
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            page.markDirty(false, null);
+            shard.committed.remove(pid);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                List<PageId> dirtied = new ArrayList<>();
+                for (Page page : shard.pages.values()) {
+                    if (tid.equals(page.isDirty())) {
+                        dirtied.add(page.getId());
+                    }
+                }
+                for (PageId pid : dirtied) {
+                    flushPage(shard, pid);
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write the given pages to disk if they are dirty or being written by
+     * the page cleaner. The pages of each shard are logged, the log is
+     * forced once, and they are written under that shard's latch; the
+     * shards are visited one at a time.
+     */
+    void flushPages(Collection<PageId> pids) throws IOException {
+        Map<Shard, List<PageId>> byShard = new HashMap<>();
+        for (PageId pid : pids) {
+            byShard.computeIfAbsent(shardFor(pid), k -> new ArrayList<>()).add(pid);
+        }
+        for (Shard shard : shards) {
+            List<PageId> shardPids = byShard.get(shard);
+            if (shardPids == null) {
+                continue;
+            }
+            shard.latch.lock();
+            try {
+                List<Page> pages = new ArrayList<>();
+                long lsn = 0;
+                for (PageId pid : shardPids) {
+                    Page page = shard.pages.get(pid);
+                    if (page == null) {
+                        continue;
+                    }
+                    TransactionId dirtier = page.isDirty();
+                    if (dirtier == null && !shard.writing.contains(pid)) {
+                        continue;
+                    }
+                    if (dirtier != null) {
+                        page.setLsn(Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page));
+                    }
+                    lsn = Math.max(lsn, page.getLsn());
+                    pages.add(page);
+                }
+                if (pages.isEmpty()) {
+                    continue;
+                }
+                // write ahead: the update records must be on disk before the pages
+                Database.getLogFile().force(lsn);
+                for (Page page : pages) {
+                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                    page.markDirty(false, null);
+                    shard.committed.remove(page.getId());
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page is chosen by the shard's {@link ReplacementPolicy}; the caller
+     * holds the shard latch.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Shard shard) throws DbException {
         // some code goes here
         // not necessary for lab1
+        PageId victim = shard.policy.chooseVictim(shard.evictable);
+        if (victim == null) {
+            throw new DbException("no page in the buffer pool can be evicted");
+        }
+        evict(shard, victim);
+    }
+
+    /**
+     * Flush and drop a resident page that the shard's policy no longer
+     * tracks; the caller holds the shard latch. If the page can't be
+     * written it stays resident and the policy tracks it again.
+     */
+    private void evict(Shard shard, PageId victim) throws DbException {
+        try {
+            flushPage(shard, victim);
+        } catch (IOException e) {
+            // keep the page; it is still resident and still tracked
+            shard.policy.pageAdmitted(victim);
+            throw new DbException("could not flush page " + victim.getPageNumber()
+                    + " of table " + victim.getTableId() + " while evicting it: " + e.getMessage());
+        }
+        shard.committed.remove(victim);
+        shard.rings.remove(victim);
+        releaseFrame(shard, shard.pages.remove(victim));
     }
 
 }
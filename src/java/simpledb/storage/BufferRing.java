@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A BufferRing confines one large scan (or bulk write) to a few frames of
+ * the BufferPool, so that reading a table bigger than the pool does not
+ * push everything else out of it.
+ * <p>
+ * Pages the scan reads under the ring (see
+ * {@link BufferPool#getPage(simpledb.transaction.TransactionId, PageId,
+ * simpledb.common.Permissions, BufferRing)}) still go into the shared pool,
+ * where other transactions find them, but they belong to the ring until
+ * someone else uses them:
+ * <ul>
+ * <li>when the ring holds more than its capacity, its oldest page is
+ * evicted (written first if it is dirty);</li>
+ * <li>when a page read under the ring needs room in a full shard, a page of
+ * the ring in that shard is evicted before the replacement policy is asked
+ * for a victim;</li>
+ * <li>pages of the ring are not counted as accesses by the replacement
+ * policy, so a scan never makes its pages look hot.</li>
+ * </ul>
+ * A page that was already resident, or that another transaction reads while
+ * it is in the ring, is left to the replacement policy. Read-ahead for a
+ * ring scan reads its pages into the ring as well.
+ * <p>
+ * {@link BufferPool#ringFor} hands out rings to scans of tables larger than
+ * a fraction of the pool. Each scan owns its ring; the pool and read-ahead
+ * threads update it under its monitor.
+ */
+public class BufferRing {
+
+    private final int capacity;
+    // pages of the ring, oldest first; pages taken over by others may linger
+    private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+    private long recycled = 0;
+
+    /**
+     * @param capacity the number of pages the ring may hold
+     */
+    public BufferRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("a ring needs at least one page");
+        }
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add a page read under the ring.
+     *
+     * @return the oldest page, which no longer fits, or null
+     */
+    synchronized PageId add(PageId pid) {
+        pages.addLast(pid);
+        return pages.size() > capacity ? pages.pollFirst() : null;
+    }
+
+    synchronized void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    /** @return the pages of the ring, oldest first */
+    synchronized List<PageId> pages() {
+        return new ArrayList<>(pages);
+    }
+
+    synchronized void recycled() {
+        recycled++;
+    }
+
+    /** @return the number of pages of this ring evicted to make room for others of it */
+    public synchronized long getRecycled() {
+        return recycled;
+    }
+}
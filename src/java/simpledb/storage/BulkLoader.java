@@ -0,0 +1,376 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader converts a delimited text file into a heap file, in the same
+ * format as {@link HeapFileEncoder} (fixed-size HeapPages, written one after
+ * the other), but fast enough for large imports.
+ * <p>
+ * The input is read in chunks of whole lines. Each chunk is parsed on a
+ * pool of worker threads straight into the binary form of its records;
+ * nothing is decoded into Strings or Fields except string columns. The
+ * calling thread takes the parsed chunks back in input order, copies their
+ * records into page images, and writes the pages in large sequential
+ * writes. At most two chunks per worker are in flight, so memory use does
+ * not grow with the input.
+ * <p>
+ * Each line holds one tuple, its fields separated by the separator
+ * character. Blank lines and carriage returns are ignored, and the last
+ * line need not end with a newline. Int fields may be surrounded by
+ * blanks; string fields are trimmed and cut to {@link Type#STRING_LEN}
+ * characters. A line with the wrong number of fields or an int field that
+ * does not parse fails the load with an IOException.
+ */
+public class BulkLoader {
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    // pages per write
+    private static final int WRITE_PAGES = 256;
+
+    private final Type[] types;
+    private final char separator;
+    private final int pageSize;
+    private final int recordSize;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @param types the types of the fields of each tuple
+     * @param separator the character between the fields of a line
+     * @param pageSize the number of bytes per page in the output file
+     */
+    public BulkLoader(Type[] types, char separator, int pageSize) {
+        this.types = types.clone();
+        this.separator = separator;
+        this.pageSize = pageSize;
+        int size = 0;
+        for (Type t : types) {
+            size += t.getLen();
+        }
+        this.recordSize = size;
+        if (pageSize * 8 / (recordSize * 8 + 1) == 0) {
+            throw new IllegalArgumentException("a tuple of " + recordSize + " bytes does not fit on a page");
+        }
+    }
+
+    /**
+     * Set the number of threads that parse the input; defaults to the
+     * number of processors.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set the number of bytes of input handed to a worker at a time;
+     * defaults to 4 MB. Longer lines are handed over whole.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Convert inFile into the heap file outFile, replacing its contents.
+     *
+     * @return the number of tuples written
+     * @throws IOException if a file can't be read or written, or the input
+     *   is malformed
+     */
+    public long load(File inFile, File outFile) throws IOException {
+        try (InputStream in = new FileInputStream(inFile)) {
+            return load(in, outFile);
+        }
+    }
+
+    /**
+     * Convert the text read from in into the heap file outFile, replacing
+     * its contents. The stream is not closed.
+     *
+     * @return the number of tuples written
+     * @throws IOException if the input can't be read or the file written,
+     *   or the input is malformed
+     */
+    public long load(InputStream in, File outFile) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Records>> inFlight = new ArrayDeque<>();
+        try (PageWriter out = new PageWriter(outFile, pageSize, recordSize)) {
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                byte[] chunk = Arrays.copyOf(carry, carry.length + chunkSize);
+                int len = carry.length;
+                int n;
+                while (len < chunk.length && (n = in.read(chunk, len, chunk.length - len)) > 0) {
+                    len += n;
+                }
+                eof = len < chunk.length;
+                int end = len;
+                if (!eof) {
+                    // hand over whole lines only; the rest goes with the next chunk
+                    while (end > 0 && chunk[end - 1] != '\n') {
+                        end--;
+                    }
+                }
+                carry = Arrays.copyOfRange(chunk, end, len);
+                if (end == 0) {
+                    continue;
+                }
+                final int to = end;
+                inFlight.add(workers.submit(() -> parse(chunk, to)));
+                if (inFlight.size() >= 2 * threads) {
+                    out.add(take(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                out.add(take(inFlight.poll()));
+            }
+            out.finish();
+            return out.getRecords();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static Records take(Future<Records> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** The binary records of a chunk of lines. */
+    static final class Records {
+        final byte[] data;
+        final int count;
+
+        Records(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Parse the lines in buf[0, to) into records.
+     */
+    private Records parse(byte[] buf, int to) throws IOException {
+        // ints take at most twice their text, with the separator
+        byte[] out = new byte[Math.max(recordSize, to * 2)];
+        int pos = 0;
+        int count = 0;
+        int lineStart = 0;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buf[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            while (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                if (pos + recordSize > out.length) {
+                    out = Arrays.copyOf(out, Math.max(out.length * 2, pos + recordSize));
+                }
+                parseLine(buf, lineStart, lineEnd, out, pos);
+                pos += recordSize;
+                count++;
+            }
+            lineStart = next;
+        }
+        return new Records(out, count);
+    }
+
+    private void parseLine(byte[] buf, int from, int to, byte[] out, int pos) throws IOException {
+        int start = from;
+        for (int f = 0; f < types.length; f++) {
+            int end = start;
+            while (end < to && buf[end] != separator) {
+                end++;
+            }
+            if (end == to && f < types.length - 1 || end < to && f == types.length - 1) {
+                throw new IOException("expected " + types.length + " fields: "
+                        + new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+            if (types[f] == Type.INT_TYPE) {
+                putInt(out, pos, parseInt(buf, start, end));
+            } else {
+                while (start < end && (buf[start] & 0xff) <= ' ') {
+                    start++;
+                }
+                int last = end;
+                while (last > start && (buf[last - 1] & 0xff) <= ' ') {
+                    last--;
+                }
+                int len = Math.min(last - start, Type.STRING_LEN);
+                putInt(out, pos, len);
+                System.arraycopy(buf, start, out, pos + 4, len);
+            }
+            pos += types[f].getLen();
+            start = end + 1;
+        }
+    }
+
+    private static int parseInt(byte[] buf, int from, int to) throws IOException {
+        int i = from;
+        while (i < to && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        while (to > i && (buf[to - 1] == ' ' || buf[to - 1] == '\t')) {
+            to--;
+        }
+        boolean negative = i < to && buf[i] == '-';
+        if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+            i++;
+        }
+        if (i == to || to - i > 10) {
+            throw badInt(buf, from, to);
+        }
+        long v = 0;
+        for (; i < to; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) {
+                throw badInt(buf, from, to);
+            }
+            v = v * 10 + d;
+        }
+        v = negative ? -v : v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            throw badInt(buf, from, to);
+        }
+        return (int) v;
+    }
+
+    private static IOException badInt(byte[] buf, int from, int to) {
+        return new IOException("bad int field: " + new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /**
+     * Packs records into HeapPage images and writes them to a file, many
+     * pages per write. An input without records gives one empty page.
+     */
+    static final class PageWriter implements Closeable {
+        private final FileOutputStream os;
+        private final FileChannel channel;
+        private final int pageSize;
+        private final int recordSize;
+        private final int recordsPerPage;
+        private final int headerSize;
+        private final byte[] batch;
+        // full pages in batch
+        private int batchPages = 0;
+        // records on the page being filled
+        private int onPage = 0;
+        private long pages = 0;
+        private long records = 0;
+
+        PageWriter(File outFile, int pageSize, int recordSize) throws IOException {
+            this.os = new FileOutputStream(outFile);
+            this.channel = os.getChannel();
+            this.pageSize = pageSize;
+            this.recordSize = recordSize;
+            this.recordsPerPage = (pageSize * 8) / (recordSize * 8 + 1);
+            this.headerSize = (recordsPerPage + 7) / 8;
+            this.batch = new byte[WRITE_PAGES * pageSize];
+        }
+
+        /** Add the records of a chunk, after those added before. */
+        void add(Records r) throws IOException {
+            add(r.data, r.count);
+        }
+
+        /** Add count records of data, after those added before. */
+        void add(byte[] data, int count) throws IOException {
+            int done = 0;
+            while (done < count) {
+                int n = Math.min(count - done, recordsPerPage - onPage);
+                int page = batchPages * pageSize;
+                System.arraycopy(data, done * recordSize, batch,
+                        page + headerSize + onPage * recordSize, n * recordSize);
+                for (int i = onPage; i < onPage + n; i++) {
+                    batch[page + i / 8] |= (byte) (1 << (i % 8));
+                }
+                onPage += n;
+                done += n;
+                records += n;
+                if (onPage == recordsPerPage) {
+                    endPage();
+                }
+            }
+        }
+
+        private void endPage() throws IOException {
+            onPage = 0;
+            pages++;
+            if (++batchPages == WRITE_PAGES) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(batch, 0, batchPages * pageSize);
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+            Arrays.fill(batch, 0, batchPages * pageSize, (byte) 0);
+            batchPages = 0;
+        }
+
+        /** Write out the last, partly filled, page. */
+        void finish() throws IOException {
+            if (onPage > 0 || pages == 0) {
+                endPage();
+            }
+            flush();
+        }
+
+        /** @return the number of records added */
+        long getRecords() {
+            return records;
+        }
+
+        public void close() throws IOException {
+            os.close();
+        }
+    }
+}
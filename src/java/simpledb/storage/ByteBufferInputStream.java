@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream over a ByteBuffer, so that page images held outside the
+ * Java heap can be decoded with the same DataInputStream based parsers
+ * ({@link Type#parse}) as byte arrays.
+ * <p>
+ * The stream reads a private duplicate of the buffer; its position can be
+ * moved with {@link #seek} to decode individual slots.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    /**
+     * @param buf the buffer to read; its content from index 0 to its limit
+     *            is visible, starting at its current position
+     */
+    ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf.duplicate();
+    }
+
+    /** Continue reading at the given index of the buffer. */
+    void seek(int position) {
+        buf.position(position);
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buf.remaining());
+        buf.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + k);
+        return k;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+}
@@ -0,0 +1,345 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * ClockProPolicy implements the CLOCK-Pro replacement algorithm of Jiang,
+ * Chen and Zhang. Resident pages are either hot or cold and sit on a single
+ * clock; new pages start cold and "in test". A cold page that is referenced
+ * again during its test period is promoted to hot, while hot pages that go a
+ * full revolution of the hot hand without a reference are demoted to cold.
+ * Only cold pages are ever evicted, so a large scan that touches each page
+ * once only cycles through the cold frames and leaves the hot set (B+ tree
+ * internal pages, small dimension tables, ...) alone.
+ * <p>
+ * When a cold page in test is evicted its id is remembered as a
+ * non-resident test page. If it is read back before its test period ends,
+ * the cold area was too small and the cold target grows; when remembered
+ * pages expire unused, the cold target shrinks again.
+ * <p>
+ * Resident frames live in a fixed slot array that the hot hand walks; cold
+ * frames are additionally linked into a ring of their own so the cold hand
+ * only visits pages it may evict. Frames are reused as pages come and go, so
+ * a hit only sets a reference bit.
+ */
+public class ClockProPolicy implements ReplacementPolicy {
+
+    private static final class Frame {
+        PageId pid;
+        boolean hot;
+        boolean test;
+        boolean ref;
+        final int slot;
+
+        Frame(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    private int capacity;
+    private int coldTarget;
+
+    private Frame[] slots;
+    private int[] freeSlots;
+    private int freeTop;
+    private int handHot = 0;
+
+    // ring of cold resident frames, linked by slot number; handCold is -1
+    // while the ring is empty
+    private int[] coldNext;
+    private int[] coldPrev;
+    private int handCold = -1;
+
+    private int count = 0;
+    private int hotCount = 0;
+
+    private final Map<PageId, Frame> resident;
+    private final LinkedHashMap<PageId, Boolean> nonResident;
+
+    /**
+     * Creates a CLOCK-Pro policy for a pool of the given size.
+     *
+     * @param capacity the number of pages in the pool
+     */
+    public ClockProPolicy(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.coldTarget = clampColdTarget(this.capacity / 10);
+        this.slots = new Frame[this.capacity];
+        this.freeSlots = new int[this.capacity];
+        this.coldNext = new int[this.capacity];
+        this.coldPrev = new int[this.capacity];
+        for (int i = 0; i < this.capacity; i++) {
+            slots[i] = new Frame(i);
+            freeSlots[i] = this.capacity - 1 - i;
+        }
+        this.freeTop = this.capacity;
+        this.resident = new HashMap<>(this.capacity * 2);
+        this.nonResident = new LinkedHashMap<PageId, Boolean>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                if (size() > ClockProPolicy.this.capacity) {
+                    // test period ran out without a re-reference
+                    coldTarget = clampColdTarget(coldTarget - 1);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void pageAdmitted(PageId pid) {
+        if (resident.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (freeTop == 0) {
+            grow(slots.length * 2);
+        }
+        Frame f = slots[freeSlots[--freeTop]];
+        f.pid = pid;
+        f.ref = false;
+        resident.put(pid, f);
+        count++;
+
+        if (nonResident.remove(pid) != null) {
+            // re-read during its test period: the cold area is too small
+            coldTarget = clampColdTarget(coldTarget + 1);
+            f.hot = true;
+            f.test = false;
+            hotCount++;
+            balanceHot();
+        } else {
+            f.hot = false;
+            f.test = true;
+            linkCold(f);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame f = resident.get(pid);
+        if (f != null) {
+            f.ref = true;
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        Frame f = resident.remove(pid);
+        if (f != null) {
+            release(f);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        if (count == 0) {
+            return null;
+        }
+        // every cold page loses its reference bit (or is promoted) the
+        // first time the hand passes, so a few revolutions always suffice
+        int budget = 3 * count + 1;
+        while (budget-- > 0) {
+            if (handCold == -1) {
+                runHandHot();
+                if (handCold == -1) {
+                    break;
+                }
+            }
+            Frame f = slots[handCold];
+            handCold = coldNext[handCold];
+            if (f.ref) {
+                f.ref = false;
+                if (f.test) {
+                    unlinkCold(f);
+                    f.hot = true;
+                    f.test = false;
+                    hotCount++;
+                    balanceHot();
+                } else {
+                    f.test = true;
+                }
+                continue;
+            }
+            if (!evictable.test(f.pid)) {
+                continue;
+            }
+            return evict(f);
+        }
+
+        // nothing cold can go; fall back to any evictable page
+        for (Frame f : slots) {
+            if (f.pid != null && evictable.test(f.pid)) {
+                return evict(f);
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void setCapacity(int capacity) {
+        int old = this.capacity;
+        this.capacity = Math.max(capacity, 1);
+        // keep the cold area the same share of the pool
+        coldTarget = clampColdTarget((int) ((long) coldTarget * this.capacity / old));
+        if (this.capacity > slots.length) {
+            grow(this.capacity);
+        }
+        Iterator<PageId> it = nonResident.keySet().iterator();
+        while (nonResident.size() > this.capacity && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        balanceHot();
+    }
+
+    public List<PageId> residentByHotness() {
+        List<Frame> frames = new ArrayList<>(count);
+        for (Frame f : slots) {
+            if (f.pid != null) {
+                frames.add(f);
+            }
+        }
+        frames.sort(Comparator.comparingInt(ClockProPolicy::rank));
+        List<PageId> pids = new ArrayList<>(frames.size());
+        for (Frame f : frames) {
+            pids.add(f.pid);
+        }
+        return pids;
+    }
+
+    /**
+     * @return 0 for the hottest pages: hot and referenced, then hot, cold
+     *   and referenced, cold in test, and other cold pages
+     */
+    private static int rank(Frame f) {
+        if (f.hot) {
+            return f.ref ? 0 : 1;
+        }
+        if (f.ref) {
+            return 2;
+        }
+        return f.test ? 3 : 4;
+    }
+
+    private PageId evict(Frame f) {
+        PageId pid = f.pid;
+        boolean remember = !f.hot && f.test;
+        resident.remove(pid);
+        release(f);
+        if (remember) {
+            nonResident.put(pid, Boolean.TRUE);
+        }
+        return pid;
+    }
+
+    /** Demote hot pages until the hot area fits in capacity - coldTarget. */
+    private void balanceHot() {
+        while (hotCount > 0 && hotCount > capacity - coldTarget) {
+            runHandHot();
+        }
+    }
+
+    /** Advance the hot hand until one hot page has been demoted. */
+    private void runHandHot() {
+        int budget = 2 * slots.length + 1;
+        while (hotCount > 0 && budget-- > 0) {
+            Frame f = slots[handHot];
+            handHot = (handHot + 1) % slots.length;
+            if (f.pid == null) {
+                continue;
+            }
+            if (f.hot) {
+                if (f.ref) {
+                    f.ref = false;
+                } else {
+                    f.hot = false;
+                    f.test = false;
+                    hotCount--;
+                    linkCold(f);
+                    return;
+                }
+            } else if (f.test && !f.ref) {
+                // the hot hand ends the test period of cold pages it passes
+                f.test = false;
+            }
+        }
+    }
+
+    private void release(Frame f) {
+        if (f.hot) {
+            hotCount--;
+        } else {
+            unlinkCold(f);
+        }
+        f.pid = null;
+        f.hot = false;
+        f.test = false;
+        f.ref = false;
+        count--;
+        freeSlots[freeTop++] = f.slot;
+    }
+
+    /** Put f on the cold ring just behind the cold hand. */
+    private void linkCold(Frame f) {
+        int i = f.slot;
+        if (handCold == -1) {
+            coldNext[i] = i;
+            coldPrev[i] = i;
+            handCold = i;
+            return;
+        }
+        int last = coldPrev[handCold];
+        coldNext[last] = i;
+        coldPrev[i] = last;
+        coldNext[i] = handCold;
+        coldPrev[handCold] = i;
+    }
+
+    private void unlinkCold(Frame f) {
+        int i = f.slot;
+        if (coldNext[i] == i) {
+            handCold = -1;
+            return;
+        }
+        coldNext[coldPrev[i]] = coldNext[i];
+        coldPrev[coldNext[i]] = coldPrev[i];
+        if (handCold == i) {
+            handCold = coldNext[i];
+        }
+    }
+
+    /**
+     * More pages than there are slots are resident, or the pool grew; make
+     * room for size pages.
+     */
+    private void grow(int size) {
+        int old = slots.length;
+        Frame[] grownSlots = new Frame[size];
+        System.arraycopy(slots, 0, grownSlots, 0, old);
+        int[] grownFree = new int[size];
+        System.arraycopy(freeSlots, 0, grownFree, 0, freeTop);
+        for (int i = size - 1; i >= old; i--) {
+            grownSlots[i] = new Frame(i);
+            grownFree[freeTop++] = i;
+        }
+        slots = grownSlots;
+        freeSlots = grownFree;
+        coldNext = Arrays.copyOf(coldNext, size);
+        coldPrev = Arrays.copyOf(coldPrev, size);
+    }
+
+    private int clampColdTarget(int target) {
+        return Math.max(1, Math.min(target, Math.max(1, capacity - 1)));
+    }
+}
@@ -0,0 +1,495 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnarFile is a DbFile that stores a table column by column, so that a
+ * scan that needs a few columns of a wide table reads only their pages.
+ * <p>
+ * Rows are grouped in segments of a fixed number of rows (as many ints as
+ * fit on a page). A segment is a run of pages: a header page, then for
+ * every column the chain of pages holding that column's values for the
+ * segment, one after another, each value in the width of its type. The
+ * header page holds the number of rows in the segment, the minimum and
+ * maximum of every int column, and a bitmap of deleted rows. Pages are
+ * identified by HeapPageIds and cached in the BufferPool as
+ * {@link ColumnarPage}s.
+ * <p>
+ * Rows are appended to the last segment; a new segment is written out when
+ * it is full. A deleted row is only marked in the bitmap. The RecordId of a
+ * row is the header page of its segment and its index in the segment.
+ * <p>
+ * {@link #iterator(TransactionId)} returns whole tuples, so the usual
+ * operators run on a ColumnarFile unchanged. {@link #iterator(TransactionId,
+ * int[], Predicate)} reads only the given columns, leaving the others null
+ * in the tuples it returns, and skips the segments whose minimum and
+ * maximum show that no row can match a predicate; SeqScan uses it when
+ * told which columns are needed (see SeqScan#setColumns).
+ * <p>
+ * The layout depends on the page size, which must not change while the
+ * file is in use.
+ */
+public class ColumnarFile implements DbFile {
+
+    // row count and rows per segment
+    private static final int HEADER_FIXED_SIZE = 8;
+    // min and max of a column
+    private static final int MIN_MAX_SIZE = 8;
+
+    private final File file;
+    private final TupleDesc td;
+    private volatile Layout layout;
+
+    /** Where things are in a segment, for one page size. */
+    static final class Layout {
+        final int pageSize;
+        final int rowsPerSegment;
+        final int pagesPerSegment;
+        // per column
+        final int[] width;
+        final int[] valuesPerPage;
+        final int[] firstPage;
+        final int bitmapOffset;
+
+        Layout(TupleDesc td, int pageSize) {
+            int n = td.numFields();
+            this.pageSize = pageSize;
+            this.bitmapOffset = HEADER_FIXED_SIZE + n * MIN_MAX_SIZE;
+            int rows = pageSize / Type.INT_TYPE.getLen();
+            rows = Math.min(rows, (pageSize - bitmapOffset) * 8);
+            if (rows <= 0) {
+                throw new IllegalArgumentException("too many columns for a page of " + pageSize + " bytes");
+            }
+            this.rowsPerSegment = rows;
+            this.width = new int[n];
+            this.valuesPerPage = new int[n];
+            this.firstPage = new int[n];
+            int page = 1;
+            for (int c = 0; c < n; c++) {
+                width[c] = td.getFieldType(c).getLen();
+                valuesPerPage[c] = pageSize / width[c];
+                firstPage[c] = page;
+                page += (rows + valuesPerPage[c] - 1) / valuesPerPage[c];
+            }
+            this.pagesPerSegment = page;
+        }
+
+        /** @return the page of the segment holding row of column c */
+        int pageOf(int c, int row) {
+            return firstPage[c] + row / valuesPerPage[c];
+        }
+
+        /** @return the offset of row of column c in its page */
+        int offsetOf(int c, int row) {
+            return (row % valuesPerPage[c]) * width[c];
+        }
+    }
+
+    /**
+     * @param f the file that stores the table
+     * @param td the TupleDesc of the table
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+    }
+
+    Layout layout() {
+        Layout l = layout;
+        if (l == null || l.pageSize != BufferPool.getPageSize()) {
+            layout = l = new Layout(td, BufferPool.getPageSize());
+        }
+        return l;
+    }
+
+    /**
+     * @return the file backing this ColumnarFile on disk
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in a segment
+     */
+    public int getRowsPerSegment() {
+        return layout().rowsPerSegment;
+    }
+
+    /**
+     * @return the number of pages in a segment, its header page included
+     */
+    public int getPagesPerSegment() {
+        return layout().pagesPerSegment;
+    }
+
+    /**
+     * @return the number of pages of the file
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the number of segments of the file
+     */
+    public int numSegments() {
+        return numPages() / layout().pagesPerSegment;
+    }
+
+    private HeapPageId headerId(int segment) {
+        return new HeapPageId(getId(), segment * layout().pagesPerSegment);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId()) {
+            throw new IllegalArgumentException();
+        }
+        if (pid.getPageNumber() >= numPages()) {
+            throw new NoSuchElementException();
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            Database.getFileHandleManager().read(file,
+                    (long) pid.getPageNumber() * BufferPool.getPageSize(), data, 0, data.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new ColumnarPage((HeapPageId) pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        int numPages = numPages();
+        long[] positions = new long[pids.size()];
+        byte[][] data = new byte[pids.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            PageId pid = pids.get(i);
+            if (pid.getTableId() != getId()) {
+                throw new IllegalArgumentException();
+            }
+            if (pid.getPageNumber() >= numPages) {
+                throw new NoSuchElementException();
+            }
+            positions[i] = (long) pid.getPageNumber() * BufferPool.getPageSize();
+            data[i] = new byte[BufferPool.getPageSize()];
+        }
+        try {
+            Database.getFileHandleManager().readCoalesced(file, positions, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        List<Page> pages = new ArrayList<>(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            pages.add(new ColumnarPage((HeapPageId) pids.get(i), data[i]));
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        Database.getFileHandleManager().write(file,
+                (long) page.getId().getPageNumber() * BufferPool.getPageSize(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        long[] positions = new long[pages.size()];
+        byte[][] data = new byte[pages.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            Page page = pages.get(i);
+            positions[i] = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+            data[i] = page.getPageData();
+        }
+        Database.getFileHandleManager().writeCoalesced(file, positions, data);
+    }
+
+    /**
+     * Append an empty segment to the file, unless another insert already
+     * did.
+     *
+     * @param segment the number the new segment gets
+     */
+    private synchronized void appendSegment(int segment) throws IOException {
+        if (numSegments() > segment) {
+            return;
+        }
+        Layout l = layout();
+        List<Page> pages = new ArrayList<>(l.pagesPerSegment);
+        int first = segment * l.pagesPerSegment;
+        ColumnarPage header = new ColumnarPage(new HeapPageId(getId(), first), new byte[l.pageSize]);
+        header.putInt(4, l.rowsPerSegment);
+        pages.add(header);
+        for (int i = 1; i < l.pagesPerSegment; i++) {
+            pages.add(new ColumnarPage(new HeapPageId(getId(), first + i), new byte[l.pageSize]));
+        }
+        writePages(pages);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the TupleDesc of the table");
+        }
+        Layout l = layout();
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            int segment = numSegments() - 1;
+            ColumnarPage header = null;
+            if (segment >= 0) {
+                header = (ColumnarPage) bp.getPage(tid, headerId(segment), Permissions.READ_WRITE);
+            }
+            if (header == null || header.getInt(0) >= l.rowsPerSegment) {
+                appendSegment(segment + 1);
+                continue;
+            }
+            int row = header.getInt(0);
+            List<Page> modified = new ArrayList<>();
+            modified.add(header);
+            int first = segment * l.pagesPerSegment;
+            for (int c = 0; c < td.numFields(); c++) {
+                ColumnarPage page = (ColumnarPage) bp.getPage(tid,
+                        new HeapPageId(getId(), first + l.pageOf(c, row)), Permissions.READ_WRITE);
+                Field f = t.getField(c);
+                page.putField(td.getFieldType(c), f, l.offsetOf(c, row));
+                if (td.getFieldType(c) == Type.INT_TYPE) {
+                    int v = ((IntField) f).getValue();
+                    int off = HEADER_FIXED_SIZE + c * MIN_MAX_SIZE;
+                    if (row == 0 || v < header.getInt(off)) {
+                        header.putInt(off, v);
+                    }
+                    if (row == 0 || v > header.getInt(off + 4)) {
+                        header.putInt(off + 4, v);
+                    }
+                }
+                if (!modified.contains(page)) {
+                    modified.add(page);
+                }
+            }
+            header.setBit(l.bitmapOffset, row, false);
+            header.putInt(0, row + 1);
+            t.setRecordId(new RecordId(header.getId(), row));
+            return modified;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Layout l = layout();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().getPageNumber() % l.pagesPerSegment != 0) {
+            throw new DbException("tuple is not in this table");
+        }
+        ColumnarPage header = (ColumnarPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_WRITE);
+        int row = rid.getTupleNumber();
+        if (row < 0 || row >= header.getInt(0) || header.getBit(l.bitmapOffset, row)) {
+            throw new DbException("row " + row + " is not in the table");
+        }
+        header.setBit(l.bitmapOffset, row, true);
+        t.setRecordId(null);
+        List<Page> modified = new ArrayList<>();
+        modified.add(header);
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator that reads only some columns of the table, and
+     * skips segments that cannot hold a row matching a predicate. The
+     * tuples have the table's TupleDesc, with null in the columns that were
+     * not read; rows in the segments that are read are not filtered.
+     *
+     * @param tid the transaction reading
+     * @param columns the columns to read, or null for all of them
+     * @param filter a predicate on an int column used to skip segments, or
+     *   null to read every segment
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate filter) {
+        if (columns == null) {
+            columns = new int[td.numFields()];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = c;
+            }
+        }
+        return new ColumnarFileIterator(this, tid, columns.clone(), filter);
+    }
+
+    /**
+     * @return false if the minimum and maximum in header show that no row
+     *   of the segment matches filter
+     */
+    boolean mayMatch(ColumnarPage header, Predicate filter) {
+        if (filter == null || td.getFieldType(filter.getField()) != Type.INT_TYPE
+                || !(filter.getOperand() instanceof IntField)) {
+            return true;
+        }
+        int off = HEADER_FIXED_SIZE + filter.getField() * MIN_MAX_SIZE;
+        int min = header.getInt(off);
+        int max = header.getInt(off + 4);
+        int v = ((IntField) filter.getOperand()).getValue();
+        switch (filter.getOp()) {
+            case EQUALS:
+                return min <= v && v <= max;
+            case GREATER_THAN:
+                return max > v;
+            case GREATER_THAN_OR_EQ:
+                return max >= v;
+            case LESS_THAN:
+                return min < v;
+            case LESS_THAN_OR_EQ:
+                return min <= v;
+            case NOT_EQUALS:
+                return min != v || max != v;
+            default:
+                return true;
+        }
+    }
+}
+
+/**
+ * Helper class that implements the DbFileIterator of a ColumnarFile
+ */
+class ColumnarFileIterator extends AbstractDbFileIterator {
+
+    private final ColumnarFile f;
+    private final TransactionId tid;
+    private final int[] columns;
+    private final Predicate filter;
+
+    private ColumnarFile.Layout layout;
+    private int segments;
+    private int segment;
+    private ColumnarPage header;
+    private int rows;
+    private int row;
+    // the page of each requested column that is in use, and its number
+    private ColumnarPage[] pages;
+    private int[] pageNos;
+
+    ColumnarFileIterator(ColumnarFile f, TransactionId tid, int[] columns, Predicate filter) {
+        this.f = f;
+        this.tid = tid;
+        this.columns = columns;
+        this.filter = filter;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        layout = f.layout();
+        segments = f.numSegments();
+        segment = -1;
+        header = null;
+        pages = new ColumnarPage[columns.length];
+        pageNos = new int[columns.length];
+    }
+
+    /**
+     * Move to the next segment that may have matching rows.
+     *
+     * @return false if there is none
+     */
+    private boolean nextSegment() throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        while (++segment < segments) {
+            int first = segment * layout.pagesPerSegment;
+            header = (ColumnarPage) bp.getPage(tid, new HeapPageId(f.getId(), first), Permissions.READ_ONLY);
+            rows = header.getInt(0);
+            row = 0;
+            if (rows == 0 || !f.mayMatch(header, filter)) {
+                continue;
+            }
+            Arrays.fill(pageNos, -1);
+            ReadAhead readAhead = bp.getReadAhead();
+            if (readAhead.isEnabled()) {
+                // the chains of the columns read, for this segment's rows
+                List<PageId> chains = new ArrayList<>();
+                for (int c : columns) {
+                    for (int p = layout.pageOf(c, 0); p <= layout.pageOf(c, rows - 1); p++) {
+                        chains.add(new HeapPageId(f.getId(), first + p));
+                    }
+                }
+                readAhead.prefetch(chains);
+            }
+            return true;
+        }
+        header = null;
+        return false;
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (pages == null) {
+            return null;
+        }
+        while (true) {
+            if (header == null || row >= rows) {
+                if (!nextSegment()) {
+                    return null;
+                }
+            }
+            if (header.getBit(layout.bitmapOffset, row)) {
+                row++;
+                continue;
+            }
+            Tuple t = new Tuple(f.getTupleDesc());
+            int first = segment * layout.pagesPerSegment;
+            for (int i = 0; i < columns.length; i++) {
+                int c = columns[i];
+                int pageNo = first + layout.pageOf(c, row);
+                if (pageNos[i] != pageNo) {
+                    pages[i] = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(f.getId(), pageNo), Permissions.READ_ONLY);
+                    pageNos[i] = pageNo;
+                }
+                Type type = f.getTupleDesc().getFieldType(c);
+                t.setField(c, type.parse(pages[i].bytes(), layout.offsetOf(c, row)));
+            }
+            t.setRecordId(new RecordId(header.getId(), row));
+            row++;
+            return t;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        header = null;
+        pages = null;
+        pageNos = null;
+    }
+}
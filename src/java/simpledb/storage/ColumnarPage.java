@@ -0,0 +1,133 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * A page of a {@link ColumnarFile}: either the header page of a segment or a
+ * page of one column's values. The page itself is only bytes; ColumnarFile
+ * knows from the page number what they hold, and reads and writes them in
+ * place.
+ * <p>
+ * As with HeapPage, the before-image shares the bytes until the page is
+ * next written, which copies them first.
+ */
+public class ColumnarPage implements Page {
+
+    private final HeapPageId pid;
+    private byte[] data;
+    // data is also the before-image or the caller's array
+    private boolean shared;
+    private byte[] oldData;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+    private volatile long lsn = 0;
+
+    /**
+     * Create a page from its bytes; the caller must not modify data
+     * afterwards.
+     */
+    public ColumnarPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        if (data.length != BufferPool.getPageSize()) {
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        }
+        this.data = data;
+        this.shared = true;
+        this.oldData = data;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the bytes of the page, to be read only; valid until the page
+     *   is next written
+     */
+    synchronized byte[] bytes() {
+        return data;
+    }
+
+    /**
+     * @return the bytes of the page, to be written in place
+     */
+    synchronized byte[] writableBytes() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+        return data;
+    }
+
+    int getInt(int off) {
+        byte[] b = bytes();
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    synchronized void putInt(int off, int v) {
+        byte[] b = writableBytes();
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /**
+     * Write f, a field of the given type, at offset off.
+     */
+    synchronized void putField(Type type, Field f, int off) {
+        type.write(f, writableBytes(), off);
+    }
+
+    /**
+     * Set or clear bit i of the bitmap that starts at offset off.
+     */
+    synchronized void setBit(int off, int i, boolean value) {
+        byte[] b = writableBytes();
+        if (value) {
+            b[off + i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            b[off + i / 8] &= (byte) ~(1 << (i % 8));
+        }
+    }
+
+    boolean getBit(int off, int i) {
+        return (bytes()[off + i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.dirtier = tid;
+        this.dirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        TransactionId tid = this.dirtier;
+        return this.dirty ? tid : null;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    public synchronized ColumnarPage getBeforeImage() {
+        return new ColumnarPage(pid, oldData);
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = data;
+        shared = true;
+    }
+}
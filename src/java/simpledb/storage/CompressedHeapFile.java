@@ -0,0 +1,464 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A HeapFile whose pages are kept compressed on disk (see {@link PageCodec})
+ * and decompressed when they are read into the BufferPool. Pages in the
+ * BufferPool, and everything above it, are the same as for a HeapFile.
+ * <p>
+ * Compressed pages have different sizes, so they are stored as extents:
+ * an extent table in a side file ({@code <file>.extents}) maps every page
+ * number to the offset, length and capacity of its extent in the data
+ * file; an extent of length 0 is an empty page.
+ * <p>
+ * The table holds one entry of two versions per page, and each version
+ * carries a sequence number and a checksum. An entry is updated by writing
+ * the version not in use, with the next sequence number, and the valid
+ * version with the higher number is the one in use, so a write torn by a
+ * crash leaves the entry as it was. There is no page count to keep in
+ * step with the entries: a version also tells whether the page exists,
+ * the file has pages up to the last one that does, and truncate writes
+ * versions for the pages it cuts that say they do not.
+ * <p>
+ * A page is never written over its old extent, which holds its only
+ * copy: every write goes to a free extent, or a new one at the end of the
+ * data file. The data file is forced before the table entries that point
+ * to the new extents are written, and the table is forced before the old
+ * extents are reused, so a crash leaves every page either as it was or as
+ * it was written, never torn. The free extents are the gaps between the
+ * extents in the table, found again when the table is loaded. Extents get
+ * a quarter more room than the page needs, so that a freed extent also
+ * fits a page that grew a little. Pages are never read through memory
+ * mappings.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    // offset, length, capacity, sequence number, exists, checksum, padding;
+    // versions are aligned to their size, so none spans a disk sector
+    private static final int VERSION_SIZE = 32;
+    private static final int CHECKSUMMED_SIZE = 24;
+    private static final int ENTRY_SIZE = 2 * VERSION_SIZE;
+
+    private final File extentFile;
+
+    // all guarded by this
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    // sequence number of the version of each entry in use, 0 if none
+    private int[] versions = new int[0];
+    private int pages = 0;
+    // first byte past the last extent
+    private long end = 0;
+    // offset to length of the unused extents below end
+    private TreeMap<Long, Long> free = new TreeMap<>();
+    private boolean loaded = false;
+
+    /**
+     * Constructs a compressed heap file of fixed-format pages.
+     *
+     * @param f the file that holds the extents of the pages
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a compressed heap file whose pages have the given format.
+     *
+     * @param f the file that holds the extents of the pages
+     */
+    public CompressedHeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, new int[0]);
+    }
+
+    /**
+     * Constructs a compressed heap file whose pages have the given format,
+     * with dictionary-encoded string columns (see
+     * {@link HeapFile#HeapFile(File, TupleDesc, PageFormat, int[])}).
+     *
+     * @param f the file that holds the extents of the pages
+     */
+    public CompressedHeapFile(File f, TupleDesc td, PageFormat format, int[] dictionaryColumns) {
+        super(f, td, format, dictionaryColumns);
+        this.extentFile = new File(f.getPath() + ".extents");
+    }
+
+    /** @return the side file holding the extent table */
+    public File getExtentFile() {
+        return extentFile;
+    }
+
+    /**
+     * Does nothing: the pages of a compressed file are always read through
+     * the extent table.
+     */
+    @Override
+    public void setMemoryMapped(boolean on) {
+    }
+
+    @Override
+    public synchronized int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return pages;
+    }
+
+    /**
+     * @return the number of bytes the pages take on disk, without unused
+     *   extents and extent slack
+     */
+    public synchronized long getCompressedBytes() throws IOException {
+        load();
+        long total = 0;
+        for (int i = 0; i < pages; i++) {
+            total += lengths[i];
+        }
+        return total;
+    }
+
+    @Override
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId()) {
+            throw new IllegalArgumentException();
+        }
+        if (pid.getPageNumber() >= numPages()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return newPage((HeapPageId) pid, readPageData(pid.getPageNumber()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public FramedHeapPage readPage(PageId pid, ByteBuffer frameData, int frame) {
+        if (pid.getTableId() != getId()) {
+            throw new IllegalArgumentException();
+        }
+        if (!framable()) {
+            throw new UnsupportedOperationException("only plain fixed-format pages can be framed");
+        }
+        if (pid.getPageNumber() >= numPages()) {
+            throw new NoSuchElementException();
+        }
+        byte[] data;
+        try {
+            data = readPageData(pid.getPageNumber());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        ByteBuffer dst = frameData.duplicate();
+        dst.clear();
+        dst.put(data, 0, Math.min(data.length, dst.remaining()));
+        while (dst.hasRemaining()) {
+            dst.put((byte) 0);
+        }
+        return new FramedHeapPage((HeapPageId) pid, frameData, frame);
+    }
+
+    @Override
+    void readPageBytes(int pgNo, byte[] dst, int len) throws IOException {
+        if (pgNo >= numPages()) {
+            return;
+        }
+        System.arraycopy(readPageData(pgNo), 0, dst, 0, len);
+    }
+
+    /**
+     * @return the decompressed bytes of page pgNo
+     */
+    private byte[] readPageData(int pgNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            load();
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        byte[] page = HeapPage.createEmptyPageData();
+        if (length == 0) {
+            return page;
+        }
+        byte[] extent = new byte[length];
+        Database.getFileHandleManager().read(getFile(), offset, extent, 0, length);
+        PageCodec.decompress(extent, 0, length, storageDesc(), page);
+        return page;
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Compress the pages and write them to new extents, with as few writes
+     * as the extents allow, then record the extents in the extent table and
+     * free the old ones.
+     */
+    @Override
+    public synchronized void writePages(List<Page> pageList) throws IOException {
+        load();
+        long[] oldOffsets = offsets.clone();
+        int[] oldLengths = lengths.clone();
+        int[] oldCapacities = capacities.clone();
+        int[] oldVersions = versions.clone();
+        int oldPages = pages;
+        long oldEnd = end;
+        TreeMap<Long, Long> oldFree = new TreeMap<>(free);
+
+        long[] positions = new long[pageList.size()];
+        byte[][] blocks = new byte[pageList.size()][];
+        // the extents the pages leave, free once the table no longer points to them
+        List<long[]> left = new ArrayList<>();
+        int lo = Integer.MAX_VALUE;
+        int hi = -1;
+        for (int i = 0; i < blocks.length; i++) {
+            Page page = pageList.get(i);
+            int pgNo = page.getId().getPageNumber();
+            blocks[i] = PageCodec.compress(page.getPageData(), storageDesc(), getPageFormat() == PageFormat.FIXED);
+            if (pgNo >= pages) {
+                grow(pgNo + 1);
+            }
+            if (capacities[pgNo] > 0) {
+                left.add(new long[]{offsets[pgNo], capacities[pgNo]});
+            }
+            capacities[pgNo] = (blocks[i].length + blocks[i].length / 4 + 63) & ~63;
+            offsets[pgNo] = allocate(capacities[pgNo]);
+            lengths[pgNo] = blocks[i].length;
+            positions[i] = offsets[pgNo];
+            lo = Math.min(lo, pgNo);
+            hi = Math.max(hi, pgNo);
+        }
+        FileHandleManager files = Database.getFileHandleManager();
+        try {
+            files.writeCoalesced(getFile(), positions, blocks);
+            // the table must not point to extents that may not be on disk
+            files.force(getFile());
+            // new pages between the old last page and lo are empty
+            writeEntries(Math.min(lo, oldPages), hi + 1);
+            // nor to extents that are written over
+            files.force(extentFile);
+        } catch (IOException e) {
+            offsets = oldOffsets;
+            lengths = oldLengths;
+            capacities = oldCapacities;
+            versions = oldVersions;
+            pages = oldPages;
+            end = oldEnd;
+            free = oldFree;
+            throw e;
+        }
+        for (long[] extent : left) {
+            release(extent[0], extent[1]);
+        }
+    }
+
+    /** @return the offset of a free extent of the given size, taken from the free ones if one fits */
+    private long allocate(long size) {
+        for (Map.Entry<Long, Long> e : free.entrySet()) {
+            long offset = e.getKey();
+            long length = e.getValue();
+            if (length >= size) {
+                free.remove(offset);
+                if (length > size) {
+                    free.put(offset + size, length - size);
+                }
+                return offset;
+            }
+        }
+        long offset = end;
+        end += size;
+        return offset;
+    }
+
+    /** Add an extent to the free ones, merged with its free neighbours. */
+    private void release(long offset, long size) {
+        Map.Entry<Long, Long> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            size += before.getValue();
+        }
+        Long after = free.remove(offset + size);
+        if (after != null) {
+            size += after;
+        }
+        free.put(offset, size);
+    }
+
+    /** Find the free extents again: the gaps between the extents of the pages, below end. */
+    private void findFree() {
+        TreeMap<Long, Long> used = new TreeMap<>();
+        for (int i = 0; i < pages; i++) {
+            if (capacities[i] > 0) {
+                used.put(offsets[i], (long) capacities[i]);
+            }
+        }
+        free = new TreeMap<>();
+        long pos = 0;
+        for (Map.Entry<Long, Long> e : used.entrySet()) {
+            if (e.getKey() > pos) {
+                free.put(pos, e.getKey() - pos);
+            }
+            pos = Math.max(pos, e.getKey() + e.getValue());
+        }
+        if (end > pos) {
+            free.put(pos, end - pos);
+        }
+    }
+
+    /**
+     * Mark the extent table entries from numPages on as pages that do not
+     * exist, and cut the data file after the last extent still in use.
+     */
+    @Override
+    protected synchronized void truncate(int numPages) throws IOException {
+        load();
+        if (numPages >= pages) {
+            return;
+        }
+        long[] oldOffsets = offsets.clone();
+        int[] oldLengths = lengths.clone();
+        int[] oldCapacities = capacities.clone();
+        int[] oldVersions = versions.clone();
+        int oldPages = pages;
+        pages = numPages;
+        // pages appended later get new extents
+        Arrays.fill(offsets, numPages, oldPages, 0);
+        Arrays.fill(lengths, numPages, oldPages, 0);
+        Arrays.fill(capacities, numPages, oldPages, 0);
+        try {
+            writeEntries(numPages, oldPages);
+            // the table must not point past the end of the data file
+            Database.getFileHandleManager().force(extentFile);
+        } catch (IOException e) {
+            offsets = oldOffsets;
+            lengths = oldLengths;
+            capacities = oldCapacities;
+            versions = oldVersions;
+            pages = oldPages;
+            throw e;
+        }
+        long used = 0;
+        for (int i = 0; i < pages; i++) {
+            used = Math.max(used, offsets[i] + capacities[i]);
+        }
+        if (used < end) {
+            end = used;
+            Database.getFileHandleManager().close(getFile());
+            try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+                raf.setLength(end);
+            }
+        }
+        findFree();
+        getFreeSpaceMap().truncate(numPages);
+    }
+
+    private void grow(int numPages) {
+        if (numPages > offsets.length) {
+            int size = Math.max(numPages, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+            versions = Arrays.copyOf(versions, size);
+        }
+        pages = numPages;
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        FileHandleManager files = Database.getFileHandleManager();
+        if (!extentFile.exists()) {
+            // a new file; anything already in the data file is not reachable
+            end = getFile().exists() ? files.size(getFile()) : 0;
+            loaded = true;
+            return;
+        }
+        long size = files.size(extentFile);
+        // a version torn at the end of the table reads as zeros
+        int count = (int) ((size + ENTRY_SIZE - 1) / ENTRY_SIZE);
+        ByteBuffer table = ByteBuffer.allocate(count * ENTRY_SIZE);
+        files.read(extentFile, 0, table);
+        grow(count);
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            int first = i * ENTRY_SIZE;
+            int second = first + VERSION_SIZE;
+            int seq1 = validVersion(table, first);
+            int seq2 = validVersion(table, second);
+            int at = seq1 >= seq2 ? first : second;
+            versions[i] = Math.max(seq1, seq2);
+            if (versions[i] > 0 && table.getInt(at + 20) != 0) {
+                offsets[i] = table.getLong(at);
+                lengths[i] = table.getInt(at + 8);
+                capacities[i] = table.getInt(at + 12);
+                end = Math.max(end, offsets[i] + capacities[i]);
+                last = i;
+            }
+        }
+        pages = last + 1;
+        findFree();
+        loaded = true;
+    }
+
+    /** @return the sequence number of the version at pos, or 0 if it is torn or was never written */
+    private static int validVersion(ByteBuffer table, int pos) {
+        CRC32 crc = new CRC32();
+        ByteBuffer version = table.duplicate();
+        version.limit(pos + CHECKSUMMED_SIZE).position(pos);
+        crc.update(version);
+        if (table.getInt(pos + CHECKSUMMED_SIZE) != (int) crc.getValue()) {
+            return 0;
+        }
+        return Math.max(0, table.getInt(pos + 16));
+    }
+
+    /**
+     * Write new versions of the entries of pages [from, to), each over the
+     * version not in use; the entries from the page count on say that
+     * their pages do not exist.
+     */
+    private void writeEntries(int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        long[] positions = new long[to - from];
+        byte[][] blocks = new byte[to - from][];
+        CRC32 crc = new CRC32();
+        for (int i = from; i < to; i++) {
+            versions[i]++;
+            ByteBuffer b = ByteBuffer.allocate(VERSION_SIZE);
+            b.putLong(offsets[i]).putInt(lengths[i]).putInt(capacities[i])
+                    .putInt(versions[i]).putInt(i < pages ? 1 : 0);
+            crc.reset();
+            crc.update(b.array(), 0, CHECKSUMMED_SIZE);
+            b.putInt((int) crc.getValue());
+            positions[i - from] = (long) i * ENTRY_SIZE + (versions[i] % 2) * VERSION_SIZE;
+            blocks[i - from] = b.array();
+        }
+        Database.getFileHandleManager().writeCoalesced(extentFile, positions, blocks);
+    }
+}
@@ -24,6 +24,23 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read several pages from disk. Files that can should read pages that
+     * are adjacent on disk with a single read; the default reads them one
+     * by one.
+     *
+     * @param ids the pages to read, in any order
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +50,21 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages to disk. Files that can should write pages that
+     * are adjacent on disk with a single write; the default writes them one
+     * by one.
+     *
+     * @param pages the pages to write, in any order
+     * @throws IOException if a write fails; pages before it may have been
+     *   written
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,136 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DeltaRecord is the body of a DELTA log record (see {@link LogFile}): the
+ * slots of one page (see {@link SlotLayout}) that changed since the page
+ * was last logged, each with its image before the updating transaction,
+ * for undo, and its image now, for redo.
+ * <p>
+ * Each slot is logged as one operation: an insert (new image only), a
+ * delete (old image only), an update (both), or a clear (neither: a slot
+ * that a logged change filled and a later one emptied again). Slot
+ * {@link #FIXED} stands for the bytes of the page that belong to no slot,
+ * such as the sibling pointers of a B+ tree page.
+ */
+class DeltaRecord {
+
+    static final int SLOT_CLEAR = 0;
+    static final int SLOT_INSERT = 1;
+    static final int SLOT_DELETE = 2;
+    static final int SLOT_UPDATE = SLOT_INSERT | SLOT_DELETE;
+
+    /** Slot number of the bytes that belong to no slot. */
+    static final int FIXED = -1;
+
+    final PageId pid;
+    final int[] slots;
+    final byte[][] before;
+    final byte[][] after;
+
+    private DeltaRecord(PageId pid, int[] slots, byte[][] before, byte[][] after) {
+        this.pid = pid;
+        this.slots = slots;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @param before the image of the page before the updating transaction
+     * @param logged the image of the page as of its last log record
+     * @param now the image of the page now
+     * @return the slots that differ between logged and now
+     */
+    static DeltaRecord diff(PageId pid, SlotLayout layout, byte[] before, byte[] logged, byte[] now) {
+        List<Integer> slots = new ArrayList<>();
+        List<byte[]> old = new ArrayList<>();
+        List<byte[]> cur = new ArrayList<>();
+        if (!layout.sameFixed(logged, now)) {
+            slots.add(FIXED);
+            old.add(layout.getFixed(before));
+            cur.add(layout.getFixed(now));
+        }
+        for (int i = 0; i < layout.getNumSlots(); i++) {
+            if (!layout.sameSlot(logged, now, i)) {
+                slots.add(i);
+                old.add(layout.getSlot(before, i));
+                cur.add(layout.getSlot(now, i));
+            }
+        }
+        int[] s = new int[slots.size()];
+        for (int k = 0; k < s.length; k++) {
+            s[k] = slots.get(k);
+        }
+        return new DeltaRecord(pid, s, old.toArray(new byte[0][]), cur.toArray(new byte[0][]));
+    }
+
+    /** @return SLOT_INSERT, SLOT_DELETE, SLOT_UPDATE or SLOT_CLEAR */
+    int kind(int k) {
+        return (after[k] != null ? SLOT_INSERT : 0) | (before[k] != null ? SLOT_DELETE : 0);
+    }
+
+    void write(DataOutput out) throws IOException {
+        LogFile.writePageId(out, pid);
+        out.writeInt(slots.length);
+        for (int k = 0; k < slots.length; k++) {
+            out.writeByte(kind(k));
+            out.writeInt(slots[k]);
+            if (before[k] != null) {
+                out.writeShort(before[k].length);
+                out.write(before[k]);
+            }
+            if (after[k] != null) {
+                out.writeShort(after[k].length);
+                out.write(after[k]);
+            }
+        }
+    }
+
+    static DeltaRecord read(DataInput in) throws IOException {
+        PageId pid = LogFile.readPageId(in);
+        int n = in.readInt();
+        int[] slots = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int k = 0; k < n; k++) {
+            int kind = in.readByte();
+            slots[k] = in.readInt();
+            if ((kind & SLOT_DELETE) != 0) {
+                before[k] = new byte[in.readUnsignedShort()];
+                in.readFully(before[k]);
+            }
+            if ((kind & SLOT_INSERT) != 0) {
+                after[k] = new byte[in.readUnsignedShort()];
+                in.readFully(after[k]);
+            }
+        }
+        return new DeltaRecord(pid, slots, before, after);
+    }
+
+    /** Apply the change to image, the page as of the previous record. */
+    void redo(SlotLayout layout, byte[] image) {
+        for (int k = 0; k < slots.length; k++) {
+            apply(layout, image, slots[k], after[k]);
+        }
+    }
+
+    /** Put the slots of image back as they were before the transaction. */
+    void undo(SlotLayout layout, byte[] image) {
+        for (int k = slots.length - 1; k >= 0; k--) {
+            apply(layout, image, slots[k], before[k]);
+        }
+    }
+
+    private static void apply(SlotLayout layout, byte[] image, int slot, byte[] bytes) {
+        if (slot == FIXED) {
+            layout.setFixed(image, bytes);
+        } else {
+            layout.setSlot(image, slot, bytes);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * A StringField read from a dictionary-encoded column (see
+ * {@link StringDictionary}). It is an ordinary StringField to everyone
+ * else, but equality with another field of the same dictionary is decided
+ * by comparing codes, so equality predicates, grouping and hash joins on
+ * such columns never compare strings. The value is shared by every
+ * occurrence of the code.
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient StringDictionary dictionary;
+    private final int code;
+
+    DictionaryField(String value, StringDictionary dictionary, int code) {
+        super(value, Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    private boolean sameDictionary(Object field) {
+        return field instanceof DictionaryField && dictionary != null
+                && ((DictionaryField) field).dictionary == dictionary;
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (sameDictionary(field)) {
+            return ((DictionaryField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    @Override
+    public int hashCode() {
+        // the same as for a StringField of the value, so both can share a hash table
+        return super.hashCode();
+    }
+
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS) {
+                return ((DictionaryField) val).code == code;
+            }
+            if (op == Predicate.Op.NOT_EQUALS) {
+                return ((DictionaryField) val).code != code;
+            }
+        }
+        return super.compare(op, val);
+    }
+}
@@ -0,0 +1,443 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FileHandleManager keeps the data files of the database open, one
+ * FileChannel per file, so that page reads and writes do not open and close
+ * the file every time. All I/O is positional (FileChannel.read/write at an
+ * explicit offset), so a channel has no seek state and is shared by every
+ * thread.
+ * <p>
+ * At most {@code maxOpenFiles} channels are kept open; when another file is
+ * opened, the least recently used channels that are not in use are closed.
+ * A channel is pinned for the duration of each call, so it is never closed
+ * under a running read or write. If every channel is pinned the budget is
+ * exceeded temporarily rather than blocking.
+ * <p>
+ * Files are opened for reading and writing (read-only if that is all the
+ * file system allows), so the first write to a missing file creates it.
+ * Callers that delete, replace or truncate a file must call {@link #close}
+ * on it first, so that no stale channel to the old file is reused.
+ * <p>
+ * The manager also counts reads, writes and opens; see the getters.
+ *
+ * @see simpledb.common.Database#getFileHandleManager
+ * @Threadsafe
+ */
+public class FileHandleManager {
+
+    /**
+     * System property for the descriptor budget, e.g.
+     * {@code -Dsimpledb.storage.maxOpenFiles=64}.
+     */
+    public static final String MAX_OPEN_FILES_PROPERTY = "simpledb.storage.maxOpenFiles";
+
+    /** Default descriptor budget. */
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+    private static final class Handle {
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        int pins = 0;
+        boolean closed = false;
+
+        Handle(File file, RandomAccessFile raf) {
+            this.file = file;
+            this.raf = raf;
+            this.channel = raf.getChannel();
+        }
+    }
+
+    private final int maxOpenFiles;
+    // in least recently used order; guarded by this
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder closes = new LongAdder();
+
+    /**
+     * Creates a manager with the descriptor budget given by
+     * {@link #MAX_OPEN_FILES_PROPERTY}, or the default.
+     */
+    public FileHandleManager() {
+        this(Integer.getInteger(MAX_OPEN_FILES_PROPERTY, DEFAULT_MAX_OPEN_FILES));
+    }
+
+    /**
+     * @param maxOpenFiles the number of channels kept open when idle
+     */
+    public FileHandleManager(int maxOpenFiles) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles must be at least 1");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Read from the file at the given offset until dst is full or the end of
+     * the file is reached.
+     *
+     * @param file the file to read
+     * @param position the file offset of the first byte to read
+     * @param dst the buffer to fill from its position to its limit
+     * @return the number of bytes read, less than dst.remaining() only at the
+     *   end of the file
+     */
+    public int read(File file, long position, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        for (int attempt = 0; ; attempt++) {
+            Handle h = acquire(file);
+            try {
+                while (dst.hasRemaining()) {
+                    int n = h.channel.read(dst, position + dst.position() - start);
+                    if (n < 0) {
+                        break;
+                    }
+                }
+                int total = dst.position() - start;
+                reads.increment();
+                bytesRead.add(total);
+                return total;
+            } catch (ClosedChannelException e) {
+                discard(h, e, attempt);
+            } finally {
+                release(h);
+            }
+        }
+    }
+
+    /**
+     * Read from the file into a byte array.
+     *
+     * @see #read(File, long, ByteBuffer)
+     */
+    public int read(File file, long position, byte[] dst, int off, int len) throws IOException {
+        return read(file, position, ByteBuffer.wrap(dst, off, len));
+    }
+
+    /**
+     * Write all remaining bytes of src to the file at the given offset,
+     * extending the file if needed.
+     *
+     * @param file the file to write
+     * @param position the file offset of the first byte to write
+     * @param src the bytes to write, from its position to its limit
+     */
+    public void write(File file, long position, ByteBuffer src) throws IOException {
+        int start = src.position();
+        for (int attempt = 0; ; attempt++) {
+            Handle h = acquire(file);
+            try {
+                while (src.hasRemaining()) {
+                    h.channel.write(src, position + src.position() - start);
+                }
+                writes.increment();
+                bytesWritten.add(src.position() - start);
+                return;
+            } catch (ClosedChannelException e) {
+                discard(h, e, attempt);
+            } finally {
+                release(h);
+            }
+        }
+    }
+
+    /**
+     * Write a byte array to the file.
+     *
+     * @see #write(File, long, ByteBuffer)
+     */
+    public void write(File file, long position, byte[] src) throws IOException {
+        write(file, position, ByteBuffer.wrap(src));
+    }
+
+    /**
+     * Write several blocks to the file, each at its own offset. Blocks that
+     * are adjacent in the file are combined into a single write.
+     *
+     * @param file the file to write
+     * @param positions the file offset of each block
+     * @param blocks the blocks, in the same order as positions
+     * @return the number of writes issued
+     */
+    public int writeCoalesced(File file, long[] positions, byte[][] blocks) throws IOException {
+        Integer[] order = byPosition(positions);
+        int calls = 0;
+        int first = 0;
+        while (first < order.length) {
+            // extend the run while the next block starts where this one ends
+            int last = first;
+            long end = positions[order[first]] + blocks[order[first]].length;
+            int length = blocks[order[first]].length;
+            while (last + 1 < order.length && positions[order[last + 1]] == end) {
+                last++;
+                end += blocks[order[last]].length;
+                length += blocks[order[last]].length;
+            }
+            if (first == last) {
+                write(file, positions[order[first]], blocks[order[first]]);
+            } else {
+                ByteBuffer run = ByteBuffer.allocate(length);
+                for (int i = first; i <= last; i++) {
+                    run.put(blocks[order[i]]);
+                }
+                run.flip();
+                write(file, positions[order[first]], run);
+            }
+            calls++;
+            first = last + 1;
+        }
+        return calls;
+    }
+
+    /**
+     * Read several blocks from the file, each from its own offset. Blocks
+     * that are adjacent in the file are filled by a single read. The part of
+     * a block past the end of the file is left as it is.
+     *
+     * @param file the file to read
+     * @param positions the file offset of each block
+     * @param blocks the blocks to fill, in the same order as positions
+     * @return the number of reads issued
+     */
+    public int readCoalesced(File file, long[] positions, byte[][] blocks) throws IOException {
+        Integer[] order = byPosition(positions);
+        int calls = 0;
+        int first = 0;
+        while (first < order.length) {
+            int last = first;
+            long end = positions[order[first]] + blocks[order[first]].length;
+            int length = blocks[order[first]].length;
+            while (last + 1 < order.length && positions[order[last + 1]] == end) {
+                last++;
+                end += blocks[order[last]].length;
+                length += blocks[order[last]].length;
+            }
+            if (first == last) {
+                read(file, positions[order[first]], blocks[order[first]], 0, blocks[order[first]].length);
+            } else {
+                ByteBuffer run = ByteBuffer.allocate(length);
+                read(file, positions[order[first]], run);
+                run.flip();
+                for (int i = first; i <= last && run.hasRemaining(); i++) {
+                    byte[] block = blocks[order[i]];
+                    run.get(block, 0, Math.min(block.length, run.remaining()));
+                }
+            }
+            calls++;
+            first = last + 1;
+        }
+        return calls;
+    }
+
+    /** @return the indexes of positions, sorted by position */
+    private static Integer[] byPosition(long[] positions) {
+        Integer[] order = new Integer[positions.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(positions[a], positions[b]));
+        return order;
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size(File file) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Handle h = acquire(file);
+            try {
+                return h.channel.size();
+            } catch (ClosedChannelException e) {
+                discard(h, e, attempt);
+            } finally {
+                release(h);
+            }
+        }
+    }
+
+    /**
+     * Map a region of the file read-only, through the file's shared channel.
+     * The region must lie within the file. The mapping stays valid after the
+     * channel is closed.
+     */
+    public MappedByteBuffer map(File file, long position, int length) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Handle h = acquire(file);
+            try {
+                return h.channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } catch (ClosedChannelException e) {
+                discard(h, e, attempt);
+            } finally {
+                release(h);
+            }
+        }
+    }
+
+    /**
+     * Force the content of the file to disk.
+     */
+    public void force(File file) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Handle h = acquire(file);
+            try {
+                h.channel.force(false);
+                return;
+            } catch (ClosedChannelException e) {
+                discard(h, e, attempt);
+            } finally {
+                release(h);
+            }
+        }
+    }
+
+    /**
+     * Close the channel of the file, if it is open and not in use; an
+     * in-use channel is closed when its last user releases it. The next I/O
+     * on the file opens it again.
+     */
+    public synchronized void close(File file) {
+        Handle h = handles.remove(file.getAbsoluteFile());
+        if (h != null) {
+            h.closed = true;
+            if (h.pins == 0) {
+                closeQuietly(h);
+            }
+        }
+    }
+
+    /**
+     * Close all channels, as {@link #close(File)} does for one.
+     */
+    public synchronized void closeAll() {
+        for (Handle h : handles.values()) {
+            h.closed = true;
+            if (h.pins == 0) {
+                closeQuietly(h);
+            }
+        }
+        handles.clear();
+    }
+
+    private synchronized Handle acquire(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        Handle h = handles.get(key);
+        if (h == null) {
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(key, "rw");
+            } catch (FileNotFoundException e) {
+                // read-only files can still be read
+                raf = new RandomAccessFile(key, "r");
+            }
+            h = new Handle(key, raf);
+            handles.put(key, h);
+            opens.increment();
+            h.pins++;
+            trim();
+            return h;
+        }
+        h.pins++;
+        return h;
+    }
+
+    private synchronized void release(Handle h) {
+        h.pins--;
+        if (h.pins == 0 && h.closed) {
+            closeQuietly(h);
+        } else if (h.pins == 0) {
+            trim();
+        }
+    }
+
+    /**
+     * The channel was closed under us, e.g. because a thread using it was
+     * interrupted. Drop the handle so the next attempt opens a fresh one;
+     * give up if this was the retry or the current thread was interrupted.
+     */
+    private synchronized void discard(Handle h, ClosedChannelException e, int attempt)
+            throws ClosedChannelException {
+        if (handles.get(h.file) == h) {
+            handles.remove(h.file);
+        }
+        h.closed = true;
+        if (attempt > 0 || Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+    }
+
+    /** Close idle channels, least recently used first, down to the budget. */
+    private void trim() {
+        Iterator<Map.Entry<File, Handle>> it = handles.entrySet().iterator();
+        while (handles.size() > maxOpenFiles && it.hasNext()) {
+            Handle h = it.next().getValue();
+            if (h.pins == 0) {
+                it.remove();
+                h.closed = true;
+                closeQuietly(h);
+            }
+        }
+    }
+
+    private void closeQuietly(Handle h) {
+        try {
+            h.raf.close();
+            closes.increment();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** @return the number of channels currently open */
+    public synchronized int getOpenFiles() {
+        return handles.size();
+    }
+
+    /** @return the number of read calls served */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /** @return the number of write calls served */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /** @return the number of bytes read */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /** @return the number of bytes written */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /** @return the number of times a file was opened */
+    public long getOpens() {
+        return opens.sum();
+    }
+
+    /** @return the number of times a channel was closed */
+    public long getCloses() {
+        return closes.sum();
+    }
+}
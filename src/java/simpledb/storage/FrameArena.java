@@ -0,0 +1,125 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena hands out fixed-size page frames carved from one off-heap
+ * region. The region is allocated once, up front, with
+ * {@link ByteBuffer#allocateDirect}, so page storage neither grows the Java
+ * heap nor is traced by the garbage collector; the resident set of the
+ * buffer pool is exactly frames &times; frame size bytes, however many
+ * pages are read.
+ * <p>
+ * A frame is identified by its index. {@link #frame} returns a buffer whose
+ * position 0 is the first byte of the frame and whose capacity is the frame
+ * size; the views are created once, so looking up a frame does not
+ * allocate.
+ * <p>
+ * Not thread-safe: every BufferPool shard owns its own arena (a slice of the
+ * pool's region) and calls it under the shard latch.
+ *
+ * @see FramedHeapPage
+ */
+public class FrameArena {
+
+    private final int frameSize;
+    private final ByteBuffer[] frames;
+    private final int[] free;
+    private int freeTop;
+
+    /**
+     * Allocates a region of the given number of frames.
+     *
+     * @param numFrames the number of frames in the arena
+     * @param frameSize the size of a frame in bytes, normally the page size
+     * @throws IllegalArgumentException if the region would exceed 2GB
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this(allocateRegion(numFrames, frameSize), frameSize);
+    }
+
+    /**
+     * Creates an arena over an existing region; the region's remaining bytes
+     * are sliced into frames, and any tail shorter than a frame is unused.
+     *
+     * @param region the (normally direct) buffer to carve frames from
+     * @param frameSize the size of a frame in bytes
+     */
+    public FrameArena(ByteBuffer region, int frameSize) {
+        this.frameSize = frameSize;
+        int numFrames = region.remaining() / frameSize;
+        this.frames = new ByteBuffer[numFrames];
+        this.free = new int[numFrames];
+        ByteBuffer dup = region.duplicate();
+        int base = dup.position();
+        for (int i = 0; i < numFrames; i++) {
+            dup.limit(base + (i + 1) * frameSize);
+            dup.position(base + i * frameSize);
+            frames[i] = dup.slice();
+            // hand out low frames first
+            free[i] = numFrames - 1 - i;
+        }
+        this.freeTop = numFrames;
+    }
+
+    /**
+     * Allocates one direct region large enough for the given number of
+     * frames.
+     *
+     * @throws IllegalArgumentException if the region would exceed 2GB
+     */
+    public static ByteBuffer allocateRegion(int numFrames, int frameSize) {
+        long bytes = (long) numFrames * frameSize;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a frame arena holds at most 2GB, "
+                    + numFrames + " frames of " + frameSize + " bytes were requested");
+        }
+        return ByteBuffer.allocateDirect((int) bytes);
+    }
+
+    /**
+     * Take a free frame.
+     *
+     * @return the index of the frame, or -1 if every frame is in use
+     */
+    public int allocate() {
+        if (freeTop == 0) {
+            return -1;
+        }
+        return free[--freeTop];
+    }
+
+    /**
+     * Return a frame to the arena. The caller must no longer read or write
+     * the frame's buffer.
+     *
+     * @param frame the index returned by {@link #allocate}
+     */
+    public void release(int frame) {
+        free[freeTop++] = frame;
+    }
+
+    /**
+     * @param frame a frame index
+     * @return the buffer of the frame, positioned at 0 with its limit at the
+     *   frame size; callers that move the position should use a duplicate
+     */
+    public ByteBuffer frame(int frame) {
+        return frames[frame];
+    }
+
+    /** @return the size of a frame in bytes */
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /** @return the total number of frames */
+    public int capacity() {
+        return frames.length;
+    }
+
+    /** @return the number of frames not currently allocated */
+    public int available() {
+        return freeTop;
+    }
+}
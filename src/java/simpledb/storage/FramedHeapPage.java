@@ -0,0 +1,133 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FramedHeapPage is a read-only view of a HeapPage whose bytes live in a
+ * {@link FrameArena} frame outside the Java heap. Unlike HeapPage it keeps
+ * neither a materialized Tuple[] nor a separate before-image: the header is
+ * read straight from the frame, tuples are decoded when the page is
+ * iterated, and since the view is never modified the frame is its own
+ * before-image.
+ * <p>
+ * The BufferPool hands out framed pages for READ_ONLY requests only. A
+ * READ_WRITE request replaces the view by an ordinary HeapPage, so
+ * insertTuple and deleteTuple are refused here.
+ * <p>
+ * When the BufferPool evicts or discards the page it calls {@link #detach},
+ * which copies the bytes back to the heap before the frame is reused, so a
+ * reference that outlives the page's residency still sees a valid page.
+ *
+ * @see FrameArena
+ * @see BufferPool
+ */
+public class FramedHeapPage extends HeapPage {
+
+    private volatile ByteBuffer data;
+    private int frame;
+
+    /**
+     * Create a view of a page that has already been read into a frame.
+     *
+     * @param id the id of the page
+     * @param frameData the frame holding the page, one page size long
+     * @param frame the index of the frame in its arena
+     */
+    public FramedHeapPage(HeapPageId id, ByteBuffer frameData, int frame) {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()));
+        this.data = frameData;
+        this.frame = frame;
+    }
+
+    /**
+     * @return the arena index of the frame holding this page, or -1 once
+     *   the page has been detached
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Copy the page onto the heap and stop using its frame.
+     *
+     * @return the index of the frame that was in use, which the caller may
+     *   now release
+     */
+    int detach() {
+        ByteBuffer copy = ByteBuffer.allocate(data.capacity());
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        copy.put(src);
+        copy.clear();
+        int old = frame;
+        data = copy;
+        frame = -1;
+        return old;
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return (data.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    @Override
+    public byte[] getPageData() {
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        return bytes;
+    }
+
+    /** The page is never modified, so its before-image is a copy of itself. */
+    @Override
+    public HeapPage getBeforeImage() {
+        try {
+            return new HeapPage(pid, getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- the page is in the buffer pool!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public void setBeforeImage() {
+        // the frame is the before-image
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        throw new DbException("page " + pid.getPageNumber() + " was fetched READ_ONLY");
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        throw new DbException("page " + pid.getPageNumber() + " was fetched READ_ONLY");
+    }
+
+    /**
+     * Decodes the used slots of the page from its frame.
+     */
+    @Override
+    public Iterator<Tuple> iterator() {
+        ByteBufferInputStream in = new ByteBufferInputStream(data);
+        DataInputStream dis = new DataInputStream(in);
+        int headerSize = getHeaderSize();
+        int tupleSize = td.getSize();
+        List<Tuple> used = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                in.seek(headerSize + i * tupleSize);
+                used.add(readNextTuple(dis, i));
+            }
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+}
@@ -0,0 +1,319 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records, for every page of a HeapFile, how full the page
+ * is, so that an insert can go straight to a page with a free slot instead
+ * of trying every page in turn.
+ * <p>
+ * Each page gets two bits holding a fill level: {@link #FULL}, or one of
+ * three levels of free space. The map is kept in a side file next to the
+ * heap file ({@code <file>.fsm}): a four-byte page count followed by the
+ * levels, four pages per byte. A changed level is written through to the
+ * side file at once; levels only change a few times while a page fills up,
+ * so this costs little.
+ * <p>
+ * The map is a hint. It is not logged, so after a crash or an aborted
+ * transaction it may be off; inserts check the page they are sent to and
+ * correct the map when it was wrong. A map that says a page is full when
+ * it is not only wastes space, and {@link #rebuild} fixes it by reading
+ * the page headers (the slot directories of slotted pages, whose free
+ * slots are counted as in {@link SlottedHeapPage#getNumEmptySlots}). A
+ * side file that is missing, or covers more pages than the heap file has,
+ * is rebuilt when the map is loaded; pages appended after the map was last
+ * written are read in from their headers.
+ *
+ * @see HeapFile#insertTuple
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Level of a page without a free slot. */
+    public static final int FULL = 0;
+    /** Level of a page with at most a quarter of its slots free. */
+    public static final int LOW = 1;
+    /** Level of a page with at most three quarters of its slots free. */
+    public static final int HALF = 2;
+    /** Level of a page with more than three quarters of its slots free. */
+    public static final int EMPTY = 3;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int PAGES_PER_BYTE = 4;
+
+    private final File heapFile;
+    // reads the pages when set; otherwise heapFile is read directly
+    private final HeapFile heap;
+    private final File mapFile;
+    private final TupleDesc td;
+    private final boolean slotted;
+    private final int slotsPerPage;
+    private final int headerSize;
+
+    private byte[] levels = new byte[0];
+    private int pages = 0;
+    // no page below this one has room
+    private int firstWithRoom = 0;
+    private boolean loaded = false;
+
+    /**
+     * @param heapFile the file of the heap file whose pages are mapped
+     * @param td the TupleDesc of the heap file
+     */
+    public FreeSpaceMap(File heapFile, TupleDesc td) {
+        this(heapFile, td, HeapFile.PageFormat.FIXED);
+    }
+
+    /**
+     * @param heapFile the file of the heap file whose pages are mapped
+     * @param td the TupleDesc of the heap file
+     * @param format the format of the pages of the heap file
+     */
+    public FreeSpaceMap(File heapFile, TupleDesc td, HeapFile.PageFormat format) {
+        this(heapFile, null, td, format);
+    }
+
+    /**
+     * Create the map of a HeapFile, which is asked for its pages, so that
+     * files that do not store a page per page-sized block can have a map.
+     */
+    FreeSpaceMap(HeapFile heap) {
+        this(heap.getFile(), heap, heap.storageDesc(), heap.getPageFormat());
+    }
+
+    private FreeSpaceMap(File heapFile, HeapFile heap, TupleDesc td, HeapFile.PageFormat format) {
+        this.heapFile = heapFile;
+        this.heap = heap;
+        this.mapFile = new File(heapFile.getPath() + ".fsm");
+        this.td = td;
+        this.slotted = format == HeapFile.PageFormat.SLOTTED;
+        this.slotsPerPage = slotted ? SlottedHeapPage.slotsPerPage(td) : HeapPage.slotsPerPage(td);
+        // the whole page for a slotted page, whose directory can fill it
+        this.headerSize = slotted ? BufferPool.getPageSize() : (slotsPerPage + 7) / 8;
+    }
+
+    /** @return the side file holding the map */
+    public File getFile() {
+        return mapFile;
+    }
+
+    /**
+     * @return the fill level of a page with the given number of free slots
+     */
+    public int level(int freeSlots) {
+        if (freeSlots <= 0) {
+            return FULL;
+        }
+        if (freeSlots * 4 <= slotsPerPage) {
+            return LOW;
+        }
+        if (freeSlots * 4 <= 3 * slotsPerPage) {
+            return HALF;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * @return the recorded level of page pgNo; pages past the end are EMPTY
+     */
+    public synchronized int getLevel(int pgNo) throws IOException {
+        load();
+        return pgNo < pages ? get(pgNo) : EMPTY;
+    }
+
+    /**
+     * @param from the first page number to consider
+     * @return the first page at or after from that the map says has a free
+     *   slot, or -1 if there is none
+     */
+    public synchronized int findPageWithRoom(int from) throws IOException {
+        load();
+        int start = Math.max(from, firstWithRoom);
+        for (int pgNo = start; pgNo < pages; pgNo++) {
+            if ((pgNo & 3) == 0 && levels[pgNo / PAGES_PER_BYTE] == 0) {
+                // four full pages at once
+                pgNo += PAGES_PER_BYTE - 1;
+                continue;
+            }
+            if (get(pgNo) != FULL) {
+                if (from <= firstWithRoom) {
+                    firstWithRoom = pgNo;
+                }
+                return pgNo;
+            }
+        }
+        if (from <= firstWithRoom) {
+            firstWithRoom = pages;
+        }
+        return -1;
+    }
+
+    /**
+     * Record the number of free slots of page pgNo, growing the map if the
+     * page is new.
+     */
+    public synchronized void update(int pgNo, int freeSlots) throws IOException {
+        load();
+        int level = level(freeSlots);
+        if (pgNo >= pages) {
+            grow(pgNo + 1);
+        } else if (get(pgNo) == level) {
+            return;
+        }
+        set(pgNo, level);
+        if (level != FULL && pgNo < firstWithRoom) {
+            firstWithRoom = pgNo;
+        }
+        ByteBuffer b = ByteBuffer.allocate(1);
+        b.put(0, levels[pgNo / PAGES_PER_BYTE]);
+        Database.getFileHandleManager().write(mapFile, HEADER_SIZE + pgNo / PAGES_PER_BYTE, b);
+    }
+
+    /**
+     * Forget the pages from numPages on, e.g. after the heap file was truncated.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        load();
+        if (numPages >= pages) {
+            return;
+        }
+        for (int pgNo = numPages; pgNo < pages; pgNo++) {
+            set(pgNo, FULL);
+        }
+        pages = numPages;
+        firstWithRoom = Math.min(firstWithRoom, pages);
+        writeAll();
+    }
+
+    /**
+     * Recompute the level of every page from the page headers on disk, and
+     * rewrite the side file. Changes to pages that are only in the
+     * BufferPool are not seen; the map corrects itself for those on use.
+     */
+    public synchronized void rebuild() throws IOException {
+        pages = 0;
+        levels = new byte[0];
+        readHeaders(0, numHeapPages());
+        firstWithRoom = 0;
+        loaded = true;
+        writeAll();
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        int heapPages = numHeapPages();
+        FileHandleManager files = Database.getFileHandleManager();
+        if (!mapFile.exists() || files.size(mapFile) < HEADER_SIZE) {
+            rebuild();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        files.read(mapFile, 0, header);
+        int count = header.getInt(0);
+        if (count < 0 || count > heapPages
+                || files.size(mapFile) < HEADER_SIZE + bytesFor(count)) {
+            // left over from an older file, or torn
+            rebuild();
+            return;
+        }
+        levels = new byte[bytesFor(count)];
+        files.read(mapFile, HEADER_SIZE, levels, 0, levels.length);
+        pages = count;
+        if (count < heapPages) {
+            // pages appended after the map was written
+            readHeaders(count, heapPages);
+            writeAll();
+        }
+        loaded = true;
+    }
+
+    /** Fill in the levels of pages [from, to) from their headers on disk. */
+    private void readHeaders(int from, int to) throws IOException {
+        grow(to);
+        FileHandleManager files = Database.getFileHandleManager();
+        byte[] header = new byte[headerSize];
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            Arrays.fill(header, (byte) 0);
+            if (heap != null) {
+                heap.readPageBytes(pgNo, header, headerSize);
+            } else {
+                files.read(heapFile, (long) pgNo * BufferPool.getPageSize(), header, 0, headerSize);
+            }
+            if (slotted) {
+                set(pgNo, level(SlottedHeapPage.emptySlots(header, td)));
+                continue;
+            }
+            int used = 0;
+            for (int i = 0; i < slotsPerPage; i++) {
+                if ((header[i / 8] & (1 << (i % 8))) != 0) {
+                    used++;
+                }
+            }
+            set(pgNo, level(slotsPerPage - used));
+        }
+    }
+
+    private void writeAll() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + bytesFor(pages));
+        b.putInt(pages);
+        b.put(levels, 0, bytesFor(pages));
+        b.flip();
+        FileHandleManager files = Database.getFileHandleManager();
+        files.close(mapFile);
+        mapFile.delete();
+        files.write(mapFile, 0, b);
+    }
+
+    private void grow(int numPages) throws IOException {
+        if (numPages <= pages) {
+            return;
+        }
+        if (bytesFor(numPages) > levels.length) {
+            levels = Arrays.copyOf(levels, Math.max(bytesFor(numPages), levels.length * 2));
+        }
+        int old = pages;
+        pages = numPages;
+        // new pages are empty until told otherwise
+        for (int pgNo = old; pgNo < pages; pgNo++) {
+            set(pgNo, EMPTY);
+        }
+        if (loaded) {
+            FileHandleManager files = Database.getFileHandleManager();
+            int first = old / PAGES_PER_BYTE;
+            files.write(mapFile, HEADER_SIZE + first,
+                    ByteBuffer.wrap(levels, first, bytesFor(pages) - first));
+            ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+            b.putInt(0, pages);
+            files.write(mapFile, 0, b);
+        }
+    }
+
+    private int numHeapPages() {
+        if (heap != null) {
+            return heap.numPages();
+        }
+        return (int) ((heapFile.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    private static int bytesFor(int numPages) {
+        return (numPages + PAGES_PER_BYTE - 1) / PAGES_PER_BYTE;
+    }
+
+    private int get(int pgNo) {
+        int shift = (pgNo % PAGES_PER_BYTE) * 2;
+        return (levels[pgNo / PAGES_PER_BYTE] >> shift) & 3;
+    }
+
+    private void set(int pgNo, int level) {
+        int shift = (pgNo % PAGES_PER_BYTE) * 2;
+        int i = pgNo / PAGES_PER_BYTE;
+        levels[i] = (byte) ((levels[i] & ~(3 << shift)) | (level << shift));
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * GroupCommit makes the commit and abort records of many transactions
+ * durable with one force of the log.
+ * <p>
+ * A finishing transaction appends its record under the LogFile monitor, as
+ * before, but no longer forces the log there. It leaves the monitor and
+ * waits, in {@link #await}, for a future that a single flusher thread
+ * completes once a write of the log buffer and force of the file that
+ * started after the append has finished. Records appended by other
+ * sessions while a force runs are all covered by the next one, so under
+ * load each force makes a whole batch of transactions durable, and appends
+ * go on while the disk syncs.
+ * <p>
+ * The flusher starts a force as soon as a waiter arrives, unless
+ * {@link #MAX_WAIT_PROPERTY} is set: then it first waits up to that many
+ * microseconds for {@link #MAX_BATCH_PROPERTY} waiters to gather, trading
+ * the latency of single commits for fewer forces. A waiter whose record was
+ * already covered by some other force of the log returns at once.
+ * <p>
+ * With group commit off ({@link #GROUP_COMMIT_PROPERTY}{@code =false}), each
+ * waiter forces the log itself. The flusher thread exits when idle.
+ *
+ * @see LogFile#getGroupCommit
+ * @Threadsafe
+ */
+public class GroupCommit {
+
+    /**
+     * System property that turns group commit off for new LogFiles, e.g.
+     * {@code -Dsimpledb.storage.groupCommit=false}.
+     */
+    public static final String GROUP_COMMIT_PROPERTY = "simpledb.storage.groupCommit";
+
+    /** System property for the longest a force waits for a batch to gather, in microseconds. */
+    public static final String MAX_WAIT_PROPERTY = "simpledb.storage.groupCommitMaxWaitUs";
+
+    /** System property for the number of waiters that starts a force without further waiting. */
+    public static final String MAX_BATCH_PROPERTY = "simpledb.storage.groupCommitMaxBatch";
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final LogFile log;
+    private final ThreadPoolExecutor flusher;
+
+    private volatile boolean enabled = !"false".equals(System.getProperty(GROUP_COMMIT_PROPERTY));
+    private volatile long maxWaitMicros = Math.max(0, Long.getLong(MAX_WAIT_PROPERTY, 0));
+    private volatile int maxBatch = Math.max(1, Integer.getInteger(MAX_BATCH_PROPERTY, 64));
+
+    // guarded by this
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    private boolean flushing = false;
+
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+
+    GroupCommit(LogFile log) {
+        this.log = log;
+        flusher = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "simpledb-log-flusher-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Turn group commit on or off. Defaults to on, unless
+     * {@link #GROUP_COMMIT_PROPERTY} is false.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set the longest the flusher waits for a batch to gather before a
+     * force; 0 to force as soon as anyone waits. Defaults to
+     * {@link #MAX_WAIT_PROPERTY}, or 0.
+     */
+    public void setMaxWait(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("negative wait");
+        }
+        this.maxWaitMicros = micros;
+    }
+
+    /**
+     * Set the number of waiters that ends the wait for a batch. Defaults to
+     * {@link #MAX_BATCH_PROPERTY}, or 64.
+     */
+    public void setMaxBatch(int waiters) {
+        if (waiters < 1) {
+            throw new IllegalArgumentException("batch must hold a waiter");
+        }
+        this.maxBatch = waiters;
+    }
+
+    /**
+     * Wait until the log is on disk up to the given LSN.
+     *
+     * @param lsn the LSN of the record to wait for
+     * @throws IOException if the force that was to cover the record failed
+     */
+    public void await(long lsn) throws IOException {
+        commits.increment();
+        if (log.getForcedLsn() >= lsn) {
+            return;
+        }
+        if (!enabled) {
+            log.force();
+            forces.increment();
+            return;
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this) {
+            waiting.add(done);
+            if (flushing) {
+                notifyAll();
+            } else {
+                flushing = true;
+                flusher.execute(this::flush);
+            }
+        }
+        try {
+            // not interruptible: the record must be durable before we return
+            done.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /** Force the log for batches of waiters until none are left. */
+    private void flush() {
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            synchronized (this) {
+                long wait = maxWaitMicros;
+                if (wait > 0 && !waiting.isEmpty()) {
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(wait);
+                    long left;
+                    while (waiting.size() < maxBatch && (left = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, left);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                }
+                if (waiting.isEmpty()) {
+                    flushing = false;
+                    return;
+                }
+                batch = waiting;
+                waiting = new ArrayList<>();
+            }
+            try {
+                // every waiter appended its record before it joined the batch
+                log.force();
+                forces.increment();
+                for (CompletableFuture<Void> f : batch) {
+                    f.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (CompletableFuture<Void> f : batch) {
+                    f.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /** @return the number of commit and abort records waited for */
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    /** @return the number of log forces made for waiters */
+    public long getForces() {
+        return forces.sum();
+    }
+}
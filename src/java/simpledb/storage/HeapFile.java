@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -22,8 +24,31 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The layout of the pages of a HeapFile.
+     */
+    public enum PageFormat {
+        /** Fixed-width slots and a header bitmap; see {@link HeapPage}. */
+        FIXED,
+        /** A slot directory and variable-length strings; see {@link SlottedHeapPage}. */
+        SLOTTED
+    }
+
     private File file;
     private TupleDesc tupleDesc;
+    private final PageFormat format;
+    // non-null while pages are read through memory mappings
+    private volatile MappedFile mapped;
+    // loaded on the first insert or delete
+    private final FreeSpaceMap freeSpace;
+    // true if a subclass reads pages its own way; readPages then calls it
+    private final boolean ownReadPage;
+    // per column, the dictionary of an encoded string column; null if none is
+    private final StringDictionary[] dictionaries;
+    // tupleDesc as the pages store it: encoded columns are ints
+    private final TupleDesc storageDesc;
+    // created on first use
+    private Vacuum vacuum;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,8 +58,115 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages have
+     * the given format.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, new int[0]);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages have
+     * the given format, and which stores the given string columns as codes
+     * of a {@link StringDictionary} per column.
+     *
+     * @param dictionaryColumns the indexes of the encoded columns, all of
+     *   type {@link Type#STRING_TYPE}
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, int[] dictionaryColumns) {
         this.file = f;
         this.tupleDesc = td;
+        this.format = format;
+        if (dictionaryColumns.length == 0) {
+            this.dictionaries = null;
+            this.storageDesc = td;
+        } else {
+            this.dictionaries = new StringDictionary[td.numFields()];
+            Type[] types = new Type[td.numFields()];
+            String[] names = new String[td.numFields()];
+            for (int j = 0; j < types.length; j++) {
+                types[j] = td.getFieldType(j);
+                names[j] = td.getFieldName(j);
+            }
+            for (int j : dictionaryColumns) {
+                if (td.getFieldType(j) != Type.STRING_TYPE) {
+                    throw new IllegalArgumentException("column " + j + " is not a string column");
+                }
+                dictionaries[j] = new StringDictionary(new File(f.getPath() + ".dict" + j));
+                types[j] = Type.INT_TYPE;
+            }
+            this.storageDesc = new TupleDesc(types, names);
+        }
+        this.freeSpace = new FreeSpaceMap(this);
+        this.ownReadPage = overridesReadPage(getClass());
+        setMemoryMapped(Boolean.getBoolean(MappedFile.MMAP_PROPERTY));
+    }
+
+    /**
+     * @return the format of the pages of this file
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * @return the dictionary of column i, or null if the column is not
+     *   dictionary-encoded
+     */
+    public StringDictionary getDictionary(int i) {
+        return dictionaries == null ? null : dictionaries[i];
+    }
+
+    /**
+     * @return the dictionaries of the columns, null for columns that are
+     *   not encoded, or null if none is
+     */
+    StringDictionary[] dictionaries() {
+        return dictionaries;
+    }
+
+    /**
+     * @return the TupleDesc of the fields as the pages store them, with
+     *   dictionary-encoded columns as ints
+     */
+    TupleDesc storageDesc() {
+        return storageDesc;
+    }
+
+    /**
+     * @return true if the pages can be read into off-heap frames (see
+     *   {@link FramedHeapPage}), which only know plain fixed-format pages
+     */
+    boolean framable() {
+        return format == PageFormat.FIXED && dictionaries == null;
+    }
+
+    HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return format == PageFormat.SLOTTED ? new SlottedHeapPage(pid, data) : new HeapPage(pid, data);
+    }
+
+    /**
+     * Choose whether pages are read through memory mappings of the file
+     * (see {@link MappedFile}) or with one read call per page. Writes are
+     * not affected.
+     */
+    public void setMemoryMapped(boolean on) {
+        MappedFile old = mapped;
+        mapped = on ? (old != null ? old : new MappedFile(file)) : null;
+        if (!on && old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return true if pages are read through memory mappings
+     */
+    public boolean isMemoryMapped() {
+        return mapped != null;
     }
 
     /**
@@ -80,18 +212,117 @@ public class HeapFile implements DbFile {
         if (pid.getPageNumber() >= numPages()) {
             throw new NoSuchElementException();
         }
-        long offset = pid.getPageNumber() * Database.getBufferPool().getPageSize();
-        byte[] data = new byte[Database.getBufferPool().getPageSize()];
-    
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        byte[] data = new byte[BufferPool.getPageSize()];
+
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(offset);
-            raf.read(data);
-            raf.close();
-            return new HeapPage((HeapPageId) pid, data);
+            // a short last page reads as empty slots
+            MappedFile m = mapped;
+            if (m != null) {
+                m.read(offset, data, 0, data.length);
+            } else {
+                Database.getFileHandleManager().read(file, offset, data, 0, data.length);
+            }
+            return newPage((HeapPageId) pid, data);
         } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static boolean overridesReadPage(Class<?> c) {
+        try {
+            return c.getMethod("readPage", PageId.class).getDeclaringClass() != HeapFile.class;
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        if (ownReadPage) {
+            List<Page> pages = new ArrayList<>(pids.size());
+            for (PageId pid : pids) {
+                pages.add(readPage(pid));
+            }
+            return pages;
+        }
+        int numPages = numPages();
+        long[] positions = new long[pids.size()];
+        byte[][] data = new byte[pids.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            PageId pid = pids.get(i);
+            if (pid.getTableId() != getId()) {
+                throw new IllegalArgumentException();
+            }
+            if (pid.getPageNumber() >= numPages) {
+                throw new NoSuchElementException();
+            }
+            positions[i] = (long) pid.getPageNumber() * BufferPool.getPageSize();
+            data[i] = new byte[BufferPool.getPageSize()];
+        }
+        try {
+            // a short last page reads as empty slots
+            MappedFile m = mapped;
+            if (m != null) {
+                for (int i = 0; i < positions.length; i++) {
+                    m.read(positions[i], data[i], 0, data[i].length);
+                }
+            } else {
+                Database.getFileHandleManager().readCoalesced(file, positions, data);
+            }
+            List<Page> pages = new ArrayList<>(positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                pages.add(newPage((HeapPageId) pids.get(i), data[i]));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Read the specified page straight into an off-heap frame and return a
+     * read-only view of it, without copying the bytes through the heap.
+     *
+     * @param pid the page to read
+     * @param frameData the frame to read into; its whole capacity is
+     *                  overwritten, past the end of the file with zeroes
+     * @param frame the index of the frame in its {@link FrameArena}
+     * @throws UnsupportedOperationException for slotted or dictionary-encoded
+     *   files
+     * @see FramedHeapPage
+     */
+    public FramedHeapPage readPage(PageId pid, ByteBuffer frameData, int frame) {
+        if (pid.getTableId() != getId()) {
             throw new IllegalArgumentException();
         }
+        if (!framable()) {
+            throw new UnsupportedOperationException("only plain fixed-format pages can be framed");
+        }
+
+        if (pid.getPageNumber() >= numPages()) {
+            throw new NoSuchElementException();
+        }
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        ByteBuffer dst = frameData.duplicate();
+        dst.clear();
+
+        try {
+            MappedFile m = mapped;
+            if (m != null) {
+                m.read(offset, dst);
+            } else {
+                Database.getFileHandleManager().read(file, offset, dst);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        // a short last page reads as empty slots
+        while (dst.hasRemaining()) {
+            dst.put((byte) 0);
+        }
+        return new FramedHeapPage((HeapPageId) pid, frameData, frame);
     }
 
     // see DbFile.java for javadocs
@@ -107,10 +338,29 @@ public class HeapFile implements DbFile {
         // } catch (IOException e) {
         //     throw new IllegalArgumentException();
         // }
-        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-            raf.seek(page.getId().getPageNumber() * BufferPool.getPageSize());
-            raf.write(page.getPageData());
+        Database.getFileHandleManager().write(file,
+                (long) page.getId().getPageNumber() * BufferPool.getPageSize(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        long[] positions = new long[pages.size()];
+        byte[][] data = new byte[pages.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            Page page = pages.get(i);
+            positions[i] = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+            data[i] = page.getPageData();
         }
+        Database.getFileHandleManager().writeCoalesced(file, positions, data);
+    }
+
+    /**
+     * Read the first len bytes of page pgNo as they are on disk, for the
+     * free-space map; bytes past the end of the file are left alone.
+     */
+    void readPageBytes(int pgNo, byte[] dst, int len) throws IOException {
+        Database.getFileHandleManager().read(file, (long) pgNo * BufferPool.getPageSize(), dst, 0, len);
     }
 
     /**
@@ -123,22 +373,67 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-                for (int i = 0; i < numPages(); i++) {
+                // only visit the pages the free-space map says have room
+                int numPages = numPages();
+                for (int i = freeSpace.findPageWithRoom(0); i != -1 && i < numPages;
+                        i = freeSpace.findPageWithRoom(i + 1)) {
                     HeapPageId pid = new HeapPageId(getId(), i);
                     HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-                    if (page.getNumEmptySlots() > 0) {
+                    if (page.hasRoomFor(t)) {
                         page.insertTuple(t);
+                        freeSpace.update(i, page.getNumEmptySlots());
                         return Collections.singletonList(page);
                     }
+                    // the map was out of date, or (slotted pages) the page
+                    // only has room for smaller tuples
+                    freeSpace.update(i, 0);
                 }
         
                 // No page with empty slot found, need to create a new page
-                HeapPageId newPid = new HeapPageId(getId(), numPages());
-                HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
+                HeapPageId newPid = new HeapPageId(getId(), numPages);
+                HeapPage newPage = newPage(newPid, HeapPage.createEmptyPageData());
                 newPage.insertTuple(t);
                 writePage(newPage);
+                freeSpace.update(numPages, newPage.getNumEmptySlots());
                 return Collections.singletonList(newPage);
             }
+
+    /**
+     * @return the free-space map that directs inserts into this file
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * @return the vacuum that compacts this file
+     */
+    public synchronized Vacuum getVacuum() {
+        if (vacuum == null) {
+            vacuum = new Vacuum(this);
+        }
+        return vacuum;
+    }
+
+    /**
+     * Cut the file down to its first numPages pages. The caller makes sure
+     * the pages past the end are empty and no longer in the BufferPool.
+     * Subclasses may wrap it, e.g. to fail a vacuum after the cut.
+     */
+    protected void truncate(int numPages) throws IOException {
+        if (numPages >= numPages()) {
+            return;
+        }
+        MappedFile m = mapped;
+        if (m != null) {
+            m.invalidate();
+        }
+        Database.getFileHandleManager().close(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength((long) numPages * BufferPool.getPageSize());
+        }
+        freeSpace.truncate(numPages);
+    }
         
 
     // see DbFile.java for javadocs
@@ -147,6 +442,11 @@ public class HeapFile implements DbFile {
                 HeapPageId pid = (HeapPageId) t.getRecordId().getPageId();
                 HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
                 page.deleteTuple(t);
+                try {
+                    freeSpace.update(pid.getPageNumber(), page.getNumEmptySlots());
+                } catch (IOException e) {
+                    // the map is only a hint; inserts will not find this slot until it is rebuilt
+                }
                 return new ArrayList<>(Collections.singletonList(page));
     }
 
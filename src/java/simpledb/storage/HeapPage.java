@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -12,6 +13,16 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page keeps its bytes in the on-disk format, and inserts and deletes
+ * update them in place, so {@link #getPageData} is a plain array copy.
+ * The before-image shares those bytes until the page is next written: the
+ * write copies them first (copy on write), so taking a before-image after
+ * every commit costs nothing for pages that are only read.
+ * <p>
+ * A dictionary-encoded string column (see {@link StringDictionary}) takes
+ * a four-byte code in each slot rather than {@link Type#STRING_LEN} + 4
+ * bytes, so such pages hold more slots.
  *
  * @see HeapFile
  * @see BufferPool
@@ -19,14 +30,40 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /**
+     * System property to decode every tuple when a page is read, as pages
+     * used to, e.g. {@code -Dsimpledb.storage.lazyDecoding=false}.
+     */
+    public static final String LAZY_DECODING_PROPERTY = "simpledb.storage.lazyDecoding";
+
+    private static volatile boolean lazyDecoding =
+            Boolean.parseBoolean(System.getProperty(LAZY_DECODING_PROPERTY, "true"));
+
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    // td as the page stores it: dictionary-encoded strings are int codes
+    final TupleDesc layout;
+    // per column, the dictionary of an encoded column; null if none is
+    final StringDictionary[] dictionaries;
     final Tuple[] tuples;
     final int numSlots;
+    private final int headerSize;
 
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
+
+    // the page in its on-disk format; tuples are decoded from it on demand
+    private byte[] data;
+    // data is also the before-image or the caller's array, so it is copied
+    // before it is written
+    private boolean shared;
+    private final int[] fieldOffsets;
+
+    // read by the page cleaner, so visible across threads
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+    private volatile long lsn = 0;
+    private volatile byte[] loggedImage;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -43,29 +80,154 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
+     * <p>
+     * The page keeps data, which the caller must not modify afterwards,
+     * and copies it only when the page is first written. With lazy decoding
+     * (the default, see {@link #LAZY_DECODING_PROPERTY}) a tuple is decoded
+     * when it is first returned, each field when it is first read;
+     * otherwise every tuple is decoded here.
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        HeapFile file = heapFile(id.getTableId());
+        this.layout = file != null ? file.storageDesc() : td;
+        this.dictionaries = file != null ? file.dictionaries() : null;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        this.fieldOffsets = fieldOffsets(layout);
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        if (data.length != BufferPool.getPageSize()) {
+            // a short page reads as zeroes, i.e. empty slots
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        }
+        this.data = data;
+        this.shared = true;
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        if (!lazyDecoding) {
+            for (int i = 0; i < numSlots; i++) {
+                Tuple t = tuple(i);
+                if (t != null) {
+                    ((LazyTuple) t).decodeAll();
+                }
+            }
+        }
+
+        // the bytes are not modified in place while shared, so they are the
+        // before-image, and the image the next log record is relative to
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+        loggedImage = data;
+    }
+
+    /**
+     * Choose whether pages read from now on decode their tuples on demand.
+     * Meant for tests and benchmarks.
+     */
+    public static void setLazyDecoding(boolean lazy) {
+        lazyDecoding = lazy;
+    }
+
+    public static boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
+    /** @return the HeapFile of table tableId, or null if it is no HeapFile */
+    private static HeapFile heapFile(int tableId) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof HeapFile ? (HeapFile) file : null;
+    }
+
+    private static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        for (int j = 1; j < offsets.length; j++) {
+            offsets[j] = offsets[j - 1] + td.getFieldType(j - 1).getLen();
         }
-        dis.close();
+        return offsets;
+    }
 
-        setBeforeImage();
+    /**
+     * @return the tuple in slot i, decoding it from the page bytes if
+     *   needed, or null if the slot is empty
+     */
+    private Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && data != null && isSlotUsed(i)) {
+            t = new LazyTuple(td, data, slotOffset(i), fieldOffsets, dictionaries, this, i);
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Constructor for pages whose bytes are kept elsewhere (see
+     * {@link FramedHeapPage}); no header or tuples are materialized, so
+     * such subclasses must override every method that uses them.
+     */
+    HeapPage(HeapPageId id, TupleDesc td) {
+        this.pid = id;
+        this.td = td;
+        HeapFile file = heapFile(id.getTableId());
+        this.layout = file != null ? file.storageDesc() : td;
+        this.dictionaries = file != null ? file.dictionaries() : null;
+        this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+        this.tuples = null;
+        this.data = null;
+        this.fieldOffsets = fieldOffsets(layout);
+    }
+
+    private int slotOffset(int i) {
+        return headerSize + i * layout.getSize();
+    }
+
+    /**
+     * Make data private to this page before it is written.
+     */
+    private void beforeWrite() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Write the fields of t into slot i.
+     */
+    private void writeTuple(int i, Tuple t) {
+        beforeWrite();
+        int off = slotOffset(i);
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            writeField(j, t.getField(j), data, off + fieldOffsets[j]);
+        }
+    }
+
+    /**
+     * Write f, field j of a tuple, at pos of b in the page's layout: as its
+     * code for a dictionary-encoded column, as zeroes if it is null.
+     */
+    void writeField(int j, Field f, byte[] b, int pos) {
+        Type type = layout.getFieldType(j);
+        if (f == null) {
+            Arrays.fill(b, pos, pos + type.getLen(), (byte) 0);
+        } else if (dictionaries != null && dictionaries[j] != null) {
+            dictionaries[j].write((StringField) f, b, pos);
+        } else {
+            type.write(f, b, pos);
+        }
+    }
+
+    /**
+     * Called when a field of a tuple read from slot i was set, to write the
+     * change into the page bytes if the tuple is still on the page.
+     */
+    synchronized void tupleChanged(int i, Tuple t) {
+        if (tuples[i] == t) {
+            writeTuple(i, t);
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -73,17 +235,25 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
+        return slotsPerPage(layout);
+
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with the given
+     *   TupleDesc
+     */
+    static int slotsPerPage(TupleDesc td) {
         int tupleSize = td.getSize();
         int pageSize = BufferPool.getPageSize();
         return (int) Math.floor((pageSize * 8) / (tupleSize * 8 + 1));
-
     }
 
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {        
+    int getHeaderSize() {        
         
         // some code goes here
         return (int) Math.ceil(this.getNumTuples() / 8.0);
@@ -108,11 +278,12 @@ public class HeapPage implements Page {
         return null;
     }
     
-    public void setBeforeImage() {
+    public synchronized void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
         }
+        shared = true;
     }
 
     /**
@@ -126,7 +297,7 @@ public class HeapPage implements Page {
     /**
      * Suck up tuples from the source file.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+    Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
@@ -166,67 +337,11 @@ public class HeapPage implements Page {
      * have it produce an identical HeapPage object.
      *
      * @see #HeapPage
-     * @return A byte array correspond to the bytes of this page.
+     * @return A byte array correspond to the bytes of this page, which the
+     *   caller may modify.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    public synchronized byte[] getPageData() {
+        return data.clone();
     }
 
     /**
@@ -250,21 +365,56 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid.getPageNumber());
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid.getPageNumber() + " is already empty");
+        }
+        // tuples handed out no longer need the slot's bytes
+        if (tuples[slot] instanceof LazyTuple) {
+            ((LazyTuple) tuples[slot]).decodeAll();
+        }
+        if (t instanceof LazyTuple) {
+            ((LazyTuple) t).decodeAll();
+        }
+        beforeWrite();
+        markSlotUsed(slot, false);
+        Arrays.fill(data, slotOffset(slot), slotOffset(slot + 1), (byte) 0);
+        tuples[slot] = null;
+        t.setRecordId(null);
     }
 
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
+     * The page keeps a copy of the tuple's fields; later changes to t
+     * itself do not reach the page.
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the TupleDesc of page " + pid.getPageNumber());
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                beforeWrite();
+                markSlotUsed(i, true);
+                writeTuple(i, t);
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("page " + pid.getPageNumber() + " is full");
     }
 
     /**
@@ -274,6 +424,8 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+        if (dirty) this.dirtier = tid;
+        this.dirty = dirty;
     }
 
     /**
@@ -282,7 +434,31 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
-        return null;      
+        TransactionId tid = this.dirtier;
+        return this.dirty ? tid : null;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * The slots are the tuple slots; the header is their bitmap.
+     */
+    public SlotLayout getSlotLayout() {
+        return new SlotLayout(0, 0, numSlots).region(headerSize, layout.getSize(), 0);
+    }
+
+    public byte[] getLoggedImage() {
+        return loggedImage;
+    }
+
+    public void setLoggedImage(byte[] image) {
+        this.loggedImage = image;
     }
 
     /**
@@ -300,6 +476,13 @@ public class HeapPage implements Page {
         return emptySlots;
     }
 
+    /**
+     * Returns true if t can be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -307,7 +490,7 @@ public class HeapPage implements Page {
         // some code goes here
         int byteIndex = i / 8;
         int bitIndex = i % 8;
-        return (header[byteIndex] & (1 << bitIndex)) != 0;
+        return (data[byteIndex] & (1 << bitIndex)) != 0;
     }
 
     /**
@@ -316,6 +499,13 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        int byteIndex = i / 8;
+        int bitIndex = i % 8;
+        if (value) {
+            data[byteIndex] |= (byte) (1 << bitIndex);
+        } else {
+            data[byteIndex] &= (byte) ~(1 << bitIndex);
+        }
     }
 
     /**
@@ -324,13 +514,31 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tuples = new ArrayList<Tuple>();
-        for (int i = 0; i < this.getNumTuples(); i++) {
+        // the slots in use now; their tuples are decoded as they are reached
+        int[] used = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
             if (isSlotUsed(i)) {
-                tuples.add(this.tuples[i]);
+                used[n++] = i;
             }
         }
-        return tuples.iterator();
+        final int count = n;
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Tuple next() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                return tuple(used[next++]);
+            }
+        };
     }
 
 }
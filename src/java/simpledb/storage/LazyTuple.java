@@ -0,0 +1,97 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+
+/**
+ * A tuple of a HeapPage that decodes its fields from the page bytes when
+ * they are first asked for, so that operators that look at one or two
+ * columns (a Filter, a Project) do not pay for building every Field.
+ * <p>
+ * Decoding may happen in several threads at once for a tuple of a shared
+ * page; each decodes the same value from the same bytes, so the race is
+ * benign. The page does not change the bytes of a slot while the tuple of
+ * that slot is live: a deleted tuple is decoded in full first, and a page
+ * that was shared as a before-image is copied before it is written. A
+ * field that is set explicitly is kept like in any Tuple and written back
+ * into the page, as long as the tuple is still on it.
+ *
+ * @see HeapPage#iterator
+ */
+class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+    private final int offset;
+    private final int[] fieldOffsets;
+    private final StringDictionary[] dictionaries;
+    private final transient HeapPage page;
+    private final int slot;
+    private boolean modified = false;
+
+    /**
+     * @param td the schema of the tuple
+     * @param data the bytes of the page
+     * @param offset the offset of the tuple's slot in data
+     * @param fieldOffsets the offset of every field within a slot
+     * @param dictionaries per field, the dictionary of its codes, or null
+     * @param page the page the tuple is on
+     * @param slot the slot of the tuple on page
+     */
+    LazyTuple(TupleDesc td, byte[] data, int offset, int[] fieldOffsets, StringDictionary[] dictionaries,
+              HeapPage page, int slot) {
+        super(td);
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+        this.dictionaries = dictionaries;
+        this.page = page;
+        this.slot = slot;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && !modified) {
+            if (dictionaries != null && dictionaries[i] != null) {
+                f = dictionaries[i].read(data, offset + fieldOffsets[i]);
+            } else {
+                f = getTupleDesc().getFieldType(i).parse(data, offset + fieldOffsets[i]);
+            }
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        decodeAll();
+        modified = true;
+        super.setField(i, f);
+        if (page != null) {
+            page.tupleChanged(slot, this);
+        }
+    }
+
+    /**
+     * Decode every field, after which the tuple no longer reads the page
+     * bytes.
+     */
+    void decodeAll() {
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            getField(j);
+        }
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        decodeAll();
+        return super.fields();
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LogBuffer holds the tail of the log in memory: records are appended to a
+ * ring of byte buffers, and appended to the log segments in one gathering
+ * write per segment when the log is forced, when the ring is full, or
+ * before the log is read. The bytes are addressed by their offset in the
+ * log (see {@link LogSegments}).
+ * <p>
+ * The ring holds {@link #CHUNKS} buffers of {@link #CHUNK_SIZE} bytes. The
+ * oldest buffer holds the first byte not yet written (the head); the
+ * newest is being filled (the tail). A buffer is reused once all of its
+ * bytes are written.
+ * <p>
+ * Not threadsafe: LogFile calls it under its monitor.
+ */
+class LogBuffer extends OutputStream {
+
+    /** Bytes per buffer of the ring. */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Buffers in the ring. */
+    static final int CHUNKS = 16;
+
+    private final ByteBuffer[] ring = new ByteBuffer[CHUNKS];
+    private int head = 0;
+    private int tail = 0;
+    // bytes of the head buffer already written
+    private int mark = 0;
+
+    // log offsets of the first unwritten byte and of the end of the log
+    private long written;
+    private long end;
+
+    private final LogSegments segments;
+
+    LogBuffer(LogSegments segments) {
+        for (int i = 0; i < CHUNKS; i++) {
+            ring[i] = ByteBuffer.allocate(CHUNK_SIZE);
+        }
+        this.segments = segments;
+        reset();
+    }
+
+    /**
+     * Drop any unwritten bytes and continue the log from the end of the
+     * segments.
+     */
+    void reset() {
+        for (ByteBuffer b : ring) {
+            b.clear();
+        }
+        head = tail = mark = 0;
+        written = end = segments.length();
+    }
+
+    /** @return the log offset of the end of the log */
+    long end() {
+        return end;
+    }
+
+    /** @return the log offset up to which the log is written to the segments */
+    long written() {
+        return written;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ByteBuffer chunk = ring[tail];
+        if (!chunk.hasRemaining()) {
+            advance();
+            chunk = ring[tail];
+        }
+        chunk.put((byte) b);
+        end++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer chunk = ring[tail];
+            if (!chunk.hasRemaining()) {
+                advance();
+                chunk = ring[tail];
+            }
+            int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            off += n;
+            len -= n;
+            end += n;
+        }
+    }
+
+    /** Move the tail to the next buffer, writing the ring out if it is full. */
+    private void advance() throws IOException {
+        int next = (tail + 1) % CHUNKS;
+        if (next == head) {
+            writeOut();
+        }
+        if (head == tail && mark == ring[tail].position()) {
+            // the full tail is written; reuse it
+            ring[tail].clear();
+            mark = 0;
+            head = next;
+        }
+        tail = next;
+    }
+
+    /**
+     * Write every appended byte to the segments, without forcing them.
+     */
+    void writeOut() throws IOException {
+        if (written == end) {
+            return;
+        }
+        int count = (tail - head + CHUNKS) % CHUNKS + 1;
+        ByteBuffer[] out = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            ByteBuffer b = ring[(head + i) % CHUNKS].duplicate();
+            b.flip();
+            if (i == 0) {
+                b.position(mark);
+            }
+            out[i] = b;
+        }
+        segments.append(out);
+        for (int i = 0; i < count - 1; i++) {
+            ring[(head + i) % CHUNKS].clear();
+        }
+        head = tail;
+        mark = ring[tail].position();
+        written = end;
+    }
+}
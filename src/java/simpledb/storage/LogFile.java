@@ -2,11 +2,16 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.reflect.*;
 
 /*
@@ -19,21 +24,26 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+writes from happening); the BufferPool protects its pages with one
+latch per shard.  Problem is that BufferPool writes log records (on
+page flushed, while holding a shard latch) and the log file flushes
+BufferPool pages (on checkpoints and recovery.)  This can lead to
+deadlock.  For that reason, any LogFile operation that needs to access
+the BufferPool must not be declared synchronized and must take all
+shard latches before the LogFile monitor, with a block like:
 
 <p>
 <pre>
-    synchronized (Database.getBufferPool()) {
+    BufferPool bp = Database.getBufferPool();
+    bp.latchAllShards();
+    try {
        synchronized (this) {
 
        ..
 
        }
+    } finally {
+       bp.unlatchAllShards();
     }
 </pre>
 */
@@ -43,11 +53,15 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log is kept in segment files of a fixed size (see
+SEGMENT_SIZE_PROPERTY), named after the log file with the segment number
+appended.  The log file itself is a manifest that holds the offset of the
+head of the log, and the offset of the CHECKPOINT record of the last
+completed checkpoint, or -1 if there are no checkpoints (see LogSegments).
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> All data in the segments consists of log records, addressed by
+their offset in the log.  Log records are variable length, and may span
+segments.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -55,8 +69,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+CHECKPOINT and END_CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -65,18 +79,60 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
-<li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+<li> DELTA records hold only the slots of a page that changed since the
+page was last logged, with their images before the transaction and now
+(see DeltaRecord).  A page is logged with an UPDATE record the first time
+after a checkpoint, so that recovery has a whole image to start from, and
+with DELTA records after that, if it describes its slots
+(Page.getSlotLayout).
+
+<li> CHECKPOINT records begin a checkpoint.  They consist of active
+transactions at the time the checkpoint was taken and their first log
+record on disk, then of the pages that were dirty in the BufferPool.  The
+format of the record is an integer count of the number of transactions, as
+well as a long integer transaction id and a long integer first record
+offset for each active transaction; then an integer count of dirty pages,
+and for each a page id (see writePageId) and the long integer offset of
+the first log record that may not be reflected on disk for the page.
+
+<li> END_CHECKPOINT records end a checkpoint, once the pages that were
+dirty at its CHECKPOINT record have been written.  They consist of the
+long integer offset of that CHECKPOINT record.
 
 </ul>
+
+<p> Checkpoints are fuzzy: the tables of the CHECKPOINT record are taken
+with the BufferPool latched, but the dirty pages are then written while
+transactions go on, and only the END_CHECKPOINT record moves the
+checkpoint pointer in the manifest.  Recovery starts redo at the
+CHECKPOINT record, or earlier if a page's first record that may be
+missing from disk is older (a page the page cleaner was writing), and
+undo at the first record of the oldest transaction that did not finish.
+
+<p> Commits do not force pages: the BufferPool logs the pages of a
+committed transaction when it writes them, so UPDATE and DELTA records of
+the transaction may follow its COMMIT record, and its checkpoint.  Recovery
+therefore counts as losers only the transactions of the CHECKPOINT record
+and those whose BEGIN record follows it, less those that finished; the
+records of any other transaction are redone.  An aborting transaction
+logs nothing after its ABORT record, as its pages leave the BufferPool
+first (see logAbort).
+
+<p> Offsets in the log never change: logTruncate drops the head of the
+log by deleting the segments that lie wholly before the oldest record
+recovery may need, so its cost does not depend on the size of the log.
+
+<p> Records are appended to an in-memory LogBuffer and reach the segments
+in large writes, when the log is forced or the buffer fills.  Each record
+has an LSN: the offset of its end in the log.  logWrite returns the LSN of the update record, which the
+BufferPool stores on the page (Page.setLsn); before writing the page it
+forces the log only up to that LSN (force(long)), which costs nothing if
+the record is already on disk.
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments segments; //protected by this
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +140,8 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int END_CHECKPOINT_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -92,9 +150,34 @@ public class LogFile {
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    private final LogBuffer buffer; //protected by this
+    private final DataOutputStream out; //appends to buffer //protected by this
+    // the log is on disk up to this LSN
+    private final AtomicLong forcedLsn = new AtomicLong();
+
+    private final GroupCommit groupCommit = new GroupCommit(this);
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // one checkpoint or truncation at a time; taken before the latches
+    private final Object checkpointLock = new Object();
+
+    /**
+     * System property that turns DELTA records off for new LogFiles, e.g.
+     * {@code -Dsimpledb.storage.logDeltas=false}.
+     */
+    public static final String LOG_DELTAS_PROPERTY = "simpledb.storage.logDeltas";
+
+    /** System property for the size of the segment files of new logs,
+        in bytes; 16 MB by default. */
+    public static final String SEGMENT_SIZE_PROPERTY = "simpledb.storage.logSegmentSize";
+
+    private static final long DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    private volatile boolean logDeltas = !"false".equals(System.getProperty(LOG_DELTAS_PROPERTY));
+    // pages with a whole image in the log since the last checkpoint
+    private final Set<PageId> imagedPages = new HashSet<>(); //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,8 +190,20 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, Long.getLong(SEGMENT_SIZE_PROPERTY, DEFAULT_SEGMENT_SIZE));
+    }
+
+    /** Constructor, with the size of the segment files of a new log;
+        a log that is recovered keeps the size it was created with.
+
+        @param f The log file's name
+        @param segmentSize The size of a segment file in bytes
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
+        buffer = new LogBuffer(segments);
+        out = new DataOutputStream(buffer);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -129,17 +224,38 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.reset();
+            buffer.reset();
+            currentOffset = buffer.end();
         }
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Return the LSN of the end of the log, forced or not. */
+    public synchronized long getEndLsn() {
+        return buffer.end();
+    }
+
+    /** Return the LSN up to which the log is known to be on disk. */
+    public long getForcedLsn() {
+        return forcedLsn.get();
+    }
+
+    /** Turn DELTA records on or off.  Defaults to on, unless
+        LOG_DELTAS_PROPERTY is false; when off, every update is logged
+        with whole page images.
+    */
+    public void setLogDeltas(boolean logDeltas) {
+        this.logDeltas = logDeltas;
+    }
+
+    /** Return the group commit that makes commit and abort records durable. */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -149,78 +265,118 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
-
+        BufferPool bp = Database.getBufferPool();
+        long lsn;
+        bp.latchAllShards();
+        try {
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
+                // the pages of tid left in the pool go back first, so that
+                // none is logged after the ABORT record (see recover)
+                bp.revertPages(tid);
                 // must do this here, since rollback only works for
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = buffer.end();
                 tidToFirstLogRecord.remove(tid.getId());
+                lsn = currentOffset;
             }
+        } finally {
+            bp.unlatchAllShards();
         }
+        groupCommit.await(lsn);
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with other
+        committing transactions, see GroupCommit.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = buffer.end();
+            tidToFirstLogRecord.remove(tid.getId());
+            lsn = currentOffset;
+        }
+        groupCommit.await(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images), or a DELTA
+        record of the slots that changed since the page was last logged.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return The LSN of the record, to store on the page
 
         @see Page#getBeforeImage
+        @see Page#setLsn
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        PageId pid = after.getId();
+        byte[] now = after.getPageData();
+        byte[] logged = after.getLoggedImage();
+        SlotLayout layout = after.getSlotLayout();
+        if (logDeltas && layout != null && logged != null && imagedPages.contains(pid)) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               changed slots (see DeltaRecord)
+               start offset
+            */
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            DeltaRecord.diff(pid, layout, before.getPageData(), logged, now).write(out);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out, before, before.getPageData());
+            writePageData(out, after, now);
+            imagedPages.add(pid);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = buffer.end();
+        after.setLoggedImage(now);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return currentOffset;
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
+        writePageData(raf, p, p.getPageData());
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    private void writePageData(DataOutput raf, Page p, byte[] pageData) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -242,13 +398,12 @@ public class LogFile {
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
         raf.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    Page readPageData(DataInput raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
@@ -267,17 +422,12 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = newPage(pageClass, pid, pageData);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
@@ -288,6 +438,86 @@ public class LogFile {
 
     }
 
+    /** Skip the page data at the current position of the log, without
+        constructing the page. */
+    private void skipPageData() throws IOException {
+        segments.readUTF();
+        segments.readUTF();
+        int numIdArgs = segments.readInt();
+        segments.seek(segments.getFilePointer() + (long) numIdArgs * INT_SIZE);
+        int pageSize = segments.readInt();
+        segments.seek(segments.getFilePointer() + pageSize);
+    }
+
+    /** Write a page id as a byte count of ints and the ints of
+        PageId.serialize(). */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        int[] id = pid.serialize();
+        out.writeByte(id.length);
+        for (int j : id) {
+            out.writeInt(j);
+        }
+    }
+
+    /** Read a page id written by writePageId. */
+    static PageId readPageId(DataInput in) throws IOException {
+        int[] id = new int[in.readByte()];
+        for (int j = 0; j < id.length; j++) {
+            id[j] = in.readInt();
+        }
+        // the id classes have two and three ints
+        return id.length == 3 ? new BTreePageId(id[0], id[1], id[2]) : new HeapPageId(id[0], id[1]);
+    }
+
+    /** Skip the rest of a record of the given type at the current
+        position of the log, after its type and transaction id, up to and
+        including its start offset. */
+    private void skipRecord(int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            skipPageData();
+            skipPageData();
+            break;
+        case DELTA_RECORD:
+            DeltaRecord.read(segments);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = segments.readInt();
+            segments.seek(segments.getFilePointer() + (long) numXactions * 2 * LONG_SIZE);
+            int numPages = segments.readInt();
+            while (numPages-- > 0) {
+                readPageId(segments);
+                segments.readLong();
+            }
+            break;
+        case END_CHECKPOINT_RECORD:
+            segments.readLong();
+            break;
+        }
+        segments.readLong();
+    }
+
+    /** Construct a page of the given class from its bytes, with the
+        constructor the class reads pages from disk with: (id, data), or
+        (id, data, key field) for B+ tree pages. */
+    static Page newPage(Class<?> pageClass, PageId pid, byte[] data)
+        throws IOException, InvocationTargetException, IllegalAccessException, InstantiationException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length < 2 || params[1] != byte[].class) {
+                continue;
+            }
+            if (params.length == 2) {
+                return (Page)c.newInstance(pid, data);
+            }
+            if (params.length == 3 && params[2] == int.class) {
+                BTreeFile file = (BTreeFile)Database.getCatalog().getDatabaseFile(pid.getTableId());
+                return (Page)c.newInstance(pid, data, file.keyField());
+            }
+        }
+        throw new IOException("no constructor from page data in " + pageClass.getName());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -300,150 +530,156 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = buffer.end();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log: write a CHECKPOINT record with the active
+        transactions and the dirty pages of the BufferPool, write those
+        pages while transactions go on, then write an END_CHECKPOINT
+        record and point the start of the file at the checkpoint.  The
+        BufferPool is latched only while the CHECKPOINT record is
+        written. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        synchronized (checkpointLock) {
+            long startCpOffset;
+            Set<PageId> dirty;
+            bp.latchAllShards();
+            try {
+                synchronized (this) {
+                    //Debug.log("CHECKPOINT, offset = " + segments.getFilePointer());
+                    preAppend();
+                    Map<PageId, Long> pageLsns = bp.dirtyPages();
+                    // recordStart reads the records of pages being written
+                    buffer.writeOut();
+                    startCpOffset = buffer.end();
+                    out.writeInt(CHECKPOINT_RECORD);
+                    out.writeLong(-1); //no tid , but leave space for convenience
+
+                    //write list of outstanding transactions
+                    out.writeInt(tidToFirstLogRecord.size());
+                    for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                        Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                        out.writeLong(e.getKey());
+                        out.writeLong(e.getValue());
+                    }
+
+                    //write list of dirty pages, with the first record each may miss
+                    out.writeInt(pageLsns.size());
+                    for (Map.Entry<PageId, Long> e : pageLsns.entrySet()) {
+                        writePageId(out, e.getKey());
+                        // unlogged changes are logged after this record
+                        out.writeLong(e.getValue() == 0 ? startCpOffset : recordStart(e.getValue()));
+                    }
+                    out.writeLong(currentOffset);
+                    currentOffset = buffer.end();
+                    // the next update of each page is logged whole again
+                    imagedPages.clear();
+                    dirty = pageLsns.keySet();
+                }
+            } finally {
+                bp.unlatchAllShards();
+            }
+
+            // the page cleaner writes what it can of the committed pages,
+            // the rest are written one shard at a time
+            bp.getPageCleaner().clean();
+            bp.flushPages(dirty);
+
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+                out.writeInt(END_CHECKPOINT_RECORD);
+                out.writeLong(-1);
+                out.writeLong(startCpOffset);
+                out.writeLong(currentOffset);
+                currentOffset = buffer.end();
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+            }
+            force();
+            //once the CP is on disk, make sure the CP location in the
+            // manifest is updated
+            synchronized (this) {
+                segments.setCheckpoint(startCpOffset);
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+
+            logTruncate();
         }
+    }
 
-        logTruncate();
+    /** Return the offset of the record that ends at the specified LSN;
+        the record must be in the segments. */
+    private long recordStart(long lsn) throws IOException {
+        if (lsn <= segments.head()) {
+            // truncated away, so nothing before the head of the log is missing
+            return segments.head();
+        }
+        segments.seek(lsn - LONG_SIZE);
+        return segments.readLong();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
-    public synchronized void logTruncate() throws IOException {
+    public void logTruncate() throws IOException {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                truncate();
+            }
+        }
+    }
+
+    private void truncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        buffer.writeOut();
+        long cpLoc = segments.getCheckpoint();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
         long minLogRecord = cpLoc;
+        segments.seek(cpLoc);
+        int cpType = segments.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = segments.readLong();
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            int numOutstanding = raf.readInt();
+        int numOutstanding = segments.readInt();
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+        for (int i = 0; i < numOutstanding; i++) {
+            @SuppressWarnings("unused")
+            long tid = segments.readLong();
+            long firstLogRecord = segments.readLong();
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        // redo may start before the checkpoint
+        int numPages = segments.readInt();
+        for (int i = 0; i < numPages; i++) {
+            readPageId(segments);
+            long recLsn = segments.readLong();
+            if (recLsn < minLogRecord) {
+                minLogRecord = recLsn;
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        // we can drop everything before minLogRecord; offsets stay as they
+        // are. This may drop the COMMIT record of a transaction whose pages
+        // were logged after it; recovery redoes those records, as the
+        // transaction is not in the checkpoint's table and did not begin
+        // after it
+        Debug.log("TRUNCATING LOG;  WAS " + (segments.length() - segments.head()) + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (segments.length() - minLogRecord));
+        segments.truncate(minLogRecord);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -456,22 +692,89 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        bp.latchAllShards();
+        try {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                // the records to undo must be in the file before it is read
+                buffer.writeOut();
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+                }
+
+                // find the updates of tid, then undo them newest first
+                List<Long> updates = new ArrayList<>();
+                segments.seek(first);
+                while (segments.getFilePointer() < buffer.end()) {
+                    long start = segments.getFilePointer();
+                    int type = segments.readInt();
+                    long recordTid = segments.readLong();
+                    skipRecord(type);
+                    if (recordTid == tid.getId() && (type == UPDATE_RECORD || type == DELTA_RECORD)) {
+                        updates.add(start);
+                    }
+                }
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    segments.seek(updates.get(i));
+                    int type = segments.readInt();
+                    segments.readLong();
+                    install(type, true);
+                }
+            }
+        } finally {
+            bp.unlatchAllShards();
+        }
+    }
+
+    /** Undo or redo the UPDATE or DELTA record at the current position
+        of the log, just past its type and transaction id: write the page as it
+        was before the transaction, or after the update, and drop it from
+        the BufferPool. */
+    private void install(int type, boolean undo) throws IOException {
+        Page page;
+        if (type == UPDATE_RECORD) {
+            if (undo) {
+                page = readPageData(segments);
+            } else {
+                skipPageData();
+                page = readPageData(segments);
+            }
+        } else {
+            DeltaRecord delta = DeltaRecord.read(segments);
+            DbFile file = Database.getCatalog().getDatabaseFile(delta.pid.getTableId());
+            Page current = file.readPage(delta.pid);
+            byte[] data = current.getPageData();
+            if (undo) {
+                delta.undo(current.getSlotLayout(), data);
+            } else {
+                delta.redo(current.getSlotLayout(), data);
+            }
+            try {
+                page = newPage(current.getClass(), delta.pid, data);
+            } catch (InvocationTargetException | IllegalAccessException | InstantiationException e) {
+                throw new IOException(e);
             }
         }
+        PageId pid = page.getId();
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        Database.getBufferPool().discardPage(pid);
+        // the log does not hold the installed state, so the next update
+        // of the page must be logged whole
+        imagedPages.remove(pid);
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -483,66 +786,186 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        bp.latchAllShards();
+        try {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                buffer.writeOut();
+                tidToFirstLogRecord.clear();
+                imagedPages.clear();
+                if (!segments.hasManifest()) {
+                    recoveryUndecided = true;
+                    preAppend();
+                    return;
+                }
+                long cpLoc = segments.getCheckpoint();
+
+                // the tables of the last checkpoint tell where redo and undo start
+                long redoStart = segments.head();
+                long scanStart = segments.head();
+                Set<Long> active = new HashSet<>();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    segments.seek(cpLoc + INT_SIZE + LONG_SIZE);
+                    redoStart = cpLoc;
+                    scanStart = cpLoc;
+                    int numXactions = segments.readInt();
+                    while (numXactions-- > 0) {
+                        active.add(segments.readLong());
+                        scanStart = Math.min(scanStart, segments.readLong());
+                    }
+                    int numPages = segments.readInt();
+                    while (numPages-- > 0) {
+                        readPageId(segments);
+                        redoStart = Math.min(redoStart, segments.readLong());
+                    }
+                    scanStart = Math.min(scanStart, redoStart);
+                }
+
+                // analysis: which transactions finished, and the updates.
+                // Only a transaction active at the checkpoint or begun
+                // after it can be a loser: the records of any other are of
+                // pages it committed, which the BufferPool logs when it
+                // writes them, after the COMMIT record (no-force)
+                List<long[]> updates = new ArrayList<>(); // offset, tid, type
+                Set<Long> finished = new HashSet<>();
+                Set<Long> aborted = new HashSet<>();
+                Set<Long> losers = new LinkedHashSet<>(active);
+                long end = scanStart;
+                segments.seek(scanStart);
+                while (true) {
+                    try {
+                        long start = segments.getFilePointer();
+                        int type = segments.readInt();
+                        long tid = segments.readLong();
+                        skipRecord(type);
+                        end = segments.getFilePointer();
+                        switch (type) {
+                        case COMMIT_RECORD:
+                            finished.add(tid);
+                            break;
+                        case ABORT_RECORD:
+                            finished.add(tid);
+                            aborted.add(tid);
+                            break;
+                        case BEGIN_RECORD:
+                            losers.add(tid);
+                            break;
+                        case UPDATE_RECORD:
+                        case DELTA_RECORD:
+                            updates.add(new long[]{start, tid, type});
+                            break;
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+                losers.removeAll(finished);
+                // a record torn by the crash is dropped
+                segments.setLength(end);
+
+                // redo the committed updates the disk may miss; aborted
+                // transactions were rolled back before their ABORT record,
+                // and log nothing after it
+                for (long[] u : updates) {
+                    if (u[0] >= redoStart && !losers.contains(u[1])
+                        && !aborted.contains(u[1])) {
+                        segments.seek(u[0] + INT_SIZE + LONG_SIZE);
+                        install((int) u[2], false);
+                    }
+                }
+                // undo the transactions that did not finish, newest first
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    long[] u = updates.get(i);
+                    if (losers.contains(u[1])) {
+                        segments.seek(u[0] + INT_SIZE + LONG_SIZE);
+                        install((int) u[2], true);
+                    }
+                }
+
+                // abort the losers, so a later recovery leaves them alone
+                buffer.reset();
+                currentOffset = end;
+                for (long tid : losers) {
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(tid);
+                    out.writeLong(currentOffset);
+                    currentOffset = buffer.end();
+                }
             }
-         }
+        } finally {
+            bp.unlatchAllShards();
+        }
+        force();
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+    public synchronized void print() throws IOException {
+        buffer.writeOut();
+        long curOffset = segments.getFilePointer();
 
-        raf.seek(0);
+        segments.seek(segments.head());
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("checkpoint record at offset " + segments.getCheckpoint());
+        System.out.println("log starts at offset " + segments.head());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = segments.readInt();
+                long cpTid = segments.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((segments.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((segments.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = segments.readLong();
+                        long firstRecord = segments.readLong();
+                        System.out.println((segments.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((segments.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                    }
+                    int numPages = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numPages);
+                    while (numPages-- > 0) {
+                        long pageStart = segments.getFilePointer();
+                        PageId pid = readPageId(segments);
+                        System.out.println(pageStart + ": table id " + pid.getTableId() + ", page number " + pid.getPageNumber()
+                                + ", FIRST LOG RECORD: " + segments.readLong());
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
+                    break;
+                case END_CHECKPOINT_RECORD:
+                    System.out.println(" (END CHECKPOINT)");
+                    System.out.println(segments.getFilePointer() + ": CHECKPOINT RECORD: " + segments.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = segments.getFilePointer();
+                    Page before = readPageData(segments);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = segments.getFilePointer();
+                    Page after = readPageData(segments);
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -550,9 +973,22 @@ public class LogFile {
 
                     System.out.println(middle + ": after image table id " + after.getId().getTableId());
                     System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + INT_SIZE) + " TO " + (segments.getFilePointer()) + ": page data");
+
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    break;
+                case DELTA_RECORD:
+                    System.out.println(" (DELTA)");
+
+                    long deltaStart = segments.getFilePointer();
+                    DeltaRecord delta = DeltaRecord.read(segments);
+                    System.out.println(deltaStart + ": table id " + delta.pid.getTableId() + ", page number " + delta.pid.getPageNumber());
+                    for (int k = 0; k < delta.slots.length; k++) {
+                        String[] kinds = {"CLEAR", "INSERT", "DELETE", "UPDATE"};
+                        System.out.println("    slot " + delta.slots[k] + ": " + kinds[delta.kind(k)]);
+                    }
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
                     break;
                 }
@@ -564,11 +1000,40 @@ public class LogFile {
         }
 
         // Return the file pointer to its original position
-        raf.seek(curOffset);
+        segments.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        force(Long.MAX_VALUE);
+    }
+
+    /** Force the log to disk up to at least the specified LSN.  The
+        buffered records are written under the monitor, but the force
+        runs outside it, so other records can be appended meanwhile.
+
+        @param lsn The LSN the log must be on disk up to, e.g. that of a
+        page about to be written
+    */
+    public void force(long lsn) throws IOException {
+        if (forcedLsn.get() >= lsn) {
+            return;
+        }
+        List<FileChannel> files;
+        long through;
+        synchronized (this) {
+            buffer.writeOut();
+            through = buffer.end();
+            files = segments.channels(forcedLsn.get(), through);
+        }
+        for (FileChannel file : files) {
+            try {
+                file.force(true);
+            } catch (ClosedChannelException e) {
+                // logTruncate deleted the segment: nothing in it is needed
+            }
+        }
+        forcedLsn.accumulateAndGet(through, Math::max);
     }
 
 }
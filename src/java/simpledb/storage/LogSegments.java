@@ -0,0 +1,435 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LogSegments stores the bytes of the log in segment files of a fixed
+ * size, next to a small manifest kept in the log file itself.
+ * <p>
+ * Byte {@code i} of the log is at offset {@code i % segmentSize} of segment
+ * {@code i / segmentSize}, which is the file named after the log file with
+ * the segment number appended ({@code log.000003}). Log offsets, and so
+ * LSNs, never change: dropping the head of the log only records the new
+ * head in the manifest and deletes the segments that lie wholly below it,
+ * whatever the size of the rest of the log.
+ * <p>
+ * The manifest holds the segment size, the offset of the head of the log
+ * and the offset of the last completed checkpoint. It is replaced whole, by
+ * writing a new one and renaming it over the old, so a crash leaves either
+ * version.
+ * <p>
+ * The log is read as a {@link DataInput} at a position set with
+ * {@link #seek}, through a read buffer; reading past the end throws
+ * EOFException. Bytes are only appended, by {@link #append}.
+ * <p>
+ * Not threadsafe: LogFile calls it under its monitor.
+ */
+class LogSegments implements DataInput, Closeable {
+
+    private static final int MAGIC = 0x4c4f4753;
+    private static final int MANIFEST_SIZE = 4 + 3 * 8;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final File manifest;
+    // the size asked for, taken by a log started anew
+    private final long newSegmentSize;
+    private long segmentSize;
+    private boolean hasManifest;
+    private long head;
+    private long checkpoint = LogFile.NO_CHECKPOINT_ID;
+    private long end;
+
+    // segment number to its file
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+
+    private long position;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // log offset of the first byte of readBuffer; its limit is the bytes read
+    private long readStart;
+    private final DataInputStream data = new DataInputStream(new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return LogSegments.this.read(b, off, len);
+        }
+    });
+
+    /**
+     * Open the log kept by the given manifest, or an empty log without a
+     * manifest if there is none; the segment size of an existing log is
+     * the one in its manifest until it is {@link #reset}.
+     */
+    LogSegments(File manifest, long segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segments must hold a byte, not " + segmentSize);
+        }
+        this.manifest = manifest;
+        this.newSegmentSize = segmentSize;
+        long size = segmentSize;
+        if (manifest.length() == MANIFEST_SIZE) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest.toPath()))) {
+                if (in.readInt() == MAGIC) {
+                    size = in.readLong();
+                    head = in.readLong();
+                    checkpoint = in.readLong();
+                    hasManifest = size > 0;
+                }
+            }
+        }
+        if (!hasManifest) {
+            size = segmentSize;
+            head = 0;
+            checkpoint = LogFile.NO_CHECKPOINT_ID;
+        }
+        this.segmentSize = size;
+        end = head;
+        if (hasManifest) {
+            for (long n = head / size; segmentFile(n).exists(); n++) {
+                FileChannel c = open(n);
+                end = n * size + c.size();
+            }
+        }
+        readBuffer.limit(0);
+    }
+
+    /** @return true if the log was opened from a manifest or has been reset since */
+    boolean hasManifest() {
+        return hasManifest;
+    }
+
+    long segmentSize() {
+        return segmentSize;
+    }
+
+    /** @return the offset of the first byte kept */
+    long head() {
+        return head;
+    }
+
+    /** @return the offset of the end of the log */
+    long length() {
+        return end;
+    }
+
+    /** @return the offset of the last completed checkpoint, or NO_CHECKPOINT_ID */
+    long getCheckpoint() {
+        return checkpoint;
+    }
+
+    private File segmentFile(long n) {
+        return new File(String.format("%s.%06d", manifest.getPath(), n));
+    }
+
+    private FileChannel open(long n) throws IOException {
+        FileChannel c = segments.get(n);
+        if (c == null) {
+            boolean created = !segmentFile(n).exists();
+            c = FileChannel.open(segmentFile(n).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(n, c);
+            if (created) {
+                syncDirectory();
+            }
+        }
+        return c;
+    }
+
+    /** Make the creation, deletion and renaming of files durable, where the platform allows. */
+    private void syncDirectory() {
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        try (FileChannel c = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            c.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        File tmp = new File(manifest.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeLong(segmentSize);
+            out.writeLong(head);
+            out.writeLong(checkpoint);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        hasManifest = true;
+    }
+
+    /** Throw away the whole log, including segments no manifest lists, and start an empty one. */
+    void reset() throws IOException {
+        closeSegments();
+        String prefix = manifest.getName() + ".";
+        File[] files = manifest.getAbsoluteFile().getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                    f.delete();
+                }
+            }
+        }
+        segmentSize = newSegmentSize;
+        head = end = position = 0;
+        checkpoint = LogFile.NO_CHECKPOINT_ID;
+        readBuffer.limit(0);
+        writeManifest();
+    }
+
+    /** Record the offset of the last completed checkpoint. */
+    void setCheckpoint(long offset) throws IOException {
+        checkpoint = offset;
+        writeManifest();
+    }
+
+    /**
+     * Drop the log before the given offset: record it as the head and
+     * delete the segments that lie wholly below it.
+     */
+    void truncate(long offset) throws IOException {
+        if (offset <= head) {
+            return;
+        }
+        head = Math.min(offset, end);
+        writeManifest();
+        long first = head / segmentSize;
+        while (!segments.isEmpty() && segments.firstKey() < first) {
+            long n = segments.firstKey();
+            segments.remove(n).close();
+            segmentFile(n).delete();
+        }
+    }
+
+    /** Drop the bytes of the log from the given offset on, e.g. a record torn by a crash. */
+    void setLength(long offset) throws IOException {
+        if (offset >= end) {
+            return;
+        }
+        long last = offset / segmentSize;
+        while (!segments.isEmpty() && segments.lastKey() > last) {
+            long n = segments.lastKey();
+            segments.remove(n).close();
+            segmentFile(n).delete();
+        }
+        FileChannel c = segments.get(last);
+        if (c != null) {
+            c.truncate(offset - last * segmentSize);
+        }
+        end = offset;
+        readBuffer.limit(0);
+    }
+
+    /**
+     * Append the remaining bytes of the buffers to the log, in one
+     * gathering write per segment they fall into. Does not force them.
+     */
+    void append(ByteBuffer[] srcs) throws IOException {
+        int i = 0;
+        while (i < srcs.length) {
+            long n = end / segmentSize;
+            long offset = end % segmentSize;
+            long room = segmentSize - offset;
+            // the pieces of the buffers that fit in this segment
+            List<ByteBuffer> pieces = new ArrayList<>();
+            long bytes = 0;
+            while (i < srcs.length && bytes < room) {
+                ByteBuffer src = srcs[i];
+                int len = (int) Math.min(src.remaining(), room - bytes);
+                ByteBuffer piece = src.duplicate();
+                piece.limit(piece.position() + len);
+                pieces.add(piece);
+                src.position(src.position() + len);
+                bytes += len;
+                if (!src.hasRemaining()) {
+                    i++;
+                }
+            }
+            if (bytes == 0) {
+                continue;
+            }
+            FileChannel c = open(n);
+            c.position(offset);
+            ByteBuffer[] out = pieces.toArray(new ByteBuffer[0]);
+            long left = bytes;
+            while (left > 0) {
+                left -= c.write(out);
+            }
+            end += bytes;
+        }
+        readBuffer.limit(0);
+    }
+
+    /** @return the files that hold the bytes of the log from offset from up to offset to */
+    List<FileChannel> channels(long from, long to) {
+        List<FileChannel> files = new ArrayList<>();
+        if (to <= from) {
+            return files;
+        }
+        for (Map.Entry<Long, FileChannel> e : segments.subMap(from / segmentSize, true, (to - 1) / segmentSize, true).entrySet()) {
+            files.add(e.getValue());
+        }
+        return files;
+    }
+
+    void seek(long offset) {
+        position = offset;
+    }
+
+    long getFilePointer() {
+        return position;
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        if (position < readStart || position >= readStart + readBuffer.limit()) {
+            fill();
+        }
+        int n = (int) Math.min(len, readStart + readBuffer.limit() - position);
+        System.arraycopy(readBuffer.array(), (int) (position - readStart), b, off, n);
+        position += n;
+        return n;
+    }
+
+    /** Read the bytes from position on, up to the end of its segment, into the read buffer. */
+    private void fill() throws IOException {
+        if (position < head) {
+            throw new IOException("log offset " + position + " is before the head of the log, " + head);
+        }
+        long n = position / segmentSize;
+        long offset = position % segmentSize;
+        readBuffer.clear();
+        readBuffer.limit((int) Math.min(readBuffer.capacity(), Math.min(segmentSize - offset, end - position)));
+        readStart = position;
+        FileChannel c = segments.get(n);
+        if (c == null) {
+            readBuffer.limit(0);
+            throw new EOFException("missing log segment " + segmentFile(n));
+        }
+        while (readBuffer.hasRemaining()) {
+            if (c.read(readBuffer, offset + readBuffer.position()) < 0) {
+                readBuffer.limit(0);
+                throw new EOFException("log segment " + segmentFile(n) + " is short");
+            }
+        }
+        readBuffer.flip();
+    }
+
+    private void closeSegments() throws IOException {
+        for (FileChannel c : segments.values()) {
+            c.close();
+        }
+        segments.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegments();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        data.readFully(b);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        data.readFully(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int skipped = (int) Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return data.readBoolean();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return data.readByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return data.readUnsignedByte();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return data.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return data.readUnsignedShort();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return data.readChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return data.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return data.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return data.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return data.readDouble();
+    }
+
+    @Override
+    @Deprecated
+    public String readLine() throws IOException {
+        throw new UnsupportedOperationException("the log has no lines");
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return data.readUTF();
+    }
+}
@@ -0,0 +1,198 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LruKPolicy implements the LRU-K replacement algorithm of O'Neil, O'Neil
+ * and Weikum. Each frame remembers the times of its last K references; the
+ * victim is the page whose K-th most recent reference lies furthest in the
+ * past. Pages that have been referenced fewer than K times have an infinite
+ * backward K-distance and go first, oldest last reference first, so pages
+ * touched once by a sequential scan are evicted before pages with a history
+ * of repeated use.
+ * <p>
+ * The reference history of evicted pages is retained for a while (up to one
+ * pool's worth of pages) so that a page which is re-read soon after eviction
+ * does not start from scratch.
+ * <p>
+ * Frames are kept in a dense array and reused as pages come and go, so a hit
+ * only updates the history of an existing frame.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    private static final class Frame {
+        PageId pid;
+        // history[0] is the most recent reference, history[k-1] the k-th
+        // most recent one; 0 means "no such reference"
+        long[] history;
+        int slot;
+    }
+
+    private final int k;
+    private int retainedLimit;
+
+    private Frame[] frames;
+    private int count;
+    private final Map<PageId, Frame> resident;
+    private final LinkedHashMap<PageId, long[]> retained;
+
+    private long clock = 0;
+
+    /**
+     * Creates an LRU-2 policy.
+     *
+     * @param capacity the number of pages in the pool
+     */
+    public LruKPolicy(int capacity) {
+        this(2, capacity);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k the number of references remembered per page; must be at least 1
+     * @param capacity the number of pages in the pool
+     */
+    public LruKPolicy(int k, int capacity) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.retainedLimit = Math.max(capacity, 1);
+        this.frames = new Frame[Math.max(capacity, 1)];
+        this.count = 0;
+        this.resident = new HashMap<>(Math.max(capacity, 1) * 2);
+        this.retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainedLimit;
+            }
+        };
+    }
+
+    public void pageAdmitted(PageId pid) {
+        if (resident.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (count == frames.length) {
+            Frame[] grown = new Frame[frames.length * 2];
+            System.arraycopy(frames, 0, grown, 0, count);
+            frames = grown;
+        }
+        Frame f = frames[count];
+        if (f == null) {
+            f = new Frame();
+            frames[count] = f;
+        }
+        f.pid = pid;
+        f.slot = count;
+        long[] history = retained.remove(pid);
+        if (history == null) {
+            history = f.history != null ? f.history : new long[k];
+            Arrays.fill(history, 0L);
+        }
+        f.history = history;
+        count++;
+        resident.put(pid, f);
+        reference(f);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame f = resident.get(pid);
+        if (f != null) {
+            reference(f);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        Frame f = resident.remove(pid);
+        if (f != null) {
+            release(f);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        Frame victim = null;
+        for (int i = 0; i < count; i++) {
+            Frame f = frames[i];
+            if (!evictable.test(f.pid)) {
+                continue;
+            }
+            if (victim == null || older(f, victim)) {
+                victim = f;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        PageId pid = victim.pid;
+        resident.remove(pid);
+        retained.put(pid, victim.history);
+        victim.history = null;
+        release(victim);
+        return pid;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void setCapacity(int capacity) {
+        retainedLimit = Math.max(capacity, 1);
+        Iterator<PageId> it = retained.keySet().iterator();
+        while (retained.size() > retainedLimit && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public List<PageId> residentByHotness() {
+        List<Frame> live = new ArrayList<>(Arrays.asList(frames).subList(0, count));
+        // the page chooseVictim would take last comes first
+        live.sort((a, b) -> older(a, b) ? 1 : older(b, a) ? -1 : 0);
+        List<PageId> pids = new ArrayList<>(count);
+        for (Frame f : live) {
+            pids.add(f.pid);
+        }
+        return pids;
+    }
+
+    private void reference(Frame f) {
+        long[] h = f.history;
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+    }
+
+    /** @return true if a has a larger backward K-distance than b */
+    private boolean older(Frame a, Frame b) {
+        long ak = a.history[k - 1];
+        long bk = b.history[k - 1];
+        if (ak != bk) {
+            // 0 means fewer than K references, i.e. infinite distance
+            return ak < bk;
+        }
+        return a.history[0] < b.history[0];
+    }
+
+    /** Swap the last frame into f's slot so the live frames stay dense. */
+    private void release(Frame f) {
+        int last = count - 1;
+        Frame moved = frames[last];
+        frames[last] = f;
+        frames[f.slot] = moved;
+        moved.slot = f.slot;
+        f.slot = last;
+        f.pid = null;
+        count--;
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * MappedFile gives read access to a file through memory mappings, so that
+ * reading a page is a memory copy rather than an open/seek/read/close
+ * sequence of system calls.
+ * <p>
+ * The file is mapped lazily in fixed-size segments (a single mapping is
+ * limited to 2GB). A segment that was mapped while the file was shorter
+ * than the segment is remapped when a read asks for bytes past its end and
+ * the file has grown since, so appended pages become visible without any
+ * notification from the writer. Writes still go through the file itself;
+ * the operating system keeps the shared mapping coherent with them.
+ * Mappings are made through the file's channel in the
+ * {@link FileHandleManager}, so mapping a file costs no extra descriptor.
+ * <p>
+ * A file must not be truncated while it is mapped: touching a mapped page
+ * past the end of the file crashes the access. Call {@link #invalidate}
+ * before shrinking the file.
+ * <p>
+ * Reads are thread-safe; mapping and remapping are serialized internally.
+ *
+ * @see HeapFile#setMemoryMapped
+ */
+public class MappedFile implements Closeable {
+
+    /**
+     * System property that makes new HeapFiles and BTreeFiles read through
+     * memory mappings, e.g. {@code -Dsimpledb.storage.mmap=true}.
+     */
+    public static final String MMAP_PROPERTY = "simpledb.storage.mmap";
+
+    /** Default segment size: 64MB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    private final File file;
+    private final int segmentSize;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long mappings = 0;
+
+    /**
+     * @param file the file to map
+     */
+    public MappedFile(File file) {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param file the file to map
+     * @param segmentSize the size of the mapped segments in bytes
+     */
+    public MappedFile(File file, int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+        this.file = file;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Copy bytes of the file into dst, starting at the given file offset,
+     * until dst is full or the end of the file is reached.
+     *
+     * @param offset the file offset of the first byte to read
+     * @param dst the buffer to fill from its position to its limit
+     * @return the number of bytes copied, less than dst.remaining() only at
+     *   the end of the file
+     */
+    public int read(long offset, ByteBuffer dst) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            long pos = offset + total;
+            int index = (int) (pos / segmentSize);
+            int within = (int) (pos % segmentSize);
+            int want = Math.min(dst.remaining(), segmentSize - within);
+            MappedByteBuffer segment = segment(index, within + want);
+            if (segment == null || segment.capacity() <= within) {
+                break;
+            }
+            int n = Math.min(want, segment.capacity() - within);
+            ByteBuffer src = segment.duplicate();
+            src.limit(within + n);
+            src.position(within);
+            dst.put(src);
+            total += n;
+            if (n < want) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Copy bytes of the file into a byte array.
+     *
+     * @see #read(long, ByteBuffer)
+     */
+    public int read(long offset, byte[] dst, int off, int len) throws IOException {
+        return read(offset, ByteBuffer.wrap(dst, off, len));
+    }
+
+    /**
+     * @return the segment with the given index, mapped over at least
+     *   needed bytes if the file is that long, or null if the file ends
+     *   before the segment starts
+     */
+    private MappedByteBuffer segment(int index, int needed) throws IOException {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null && current[index].capacity() >= needed) {
+            return current[index];
+        }
+        return remap(index, needed);
+    }
+
+    private synchronized MappedByteBuffer remap(int index, int needed) throws IOException {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null && current[index].capacity() >= needed) {
+            // another thread mapped it meanwhile
+            return current[index];
+        }
+        FileHandleManager files = Database.getFileHandleManager();
+        long base = (long) index * segmentSize;
+        long size = files.size(file);
+        if (size <= base) {
+            return null;
+        }
+        int length = (int) Math.min(segmentSize, size - base);
+        MappedByteBuffer[] grown = index < current.length ? current.clone() : Arrays.copyOf(current, index + 1);
+        if (grown[index] == null || grown[index].capacity() < length) {
+            grown[index] = files.map(file, base, length);
+            mappings++;
+        }
+        segments = grown;
+        return grown[index];
+    }
+
+    /**
+     * @return the number of times a segment has been mapped or remapped
+     */
+    public synchronized long getMappings() {
+        return mappings;
+    }
+
+    /**
+     * Forget all mappings; segments are mapped again on the next read.
+     * Must be called before the file is truncated.
+     */
+    public synchronized void invalidate() {
+        segments = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Forget all mappings; the memory is unmapped once they are garbage
+     * collected.
+     */
+    public void close() {
+        invalidate();
+    }
+}
@@ -18,6 +18,9 @@ public class MyDbFileIterator extends AbstractDbFileIterator {
     private final int tableId;
     private final int pageNum;
     private Iterator<Tuple> iterator;
+    private ReadAhead.SequentialStream readAhead;
+    // confines the scan of a large table to a few frames; null for small ones
+    private BufferRing ring;
 
     public MyDbFileIterator(int tableId, TransactionId tid, int pageNum) {
         this.tid = tid;
@@ -47,8 +50,14 @@ public class MyDbFileIterator extends AbstractDbFileIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        if (readAhead == null) {
+            ring = bp.ringFor(pageNum);
+            readAhead = bp.getReadAhead().sequential(tableId, pageNum, ring);
+        }
+        readAhead.accessed(pageIndex);
         PageId pid = new HeapPageId(tableId, pageIndex);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
         iterator = page.iterator();
     }
 
@@ -59,6 +68,8 @@ public class MyDbFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         iterator = null;
+        readAhead = null;
+        ring = null;
         pageIndex = 0;
     }
 }
@@ -35,6 +35,45 @@ public interface Page {
    */
   void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * Get the LSN of the log record of the last update to this page, or 0
+     * if no update was logged since the page was read.  The log must be
+     * on disk up to this LSN before the page is written.
+     *
+     * @see LogFile#force(long)
+     */
+    long getLsn();
+
+    /**
+     * Set the LSN of the log record of the last update to this page.
+     */
+    void setLsn(long lsn);
+
+    /**
+     * Describe how the image of this page divides into slots, so that the
+     * log can record an update as the slots it changed.  Pages without
+     * slots keep the default, null, and are logged as whole images.
+     */
+    default SlotLayout getSlotLayout() {
+        return null;
+    }
+
+    /**
+     * Get the image of this page as of its last log record, or as read from
+     * disk; null if not known.  A change is logged as the difference from
+     * this image.
+     */
+    default byte[] getLoggedImage() {
+        return null;
+    }
+
+    /**
+     * Set the image of this page as of its last log record; the caller must
+     * not modify it afterwards.
+     */
+    default void setLoggedImage(byte[] image) {
+    }
+
   /**
    * Generates a byte array representing the contents of this page.
    * Used to serialize this page to disk.
@@ -0,0 +1,304 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PageCleaner writes dirty pages of committed transactions to disk in the
+ * background, so that eviction seldom has to write a page synchronously
+ * and checkpoints find little left to flush.
+ * <p>
+ * Every sweep takes a batch of such pages from the BufferPool (which logs
+ * their update records and marks them clean), forces the log once for the
+ * whole batch, and then writes the pages of each file on a pool of writer
+ * threads with {@link DbFile#writePages}, so pages that are adjacent in the
+ * file go out in one write. Write-ahead logging is kept: no page is written
+ * before its update record is on disk. See the page cleaning note of
+ * {@link BufferPool}.
+ * <p>
+ * The cleaner only runs after {@link #start}, or when a BufferPool is
+ * created with {@link #PAGE_CLEANER_PROPERTY} set; {@link #clean} runs a
+ * sweep in the calling thread at any time.
+ *
+ * @see BufferPool#getPageCleaner
+ * @Threadsafe
+ */
+public class PageCleaner {
+
+    /**
+     * System property that starts the cleaner of new BufferPools, e.g.
+     * {@code -Dsimpledb.storage.pageCleaner=true}.
+     */
+    public static final String PAGE_CLEANER_PROPERTY = "simpledb.storage.pageCleaner";
+
+    /** System property for the number of writer threads. */
+    public static final String THREADS_PROPERTY = "simpledb.storage.pageCleanerThreads";
+
+    /** System property for the pause between sweeps, in milliseconds. */
+    public static final String INTERVAL_PROPERTY = "simpledb.storage.pageCleanerIntervalMs";
+
+    /** Most pages written by one sweep. */
+    public static final int MAX_BATCH = 256;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final BufferPool pool;
+    private final Object sweepLock = new Object();
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private ThreadPoolExecutor writers;
+
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder writeRuns = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // write rate over the last full second of sweeps
+    private long rateWindowStart = System.nanoTime();
+    private long rateWindowPages = 0;
+    private volatile double writeRate = 0;
+
+    PageCleaner(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    private static ThreadFactory daemons(String name) {
+        return r -> {
+            Thread t = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Start sweeping in the background, every
+     * {@link #INTERVAL_PROPERTY} milliseconds (100 by default).
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, 2));
+        long interval = Math.max(1, Long.getLong(INTERVAL_PROPERTY, 100));
+        writers = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemons("simpledb-page-writer"));
+        writers.allowCoreThreadTimeOut(true);
+        scheduler = new ScheduledThreadPoolExecutor(1, daemons("simpledb-page-cleaner"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                clean();
+            } catch (RuntimeException e) {
+                // keep sweeping; failed pages stay dirty for the next sweep or eviction
+                e.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background sweeps and wait for a running one to finish.
+     */
+    public void stop() {
+        ScheduledThreadPoolExecutor s;
+        ThreadPoolExecutor w;
+        synchronized (this) {
+            s = scheduler;
+            w = writers;
+            scheduler = null;
+            writers = null;
+        }
+        if (s == null) {
+            return;
+        }
+        s.shutdown();
+        try {
+            s.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        w.shutdown();
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Write up to {@link #MAX_BATCH} dirty pages of committed transactions
+     * now. Sweeps do not overlap.
+     *
+     * @return the number of pages written
+     */
+    public int clean() {
+        ThreadPoolExecutor w;
+        synchronized (this) {
+            w = writers;
+        }
+        synchronized (sweepLock) {
+            return sweep(w);
+        }
+    }
+
+    private int sweep(ThreadPoolExecutor w) {
+        List<BufferPool.Cleaning> batch = pool.beginCleaning(MAX_BATCH);
+        if (batch.isEmpty()) {
+            updateRate(0);
+            return 0;
+        }
+        try {
+            // write ahead: the update records must be on disk before the pages
+            long lsn = 0;
+            for (BufferPool.Cleaning c : batch) {
+                lsn = Math.max(lsn, c.image.getLsn());
+            }
+            Database.getLogFile().force(lsn);
+        } catch (IOException e) {
+            pool.endCleaning(batch, false);
+            failures.increment();
+            return 0;
+        }
+
+        Map<Integer, List<BufferPool.Cleaning>> byFile = new HashMap<>();
+        for (BufferPool.Cleaning c : batch) {
+            byFile.computeIfAbsent(c.page.getId().getTableId(), k -> new ArrayList<>()).add(c);
+        }
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (List<BufferPool.Cleaning> group : byFile.values()) {
+            tasks.add(() -> write(group));
+        }
+
+        int written = 0;
+        List<Boolean> results = new ArrayList<>();
+        if (w != null) {
+            try {
+                for (Future<Boolean> f : w.invokeAll(tasks)) {
+                    try {
+                        results.add(f.get());
+                    } catch (ExecutionException e) {
+                        results.add(false);
+                    }
+                }
+            } catch (RejectedExecutionException e) {
+                // stopped meanwhile; write in this thread
+                w = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // some groups may not have run; a needless rewrite is harmless
+                pool.endCleaning(batch, false);
+                while (results.size() < tasks.size()) {
+                    results.add(false);
+                }
+            }
+        }
+        if (w == null) {
+            for (Callable<Boolean> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    results.add(false);
+                }
+            }
+        }
+        int i = 0;
+        for (List<BufferPool.Cleaning> group : byFile.values()) {
+            if (results.get(i++)) {
+                written += group.size();
+            }
+        }
+        updateRate(written);
+        return written;
+    }
+
+    /**
+     * Write the pages of one file and hand them back to the pool. The
+     * images taken when the pages were logged are written, not the pages,
+     * which transactions may have changed since.
+     */
+    private boolean write(List<BufferPool.Cleaning> group) {
+        List<Page> pages = new ArrayList<>(group.size());
+        List<Integer> numbers = new ArrayList<>(group.size());
+        for (BufferPool.Cleaning c : group) {
+            pages.add(c.image);
+            numbers.add(c.page.getId().getPageNumber());
+        }
+        boolean ok = false;
+        try {
+            Database.getCatalog().getDatabaseFile(group.get(0).page.getId().getTableId()).writePages(pages);
+            ok = true;
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+        } finally {
+            pool.endCleaning(group, ok);
+        }
+        if (ok) {
+            pagesWritten.add(pages.size());
+            numbers.sort(null);
+            int runs = 1;
+            for (int j = 1; j < numbers.size(); j++) {
+                if (numbers.get(j) != numbers.get(j - 1) + 1) {
+                    runs++;
+                }
+            }
+            writeRuns.add(runs);
+        }
+        return ok;
+    }
+
+    private synchronized void updateRate(int written) {
+        rateWindowPages += written;
+        long now = System.nanoTime();
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            writeRate = rateWindowPages * 1e9 / elapsed;
+            rateWindowStart = now;
+            rateWindowPages = 0;
+        }
+    }
+
+    /** @return the number of pages the cleaner has written */
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    /**
+     * @return the number of runs of adjacent pages the cleaner has written;
+     *   each run is a single write for files that coalesce writes
+     */
+    public long getWriteRuns() {
+        return writeRuns.sum();
+    }
+
+    /** @return the number of batches whose log force or write failed */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return pages written per second, over the last second or more of
+     *   sweeps
+     */
+    public double getWriteRate() {
+        return writeRate;
+    }
+
+    /**
+     * @return the number of dirty pages of committed transactions waiting
+     *   for the cleaner
+     */
+    public int getBacklog() {
+        return pool.committedDirtyPages();
+    }
+}
@@ -0,0 +1,452 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.Arrays;
+
+/**
+ * PageCodec compresses page images for {@link CompressedHeapFile}, in pure
+ * Java and in two stages.
+ * <p>
+ * For fixed-format HeapPages the slots are first turned into columns: the
+ * header is kept as it is, every int column is bit-packed, either as
+ * offsets from the column's minimum (frame of reference) or as the
+ * differences between consecutive values (delta, for sorted or clustered
+ * columns), whichever needs fewer bits, and other columns are laid out one
+ * after another. Small-range ints shrink to a few bits each, and the zero
+ * padding of strings ends up in long runs.
+ * <p>
+ * The result, or the raw page for other formats, is then compressed with a
+ * small LZ77 codec: literal runs and back references of at least four
+ * bytes within the last 64 KB, found through a hash of the next four
+ * bytes. A stage that does not make the page smaller is skipped; an
+ * incompressible page is stored as it is.
+ * <p>
+ * A compressed page starts with a flags byte telling which stages were
+ * applied, followed by the length of the LZ input if that stage was.
+ */
+public final class PageCodec {
+
+    private static final int COLUMNS = 1;
+    private static final int LZ = 2;
+
+    private static final int FRAME_OF_REFERENCE = 0;
+    private static final int DELTA = 1;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    private PageCodec() {
+    }
+
+    /**
+     * @param page the page image, BufferPool.getPageSize() bytes
+     * @param td the TupleDesc of the page's table
+     * @param fixed true if the page is a fixed-format HeapPage, whose slots
+     *   can be turned into columns
+     * @return the compressed page
+     */
+    public static byte[] compress(byte[] page, TupleDesc td, boolean fixed) {
+        int flags = 0;
+        byte[] body = page;
+        if (fixed) {
+            byte[] columns = toColumns(page, td);
+            if (columns.length < page.length) {
+                flags |= COLUMNS;
+                body = columns;
+            }
+        }
+        byte[] lz = lzCompress(body);
+        if (lz.length < body.length) {
+            flags |= LZ;
+        } else {
+            lz = body;
+        }
+        if (flags == 0) {
+            byte[] out = new byte[page.length + 1];
+            System.arraycopy(page, 0, out, 1, page.length);
+            return out;
+        }
+        ByteWriter out = new ByteWriter(lz.length + 8);
+        out.write(flags);
+        if ((flags & LZ) != 0) {
+            out.writeVarInt(body.length);
+        }
+        out.write(lz, 0, lz.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompress len bytes of src starting at off into page, which must be
+     * BufferPool.getPageSize() bytes.
+     *
+     * @throws IllegalArgumentException if the data is not a page compressed
+     *   for this TupleDesc
+     */
+    public static void decompress(byte[] src, int off, int len, TupleDesc td, byte[] page) {
+        if (len < 1) {
+            throw new IllegalArgumentException("empty compressed page");
+        }
+        int flags = src[off];
+        int[] pos = {off + 1};
+        int end = off + len;
+        byte[] body;
+        int bodyOff;
+        int bodyLen;
+        if ((flags & LZ) != 0) {
+            bodyLen = readVarInt(src, pos);
+            body = new byte[bodyLen];
+            bodyOff = 0;
+            lzDecompress(src, pos[0], end, body);
+        } else {
+            body = src;
+            bodyOff = pos[0];
+            bodyLen = end - pos[0];
+        }
+        if ((flags & COLUMNS) != 0) {
+            fromColumns(body, bodyOff, td, page);
+        } else {
+            if (bodyLen != page.length) {
+                throw new IllegalArgumentException("page of " + bodyLen + " bytes, expected " + page.length);
+            }
+            System.arraycopy(body, bodyOff, page, 0, bodyLen);
+        }
+    }
+
+    // ---- column transform
+
+    private static byte[] toColumns(byte[] page, TupleDesc td) {
+        int slots = HeapPage.slotsPerPage(td);
+        int headerSize = (slots + 7) / 8;
+        int tupleSize = td.getSize();
+        ByteWriter out = new ByteWriter(page.length);
+        out.write(page, 0, headerSize);
+        long[] values = new long[slots];
+        int fieldOff = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            int base = headerSize + fieldOff;
+            if (type == Type.INT_TYPE) {
+                for (int i = 0; i < slots; i++) {
+                    values[i] = getInt(page, base + i * tupleSize);
+                }
+                writeInts(out, values, slots);
+            } else {
+                for (int i = 0; i < slots; i++) {
+                    out.write(page, base + i * tupleSize, type.getLen());
+                }
+            }
+            fieldOff += type.getLen();
+        }
+        int used = headerSize + slots * tupleSize;
+        out.write(page, used, page.length - used);
+        return out.toByteArray();
+    }
+
+    private static void fromColumns(byte[] src, int off, TupleDesc td, byte[] page) {
+        int slots = HeapPage.slotsPerPage(td);
+        int headerSize = (slots + 7) / 8;
+        int tupleSize = td.getSize();
+        int[] pos = {off};
+        System.arraycopy(src, pos[0], page, 0, headerSize);
+        pos[0] += headerSize;
+        long[] values = new long[slots];
+        int fieldOff = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            int base = headerSize + fieldOff;
+            if (type == Type.INT_TYPE) {
+                readInts(src, pos, values, slots);
+                for (int i = 0; i < slots; i++) {
+                    putInt(page, base + i * tupleSize, (int) values[i]);
+                }
+            } else {
+                for (int i = 0; i < slots; i++) {
+                    System.arraycopy(src, pos[0], page, base + i * tupleSize, type.getLen());
+                    pos[0] += type.getLen();
+                }
+            }
+            fieldOff += type.getLen();
+        }
+        int used = headerSize + slots * tupleSize;
+        System.arraycopy(src, pos[0], page, used, page.length - used);
+    }
+
+    private static void writeInts(ByteWriter out, long[] v, int n) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long maxDelta = 0;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, v[i]);
+            max = Math.max(max, v[i]);
+            if (i > 0) {
+                maxDelta = Math.max(maxDelta, zigzag(v[i] - v[i - 1]));
+            }
+        }
+        if (n == 0) {
+            min = max = 0;
+        }
+        int forBits = bits(max - min);
+        int deltaBits = bits(maxDelta);
+        if (deltaBits < forBits) {
+            out.write(DELTA);
+            out.writeInt((int) v[0]);
+            out.write(deltaBits);
+            BitWriter bw = new BitWriter(out);
+            for (int i = 1; i < n; i++) {
+                bw.write(zigzag(v[i] - v[i - 1]), deltaBits);
+            }
+            bw.flush();
+        } else {
+            out.write(FRAME_OF_REFERENCE);
+            out.writeInt((int) min);
+            out.write(forBits);
+            BitWriter bw = new BitWriter(out);
+            for (int i = 0; i < n; i++) {
+                bw.write(v[i] - min, forBits);
+            }
+            bw.flush();
+        }
+    }
+
+    private static void readInts(byte[] src, int[] pos, long[] v, int n) {
+        int mode = src[pos[0]++];
+        long base = getInt(src, pos[0]);
+        pos[0] += 4;
+        int width = src[pos[0]++] & 0xff;
+        BitReader br = new BitReader(src, pos[0]);
+        if (mode == DELTA) {
+            if (n > 0) {
+                v[0] = base;
+            }
+            for (int i = 1; i < n; i++) {
+                v[i] = v[i - 1] + unzigzag(br.read(width));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                v[i] = base + br.read(width);
+            }
+        }
+        pos[0] = br.end();
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int bits(long v) {
+        return 64 - Long.numberOfLeadingZeros(v);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    // ---- LZ77
+
+    private static byte[] lzCompress(byte[] src) {
+        ByteWriter out = new ByteWriter(src.length / 2 + 16);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int literalStart = 0;
+        int i = 0;
+        int limit = src.length - MIN_MATCH;
+        while (i <= limit) {
+            int h = hash(src, i);
+            int candidate = table[h];
+            table[h] = i;
+            if (candidate >= 0 && i - candidate <= MAX_OFFSET && matches(src, candidate, i)) {
+                int len = MIN_MATCH;
+                while (i + len < src.length && src[candidate + len] == src[i + len]) {
+                    len++;
+                }
+                out.writeVarInt(i - literalStart);
+                out.write(src, literalStart, i - literalStart);
+                out.writeVarInt(len - MIN_MATCH);
+                out.write((i - candidate) >>> 8);
+                out.write(i - candidate);
+                i += len;
+                literalStart = i;
+            } else {
+                i++;
+            }
+        }
+        out.writeVarInt(src.length - literalStart);
+        out.write(src, literalStart, src.length - literalStart);
+        return out.toByteArray();
+    }
+
+    private static void lzDecompress(byte[] src, int off, int end, byte[] dst) {
+        int[] pos = {off};
+        int o = 0;
+        while (true) {
+            int literals = readVarInt(src, pos);
+            if (literals > dst.length - o || literals > end - pos[0]) {
+                throw new IllegalArgumentException("corrupt compressed page");
+            }
+            System.arraycopy(src, pos[0], dst, o, literals);
+            pos[0] += literals;
+            o += literals;
+            if (o == dst.length) {
+                return;
+            }
+            int len = readVarInt(src, pos) + MIN_MATCH;
+            int distance = ((src[pos[0]] & 0xff) << 8) | (src[pos[0] + 1] & 0xff);
+            pos[0] += 2;
+            if (distance == 0 || distance > o || len > dst.length - o) {
+                throw new IllegalArgumentException("corrupt compressed page");
+            }
+            // byte by byte: a match may overlap its own output
+            for (int k = 0; k < len; k++, o++) {
+                dst[o] = dst[o - distance];
+            }
+        }
+    }
+
+    private static int hash(byte[] b, int i) {
+        return (getInt(b, i) * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private static boolean matches(byte[] b, int a, int c) {
+        return b[a] == b[c] && b[a + 1] == b[c + 1] && b[a + 2] == b[c + 2] && b[a + 3] == b[c + 3];
+    }
+
+    private static int readVarInt(byte[] b, int[] pos) {
+        int v = 0;
+        int shift = 0;
+        while (true) {
+            int x = b[pos[0]++] & 0xff;
+            v |= (x & 0x7f) << shift;
+            if (x < 0x80) {
+                return v;
+            }
+            shift += 7;
+        }
+    }
+
+    /** A growable byte array. */
+    private static final class ByteWriter {
+        private byte[] buf;
+        private int size;
+
+        ByteWriter(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, size, len);
+            size += len;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            putInt(buf, size, v);
+            size += 4;
+        }
+
+        void writeVarInt(int v) {
+            while ((v & ~0x7f) != 0) {
+                write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    /** Writes values of up to 64 bits, most significant bit first. */
+    private static final class BitWriter {
+        private final ByteWriter out;
+        private long acc;
+        private int bits;
+
+        BitWriter(ByteWriter out) {
+            this.out = out;
+        }
+
+        void write(long v, int width) {
+            if (width == 0) {
+                return;
+            }
+            if (width > 32) {
+                write(v >>> 32, width - 32);
+                width = 32;
+            }
+            acc = (acc << width) | (v & ((1L << width) - 1));
+            bits += width;
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (acc >>> bits));
+            }
+        }
+
+        void flush() {
+            if (bits > 0) {
+                out.write((int) (acc << (8 - bits)));
+                bits = 0;
+            }
+        }
+    }
+
+    /** Reads what a BitWriter wrote. */
+    private static final class BitReader {
+        private final byte[] src;
+        private int pos;
+        private long acc;
+        private int bits;
+
+        BitReader(byte[] src, int pos) {
+            this.src = src;
+            this.pos = pos;
+        }
+
+        long read(int width) {
+            if (width == 0) {
+                return 0;
+            }
+            if (width > 32) {
+                long high = read(width - 32);
+                return (high << 32) | read(32);
+            }
+            while (bits < width) {
+                acc = (acc << 8) | (src[pos++] & 0xff);
+                bits += 8;
+            }
+            bits -= width;
+            return (acc >>> bits) & ((1L << width) - 1);
+        }
+
+        /** @return the position after the last byte read */
+        int end() {
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+/**
+ * PageImage is a copy of the bytes of a resident page, taken under the
+ * page's shard latch, for writing once the latch is released (see
+ * {@link BufferPool#beginCleaning} and {@link BufferPool#flushAllPages}).
+ * Changes made to the page after the copy, which may not be logged yet, do
+ * not reach the disk with it.
+ * <p>
+ * Only {@link #getId} and {@link #getPageData} are meaningful, which is
+ * all {@link DbFile#writePage} and {@link DbFile#writePages} use.
+ */
+final class PageImage implements Page {
+
+    private final PageId pid;
+    private final byte[] data;
+    private final long lsn;
+
+    PageImage(Page page) {
+        this.pid = page.getId();
+        this.data = page.getPageData();
+        this.lsn = page.getLsn();
+    }
+
+    public PageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        throw new UnsupportedOperationException("a page image is not resident");
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        throw new UnsupportedOperationException("a page image is not resident");
+    }
+
+    public byte[] getPageData() {
+        return data;
+    }
+
+    public Page getBeforeImage() {
+        throw new UnsupportedOperationException("a page image is not resident");
+    }
+
+    public void setBeforeImage() {
+        throw new UnsupportedOperationException("a page image is not resident");
+    }
+}
@@ -0,0 +1,238 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PoolSizeController grows and shrinks a BufferPool (see
+ * {@link BufferPool#resize}) to keep the Java heap inside a band, so the
+ * pool can use whatever memory the rest of the process leaves free without
+ * running it out of memory.
+ * <p>
+ * Every {@link #INTERVAL_PROPERTY} milliseconds the controller measures the
+ * heap that survived the last garbage collection (the live data, not the
+ * garbage waiting to be collected) against the maximum heap. Above the
+ * high-water mark ({@link #HIGH_PROPERTY}, 0.85 by default) it shrinks the
+ * pool by the pages that take the heap back to the middle of the band, and
+ * at least a tenth of the pool; below the low-water mark
+ * ({@link #LOW_PROPERTY}, 0.6) it grows the pool towards the middle by at
+ * most a quarter per step, since the heap usage only shows the new pages
+ * once they are read. Each page is counted at twice the page size, for its
+ * data and its before-image. The pool never leaves
+ * [{@link #setLimits min, max}].
+ * <p>
+ * While running, the controller also asks the JVM to notify it when a
+ * collection leaves a heap region above the high-water mark, and then
+ * reacts at once rather than at the next tick.
+ * <p>
+ * The controller only runs after {@link #start}, or when a BufferPool is
+ * created with {@link #CONTROLLER_PROPERTY} set; {@link #adjust} runs one
+ * step in the calling thread at any time.
+ *
+ * @see BufferPool#getSizeController
+ * @Threadsafe
+ */
+public class PoolSizeController {
+
+    /**
+     * System property that starts the controller of new BufferPools, e.g.
+     * {@code -Dsimpledb.storage.poolController=true}.
+     */
+    public static final String CONTROLLER_PROPERTY = "simpledb.storage.poolController";
+
+    /** System property for the pause between steps, in milliseconds. */
+    public static final String INTERVAL_PROPERTY = "simpledb.storage.poolControllerIntervalMs";
+
+    /** System property for the share of the heap above which the pool shrinks. */
+    public static final String HIGH_PROPERTY = "simpledb.storage.poolHeapHigh";
+
+    /** System property for the share of the heap below which the pool grows. */
+    public static final String LOW_PROPERTY = "simpledb.storage.poolHeapLow";
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final BufferPool pool;
+    private volatile double high = Double.parseDouble(System.getProperty(HIGH_PROPERTY, "0.85"));
+    private volatile double low = Double.parseDouble(System.getProperty(LOW_PROPERTY, "0.6"));
+    private volatile int minPages;
+    private volatile int maxPages;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private NotificationListener listener;
+
+    PoolSizeController(BufferPool pool) {
+        this.pool = pool;
+        int pages = pool.getNumPages();
+        this.minPages = Math.max(1, pages / 4);
+        this.maxPages = pages * 4;
+    }
+
+    /**
+     * Set the smallest and largest pool the controller may choose; they
+     * default to a quarter and four times the size the pool was created
+     * with.
+     */
+    public void setLimits(int minPages, int maxPages) {
+        if (minPages < 1 || maxPages < minPages) {
+            throw new IllegalArgumentException("bad limits " + minPages + ", " + maxPages);
+        }
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Set the band of heap usage, as shares of the maximum heap, that the
+     * controller keeps the heap in.
+     */
+    public void setBand(double low, double high) {
+        if (!(0 < low && low < high && high < 1)) {
+            throw new IllegalArgumentException("bad band " + low + ", " + high);
+        }
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Start resizing in the background, every {@link #INTERVAL_PROPERTY}
+     * milliseconds (1000 by default) and after collections that leave the
+     * heap above the high-water mark.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        long interval = Math.max(1, Long.getLong(INTERVAL_PROPERTY, 1000));
+        ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "simpledb-pool-controller-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        s.scheduleWithFixedDelay(this::step, interval, interval, TimeUnit.MILLISECONDS);
+        scheduler = s;
+
+        for (MemoryPoolMXBean region : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = region.getUsage().getMax();
+            if (region.getType() == MemoryType.HEAP && region.isCollectionUsageThresholdSupported() && max > 0) {
+                region.setCollectionUsageThreshold((long) (max * high));
+            }
+        }
+        listener = (Notification n, Object handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(n.getType())) {
+                try {
+                    s.execute(this::step);
+                } catch (RejectedExecutionException e) {
+                    // stopped meanwhile
+                }
+            }
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+    }
+
+    /**
+     * Stop resizing and wait for a running step to finish. The pool keeps
+     * its current size.
+     */
+    public void stop() {
+        ScheduledThreadPoolExecutor s;
+        NotificationListener l;
+        synchronized (this) {
+            s = scheduler;
+            l = listener;
+            scheduler = null;
+            listener = null;
+        }
+        if (s == null) {
+            return;
+        }
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(l);
+        } catch (ListenerNotFoundException e) {
+            // already gone
+        }
+        s.shutdown();
+        try {
+            s.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    private void step() {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            // keep controlling; the pool keeps its size until the next step
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Measure the heap and resize the pool once, as described above.
+     *
+     * @return the new size of the pool
+     */
+    public int adjust() {
+        return adjust(liveHeap(), Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Resize the pool once for the given heap usage.
+     *
+     * @param usedBytes the bytes of the heap in use
+     * @param maxBytes the maximum size of the heap
+     * @return the new size of the pool
+     */
+    public synchronized int adjust(long usedBytes, long maxBytes) {
+        int size = pool.getNumPages();
+        long perPage = 2L * BufferPool.getPageSize();
+        long middle = (long) (maxBytes * (low + high) / 2);
+        long target = size;
+        if (usedBytes > maxBytes * high) {
+            target = size - Math.max(size / 10, (usedBytes - middle) / perPage);
+        } else if (usedBytes < maxBytes * low) {
+            target = size + Math.min(Math.max(1, size / 4), (middle - usedBytes) / perPage);
+        }
+        int pages = (int) Math.max(minPages, Math.min(maxPages, target));
+        if (pages != size) {
+            try {
+                pool.resize(pages);
+            } catch (DbException e) {
+                // pages that can't be evicted yet go as soon as they can
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return the bytes of the heap that survived the latest collection of
+     *   each region, or the bytes in use if no collection has happened yet
+     */
+    private static long liveHeap() {
+        long live = 0;
+        for (MemoryPoolMXBean region : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (region.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage afterGc = region.getCollectionUsage();
+            live += afterGc != null ? afterGc.getUsed() : region.getUsage().getUsed();
+        }
+        return live > 0 ? live : ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,324 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * ReadAhead reads pages into the BufferPool on background threads ahead of
+ * the scans that will need them, so that a scan overlaps its own work with
+ * the I/O for the pages that follow.
+ * <p>
+ * Each scan owns a stream that watches the pages it visits:
+ * <ul>
+ * <li>a {@link SequentialStream} for files whose pages are numbered in scan
+ * order (HeapFile), which can issue the next pages directly;</li>
+ * <li>a {@link ChainStream} for pages linked by pointers (the right-sibling
+ * chain of B+ tree leaves), where a page has to be read to learn the next
+ * one, so a background task walks the chain.</li>
+ * </ul>
+ * The window of a stream, the number of pages kept in flight ahead of the
+ * scan, starts at {@link #MIN_WINDOW} once the access is seen to be
+ * sequential, doubles every time the scan uses up half of it, and is capped
+ * at a quarter of the pool (and {@link #MAX_WINDOW}) so read-ahead cannot
+ * flush the pool by itself. A jump resets it.
+ * <p>
+ * Read-ahead is advisory: pages that cannot be read or given room are simply
+ * not prefetched, and a scan never waits for a queued read (see the
+ * read-ahead note of {@link BufferPool}).
+ *
+ * @see BufferPool#getReadAhead
+ */
+public class ReadAhead {
+
+    /**
+     * System property to turn read-ahead off, e.g.
+     * {@code -Dsimpledb.storage.readAhead=false}.
+     */
+    public static final String READ_AHEAD_PROPERTY = "simpledb.storage.readAhead";
+
+    /**
+     * System property for the number of background read threads, e.g.
+     * {@code -Dsimpledb.storage.readAheadThreads=4}.
+     */
+    public static final String THREADS_PROPERTY = "simpledb.storage.readAheadThreads";
+
+    /** Window of a stream that has just turned sequential. */
+    public static final int MIN_WINDOW = 4;
+
+    /** Largest window of any stream. */
+    public static final int MAX_WINDOW = 64;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final BufferPool pool;
+    private volatile int maxWindow;
+    private final ThreadPoolExecutor executor;
+    private volatile boolean enabled;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder loaded = new LongAdder();
+
+    /**
+     * @param pool the pool to read pages into
+     * @param poolPages the capacity of the pool
+     */
+    ReadAhead(BufferPool pool, int poolPages) {
+        this.pool = pool;
+        setPoolPages(poolPages);
+        this.enabled = Boolean.parseBoolean(System.getProperty(READ_AHEAD_PROPERTY, "true"));
+        int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, 2));
+        // idle threads exit, so pools dropped by Database.reset leave nothing behind
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "simpledb-read-ahead-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Follow a change of the pool's capacity; streams opened later use it. */
+    void setPoolPages(int poolPages) {
+        this.maxWindow = Math.max(0, Math.min(MAX_WINDOW, poolPages / 4));
+    }
+
+    /**
+     * Turn read-ahead on or off; streams in use stop issuing reads while off.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled && maxWindow > 0;
+    }
+
+    /** @return the largest window a stream of this pool may reach */
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /** @return the number of background page reads queued */
+    public long getIssued() {
+        return issued.sum();
+    }
+
+    /** @return the number of pages installed in the pool by background reads */
+    public long getLoaded() {
+        return loaded.sum();
+    }
+
+    /**
+     * Queue a background read of one page, unless it is resident or
+     * already on its way.
+     */
+    public void prefetch(PageId pid) {
+        BufferPool.Load load = pool.reserveLoad(pid);
+        if (load == null) {
+            return;
+        }
+        issued.increment();
+        executor.execute(() -> {
+            if (pool.runLoad(load) != null) {
+                loaded.increment();
+            }
+        });
+    }
+
+    /**
+     * Queue a background read of several pages, except those resident or
+     * already on their way. The pages are read together, so pages that are
+     * adjacent on disk come in with a single read (see
+     * {@link DbFile#readPages}).
+     */
+    public void prefetch(List<PageId> pids) {
+        prefetch(pids, null);
+    }
+
+    private void prefetch(List<PageId> pids, BufferRing ring) {
+        List<BufferPool.Load> loads = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            BufferPool.Load load = pool.reserveLoad(pid, ring);
+            if (load != null) {
+                loads.add(load);
+            }
+        }
+        if (loads.isEmpty()) {
+            return;
+        }
+        issued.add(loads.size());
+        executor.execute(() -> loaded.add(pool.runLoads(loads)));
+    }
+
+    /**
+     * @return a stream for a scan of the pages 0 .. numPages-1 of a table
+     *   whose pages are HeapPageIds
+     */
+    public SequentialStream sequential(int tableId, int numPages) {
+        return new SequentialStream(tableId, numPages, null);
+    }
+
+    /**
+     * @return a stream for a scan of the pages 0 .. numPages-1 of a table
+     *   whose pages are HeapPageIds, that reads them into the given ring;
+     *   its window is at most half the ring, so pages read ahead are not
+     *   pushed out of the ring before the scan gets to them
+     */
+    public SequentialStream sequential(int tableId, int numPages, BufferRing ring) {
+        return new SequentialStream(tableId, numPages, ring);
+    }
+
+    /**
+     * @param next gives the page that follows a page in the chain, or null
+     *   at the end
+     * @return a stream for a scan that follows a chain of pages
+     */
+    public ChainStream chain(Function<Page, PageId> next) {
+        return new ChainStream(next);
+    }
+
+    /**
+     * Read-ahead for a scan over consecutive page numbers. Not thread-safe;
+     * each scan has its own.
+     */
+    public final class SequentialStream {
+        private final int tableId;
+        private final int numPages;
+        private final BufferRing ring;
+        private final int maxWindow;
+        private int last = -1;
+        private int window = 0;
+        // highest page number issued so far
+        private int issuedTo = -1;
+
+        private SequentialStream(int tableId, int numPages, BufferRing ring) {
+            this.tableId = tableId;
+            this.numPages = numPages;
+            this.ring = ring;
+            this.maxWindow = ring == null ? ReadAhead.this.maxWindow
+                    : Math.min(ReadAhead.this.maxWindow, ring.getCapacity() / 2);
+        }
+
+        /**
+         * Tell the stream the scan is about to read page pageNo. Call it
+         * before fetching the page, so the reads ahead overlap with it.
+         */
+        public void accessed(int pageNo) {
+            boolean sequential = pageNo == last + 1;
+            last = pageNo;
+            if (!sequential) {
+                window = 0;
+                issuedTo = pageNo;
+                return;
+            }
+            if (!isEnabled() || maxWindow == 0 || issuedTo - pageNo > window / 2) {
+                return;
+            }
+            window = window == 0 ? Math.min(MIN_WINDOW, maxWindow) : Math.min(window * 2, maxWindow);
+            int to = Math.min(pageNo + window, numPages - 1);
+            List<PageId> run = new ArrayList<>();
+            for (int p = Math.max(issuedTo, pageNo) + 1; p <= to; p++) {
+                run.add(new HeapPageId(tableId, p));
+            }
+            prefetch(run, ring);
+            issuedTo = Math.max(issuedTo, to);
+        }
+
+        /** @return the current window, 0 while the access is not sequential */
+        public int getWindow() {
+            return window;
+        }
+    }
+
+    /**
+     * Read-ahead for a scan that follows pointers from page to page. The
+     * pages are read by a background task that walks the chain; the scan
+     * only decides when the next stretch is needed. Each scan has its own.
+     */
+    public final class ChainStream {
+        private final Function<Page, PageId> next;
+        private int window = 0;
+        // pages issued beyond the one the scan is on; owned by the scan
+        private int ahead = 0;
+        // set by the background walk
+        private volatile boolean walking = false;
+        private volatile boolean broken = false;
+        private volatile PageId resumeAt = null;
+
+        private ChainStream(Function<Page, PageId> next) {
+            this.next = next;
+        }
+
+        /**
+         * Tell the stream the scan has moved to page. Call it right after
+         * fetching the page, before using it.
+         */
+        public void accessed(Page page) {
+            if (ahead > 0) {
+                ahead--;
+            }
+            if (!isEnabled() || walking) {
+                return;
+            }
+            PageId start;
+            if (window == 0 || broken) {
+                // first stretch, or the scan caught up with the walk
+                broken = false;
+                ahead = 0;
+                start = next.apply(page);
+            } else if (ahead > window / 2) {
+                return;
+            } else {
+                start = resumeAt;
+            }
+            if (start == null) {
+                return;
+            }
+            window = window == 0 ? Math.min(MIN_WINDOW, maxWindow) : Math.min(window * 2, maxWindow);
+            ahead += window;
+            walking = true;
+            int count = window;
+            executor.execute(() -> walk(start, count));
+        }
+
+        private void walk(PageId pid, int count) {
+            try {
+                for (int i = 0; i < count && pid != null; i++) {
+                    BufferPool.Load load = pool.reserveLoad(pid);
+                    Page page;
+                    if (load != null) {
+                        issued.increment();
+                        page = pool.runLoad(load);
+                        if (page != null) {
+                            loaded.increment();
+                        }
+                    } else {
+                        page = pool.peekPage(pid);
+                    }
+                    if (page == null) {
+                        // the scan is reading it itself, or it cannot be read
+                        broken = true;
+                        return;
+                    }
+                    pid = next.apply(page);
+                }
+                resumeAt = pid;
+            } catch (RuntimeException e) {
+                broken = true;
+            } finally {
+                walking = false;
+            }
+        }
+
+        /** @return the current window, 0 before the first stretch */
+        public int getWindow() {
+            return window;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs room for a new one.
+ * <p>
+ * The BufferPool tells the policy about every page that enters the pool
+ * ({@link #pageAdmitted}), every hit on a resident page
+ * ({@link #pageAccessed}) and every page that leaves the pool for reasons of
+ * its own ({@link #pageRemoved}, e.g. discardPage). When a frame is needed it
+ * asks for a victim with {@link #chooseVictim}.
+ * <p>
+ * pageAccessed is called on every BufferPool hit, so implementations must not
+ * allocate on that path; they typically keep a fixed table of frames sized
+ * to the pool capacity and reuse those frames as pages come and go.
+ * <p>
+ * Implementations are not thread-safe; the BufferPool serializes calls.
+ * <p>
+ * Each shard of the pool has a policy of its own, so the pool is given a
+ * factory rather than a policy, which it calls with the number of pages of
+ * each shard: {@code new BufferPool(numPages, LruKPolicy::new)}.
+ * CLOCK-Pro is the default.
+ *
+ * @see BufferPool
+ * @see ClockProPolicy
+ * @see LruKPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that a page has just been read into the pool.
+     *
+     * @param pid the page that became resident
+     */
+    void pageAdmitted(PageId pid);
+
+    /**
+     * Record a hit on a page that is already resident.
+     *
+     * @param pid the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Forget a resident page that left the pool without being chosen as a
+     * victim (e.g. it was discarded). Does nothing if pid is not tracked.
+     *
+     * @param pid the page that is no longer resident
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict and stop tracking it.
+     *
+     * @param evictable filter for pages that may currently be evicted
+     * @return the victim, or null if no tracked page passes the filter
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * @return the number of resident pages currently tracked
+     */
+    int size();
+
+    /**
+     * Adapt to a new number of pages in the pool (see
+     * {@link BufferPool#resize}). The pool evicts pages down to a smaller
+     * capacity itself, through {@link #chooseVictim}, right after this call.
+     *
+     * @param capacity the new number of pages in the pool
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * List the resident pages by how much the policy wants to keep them,
+     * hottest first. Used to save the hot set of the pool (see
+     * {@link WarmRestart}); not called on any hot path.
+     *
+     * @return the tracked pages, hottest first
+     */
+    List<PageId> residentByHotness();
+}
@@ -0,0 +1,151 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * SlotLayout describes how the image of a page ({@link Page#getPageData})
+ * divides into slots, so that LogFile can log the slots an update changed
+ * instead of the whole page (see {@link Page#getSlotLayout}).
+ * <p>
+ * An image starts with some fixed bytes that belong to no slot, such as the
+ * parent and sibling pointers of a B+ tree page. It has a bitmap of the
+ * slots in use, bit {@code i % 8} of byte {@code i / 8} for slot i. The
+ * rest is made of regions that each hold a run of equal-sized pieces, one
+ * per slot from some first slot on: a heap page has one region of tuples,
+ * an internal B+ tree page a region of keys (from slot 1) and one of child
+ * pointers (from slot 0), so that a slot there is an entry. The image of a
+ * slot is its pieces, in region order, or null if the slot is not in use.
+ */
+public class SlotLayout {
+
+    private final int fixed;
+    private final int bitmap;
+    private final int slots;
+    private int[] offsets = new int[0];
+    private int[] sizes = new int[0];
+    private int[] firsts = new int[0];
+    private int slotSize = 0;
+
+    /**
+     * @param fixed the number of bytes at the start of the image that belong
+     *   to no slot
+     * @param bitmap the offset of the bitmap of slots in use
+     * @param slots the number of slots
+     */
+    public SlotLayout(int fixed, int bitmap, int slots) {
+        this.fixed = fixed;
+        this.bitmap = bitmap;
+        this.slots = slots;
+    }
+
+    /**
+     * Add a region to the layout.
+     *
+     * @param offset the offset of the piece of slot first
+     * @param size the size of the piece of each slot
+     * @param first the first slot with a piece in the region
+     * @return this
+     */
+    public SlotLayout region(int offset, int size, int first) {
+        int n = offsets.length;
+        offsets = Arrays.copyOf(offsets, n + 1);
+        sizes = Arrays.copyOf(sizes, n + 1);
+        firsts = Arrays.copyOf(firsts, n + 1);
+        offsets[n] = offset;
+        sizes[n] = size;
+        firsts[n] = first;
+        slotSize += size;
+        return this;
+    }
+
+    public int getNumSlots() {
+        return slots;
+    }
+
+    /** @return true if slot i of image is in use */
+    public boolean isUsed(byte[] image, int i) {
+        return (image[bitmap + i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /** @return the image of slot i, or null if it is not in use */
+    public byte[] getSlot(byte[] image, int i) {
+        if (!isUsed(image, i)) {
+            return null;
+        }
+        byte[] slot = new byte[slotSize];
+        int pos = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            if (i >= firsts[r]) {
+                System.arraycopy(image, offsets[r] + (i - firsts[r]) * sizes[r], slot, pos, sizes[r]);
+                pos += sizes[r];
+            }
+        }
+        return pos == slotSize ? slot : Arrays.copyOf(slot, pos);
+    }
+
+    /**
+     * Set slot i of image: in use with the given pieces, or not in use, with
+     * zeroed pieces, if slot is null.
+     */
+    public void setSlot(byte[] image, int i, byte[] slot) {
+        if (slot == null) {
+            image[bitmap + i / 8] &= (byte) ~(1 << (i % 8));
+        } else {
+            image[bitmap + i / 8] |= (byte) (1 << (i % 8));
+        }
+        int pos = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            if (i >= firsts[r]) {
+                int off = offsets[r] + (i - firsts[r]) * sizes[r];
+                if (slot == null) {
+                    Arrays.fill(image, off, off + sizes[r], (byte) 0);
+                } else {
+                    System.arraycopy(slot, pos, image, off, sizes[r]);
+                }
+                pos += sizes[r];
+            }
+        }
+    }
+
+    /** @return true if slot i is the same in both images */
+    public boolean sameSlot(byte[] a, byte[] b, int i) {
+        boolean used = isUsed(a, i);
+        if (used != isUsed(b, i)) {
+            return false;
+        }
+        if (!used) {
+            return true;
+        }
+        for (int r = 0; r < offsets.length; r++) {
+            if (i >= firsts[r]) {
+                int off = offsets[r] + (i - firsts[r]) * sizes[r];
+                for (int j = off; j < off + sizes[r]; j++) {
+                    if (a[j] != b[j]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return the bytes of image that belong to no slot */
+    public byte[] getFixed(byte[] image) {
+        return Arrays.copyOf(image, fixed);
+    }
+
+    /** Set the bytes of image that belong to no slot. */
+    public void setFixed(byte[] image, byte[] bytes) {
+        System.arraycopy(bytes, 0, image, 0, fixed);
+    }
+
+    /** @return true if the bytes that belong to no slot are the same in both images */
+    public boolean sameFixed(byte[] a, byte[] b) {
+        for (int j = 0; j < fixed; j++) {
+            if (a[j] != b[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,384 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a HeapFile in the slotted format (see
+ * {@link HeapFile.PageFormat#SLOTTED}), which stores strings at their
+ * actual length instead of padding every one to {@link Type#STRING_LEN}
+ * bytes.
+ * <p>
+ * The page starts with a four-byte header: the number of entries in the
+ * slot directory and the offset where tuple data starts, both unsigned
+ * shorts (an offset of 0 means the end of the page). The slot directory
+ * follows, one four-byte entry per slot holding the offset and length of
+ * the slot's tuple, or zeroes for an empty slot. Tuples are packed from the
+ * end of the page towards the directory. In a tuple an int takes four
+ * bytes as usual and a string takes a length byte and one byte per
+ * character, or a four-byte code if the column is dictionary-encoded
+ * (see {@link StringDictionary}). An all-zero page is an empty page, as
+ * in the fixed format, so empty pages can be created the same way.
+ * <p>
+ * A slot keeps its number while its tuple is on the page, so RecordIds
+ * stay valid; deleting a tuple leaves a hole that is reclaimed by
+ * compacting the page when an insert needs the room. Tuples returned by
+ * the page are copies: to change one, delete it and insert the new
+ * version. Like HeapPage, the page bytes are updated in place and copied
+ * on write while shared with the before-image or an iterator.
+ * <p>
+ * Page offsets are stored in two bytes, so pages may be at most 64 KB.
+ *
+ * @see HeapFile
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    // entry count and start of tuple data
+    private static final int HEADER_SIZE = 4;
+    // offset and length of a tuple
+    private static final int SLOT_SIZE = 4;
+
+    private final int pageSize;
+    private final int minTupleSize;
+    private byte[] data;
+    private boolean shared;
+    // bytes of tuple data in use
+    private int liveBytes;
+
+    /**
+     * Create a page from its bytes; the caller must not modify data
+     * afterwards.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()));
+        this.pageSize = BufferPool.getPageSize();
+        if (pageSize > 1 << 16) {
+            throw new IllegalStateException("slotted pages are at most 64 KB, not " + pageSize);
+        }
+        this.minTupleSize = minTupleSize(layout);
+        if (data.length != pageSize) {
+            data = Arrays.copyOf(data, pageSize);
+        }
+        this.data = data;
+        this.shared = true;
+        this.oldData = data;
+        for (int i = 0; i < slotCount(); i++) {
+            liveBytes += slotLength(i);
+        }
+    }
+
+    /**
+     * @return the number of bytes a tuple of td takes when every string is
+     *   empty
+     */
+    private static int minTupleSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.STRING_TYPE ? 1 : td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of tuples with empty strings that fit on an empty
+     *   page of a table with the given TupleDesc
+     */
+    static int slotsPerPage(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (minTupleSize(td) + SLOT_SIZE);
+    }
+
+    /**
+     * @return the number of empty slots of the page with the given bytes,
+     *   as {@link #getNumEmptySlots} counts them
+     */
+    static int emptySlots(byte[] page, TupleDesc td) {
+        int n = u16(page, 0);
+        int live = 0;
+        for (int i = 0; i < n; i++) {
+            live += u16(page, HEADER_SIZE + i * SLOT_SIZE + 2);
+        }
+        int free = page.length - HEADER_SIZE - n * SLOT_SIZE - live;
+        return Math.max(0, free) / (minTupleSize(td) + SLOT_SIZE);
+    }
+
+    private static int u16(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    private static void putU16(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    private int slotCount() {
+        return u16(data, 0);
+    }
+
+    private int dataStart() {
+        int start = u16(data, 2);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int slotOffset(int i) {
+        return u16(data, HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int slotLength(int i) {
+        return u16(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(byte[] b, int i, int offset, int length) {
+        putU16(b, HEADER_SIZE + i * SLOT_SIZE, offset);
+        putU16(b, HEADER_SIZE + i * SLOT_SIZE + 2, length);
+    }
+
+    private int freeBytes() {
+        return pageSize - HEADER_SIZE - slotCount() * SLOT_SIZE - liveBytes;
+    }
+
+    /** @return the first empty directory entry, or -1 if there is none */
+    private int freeEntry() {
+        for (int i = 0; i < slotCount(); i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void beforeWrite() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Move the tuples to the end of the page, so that the holes left by
+     * deletes become one free area.
+     */
+    private void compact() {
+        byte[] out = new byte[pageSize];
+        int n = slotCount();
+        System.arraycopy(data, 0, out, 0, HEADER_SIZE + n * SLOT_SIZE);
+        int pos = pageSize;
+        for (int i = 0; i < n; i++) {
+            int off = slotOffset(i);
+            if (off != 0) {
+                int len = slotLength(i);
+                pos -= len;
+                System.arraycopy(data, off, out, pos, len);
+                setSlot(out, i, pos, len);
+            }
+        }
+        putU16(out, 2, pos == pageSize ? 0 : pos);
+        data = out;
+        shared = false;
+    }
+
+    private int encodedSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < layout.numFields(); j++) {
+            Type type = layout.getFieldType(j);
+            if (type == Type.STRING_TYPE) {
+                Field f = t.getField(j);
+                size += 1 + (f == null ? 0 : Math.min(((StringField) f).getValue().length(), Type.STRING_LEN));
+            } else {
+                size += type.getLen();
+            }
+        }
+        return size;
+    }
+
+    private void encode(Tuple t, byte[] b, int pos) {
+        for (int j = 0; j < layout.numFields(); j++) {
+            Type type = layout.getFieldType(j);
+            Field f = t.getField(j);
+            if (type == Type.STRING_TYPE) {
+                String s = f == null ? "" : ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                b[pos++] = (byte) len;
+                // one byte per char, like the fixed format
+                for (int k = 0; k < len; k++) {
+                    b[pos++] = (byte) s.charAt(k);
+                }
+            } else {
+                writeField(j, f, b, pos);
+                pos += type.getLen();
+            }
+        }
+    }
+
+    private Tuple decode(byte[] b, int pos, int slot) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < layout.numFields(); j++) {
+            Type type = layout.getFieldType(j);
+            if (type == Type.STRING_TYPE) {
+                int len = b[pos] & 0xff;
+                t.setField(j, new StringField(new String(b, pos + 1, len), Type.STRING_LEN));
+                pos += 1 + len;
+            } else if (dictionaries != null && dictionaries[j] != null) {
+                t.setField(j, dictionaries[j].read(b, pos));
+                pos += type.getLen();
+            } else {
+                t.setField(j, type.parse(b, pos));
+                pos += type.getLen();
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Tuples move when the page is compacted, so updates are logged as
+     * whole images.
+     */
+    @Override
+    public SlotLayout getSlotLayout() {
+        return null;
+    }
+
+    @Override
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (this) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void setBeforeImage() {
+        oldData = data;
+        shared = true;
+    }
+
+    @Override
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Returns the number of tuples with empty strings that still fit on
+     * this page, counting the space that compaction would reclaim; whether
+     * a given tuple fits is told by {@link #hasRoomFor}.
+     */
+    @Override
+    public synchronized int getNumEmptySlots() {
+        return Math.max(0, freeBytes()) / (minTupleSize + SLOT_SIZE);
+    }
+
+    @Override
+    public synchronized boolean hasRoomFor(Tuple t) {
+        int need = encodedSize(t) + (freeEntry() == -1 ? SLOT_SIZE : 0);
+        return need <= freeBytes();
+    }
+
+    @Override
+    public synchronized boolean isSlotUsed(int i) {
+        return i >= 0 && i < slotCount() && slotOffset(i) != 0;
+    }
+
+    @Override
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the TupleDesc of page " + pid.getPageNumber());
+        }
+        int size = encodedSize(t);
+        int slot = freeEntry();
+        int n = slotCount();
+        int entries = slot == -1 ? n + 1 : n;
+        if (size + (entries - n) * SLOT_SIZE > freeBytes()) {
+            throw new DbException("page " + pid.getPageNumber() + " is full");
+        }
+        beforeWrite();
+        if (dataStart() - (HEADER_SIZE + entries * SLOT_SIZE) < size) {
+            compact();
+        }
+        if (slot == -1) {
+            slot = n;
+            putU16(data, 0, entries);
+        }
+        int pos = dataStart() - size;
+        encode(t, data, pos);
+        putU16(data, 2, pos);
+        setSlot(data, slot, pos, size);
+        liveBytes += size;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    @Override
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid.getPageNumber());
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid.getPageNumber() + " is already empty");
+        }
+        beforeWrite();
+        liveBytes -= slotLength(slot);
+        setSlot(data, slot, 0, 0);
+        int n = slotCount();
+        while (n > 0 && slotOffset(n - 1) == 0) {
+            n--;
+        }
+        if (n == 0) {
+            // back to the bytes of an empty page
+            Arrays.fill(data, (byte) 0);
+            liveBytes = 0;
+        } else {
+            putU16(data, 0, n);
+        }
+        t.setRecordId(null);
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        final byte[] snapshot;
+        final int[] slots;
+        int count = 0;
+        synchronized (this) {
+            snapshot = data;
+            shared = true;
+            slots = new int[slotCount()];
+            for (int i = 0; i < slots.length; i++) {
+                if (slotOffset(i) != 0) {
+                    slots[count++] = i;
+                }
+            }
+        }
+        final int used = count;
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < used;
+            }
+
+            @Override
+            public Tuple next() {
+                if (next >= used) {
+                    throw new NoSuchElementException();
+                }
+                int slot = slots[next++];
+                return decode(snapshot, u16(snapshot, HEADER_SIZE + slot * SLOT_SIZE), slot);
+            }
+        };
+    }
+}
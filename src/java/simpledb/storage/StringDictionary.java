@@ -0,0 +1,200 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StringDictionary holds the values of one dictionary-encoded string column
+ * of a HeapFile (see {@link HeapFile#getDictionary}). Pages store a
+ * four-byte code in place of each value; the dictionary maps codes back to
+ * values and new values to new codes.
+ * <p>
+ * Every code decodes to the same {@link DictionaryField}, so reading a
+ * value allocates nothing, and fields of the same dictionary compare and
+ * hash by their codes.
+ * <p>
+ * The values are kept in a side file next to the heap file
+ * ({@code <file>.dict<column>}), in the order of their codes: a length byte
+ * and one byte per character, as in the fixed page format. A new value is
+ * forced to the side file before its code is returned, so no page on disk
+ * or in the log refers to a code that is lost in a crash; a value torn by
+ * a crash has no code in use and is dropped. Code 0 is the empty string,
+ * which an all-zero field decodes to in both formats.
+ * <p>
+ * Codes are never reused or removed, so the dictionary only suits columns
+ * with few distinct values.
+ *
+ * @Threadsafe
+ */
+public class StringDictionary {
+
+    private final File file;
+
+    // guarded by this
+    private final Map<String, DictionaryField> codes = new HashMap<>();
+    private long fileSize = 0;
+    private boolean loaded = false;
+    // indexed by code; a slot is set before its code is handed out
+    private volatile DictionaryField[] fields = new DictionaryField[0];
+
+    /**
+     * @param file the side file that holds the values
+     */
+    public StringDictionary(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of codes in use
+     */
+    public synchronized int size() {
+        load();
+        return codes.size();
+    }
+
+    /**
+     * @return the field of code, which must be in use
+     * @throws IllegalArgumentException if no value has that code
+     */
+    public DictionaryField decode(int code) {
+        DictionaryField[] f = fields;
+        if (code >= 0 && code < f.length && f[code] != null) {
+            return f[code];
+        }
+        synchronized (this) {
+            load();
+            f = fields;
+            if (code < 0 || code >= codes.size()) {
+                throw new IllegalArgumentException("no value has code " + code + " in " + file);
+            }
+            return f[code];
+        }
+    }
+
+    /**
+     * @return the field of the value of s if it has a code, or null; no
+     *   code is added
+     */
+    public synchronized DictionaryField lookup(StringField s) {
+        load();
+        return codes.get(truncate(s.getValue()));
+    }
+
+    /**
+     * @return the code of the value of s, adding one if needed
+     * @throws IllegalStateException if a new value can't be written to the
+     *   side file
+     */
+    public int encode(StringField s) {
+        if (s instanceof DictionaryField && ((DictionaryField) s).getDictionary() == this) {
+            return ((DictionaryField) s).getCode();
+        }
+        synchronized (this) {
+            load();
+            String value = truncate(s.getValue());
+            DictionaryField f = codes.get(value);
+            return f != null ? f.getCode() : add(value).getCode();
+        }
+    }
+
+    /** Read the code at pos of b and decode it. */
+    DictionaryField read(byte[] b, int pos) {
+        return decode(((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+                | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff));
+    }
+
+    /** Write the code of s, adding one if needed, at pos of b. */
+    void write(StringField s, byte[] b, int pos) {
+        int code = encode(s);
+        b[pos] = (byte) (code >>> 24);
+        b[pos + 1] = (byte) (code >>> 16);
+        b[pos + 2] = (byte) (code >>> 8);
+        b[pos + 3] = (byte) code;
+    }
+
+    private static String truncate(String s) {
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /**
+     * Append value to the side file and give it the next code; the caller
+     * holds the monitor.
+     */
+    private DictionaryField add(String value) {
+        byte[] b = new byte[1 + value.length()];
+        b[0] = (byte) value.length();
+        // one byte per char, like the fixed format
+        for (int i = 0; i < value.length(); i++) {
+            b[i + 1] = (byte) value.charAt(i);
+        }
+        try {
+            Database.getFileHandleManager().write(file, fileSize, b);
+            Database.getFileHandleManager().force(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("can't extend dictionary " + file, e);
+        }
+        fileSize += b.length;
+        // the value as it will read back from the file
+        return publish(new String(b, 1, value.length()));
+    }
+
+    private DictionaryField publish(String value) {
+        DictionaryField f = new DictionaryField(value, this, codes.size());
+        codes.put(value, f);
+        // readers that miss the new slot take the monitor; the fields of a
+        // DictionaryField are final, so it is safe to share
+        DictionaryField[] grown = fields;
+        if (f.getCode() >= grown.length) {
+            grown = Arrays.copyOf(grown, Math.max(16, grown.length * 2));
+        }
+        grown[f.getCode()] = f;
+        fields = grown;
+        return f;
+    }
+
+    /** Read the side file, if not yet done; the caller holds the monitor. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        try {
+            long size = file.exists() ? Database.getFileHandleManager().size(file) : 0;
+            byte[] b = new byte[(int) size];
+            if (size > 0) {
+                Database.getFileHandleManager().read(file, 0, ByteBuffer.wrap(b));
+            }
+            int pos = 0;
+            while (pos < b.length && pos + 1 + (b[pos] & 0xff) <= b.length) {
+                int len = b[pos] & 0xff;
+                publish(new String(b, pos + 1, len));
+                pos += 1 + len;
+            }
+            if (pos < b.length) {
+                // a value torn by a crash
+                Database.getFileHandleManager().close(file);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(pos);
+                }
+            }
+            fileSize = pos;
+        } catch (IOException e) {
+            throw new IllegalStateException("can't read dictionary " + file, e);
+        }
+        loaded = true;
+        if (codes.isEmpty()) {
+            add("");
+        }
+    }
+}
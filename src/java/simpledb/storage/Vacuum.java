@@ -0,0 +1,387 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vacuum compacts a HeapFile while it is in use: it moves the tuples of the
+ * last pages of the file into free slots of the first ones, and then cuts
+ * the empty pages off the end of the file, so that deletes stop costing
+ * scans pages.
+ * <p>
+ * A pass works from both ends of the file. The source is the last page not
+ * yet emptied; the target is the first page that the free-space map says
+ * has room. Tuples move from source to target until the two meet, so after
+ * a pass the tuples fill a prefix of the file as densely as the pages
+ * allow. The moves of each batch of {@link #BATCH} source pages are one
+ * transaction, whose pages are written (after their log records) before it
+ * commits. Once the moves are committed, a transaction of its own checks
+ * that the trailing pages are still empty, discards them from the
+ * BufferPool and truncates the file, so a crash or a failure while the
+ * file is cut loses no tuples. A batch that fails is aborted, which rolls
+ * it back through the log, and ends the pass.
+ * <p>
+ * The pages are fetched with {@link Permissions#READ_WRITE}, but the
+ * BufferPool has no lock manager yet and takes no page locks, so a pass
+ * must not run while transactions write the same table; it keeps inserts
+ * off the pages it empties through the free-space map only.
+ * <p>
+ * A moved tuple gets a new {@link RecordId}. Indexes on the table register
+ * a {@link MoveListener} to hear of every move within the transaction that
+ * makes it.
+ * <p>
+ * Passes read and write at most {@link #RATE_PROPERTY} pages per second.
+ * They run in the calling thread with {@link #run}, or in the background,
+ * every {@link #INTERVAL_PROPERTY} milliseconds, after {@link #start}.
+ *
+ * @see HeapFile#getVacuum
+ * @Threadsafe
+ */
+public class Vacuum {
+
+    /** System property for the most pages a pass touches per second; 0 for no limit. */
+    public static final String RATE_PROPERTY = "simpledb.storage.vacuumRate";
+
+    /** System property for the pause between background passes, in milliseconds. */
+    public static final String INTERVAL_PROPERTY = "simpledb.storage.vacuumIntervalMs";
+
+    /** Source pages emptied by one transaction. */
+    public static final int BATCH = 16;
+
+    /**
+     * Hears of the tuples a vacuum moves.
+     */
+    public interface MoveListener {
+        /**
+         * Called when a tuple has moved, within the moving transaction.
+         *
+         * @param tid the transaction of the vacuum
+         * @param t the tuple, whose RecordId is already the new one
+         * @param from the old RecordId of the tuple
+         */
+        void tupleMoved(TransactionId tid, Tuple t, RecordId from) throws DbException;
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final HeapFile file;
+    private final List<MoveListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object passLock = new Object();
+    private volatile int rate = Math.max(0, Integer.getInteger(RATE_PROPERTY, 1000));
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private volatile boolean stopping = false;
+
+    private final LongAdder pagesScanned = new LongAdder();
+    private final LongAdder tuplesMoved = new LongAdder();
+    private final LongAdder pagesTruncated = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    // progress of the running pass, or of the last one
+    private volatile int passPages = 0;
+    private volatile int passLeft = 0;
+
+    Vacuum(HeapFile file) {
+        this.file = file;
+    }
+
+    public void addListener(MoveListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(MoveListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Set the most pages a pass reads or writes per second; 0 for no
+     * limit. Defaults to {@link #RATE_PROPERTY}, or 1000.
+     */
+    public void setRate(int pagesPerSecond) {
+        if (pagesPerSecond < 0) {
+            throw new IllegalArgumentException("negative rate");
+        }
+        this.rate = pagesPerSecond;
+    }
+
+    /**
+     * Start running passes in the background: one now, and then one every
+     * {@link #INTERVAL_PROPERTY} milliseconds (10 minutes by default).
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        long interval = Math.max(1, Long.getLong(INTERVAL_PROPERTY, 600000));
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "simpledb-vacuum-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        stopping = false;
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (DbException | IOException | RuntimeException e) {
+                // the next pass starts over from the state on disk
+                e.printStackTrace();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background passes. A running pass stops after its current
+     * batch, which commits.
+     */
+    public void stop() {
+        ScheduledThreadPoolExecutor s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s == null) {
+            return;
+        }
+        stopping = true;
+        s.shutdown();
+        try {
+            s.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopping = false;
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Compact the file once, as described above. Passes do not overlap.
+     *
+     * @return the number of pages cut off the end of the file
+     */
+    public int run() throws DbException, IOException {
+        synchronized (passLock) {
+            try {
+                return pass();
+            } finally {
+                passes.increment();
+            }
+        }
+    }
+
+    private int pass() throws DbException, IOException {
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap freeSpace = file.getFreeSpaceMap();
+        int numPages = file.numPages();
+        passPages = numPages;
+        passLeft = numPages;
+        int low = 0;
+        int high = numPages - 1;
+        long start = System.nanoTime();
+        long touched = 0;
+        boolean full = false;
+        int batches = 0;
+        while (!full && low < high && !stopping && !Thread.currentThread().isInterrupted()) {
+            Transaction tx = new Transaction();
+            tx.start();
+            TransactionId tid = tx.getId();
+            Set<PageId> dirtied = new LinkedHashSet<>();
+            try {
+                for (int n = 0; n < BATCH && low < high; n++) {
+                    HeapPage source = (HeapPage) pool.getPage(tid, new HeapPageId(file.getId(), high), Permissions.READ_WRITE);
+                    pagesScanned.increment();
+                    touched++;
+                    Iterator<Tuple> it = source.iterator();
+                    List<Tuple> tuples = new ArrayList<>();
+                    while (it.hasNext()) {
+                        tuples.add(it.next());
+                    }
+                    for (Tuple t : tuples) {
+                        HeapPage target = null;
+                        while (low < high) {
+                            low = freeSpace.findPageWithRoom(low);
+                            if (low == -1 || low >= high) {
+                                break;
+                            }
+                            target = (HeapPage) pool.getPage(tid, new HeapPageId(file.getId(), low), Permissions.READ_WRITE);
+                            if (target.hasRoomFor(t)) {
+                                break;
+                            }
+                            freeSpace.update(low, 0);
+                            target = null;
+                            pagesScanned.increment();
+                            touched++;
+                            low++;
+                        }
+                        if (target == null) {
+                            low = high;
+                            full = true;
+                            break;
+                        }
+                        RecordId from = t.getRecordId();
+                        source.deleteTuple(t);
+                        target.insertTuple(t);
+                        source.markDirty(true, tid);
+                        target.markDirty(true, tid);
+                        dirtied.add(source.getId());
+                        dirtied.add(target.getId());
+                        freeSpace.update(low, target.getNumEmptySlots());
+                        for (MoveListener l : listeners) {
+                            l.tupleMoved(tid, t, from);
+                        }
+                        tuplesMoved.increment();
+                    }
+                    if (full) {
+                        freeSpace.update(high, source.getNumEmptySlots());
+                        break;
+                    }
+                    // keep inserts off the page until it is cut off
+                    freeSpace.update(high, 0);
+                    high--;
+                    passLeft = high - low;
+                }
+                touched += dirtied.size();
+                pool.flushPages(tid);
+                tx.commit();
+                batches++;
+            } catch (TransactionAbortedException e) {
+                // a writer wanted the same pages; try again next pass
+                abort(tx);
+                return 0;
+            } catch (DbException | IOException | RuntimeException e) {
+                abort(tx);
+                throw e;
+            }
+            throttle(start, touched);
+        }
+        passLeft = 0;
+        return batches == 0 ? 0 : cut(high + 1);
+    }
+
+    private void abort(Transaction tx) throws IOException {
+        tx.abort();
+        passLeft = 0;
+    }
+
+    /**
+     * Cut the empty pages off the end of the file, in a transaction of its
+     * own, once the moves that emptied them are committed.
+     *
+     * @param emptied the first page the pass emptied
+     * @return the number of pages cut off
+     */
+    private int cut(int emptied) throws DbException, IOException {
+        Transaction tx = new Transaction();
+        tx.start();
+        try {
+            int truncated = truncate(tx.getId(), emptied);
+            tx.commit();
+            return truncated;
+        } catch (TransactionAbortedException e) {
+            // a writer wanted the same pages; the next pass cuts them
+            abort(tx);
+            return 0;
+        } catch (DbException | IOException | RuntimeException e) {
+            abort(tx);
+            throw e;
+        }
+    }
+
+    /**
+     * Cut the empty pages off the end of the file: check that they are
+     * still empty, discard them from the BufferPool and truncate the file.
+     * Emptied pages that stay, because a page after them is in use, get
+     * their free space back in the free-space map.
+     *
+     * @param emptied the first page the pass emptied
+     * @return the number of pages cut off
+     */
+    private int truncate(TransactionId tid, int emptied)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        int numPages = file.numPages();
+        int end = numPages;
+        while (end > 1) {
+            HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(file.getId(), end - 1), Permissions.READ_WRITE);
+            if (page.iterator().hasNext()) {
+                break;
+            }
+            end--;
+        }
+        for (int pgNo = emptied; pgNo < end; pgNo++) {
+            HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_WRITE);
+            file.getFreeSpaceMap().update(pgNo, page.getNumEmptySlots());
+        }
+        if (end == numPages) {
+            return 0;
+        }
+        for (int pgNo = end; pgNo < numPages; pgNo++) {
+            PageId pid = new HeapPageId(file.getId(), pgNo);
+            pool.discardPage(pid);
+        }
+        file.truncate(end);
+        pagesTruncated.add(numPages - end);
+        return numPages - end;
+    }
+
+    /** Sleep until the pages touched so far fit the rate. */
+    private void throttle(long start, long touched) {
+        int r = rate;
+        if (r > 0) {
+            long ahead = start + touched * 1000000000L / r - System.nanoTime();
+            if (ahead > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(ahead);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the share of the running pass, or of the last one, that is
+     *   done: 1 once the source and target pages have met
+     */
+    public double getProgress() {
+        int pages = passPages;
+        return pages == 0 ? 1 : 1 - Math.max(0, passLeft) / (double) pages;
+    }
+
+    /** @return the number of pages read as sources or targets of moves */
+    public long getPagesScanned() {
+        return pagesScanned.sum();
+    }
+
+    /** @return the number of tuples moved to other pages */
+    public long getTuplesMoved() {
+        return tuplesMoved.sum();
+    }
+
+    /** @return the number of pages cut off the end of the file */
+    public long getPagesTruncated() {
+        return pagesTruncated.sum();
+    }
+
+    /** @return the number of passes finished */
+    public long getPasses() {
+        return passes.sum();
+    }
+}
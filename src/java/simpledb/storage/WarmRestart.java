@@ -0,0 +1,395 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WarmRestart saves the ids of the pages resident in a BufferPool, hottest
+ * first, to a small dump file, and loads those pages back into a fresh pool
+ * after a restart, so the first queries do not all start from a cold cache.
+ * <p>
+ * Once started, the dump is rewritten every {@link #INTERVAL_PROPERTY}
+ * milliseconds and once more when the pool is stopped. Each dump is written
+ * to a temporary file and renamed over the old one, so a crash leaves the
+ * previous dump in place. Only page ids are saved, never page contents; a
+ * dump that is out of date costs some useless reads and nothing else.
+ * <p>
+ * {@link #reload} reads the dump, keeps the hottest pages that fit in the
+ * pool, skips pages of tables that are no longer in the Catalog or past the
+ * end of their file, and reads the rest in file order, in batches of
+ * {@link #BATCH} with {@link BufferPool#runLoads}, so pages that are
+ * adjacent on disk come in with one read. It stops as soon as the pool is
+ * full, never evicting a page that a query has already brought in, and it
+ * reads at most {@link #RATE_PROPERTY} pages per second, so queries that
+ * run during the reload still get their share of the disk. Pages a query
+ * asks for while they are being reloaded are read by the query itself, as
+ * with read-ahead.
+ * <p>
+ * A BufferPool created with {@link #DUMP_FILE_PROPERTY} set starts saving
+ * to that file, and {@link simpledb.common.Catalog#loadSchema} reloads it
+ * in the background once the tables are known.
+ *
+ * @see BufferPool#getWarmRestart
+ * @Threadsafe
+ */
+public class WarmRestart {
+
+    /**
+     * System property naming the dump file of new BufferPools, e.g.
+     * {@code -Dsimpledb.storage.warmRestartFile=hot.pages}.
+     */
+    public static final String DUMP_FILE_PROPERTY = "simpledb.storage.warmRestartFile";
+
+    /** System property for the pause between dumps, in milliseconds. */
+    public static final String INTERVAL_PROPERTY = "simpledb.storage.warmRestartIntervalMs";
+
+    /** System property for the most pages reloaded per second; 0 for no limit. */
+    public static final String RATE_PROPERTY = "simpledb.storage.warmRestartPagesPerSecond";
+
+    /** Pages read by one step of a reload. */
+    public static final int BATCH = 32;
+
+    private static final int MAGIC = 0x57524d31;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final BufferPool pool;
+    private final Object dumpLock = new Object();
+
+    private volatile File file;
+    private volatile int rate = Math.max(0, Integer.getInteger(RATE_PROPERTY, 2000));
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private Thread reloader;
+
+    private final LongAdder reloaded = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    WarmRestart(BufferPool pool, File file) {
+        this.pool = pool;
+        this.file = file;
+    }
+
+    /**
+     * @return the dump file, or null if none is set
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Set the most pages a reload reads per second; 0 for no limit.
+     * Defaults to {@link #RATE_PROPERTY}, or 2000.
+     */
+    public void setRate(int pagesPerSecond) {
+        if (pagesPerSecond < 0) {
+            throw new IllegalArgumentException("negative rate");
+        }
+        this.rate = pagesPerSecond;
+    }
+
+    /**
+     * Start saving the hot pages in the background, every
+     * {@link #INTERVAL_PROPERTY} milliseconds (60 seconds by default).
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        long interval = Math.max(1, Long.getLong(INTERVAL_PROPERTY, 60000));
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "simpledb-warm-restart-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                dump();
+            } catch (IOException | RuntimeException e) {
+                // the previous dump stays; try again next time
+                e.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop a background reload, and, if periodic saving was started, stop
+     * it and save the hot pages one last time.
+     */
+    public void stop() {
+        ScheduledThreadPoolExecutor s;
+        Thread r;
+        synchronized (this) {
+            s = scheduler;
+            r = reloader;
+            scheduler = null;
+            reloader = null;
+        }
+        if (r != null) {
+            r.interrupt();
+            try {
+                r.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (s == null) {
+            return;
+        }
+        s.shutdown();
+        try {
+            s.awaitTermination(10, TimeUnit.SECONDS);
+            dump();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Save the ids of the resident pages, hottest first, to the dump file
+     * now.
+     *
+     * @return the number of page ids saved, or 0 if no file is set
+     * @throws IOException if the dump can't be written
+     */
+    public int dump() throws IOException {
+        File f = file;
+        if (f == null) {
+            return 0;
+        }
+        List<PageId> pids = pool.hotPages();
+        synchronized (dumpLock) {
+            Map<Class<?>, Integer> classes = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            for (PageId pid : pids) {
+                if (classes.putIfAbsent(pid.getClass(), classes.size()) == null) {
+                    names.add(pid.getClass().getName());
+                }
+            }
+            File tmp = new File(f.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(names.size());
+                for (String name : names) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(pids.size());
+                for (PageId pid : pids) {
+                    int[] data = pid.serialize();
+                    out.writeByte(classes.get(pid.getClass()));
+                    out.writeByte(data.length);
+                    for (int d : data) {
+                        out.writeInt(d);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return pids.size();
+    }
+
+    /**
+     * Read the page ids saved by {@link #dump}, hottest first.
+     *
+     * @return the page ids, or an empty list if there is no dump
+     * @throws IOException if the dump can't be read or is malformed
+     */
+    List<PageId> readDump() throws IOException {
+        File f = file;
+        List<PageId> pids = new ArrayList<>();
+        if (f == null) {
+            return pids;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a page dump: " + f);
+            }
+            Constructor<?>[] ctors = new Constructor<?>[in.readInt()];
+            for (int i = 0; i < ctors.length; i++) {
+                String name = in.readUTF();
+                try {
+                    ctors[i] = Class.forName(name).getDeclaredConstructors()[0];
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("unknown page id class " + name, e);
+                }
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Constructor<?> ctor = ctors[in.readUnsignedByte()];
+                Object[] args = new Object[in.readUnsignedByte()];
+                for (int a = 0; a < args.length; a++) {
+                    args[a] = in.readInt();
+                }
+                try {
+                    pids.add((PageId) ctor.newInstance(args));
+                } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                    throw new IOException("bad page id in " + f, e);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+        }
+        return pids;
+    }
+
+    /**
+     * Load the pages saved by {@link #dump} into the pool, in the calling
+     * thread, as described above. Returns early if the thread is
+     * interrupted.
+     *
+     * @return the number of pages read in
+     * @throws IOException if the dump can't be read
+     */
+    public int reload() throws IOException {
+        List<PageId> saved = readDump();
+        int room = pool.getNumPages() - pool.residentPages();
+        List<PageId> pids = new ArrayList<>();
+        // one past the last page number of each table, -1 if the table is gone
+        Map<Integer, Integer> ends = new HashMap<>();
+        for (PageId pid : saved) {
+            if (pids.size() >= room) {
+                break;
+            }
+            int end = ends.computeIfAbsent(pid.getTableId(), id -> {
+                try {
+                    return pageEnd(Database.getCatalog().getDatabaseFile(id));
+                } catch (NoSuchElementException e) {
+                    return -1;
+                }
+            });
+            if (pid.getPageNumber() < end) {
+                pids.add(pid);
+            } else {
+                skipped.increment();
+            }
+        }
+        // file order, so that neighbours come in with one read
+        pids.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+
+        int loaded = 0;
+        long start = System.nanoTime();
+        for (int from = 0; from < pids.size(); from += BATCH) {
+            List<PageId> batch = pids.subList(from, Math.min(pids.size(), from + BATCH));
+            if (pool.residentPages() + batch.size() > pool.getNumPages() || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            List<BufferPool.Load> loads = new ArrayList<>();
+            for (PageId pid : batch) {
+                BufferPool.Load load = pool.reserveLoad(pid);
+                if (load != null) {
+                    loads.add(load);
+                }
+            }
+            int n = pool.runLoads(loads);
+            loaded += n;
+            reloaded.add(n);
+            int r = rate;
+            if (r > 0) {
+                long ahead = start + loaded * 1000000000L / r - System.nanoTime();
+                if (ahead > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * @return one past the highest page number of f; a batch with a page
+     *   past the end would fail to read as a whole
+     */
+    private static int pageEnd(DbFile f) {
+        if (f instanceof HeapFile) {
+            return ((HeapFile) f).numPages();
+        }
+        if (f instanceof BTreeFile) {
+            // page 0 is the root pointer, which numPages does not count
+            return ((BTreeFile) f).numPages() + 1;
+        }
+        if (f instanceof ColumnarFile) {
+            return ((ColumnarFile) f).numPages();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Run {@link #reload} on a background thread, unless one is running.
+     */
+    public synchronized void reloadInBackground() {
+        if (reloader != null && reloader.isAlive()) {
+            return;
+        }
+        reloader = new Thread(() -> {
+            try {
+                reload();
+            } catch (IOException | RuntimeException e) {
+                // a warm cache is only an optimization
+                e.printStackTrace();
+            }
+        }, "simpledb-warm-reload-" + threadCount.incrementAndGet());
+        reloader.setDaemon(true);
+        reloader.start();
+    }
+
+    /**
+     * Wait for a background reload to finish.
+     */
+    public void awaitReload() throws InterruptedException {
+        Thread r;
+        synchronized (this) {
+            r = reloader;
+        }
+        if (r != null) {
+            r.join();
+        }
+    }
+
+    /** @return the number of pages read in by reloads */
+    public long getReloaded() {
+        return reloaded.sum();
+    }
+
+    /** @return the number of saved pages reloads skipped because their table or page is gone */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
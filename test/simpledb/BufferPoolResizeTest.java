@@ -0,0 +1,118 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKPolicy;
+import simpledb.storage.PoolSizeController;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 40;
+    private static final int SHARDS = 4;
+
+    private HeapFile hf;
+    private FileHandleManager files;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        files = Database.getFileHandleManager();
+        tid = new TransactionId();
+    }
+
+    private long read(BufferPool bp, int from, int to) throws Exception {
+        long reads = files.getReads();
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        return files.getReads() - reads;
+    }
+
+    /**
+     * Unit test for BufferPool.resize(): growing keeps the resident pages
+     * and makes room for more
+     */
+    @Test public void grow() throws Exception {
+        BufferPool bp = new BufferPool(16, SHARDS, ClockProPolicy::new);
+        bp.getReadAhead().setEnabled(false);
+        read(bp, 0, 16);
+        bp.resize(FILE_PAGES);
+        assertEquals(FILE_PAGES, bp.getNumPages());
+        assertEquals(0, read(bp, 0, 16));
+        assertEquals(FILE_PAGES - 16, read(bp, 16, FILE_PAGES));
+        assertEquals(0, read(bp, 0, FILE_PAGES));
+    }
+
+    /**
+     * Unit test for BufferPool.resize(): shrinking evicts pages, and writes
+     * the dirty ones first
+     */
+    @Test public void shrink() throws Exception {
+        BufferPool bp = new BufferPool(FILE_PAGES, SHARDS, LruKPolicy::new);
+        bp.getReadAhead().setEnabled(false);
+        int empty = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots();
+        for (int pgNo = 0; pgNo < FILE_PAGES; pgNo++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, tid);
+        }
+        bp.resize(SHARDS);
+        assertEquals(SHARDS, bp.getNumPages());
+
+        int written = 0;
+        for (int pgNo = 0; pgNo < FILE_PAGES; pgNo++) {
+            HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            if (onDisk.getNumEmptySlots() == empty + 1) {
+                written++;
+            }
+        }
+        assertTrue(written >= FILE_PAGES - SHARDS);
+        assertTrue(read(bp, 0, FILE_PAGES) >= FILE_PAGES - SHARDS);
+    }
+
+    /**
+     * Unit test for PoolSizeController.adjust(): the pool shrinks when the
+     * heap is above the band and grows in steps when it is below, within
+     * the limits
+     */
+    @Test public void controller() throws Exception {
+        BufferPool bp = new BufferPool(100, SHARDS, ClockProPolicy::new);
+        PoolSizeController c = bp.getSizeController();
+        c.setLimits(10, 400);
+        c.setBand(0.5, 0.8);
+        long max = 1L << 30;
+
+        assertEquals(100, c.adjust(max * 6 / 10, max));
+        assertEquals(10, c.adjust(max * 9 / 10, max));
+        assertEquals(10, bp.getNumPages());
+        assertEquals(12, c.adjust(max / 10, max));
+        assertEquals(15, c.adjust(max / 10, max));
+        assertEquals(15, bp.getNumPages());
+        c.setLimits(10, 16);
+        assertEquals(16, c.adjust(max / 10, max));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
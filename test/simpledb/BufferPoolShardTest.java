@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKPolicy;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 40;
+    private static final int POOL_PAGES = 16;
+    private static final int SHARDS = 4;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        assertEquals(FILE_PAGES, hf.numPages());
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): a hit returns the cached instance
+     */
+    @Test public void hitReturnsSameInstance() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, SHARDS, ClockProPolicy::new);
+        for (int i = 0; i < SHARDS; i++) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(pid, p.getId());
+            assertSame(p, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.discardPage(): the next getPage re-reads it
+     */
+    @Test public void discardRereads() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, SHARDS, LruKPolicy::new);
+        PageId pid = new HeapPageId(hf.getId(), 3);
+        Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.discardPage(pid);
+        bp.discardPage(pid);
+        Page q = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotSame(p, q);
+        assertEquals(pid, q.getId());
+    }
+
+    /**
+     * Unit test for BufferPool: a file larger than the pool can be read
+     * through repeatedly, so every shard evicts within its own share
+     */
+    @Test public void evictsWithinShards() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, SHARDS, ClockProPolicy::new);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < FILE_PAGES; i++) {
+                PageId pid = new HeapPageId(hf.getId(), i);
+                assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+            }
+        }
+    }
+
+    /**
+     * Unit test for BufferPool: concurrent readers of overlapping pages on
+     * all shards always get the page they asked for
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final BufferPool bp = new BufferPool(POOL_PAGES, SHARDS, ClockProPolicy::new);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    TransactionId mine = new TransactionId();
+                    for (int i = 0; i < 500; i++) {
+                        PageId pid = new HeapPageId(hf.getId(), (offset * 7 + i * 3) % FILE_PAGES);
+                        if (!pid.equals(bp.getPage(mine, pid, Permissions.READ_ONLY).getId())) {
+                            throw new AssertionError("got the wrong page for " + pid);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        // the pool must also survive a whole-pool sweep afterwards
+        bp.latchAllShards();
+        try {
+            bp.flushAllPages();
+        } finally {
+            bp.unlatchAllShards();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
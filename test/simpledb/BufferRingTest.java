@@ -0,0 +1,105 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 64;
+
+    private HeapFile small;
+    private HeapFile large;
+    private FileHandleManager files;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        small = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        large = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+        files = Database.getFileHandleManager();
+        tid = new TransactionId();
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private long read(HeapFile f, int from, int to, BufferRing ring) throws Exception {
+        long reads = files.getReads();
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY, ring);
+        }
+        return files.getReads() - reads;
+    }
+
+    private static void scan(HeapFile f, TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+    }
+
+    /**
+     * Unit test for BufferPool.ringFor(): only tables larger than the
+     * threshold get a ring
+     */
+    @Test public void ringForLargeTables() {
+        BufferPool bp = Database.getBufferPool();
+        assertNull(bp.ringFor(POOL_PAGES));
+        BufferRing ring = bp.ringFor(POOL_PAGES + 1);
+        assertNotNull(ring);
+        assertEquals(POOL_PAGES / 4, ring.getCapacity());
+        bp.setRingThreshold(0.5);
+        assertNotNull(bp.ringFor(POOL_PAGES / 2 + 1));
+        bp.setRingThreshold(Double.POSITIVE_INFINITY);
+        assertNull(bp.ringFor(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Unit test for SeqScan under a ring: scanning a table three times the
+     * size of the pool leaves the pages of a small table resident
+     */
+    @Test public void largeScanKeepsOtherPages() throws Exception {
+        scan(small, tid);
+        scan(large, tid);
+        assertEquals(0, read(small, 0, 20, null));
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() with a ring: the oldest pages of
+     * the ring are evicted, except those used outside the ring meanwhile
+     */
+    @Test public void recyclePages() throws Exception {
+        BufferRing ring = new BufferRing(4);
+        assertEquals(4, read(large, 0, 4, ring));
+        read(large, 1, 2, null);
+        assertEquals(6, read(large, 4, 10, ring));
+        assertEquals(5, ring.getRecycled());
+
+        assertEquals(0, read(large, 1, 2, null));
+        assertEquals(0, read(large, 6, 10, null));
+        assertEquals(1, read(large, 0, 1, null));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
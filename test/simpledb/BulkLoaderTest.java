@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File writeText(String text) throws IOException {
+        File f = tempFile(".txt");
+        try (Writer w = new FileWriter(f)) {
+            w.write(text);
+        }
+        return f;
+    }
+
+    /**
+     * Unit test for BulkLoader.load(): many small chunks on several threads
+     * give the same file as HeapFileEncoder.convert() of the tuples
+     */
+    @Test public void sameAsEncoder() throws Exception {
+        Random r = new Random(7);
+        List<List<Integer>> tuples = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            for (int c = 0; c < 3; c++) {
+                tuple.add(r.nextInt() >> r.nextInt(32));
+            }
+            tuples.add(tuple);
+            text.append(tuple.get(0)).append(',').append(tuple.get(1)).append(", ").append(tuple.get(2));
+            text.append(i % 5 == 0 ? "\r\n" : "\n");
+            if (i % 100 == 0) {
+                text.append('\n');
+            }
+        }
+        // no newline after the last line
+        text.setLength(text.length() - 1);
+
+        File expected = tempFile(".dat");
+        HeapFileEncoder.convert(tuples, expected, BufferPool.getPageSize(), 3);
+        File loaded = tempFile(".dat");
+        BulkLoader loader = new BulkLoader(Utility.getTypes(3), ',', BufferPool.getPageSize());
+        loader.setThreads(4);
+        loader.setChunkSize(1000);
+        assertEquals(tuples.size(), loader.load(writeText(text.toString()), loaded));
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                Files.readAllBytes(loaded.toPath()));
+
+        HeapFile hf = Utility.openHeapFile(3, loaded);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for BulkLoader.load(): string fields, another separator, and
+     * lines longer than a chunk
+     */
+    @Test public void stringFields() throws Exception {
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE};
+        File loaded = tempFile(".dat");
+        BulkLoader loader = new BulkLoader(types, '|', BufferPool.getPageSize());
+        loader.setChunkSize(4);
+        assertEquals(2, loader.load(writeText("1| hello \n2|a rather long string\n"), loaded));
+
+        HeapFile hf = new HeapFile(loaded, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        Tuple t = it.next();
+        assertEquals(new StringField("hello", Type.STRING_LEN), t.getField(1));
+        t = it.next();
+        assertEquals(new StringField("a rather long string", Type.STRING_LEN), t.getField(1));
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for BulkLoader.load(): an empty input gives one empty page,
+     * and malformed lines fail the load
+     */
+    @Test public void emptyAndMalformedInput() throws Exception {
+        File loaded = tempFile(".dat");
+        BulkLoader loader = new BulkLoader(Utility.getTypes(2), ',', BufferPool.getPageSize());
+        assertEquals(0, loader.load(writeText(""), loaded));
+        assertEquals(BufferPool.getPageSize(), loaded.length());
+
+        for (String bad : new String[]{"1,2\n3,x\n", "1,2\n3\n", "1,2,3\n", "1,99999999999\n"}) {
+            try {
+                loader.load(writeText(bad), loaded);
+                fail("expected an IOException for " + bad);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CheckpointTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        file = hf.getFile();
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Page insert(TransactionId tid, int value) throws Exception {
+        Page page = hf.insertTuple(tid, Utility.getHeapTuple(new int[]{value, value})).get(0);
+        page.markDirty(true, tid);
+        return page;
+    }
+
+    /** Insert a tuple with a new transaction, write the page and commit. */
+    private void commitInsert(int value) throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        Page page = insert(tid, value);
+        Database.getBufferPool().flushPages(tid);
+        page.setBeforeImage();
+        log.logCommit(tid);
+    }
+
+    private byte[] disk() {
+        return hf.readPage(pid).getPageData();
+    }
+
+    // restart the database and run recovery
+    private void crash() throws Exception {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * Unit test for LogFile.logCheckpoint(): the pages dirty at the start
+     * of the checkpoint are on disk when it returns
+     */
+    @Test public void dirtyPagesWritten() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getLogFile().logXactionBegin(tid);
+        Page page = insert(tid, 1);
+        byte[] now = page.getPageData();
+
+        Database.getLogFile().logCheckpoint();
+        assertArrayEquals(now, disk());
+        assertNull(page.isDirty());
+    }
+
+    /**
+     * Unit test for LogFile.recover(): committed updates after the
+     * checkpoint are redone and the updates of transactions that did not
+     * finish are undone
+     */
+    @Test public void recoverFromCheckpoint() throws Exception {
+        commitInsert(1);
+        Database.getLogFile().logCheckpoint();
+        byte[] checkpointed = disk();
+
+        commitInsert(2);
+        byte[] committed = disk();
+
+        TransactionId loser = new TransactionId();
+        Database.getLogFile().logXactionBegin(loser);
+        insert(loser, 3);
+        Database.getBufferPool().flushPages(loser);
+        assertFalse(Arrays.equals(committed, disk()));
+
+        // lose the writes after the checkpoint
+        hf.writePage(new HeapPage(pid, checkpointed));
+        crash();
+        assertArrayEquals(committed, disk());
+
+        // the loser was aborted by the first recovery
+        commitInsert(4);
+        committed = disk();
+        crash();
+        assertArrayEquals(committed, disk());
+    }
+
+    /**
+     * Unit test for LogFile.recover(): a transaction that commits without
+     * writing its page has it logged by the checkpoint, after its COMMIT
+     * record, which the checkpoint then truncates; the update is redone,
+     * not undone as that of a transaction that did not finish, over the
+     * later updates of the page
+     */
+    @Test public void recoverNoForceCommit() throws Exception {
+        byte[] original = disk();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1.getId(), 1);
+        t1.commit();
+        assertArrayEquals(original, disk());
+        Database.getLogFile().logCheckpoint();
+        assertFalse(Arrays.equals(original, disk()));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2.getId(), 2);
+        t2.commit();
+        Database.getBufferPool().flushPages(t2.getId());
+        byte[] committed = disk();
+
+        // lose the writes after the checkpoint started
+        hf.writePage(new HeapPage(pid, original));
+        crash();
+        assertArrayEquals(committed, disk());
+        crash();
+        assertArrayEquals(committed, disk());
+    }
+
+    /**
+     * Unit test for LogFile.recover(): a page written after the BufferPool
+     * has committed a transaction, but before its COMMIT record is logged,
+     * is undone if the COMMIT record never reaches the log
+     */
+    @Test public void recoverBeforeCommitRecord() throws Exception {
+        byte[] original = disk();
+        TransactionId tid = new TransactionId();
+        Database.getLogFile().logXactionBegin(tid);
+        insert(tid, 1);
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.getBufferPool().flushAllPages();
+        assertFalse(Arrays.equals(original, disk()));
+
+        crash();
+        assertArrayEquals(original, disk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CheckpointTest.class);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 2500;
+    private static final int POOL_PAGES = 64;
+
+    private ColumnarFile cf;
+    private List<List<Integer>> rows;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnarFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            int[] row = {i, i % 10, -i};
+            for (Page p : cf.insertTuple(tid, Utility.getHeapTuple(row))) {
+                p.markDirty(true, tid);
+            }
+            List<Integer> list = new ArrayList<>();
+            for (int v : row) {
+                list.add(v);
+            }
+            rows.add(list);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(POOL_PAGES).getReadAhead().setEnabled(false);
+    }
+
+    /**
+     * Unit test for ColumnarFile: rows span several segments and come back
+     * through a SeqScan
+     */
+    @Test public void insertAndScan() throws Exception {
+        assertEquals(3, cf.numSegments());
+        assertEquals(cf.numSegments() * cf.getPagesPerSegment(), cf.numPages());
+        SystemTestUtil.matchTuples(new SeqScan(tid, cf.getId(), "t"), rows);
+    }
+
+    /**
+     * Unit test for SeqScan.setColumns(): only the pages of the requested
+     * column are read, and the other fields are left null
+     */
+    @Test public void readOnlyRequestedColumns() throws Exception {
+        FileHandleManager files = Database.getFileHandleManager();
+        long reads = files.getReads();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "t");
+        scan.setColumns(1);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(0));
+            assertEquals(new IntField(n % 10), t.getField(1));
+            assertNull(t.getField(2));
+            n++;
+        }
+        scan.close();
+        assertEquals(ROWS, n);
+        // a header page and one page of column 1 per segment
+        assertEquals(2 * cf.numSegments(), files.getReads() - reads);
+    }
+
+    /**
+     * Unit test for ColumnarFile.deleteTuple(): deleted rows are no longer
+     * returned
+     */
+    @Test public void deleteRows() throws Exception {
+        List<Tuple> victims = new ArrayList<>();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 3 == 0) {
+                victims.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : victims) {
+            for (Page p : cf.deleteTuple(tid, t)) {
+                p.markDirty(true, tid);
+            }
+        }
+        List<List<Integer>> left = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 3 != 0) {
+                left.add(rows.get(i));
+            }
+        }
+        SystemTestUtil.matchTuples(cf, left);
+    }
+
+    /**
+     * Unit test for ColumnarFile.iterator() with a predicate: segments whose
+     * minimum and maximum rule the predicate out are not read
+     */
+    @Test public void skipSegments() throws Exception {
+        FileHandleManager files = Database.getFileHandleManager();
+        long reads = files.getReads();
+        int last = (cf.numSegments() - 1) * cf.getRowsPerSegment();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(last));
+        DbFileIterator it = cf.iterator(tid, new int[]{0}, p);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(last + n), it.next().getField(0));
+            n++;
+        }
+        it.close();
+        assertEquals(ROWS - last, n);
+        // every header page, and column 0 of the last segment
+        assertEquals(cf.numSegments() + 1, files.getReads() - reads);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
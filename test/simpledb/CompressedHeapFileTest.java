@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageCodec;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 3;
+    private static final int POOL_PAGES = 64;
+
+    private List<List<Integer>> tuples;
+    private HeapFile raw;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        // small values, as in most of our tables
+        raw = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 100, null, tuples);
+    }
+
+    private CompressedHeapFile newCompressedFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".extents").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        CompressedHeapFile cf = new CompressedHeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /** Copy the pages of raw into cf, renumbered for cf's table id. */
+    private void copyPages(CompressedHeapFile cf) throws Exception {
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < raw.numPages(); i++) {
+            byte[] data = raw.readPage(new HeapPageId(raw.getId(), i)).getPageData();
+            pages.add(new HeapPage(new HeapPageId(cf.getId(), i), data));
+        }
+        cf.writePages(pages);
+    }
+
+    /**
+     * Unit test for PageCodec: pages come back byte for byte, and pages of
+     * small ints shrink several times
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        TupleDesc td = raw.getTupleDesc();
+        Random r = new Random(1);
+        byte[] noise = new byte[HeapPage.createEmptyPageData().length];
+        r.nextBytes(noise);
+        byte[][] pages = {
+                raw.readPage(new HeapPageId(raw.getId(), 0)).getPageData(),
+                HeapPage.createEmptyPageData(),
+                noise,
+        };
+        for (byte[] page : pages) {
+            for (boolean fixed : new boolean[]{true, false}) {
+                byte[] compressed = PageCodec.compress(page, td, fixed);
+                byte[] back = new byte[page.length];
+                PageCodec.decompress(compressed, 0, compressed.length, td, back);
+                assertArrayEquals(page, back);
+            }
+        }
+        assertTrue(PageCodec.compress(pages[0], td, true).length * 4 < pages[0].length);
+        assertTrue(PageCodec.compress(pages[1], td, true).length < 64);
+        assertEquals(noise.length + 1, PageCodec.compress(noise, td, true).length);
+    }
+
+    /**
+     * Unit test for CompressedHeapFile: pages written through it are scanned
+     * back, also after the file is opened again, and take less room
+     */
+    @Test public void writeAndScan() throws Exception {
+        CompressedHeapFile cf = newCompressedFile();
+        copyPages(cf);
+        assertEquals(raw.numPages(), cf.numPages());
+        assertTrue(cf.getFile().length() * 3 < raw.getFile().length());
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        CompressedHeapFile reopened = new CompressedHeapFile(cf.getFile(), cf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(raw.numPages(), reopened.numPages());
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * @return the position in the extent table of the version of page
+     *   pgNo's entry with the higher sequence number
+     */
+    private static long entryVersion(CompressedHeapFile cf, int pgNo) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(cf.getExtentFile(), "r")) {
+            long first = 64L * pgNo;
+            raf.seek(first + 16);
+            int seq1 = raf.readInt();
+            raf.seek(first + 32 + 16);
+            int seq2 = raf.readInt();
+            return seq1 >= seq2 ? first : first + 32;
+        }
+    }
+
+    /** @return the offset of the extent of page pgNo, as the extent table on disk has it */
+    private static long extentOffset(CompressedHeapFile cf, int pgNo) throws Exception {
+        long version = entryVersion(cf, pgNo);
+        try (RandomAccessFile raf = new RandomAccessFile(cf.getExtentFile(), "r")) {
+            raf.seek(version);
+            return raf.readLong();
+        }
+    }
+
+    /** Tear the last write of page pgNo's entry, as a crash in the middle of it would. */
+    private static void tearEntry(CompressedHeapFile cf, int pgNo) throws Exception {
+        long version = entryVersion(cf, pgNo);
+        try (RandomAccessFile raf = new RandomAccessFile(cf.getExtentFile(), "rw")) {
+            raf.seek(version + 8);
+            raf.writeInt(0x7eadbeef);
+        }
+    }
+
+    private CompressedHeapFile reopen(CompressedHeapFile cf) {
+        CompressedHeapFile reopened = new CompressedHeapFile(cf.getFile(), cf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        return reopened;
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.writePage(): a page is never written
+     * over its extent, and the extents pages leave are reused, also after
+     * the file is opened again
+     */
+    @Test public void rewriteMovesPages() throws Exception {
+        CompressedHeapFile cf = newCompressedFile();
+        HeapPageId pid = new HeapPageId(cf.getId(), 0);
+        cf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        long emptyLength = cf.getFile().length();
+        long first = extentOffset(cf, 0);
+
+        byte[] full = raw.readPage(new HeapPageId(raw.getId(), 0)).getPageData();
+        cf.writePage(new HeapPage(pid, full));
+        assertTrue(cf.getFile().length() > emptyLength);
+        assertNotEquals(first, extentOffset(cf, 0));
+        assertArrayEquals(full, cf.readPage(pid).getPageData());
+
+        long grown = cf.getFile().length();
+        long second = extentOffset(cf, 0);
+        cf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        assertEquals(grown, cf.getFile().length());
+        assertEquals(first, extentOffset(cf, 0));
+        assertArrayEquals(HeapPage.createEmptyPageData(), cf.readPage(pid).getPageData());
+        assertEquals(1, cf.numPages());
+
+        // the free extents are found again from the table
+        cf = new CompressedHeapFile(cf.getFile(), Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        cf.writePage(new HeapPage(pid, full));
+        assertEquals(grown, cf.getFile().length());
+        assertEquals(second, extentOffset(cf, 0));
+        assertArrayEquals(full, cf.readPage(pid).getPageData());
+    }
+
+    /**
+     * Unit test for CompressedHeapFile: a torn write of an extent table
+     * entry leaves the page as it was before the write, and a torn entry of
+     * a page the write added leaves the file without the page
+     */
+    @Test public void tornEntry() throws Exception {
+        CompressedHeapFile cf = newCompressedFile();
+        HeapPageId first = new HeapPageId(cf.getId(), 0);
+        HeapPageId second = new HeapPageId(cf.getId(), 1);
+        byte[] empty = HeapPage.createEmptyPageData();
+        byte[] full = raw.readPage(new HeapPageId(raw.getId(), 0)).getPageData();
+        cf.writePage(new HeapPage(first, empty));
+        cf.writePage(new HeapPage(first, full));
+        tearEntry(cf, 0);
+
+        cf = reopen(cf);
+        assertEquals(1, cf.numPages());
+        assertArrayEquals(empty, cf.readPage(first).getPageData());
+
+        cf.writePage(new HeapPage(second, full));
+        assertEquals(2, cf.numPages());
+        tearEntry(cf, 1);
+        cf = reopen(cf);
+        assertEquals(1, cf.numPages());
+
+        // the torn versions are written over
+        cf.writePage(new HeapPage(first, full));
+        cf.writePage(new HeapPage(second, full));
+        cf = reopen(cf);
+        assertEquals(2, cf.numPages());
+        assertArrayEquals(full, cf.readPage(first).getPageData());
+        assertArrayEquals(full, cf.readPage(second).getPageData());
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.insertTuple(): inserts go through the
+     * BufferPool and the free-space map like for any HeapFile
+     */
+    @Test public void insertTuples() throws Exception {
+        CompressedHeapFile cf = newCompressedFile();
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> inserted = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            for (Page p : cf.insertTuple(tid, Utility.getHeapTuple(new int[]{i, i % 7, 3}))) {
+                p.markDirty(true, tid);
+            }
+            List<Integer> row = new ArrayList<>();
+            row.add(i);
+            row.add(i % 7);
+            row.add(3);
+            inserted.add(row);
+        }
+        Database.getBufferPool().flushAllPages();
+        assertTrue(cf.numPages() > 1);
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(cf, inserted);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.FileHandleManager;
+
+import static org.junit.Assert.*;
+
+public class FileHandleManagerTest {
+
+    private FileHandleManager files;
+    private final List<File> created = new ArrayList<>();
+
+    @Before public void setUp() {
+        files = new FileHandleManager(2);
+    }
+
+    @After public void tearDown() {
+        files.closeAll();
+        for (File f : created) {
+            f.delete();
+        }
+    }
+
+    private File tempFile() throws IOException {
+        File f = File.createTempFile("handles", ".dat");
+        f.deleteOnExit();
+        created.add(f);
+        return f;
+    }
+
+    /**
+     * Unit test for FileHandleManager.write() and read() at explicit offsets
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        File f = tempFile();
+        files.write(f, 100, new byte[]{1, 2, 3});
+        files.write(f, 0, new byte[]{9});
+        assertEquals(103, f.length());
+        assertEquals(103, files.size(f));
+
+        byte[] got = new byte[5];
+        assertEquals(4, files.read(f, 99, got, 0, 5));
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 0}, got);
+        assertEquals(0, files.read(f, 200, ByteBuffer.allocate(4)));
+
+        assertEquals(1, files.getOpens());
+        assertEquals(2, files.getWrites());
+        assertEquals(4, files.getBytesWritten());
+        assertEquals(2, files.getReads());
+        assertEquals(4, files.getBytesRead());
+    }
+
+    /**
+     * Unit test for FileHandleManager.readCoalesced(): adjacent blocks are
+     * filled by one read, in whatever order they are given
+     */
+    @Test public void readCoalesced() throws Exception {
+        File f = tempFile();
+        byte[] content = new byte[40];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        files.write(f, 0, content);
+        long reads = files.getReads();
+
+        byte[][] blocks = {new byte[10], new byte[10], new byte[10], new byte[10]};
+        // 10..19, 0..9, 20..29 are adjacent; the last block runs past the end
+        long[] positions = {10, 0, 20, 35};
+        assertEquals(2, files.readCoalesced(f, positions, blocks));
+        assertEquals(2, files.getReads() - reads);
+        for (int b = 0; b < 3; b++) {
+            assertArrayEquals(Arrays.copyOfRange(content, (int) positions[b], (int) positions[b] + 10), blocks[b]);
+        }
+        assertArrayEquals(new byte[]{35, 36, 37, 38, 39, 0, 0, 0, 0, 0}, blocks[3]);
+    }
+
+    /**
+     * Unit test for FileHandleManager: idle channels beyond the budget are
+     * closed least recently used first
+     */
+    @Test public void descriptorBudget() throws Exception {
+        File a = tempFile();
+        File b = tempFile();
+        File c = tempFile();
+        files.write(a, 0, new byte[]{1});
+        files.write(b, 0, new byte[]{2});
+        files.read(a, 0, new byte[1], 0, 1);
+        assertEquals(2, files.getOpenFiles());
+
+        // b is the least recently used and goes
+        files.write(c, 0, new byte[]{3});
+        assertEquals(2, files.getOpenFiles());
+        assertEquals(3, files.getOpens());
+        assertEquals(1, files.getCloses());
+
+        files.read(a, 0, new byte[1], 0, 1);
+        assertEquals(3, files.getOpens());
+        byte[] got = new byte[1];
+        files.read(b, 0, got, 0, 1);
+        assertEquals(2, got[0]);
+        assertEquals(4, files.getOpens());
+    }
+
+    /**
+     * Unit test for FileHandleManager.close(): the file is reopened on use,
+     * so a replaced file is seen
+     */
+    @Test public void closeReopens() throws Exception {
+        File f = tempFile();
+        files.write(f, 0, new byte[]{1});
+        files.close(f);
+        assertEquals(0, files.getOpenFiles());
+        assertTrue(f.delete());
+        files.write(f, 0, new byte[]{5, 6});
+        byte[] got = new byte[2];
+        assertEquals(2, files.read(f, 0, got, 0, 2));
+        assertArrayEquals(new byte[]{5, 6}, got);
+    }
+
+    /**
+     * Unit test for FileHandleManager: an interrupted reader closes the
+     * shared channel, and the next caller gets a fresh one
+     */
+    @Test public void survivesInterrupt() throws Exception {
+        File f = tempFile();
+        files.write(f, 0, new byte[]{7});
+        Thread.currentThread().interrupt();
+        try {
+            files.read(f, 0, new byte[1], 0, 1);
+            fail("expected the interrupt to abort the read");
+        } catch (ClosedByInterruptException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        byte[] got = new byte[1];
+        assertEquals(1, files.read(f, 0, got, 0, 1));
+        assertEquals(7, got[0]);
+    }
+
+    /**
+     * Unit test for FileHandleManager: concurrent positional I/O on one
+     * channel does not interfere
+     */
+    @Test public void concurrentIo() throws Exception {
+        final File f = tempFile();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final byte tag = (byte) (t + 1);
+            threads.add(new Thread(() -> {
+                try {
+                    byte[] page = new byte[64];
+                    byte[] got = new byte[64];
+                    for (int i = 0; i < 200; i++) {
+                        Arrays.fill(page, tag);
+                        long offset = (long) (i * 4 + tag - 1) * page.length;
+                        files.write(f, offset, page);
+                        files.read(f, offset, got, 0, got.length);
+                        assertArrayEquals(page, got);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(1, files.getOpens());
+        assertEquals(800 * 64, f.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleManagerTest.class);
+    }
+}
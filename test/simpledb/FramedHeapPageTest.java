@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.FrameArena;
+import simpledb.storage.FramedHeapPage;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FramedHeapPageTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 12;
+    private static final int POOL_PAGES = 4;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page; leave the last page part full
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * (FILE_PAGES - 1) + 100, null, null);
+        assertEquals(FILE_PAGES, hf.numPages());
+        tid = new TransactionId();
+    }
+
+    private static List<String> contents(Iterator<Tuple> it) {
+        List<String> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getRecordId().getTupleNumber() + ":" + t);
+        }
+        return rows;
+    }
+
+    /**
+     * Unit test for FrameArena.allocate() and release()
+     */
+    @Test public void arenaAllocate() {
+        FrameArena arena = new FrameArena(3, 64);
+        assertEquals(3, arena.capacity());
+        Set<Integer> frames = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            int f = arena.allocate();
+            assertTrue(frames.add(f));
+            assertEquals(64, arena.frame(f).capacity());
+        }
+        assertEquals(-1, arena.allocate());
+        assertEquals(0, arena.available());
+        arena.release(1);
+        assertEquals(1, arena.allocate());
+
+        // frames do not overlap
+        arena.frame(0).put(63, (byte) 7);
+        assertEquals(0, arena.frame(1).get(0));
+        assertTrue(arena.frame(0).isDirect());
+    }
+
+    /**
+     * Unit test for FramedHeapPage: the view shows the same tuples and bytes
+     * as a HeapPage read from the same data
+     */
+    @Test public void viewMatchesHeapPage() throws Exception {
+        FrameArena arena = new FrameArena(1, BufferPool.getPageSize());
+        for (int pgNo : new int[]{0, FILE_PAGES - 1}) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+            HeapPage heap = (HeapPage) hf.readPage(pid);
+            int frame = arena.allocate();
+            FramedHeapPage framed = hf.readPage(pid, arena.frame(frame), frame);
+
+            assertEquals(pid, framed.getId());
+            assertArrayEquals(heap.getPageData(), framed.getPageData());
+            assertEquals(heap.getNumEmptySlots(), framed.getNumEmptySlots());
+            assertEquals(contents(heap.iterator()), contents(framed.iterator()));
+            assertArrayEquals(heap.getPageData(), framed.getBeforeImage().getPageData());
+            arena.release(frame);
+        }
+    }
+
+    /**
+     * Unit test for FramedHeapPage: a detached page stays valid after its
+     * frame is reused
+     */
+    @Test public void detachedViewSurvivesReuse() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, 1, ClockProPolicy::new, true);
+        PageId first = new HeapPageId(hf.getId(), 0);
+        Page page = bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertTrue(page instanceof FramedHeapPage);
+        List<String> before = contents(((HeapPage) page).iterator());
+
+        // read enough other pages to push page 0 out and reuse its frame
+        for (int i = 1; i < FILE_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(-1, ((FramedHeapPage) page).getFrame());
+        assertEquals(before, contents(((HeapPage) page).iterator()));
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): READ_WRITE replaces a framed page
+     * by a modifiable HeapPage
+     */
+    @Test public void readWriteUnframes() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, 1, ClockProPolicy::new, true);
+        PageId pid = new HeapPageId(hf.getId(), 2);
+        Page framed = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(framed instanceof FramedHeapPage);
+        try {
+            ((HeapPage) framed).insertTuple(((HeapPage) framed).iterator().next());
+            fail("a framed page must not accept updates");
+        } catch (DbException expected) {
+        }
+
+        Page writable = bp.getPage(tid, pid, Permissions.READ_WRITE);
+        assertFalse(writable instanceof FramedHeapPage);
+        assertArrayEquals(framed.getPageData(), writable.getPageData());
+        assertSame(writable, bp.getPage(tid, pid, Permissions.READ_ONLY));
+
+        // a page fetched READ_WRITE first is never framed
+        PageId other = new HeapPageId(hf.getId(), 3);
+        assertFalse(bp.getPage(tid, other, Permissions.READ_WRITE) instanceof FramedHeapPage);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FramedHeapPageTest.class);
+    }
+}
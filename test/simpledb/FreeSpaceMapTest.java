@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    // two int columns fit 504 tuples per page
+    private static final int SLOTS = 504;
+    private static final int FILE_PAGES = 8;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // every page full
+        hf = SystemTestUtil.createRandomHeapFile(2, SLOTS * FILE_PAGES, null, null);
+        hf.getFreeSpaceMap().getFile().deleteOnExit();
+        Database.resetBufferPool(64).getReadAhead().setEnabled(false);
+        tid = new TransactionId();
+    }
+
+    private Tuple tupleOnPage(int pgNo) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (t.getRecordId().getPageId().getPageNumber() == pgNo) {
+                    return t;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        throw new AssertionError("no tuple on page " + pgNo);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.level()
+     */
+    @Test public void levels() {
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.FULL, fsm.level(0));
+        assertEquals(FreeSpaceMap.LOW, fsm.level(1));
+        assertEquals(FreeSpaceMap.LOW, fsm.level(SLOTS / 4));
+        assertEquals(FreeSpaceMap.HALF, fsm.level(SLOTS / 2));
+        assertEquals(FreeSpaceMap.EMPTY, fsm.level(SLOTS));
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): with the map built, an insert into
+     * a file of full pages reads no full page
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(FILE_PAGES + 1, hf.numPages());
+        assertEquals(FILE_PAGES, hf.getFreeSpaceMap().findPageWithRoom(0));
+
+        Database.resetBufferPool(64).getReadAhead().setEnabled(false);
+        FileHandleManager files = Database.getFileHandleManager();
+        long reads = files.getReads();
+        Page p = hf.insertTuple(tid, Utility.getHeapTuple(2, 2)).get(0);
+        assertEquals(new HeapPageId(hf.getId(), FILE_PAGES), p.getId());
+        // the new last page only
+        assertEquals(1, files.getReads() - reads);
+    }
+
+    /**
+     * Unit test for HeapFile.deleteTuple(): the freed slot is found by the
+     * next insert
+     */
+    @Test public void deleteMakesRoom() throws Exception {
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(-1, fsm.findPageWithRoom(0));
+        hf.deleteTuple(tid, tupleOnPage(5));
+        assertEquals(FreeSpaceMap.LOW, fsm.getLevel(5));
+        assertEquals(5, fsm.findPageWithRoom(0));
+
+        Page p = hf.insertTuple(tid, Utility.getHeapTuple(3, 2)).get(0);
+        assertEquals(5, p.getId().getPageNumber());
+        assertEquals(FreeSpaceMap.FULL, fsm.getLevel(5));
+        assertEquals(FILE_PAGES, hf.numPages());
+    }
+
+    /**
+     * Unit test for FreeSpaceMap: the map is kept in its side file, and
+     * rebuilt from the page headers when that file is lost
+     */
+    @Test public void persistsAndRebuilds() throws Exception {
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.EMPTY, fsm.getLevel(FILE_PAGES));
+
+        File mapFile = fsm.getFile();
+        assertTrue(mapFile.exists());
+        FreeSpaceMap reloaded = new FreeSpaceMap(hf.getFile(), hf.getTupleDesc());
+        assertEquals(FILE_PAGES, reloaded.findPageWithRoom(0));
+        assertEquals(FreeSpaceMap.FULL, reloaded.getLevel(0));
+
+        Database.getFileHandleManager().close(mapFile);
+        assertTrue(mapFile.delete());
+        FreeSpaceMap rebuilt = new FreeSpaceMap(hf.getFile(), hf.getTupleDesc());
+        assertEquals(FILE_PAGES, rebuilt.findPageWithRoom(0));
+        assertEquals(FreeSpaceMap.EMPTY, rebuilt.getLevel(FILE_PAGES));
+        assertTrue(mapFile.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.GroupCommit;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int SESSIONS = 8;
+    private static final int COMMITS = 10;
+
+    private LogFile log;
+    private GroupCommit gc;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        log = Database.getLogFile();
+        gc = log.getGroupCommit();
+    }
+
+    /** Run COMMITS begin/commit transactions in each of SESSIONS threads. */
+    private void commitConcurrently() throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    go.await();
+                    for (int n = 0; n < COMMITS; n++) {
+                        Transaction tx = new Transaction();
+                        tx.start();
+                        tx.commit();
+                        // the commit record is on disk once commit returns
+                        assertTrue(log.getForcedLsn() > 0);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        go.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * Unit test for GroupCommit: concurrent commits share forces of the
+     * log, and each returns once its record is forced
+     */
+    @Test public void sharedForces() throws Exception {
+        gc.setMaxWait(50000);
+        gc.setMaxBatch(SESSIONS);
+        commitConcurrently();
+
+        assertEquals(SESSIONS * COMMITS, gc.getCommits());
+        assertTrue(gc.getForces() < gc.getCommits());
+        assertEquals(log.getEndLsn(), log.getForcedLsn());
+    }
+
+    /**
+     * Unit test for GroupCommit.setEnabled(false): every commit forces the
+     * log itself
+     */
+    @Test public void disabled() throws Exception {
+        gc.setEnabled(false);
+        commitConcurrently();
+
+        assertEquals(SESSIONS * COMMITS, gc.getCommits());
+        assertTrue(gc.getForces() <= gc.getCommits());
+        assertEquals(log.getEndLsn(), log.getForcedLsn());
+    }
+
+    /**
+     * Unit test for GroupCommit.await(): a record already covered by a
+     * force of the log does not wait for another
+     */
+    @Test public void alreadyForced() throws Exception {
+        Transaction tx = new Transaction();
+        tx.start();
+        log.force();
+        long forces = gc.getForces();
+        gc.await(log.getEndLsn());
+        assertEquals(forces, gc.getForces());
+        tx.commit();
+        assertEquals(forces + 1, gc.getForces());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class HeapPageBufferTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static int first(HeapPage page) {
+        return ((IntField) page.iterator().next().getField(0)).getValue();
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData(): the page bytes follow inserts
+     * and deletes, and the returned array is the caller's
+     */
+    @Test public void pageDataFollowsWrites() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = Utility.getHeapTuple(new int[]{5, 6});
+        page.insertTuple(t);
+        byte[] data = page.getPageData();
+        HeapPage reread = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(t, reread.iterator().next()));
+
+        data[0] = 0;
+        assertTrue(page.isSlotUsed(0));
+
+        page.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * Unit test for HeapPage.setBeforeImage(): the before-image keeps the
+     * bytes it was taken from while the page is written, and the bytes the
+     * page was read from are left alone
+     */
+    @Test public void beforeImageIsCopyOnWrite() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, original);
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, original);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] image = page.getPageData();
+        page.insertTuple(Utility.getHeapTuple(new int[]{-1, -2}));
+        assertArrayEquals(image, page.getBeforeImage().getPageData());
+        assertEquals(-1, first(page));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0], first(page.getBeforeImage()));
+    }
+
+    /**
+     * Unit test for HeapPage tuples: a deleted tuple keeps its values when
+     * its slot is reused, and a field set on a tuple of the page is written
+     * into the page
+     */
+    @Test public void tuplesAndSlotReuse() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.setBeforeImage();
+        Tuple deleted = page.iterator().next();
+        page.deleteTuple(deleted);
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) deleted.getField(0)).getValue());
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple t = it.next();
+        assertEquals(7, ((IntField) t.getField(0)).getValue());
+        t.setField(1, new IntField(9));
+        Tuple reread = new HeapPage(pid, page.getPageData()).iterator().next();
+        assertEquals(9, ((IntField) reread.getField(1)).getValue());
+
+        deleted.setField(1, new IntField(10));
+        reread = new HeapPage(pid, page.getPageData()).iterator().next();
+        assertEquals(9, ((IntField) reread.getField(1)).getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageBufferTest.class);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class HeapPageLazyDecodingTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    @After public void restoreMode() {
+        HeapPage.setLazyDecoding(true);
+    }
+
+    private static List<Tuple> tuples(HeapPage page) {
+        List<Tuple> out = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            out.add(it.next());
+        }
+        return out;
+    }
+
+    /**
+     * Unit test for HeapPage lazy decoding: the tuples, their fields and
+     * record ids are the same as with eager decoding
+     */
+    @Test public void sameTuplesAsEager() throws Exception {
+        HeapPage.setLazyDecoding(false);
+        List<Tuple> eager = tuples(new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA));
+        HeapPage.setLazyDecoding(true);
+        List<Tuple> lazy = tuples(new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA));
+
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, lazy.size());
+        for (int i = 0; i < eager.size(); i++) {
+            assertTrue(TestUtil.compareTuples(eager.get(i), lazy.get(i)));
+            assertEquals(eager.get(i).getRecordId(), lazy.get(i).getRecordId());
+            assertEquals(eager.get(i).toString(), lazy.get(i).toString());
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() with lazy decoding: untouched
+     * tuples are copied as they were, changed ones are written from their
+     * fields
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Tuple first = page.iterator().next();
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        first.setField(1, new IntField(-7));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Tuple t = reread.iterator().next();
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) t.getField(0)).getValue());
+        assertEquals(-7, ((IntField) t.getField(1)).getValue());
+        // the bytes the page was read from are left alone
+        HeapPage original = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][1],
+                ((IntField) original.iterator().next().getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for HeapPage lazy decoding of string fields, with inserts
+     * and deletes on the page
+     */
+    @Test public void stringsInsertAndDelete() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        HeapPageId spid = new HeapPageId(-2, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(spid, HeapPage.createEmptyPageData());
+        String[] values = {"", "a", "lazy", new String(new char[Type.STRING_LEN]).replace('\0', 'x')};
+        for (int i = 0; i < values.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(values[i], Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+
+        HeapPage reread = new HeapPage(spid, page.getPageData());
+        List<Tuple> got = tuples(reread);
+        assertEquals(values.length, got.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], ((StringField) got.get(i).getField(1)).getValue());
+        }
+
+        reread.deleteTuple(got.get(1));
+        HeapPage again = new HeapPage(spid, reread.getPageData());
+        got = tuples(again);
+        assertEquals(Arrays.asList(0, 2, 3), Arrays.asList(
+                ((IntField) got.get(0).getField(0)).getValue(),
+                ((IntField) got.get(1).getField(0)).getValue(),
+                ((IntField) got.get(2).getField(0)).getValue()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageLazyDecodingTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    // LogFile.UPDATE_RECORD
+    private static final int UPDATE_RECORD = 3;
+
+    private HeapFile hf;
+    private TransactionId tid;
+    private File f;
+    private File segment;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        tid = new TransactionId();
+        f = File.createTempFile("log", ".dat");
+        f.deleteOnExit();
+        // the first segment of the log
+        segment = new File(f.getPath() + ".000000");
+        segment.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    private Page page() throws Exception {
+        return Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Unit test for LogFile.logWrite(): records stay in memory with growing
+     * LSNs until force(lsn) writes them out
+     */
+    @Test public void lsnsAndForce() throws Exception {
+        Page page = page();
+        long first = log.logWrite(tid, page.getBeforeImage(), page);
+        long second = log.logWrite(tid, page.getBeforeImage(), page);
+        assertTrue(second > first);
+        assertEquals(second, log.getEndLsn());
+        assertTrue(segment.length() < first);
+
+        log.force(first);
+        assertTrue(log.getForcedLsn() >= first);
+        // the whole buffer went out, not just the first record
+        assertEquals(second, segment.length());
+    }
+
+    /**
+     * Unit test for LogFile's buffer: records that overflow the ring reach
+     * the file whole and in order
+     */
+    @Test public void wrapRing() throws Exception {
+        Page page = page();
+        // whole images, so that the records overflow the ring
+        log.setLogDeltas(false);
+        int records = 300;
+        for (int i = 0; i < records; i++) {
+            log.logWrite(tid, page.getBeforeImage(), page);
+        }
+        log.force();
+        assertEquals(log.getEndLsn(), segment.length());
+
+        // follow the start offsets that end each record back from the end
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+            long end = raf.length();
+            int found = 0;
+            while (end > 0) {
+                raf.seek(end - 8);
+                long start = raf.readLong();
+                raf.seek(start);
+                assertEquals(UPDATE_RECORD, raf.readInt());
+                assertEquals(tid.getId(), raf.readLong());
+                end = start;
+                found++;
+            }
+            assertEquals(records, found);
+            assertEquals(0, end);
+        }
+    }
+
+    /**
+     * Unit test for BufferPool: a written page carries the LSN of its
+     * update record, and the log is on disk up to it
+     */
+    @Test public void pageLsn() throws Exception {
+        Page page = hf.insertTuple(tid, Utility.getHeapTuple(new int[]{1, 2})).get(0);
+        page.markDirty(true, tid);
+        assertEquals(0, page.getLsn());
+        Database.getBufferPool().flushPages(tid);
+        assertTrue(page.getLsn() > 0);
+        assertTrue(Database.getLogFile().getForcedLsn() >= page.getLsn());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.storage.SlotLayout;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LogDeltaTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private HeapPageId pid;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        File f = File.createTempFile("log", ".dat");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    /** Insert a tuple with transaction tid and log the page it went to. */
+    private Page insertAndLog(TransactionId tid, int value) throws Exception {
+        Page page = hf.insertTuple(tid, Utility.getHeapTuple(new int[]{value, value})).get(0);
+        page.markDirty(true, tid);
+        log.logWrite(tid, page.getBeforeImage(), page);
+        return page;
+    }
+
+    /** @return the number of bytes logged by r */
+    private long logged(ThrowingRunnable r) throws Exception {
+        long start = log.getEndLsn();
+        r.run();
+        return log.getEndLsn() - start;
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    /**
+     * Unit test for LogFile.logWrite(): the first update of a page is
+     * logged whole, the ones after it as the changed slots only, until a
+     * checkpoint
+     */
+    @Test public void deltaAfterImage() throws Exception {
+        TransactionId tid = new TransactionId();
+        int pageSize = hf.readPage(pid).getPageData().length;
+        assertTrue(logged(() -> insertAndLog(tid, 1)) > 2 * pageSize);
+        assertTrue(logged(() -> insertAndLog(tid, 2)) < 100);
+
+        log.logCheckpoint();
+        assertTrue(logged(() -> insertAndLog(tid, 3)) > 2 * pageSize);
+
+        log.setLogDeltas(false);
+        assertTrue(logged(() -> insertAndLog(tid, 4)) > 2 * pageSize);
+    }
+
+    /**
+     * Unit test for LogFile.rollback() and logAbort(): whole images and deltas are undone,
+     * newest first, back to the page before the transaction
+     */
+    @Test public void rollback() throws Exception {
+        byte[] original = hf.readPage(pid).getPageData();
+
+        TransactionId t1 = new TransactionId();
+        log.logXactionBegin(t1);
+        Page page = insertAndLog(t1, 1);
+        hf.writePage(page);
+        page = insertAndLog(t1, 2);
+        hf.writePage(page);
+        assertFalse(Arrays.equals(original, hf.readPage(pid).getPageData()));
+
+        log.logAbort(t1);
+        assertArrayEquals(original, hf.readPage(pid).getPageData());
+
+        // a committed change stays, even when only deltas follow it
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t2);
+        page = insertAndLog(t2, 3);
+        page.setBeforeImage();
+        hf.writePage(page);
+        log.logCommit(t2);
+        byte[] committed = hf.readPage(pid).getPageData();
+
+        TransactionId t3 = new TransactionId();
+        log.logXactionBegin(t3);
+        long size = logged(() -> insertAndLog(t3, 4));
+        assertTrue(size < 100);
+        hf.writePage(Database.getBufferPool().getPage(t3, pid, Permissions.READ_ONLY));
+
+        log.rollback(t3);
+        assertArrayEquals(committed, hf.readPage(pid).getPageData());
+    }
+
+    /** Apply the slots and fixed bytes that changed from base to now onto base. */
+    private static byte[] applyDelta(SlotLayout layout, byte[] base, byte[] now) {
+        byte[] image = base.clone();
+        if (!layout.sameFixed(base, now)) {
+            layout.setFixed(image, layout.getFixed(now));
+        }
+        for (int i = 0; i < layout.getNumSlots(); i++) {
+            if (!layout.sameSlot(base, now, i)) {
+                layout.setSlot(image, i, layout.getSlot(now, i));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Unit test for the slot layouts of B+ tree pages: the changed slots
+     * carry every changed byte of the page
+     */
+    @Test public void btreeLayouts() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(-1, 1, BTreePageId.LEAF),
+                BTreeLeafPage.createEmptyPageData(), 0);
+        for (int i = 0; i < 20; i++) {
+            leaf.insertTuple(BTreeUtility.getBTreeTuple(new int[]{(i * 7) % 20, i}));
+        }
+        byte[] base = leaf.getPageData();
+        leaf.insertTuple(BTreeUtility.getBTreeTuple(new int[]{5, 100}));
+        leaf.deleteTuple(leaf.iterator().next());
+        leaf.setRightSiblingId(new BTreePageId(-1, 3, BTreePageId.LEAF));
+        byte[] now = leaf.getPageData();
+        assertArrayEquals(now, applyDelta(leaf.getSlotLayout(), base, now));
+
+        BTreeInternalPage internal = new BTreeInternalPage(new BTreePageId(-1, 2, BTreePageId.INTERNAL),
+                BTreeInternalPage.createEmptyPageData(), 0);
+        for (int i = 0; i < 10; i++) {
+            internal.insertEntry(BTreeUtility.getBTreeEntry(i + 1, 1000 * (i + 1), -1));
+        }
+        base = internal.getPageData();
+        internal.insertEntry(BTreeUtility.getBTreeEntry(11, 11000, -1));
+        internal.deleteKeyAndRightChild(internal.iterator().next());
+        internal.setParentId(new BTreePageId(-1, 7, BTreePageId.INTERNAL));
+        now = internal.getPageData();
+        assertArrayEquals(now, applyDelta(internal.getSlotLayout(), base, now));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogDeltaTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File file;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        System.setProperty(LogFile.SEGMENT_SIZE_PROPERTY, Integer.toString(SEGMENT_SIZE));
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        file = hf.getFile();
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(LogFile.SEGMENT_SIZE_PROPERTY);
+    }
+
+    private Page insert(TransactionId tid, LogFile log, int value) throws Exception {
+        Page page = hf.insertTuple(tid, Utility.getHeapTuple(new int[]{value, value})).get(0);
+        page.markDirty(true, tid);
+        log.logWrite(tid, page.getBeforeImage(), page);
+        return page;
+    }
+
+    /** Insert a tuple with a new transaction, write the page and commit. */
+    private void commitInsert(int value) throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        Page page = hf.insertTuple(tid, Utility.getHeapTuple(new int[]{value, value})).get(0);
+        page.markDirty(true, tid);
+        Database.getBufferPool().flushPages(tid);
+        page.setBeforeImage();
+        log.logCommit(tid);
+    }
+
+    private static File segment(File log, int n) {
+        return new File(String.format("%s.%06d", log.getPath(), n));
+    }
+
+    /**
+     * Unit test for LogFile: records larger than a segment are written
+     * across several and read back whole
+     */
+    @Test public void spanSegments() throws Exception {
+        File f = File.createTempFile("log", ".dat");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f, 1000);
+        log.setLogDeltas(false);
+        byte[] original = hf.readPage(pid).getPageData();
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        hf.writePage(insert(tid, log, 1));
+        hf.writePage(insert(tid, log, 2));
+        log.force();
+        assertTrue(log.getEndLsn() > 2 * 2 * original.length);
+        for (int n = 0; n <= log.getEndLsn() / 1000; n++) {
+            segment(f, n).deleteOnExit();
+            assertTrue(segment(f, n).exists());
+            assertTrue(segment(f, n).length() <= 1000);
+        }
+
+        log.logAbort(tid);
+        assertArrayEquals(original, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * Unit test for LogFile.logTruncate(): the segments before the last
+     * checkpoint are deleted, while the offsets of the records after it
+     * stay the same, also after recovery
+     */
+    @Test public void truncateDeletesSegments() throws Exception {
+        File log = new File("log");
+        for (int i = 0; i < 5; i++) {
+            commitInsert(i);
+        }
+        assertTrue(Database.getLogFile().getEndLsn() > 2 * SEGMENT_SIZE);
+        assertTrue(segment(log, 0).exists());
+
+        Database.getLogFile().logCheckpoint();
+        long end = Database.getLogFile().getEndLsn();
+        assertFalse(segment(log, 0).exists());
+        assertTrue(segment(log, (int) ((end - 1) / SEGMENT_SIZE)).exists());
+
+        commitInsert(5);
+        byte[] expected = hf.readPage(pid).getPageData();
+        end = Database.getLogFile().getEndLsn();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(end, Database.getLogFile().getEndLsn());
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.index.BTreeEntry;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.MappedFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+    private static File tempFile(int length) throws IOException {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + 7);
+        }
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(bytes);
+        }
+        return f;
+    }
+
+    /**
+     * Unit test for MappedFile.read(): reads that cross segment boundaries
+     * and the end of the file
+     */
+    @Test public void readAcrossSegments() throws Exception {
+        File f = tempFile(1000);
+        try (MappedFile m = new MappedFile(f, 96)) {
+            for (int offset : new int[]{0, 90, 95, 96, 500, 950}) {
+                byte[] got = new byte[120];
+                int n = m.read(offset, got, 0, got.length);
+                assertEquals(Math.min(120, 1000 - offset), n);
+                for (int i = 0; i < n; i++) {
+                    assertEquals((byte) ((offset + i) * 31 + 7), got[i]);
+                }
+            }
+            assertEquals(0, m.read(1000, new byte[10], 0, 10));
+            assertEquals(0, m.read(5000, new byte[10], 0, 10));
+        }
+    }
+
+    /**
+     * Unit test for MappedFile: bytes appended after the file was mapped
+     * become visible
+     */
+    @Test public void remapOnGrowth() throws Exception {
+        File f = tempFile(100);
+        try (MappedFile m = new MappedFile(f, 1 << 20)) {
+            assertEquals(100, m.read(0, ByteBuffer.allocate(200)));
+            long mappings = m.getMappings();
+
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.seek(100);
+                raf.write(new byte[]{1, 2, 3});
+            }
+            ByteBuffer dst = ByteBuffer.allocate(3);
+            assertEquals(3, m.read(100, dst));
+            assertArrayEquals(new byte[]{1, 2, 3}, dst.array());
+            assertEquals(mappings + 1, m.getMappings());
+
+            // reads inside the mapped part do not remap
+            m.read(0, ByteBuffer.allocate(103));
+            assertEquals(mappings + 1, m.getMappings());
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() with memory mapping: the same pages
+     * as with plain reads, also when read into a frame
+     */
+    @Test public void heapFileMapped() throws Exception {
+        // two int columns fit 504 tuples per page; leave the last page part full
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4 + 10, null, null);
+        HeapFile mapped = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        mapped.setMemoryMapped(true);
+        assertTrue(mapped.isMemoryMapped());
+        FrameArena arena = new FrameArena(1, BufferPool.getPageSize());
+
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            byte[] expected = hf.readPage(pid).getPageData();
+            assertArrayEquals(expected, mapped.readPage(pid).getPageData());
+            assertArrayEquals(expected, mapped.readPage(pid, arena.frame(0), 0).getPageData());
+        }
+        mapped.setMemoryMapped(false);
+        assertFalse(mapped.isMemoryMapped());
+    }
+
+    private static void comparePages(BTreeFile plain, BTreeFile mapped, BTreePageId pid) {
+        Page p = plain.readPage(pid);
+        assertArrayEquals(p.getPageData(), mapped.readPage(pid).getPageData());
+        if (pid.pgcateg() == BTreePageId.INTERNAL) {
+            Iterator<BTreeEntry> it = ((BTreeInternalPage) p).iterator();
+            BTreeEntry e = null;
+            while (it.hasNext()) {
+                e = it.next();
+                comparePages(plain, mapped, e.getLeftChild());
+            }
+            if (e != null) {
+                comparePages(plain, mapped, e.getRightChild());
+            }
+        }
+    }
+
+    /**
+     * Unit test for BTreeFile.readPage() with memory mapping: the same pages
+     * as with plain reads, for every page reachable from the root
+     */
+    @Test public void bTreeFileMapped() throws Exception {
+        BTreeFile plain = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        BTreeFile mapped = new BTreeFile(plain.getFile(), 0, plain.getTupleDesc());
+        mapped.setMemoryMapped(true);
+
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(plain.getId());
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) plain.readPage(rootPtrId);
+        assertArrayEquals(rootPtr.getPageData(), mapped.readPage(rootPtrId).getPageData());
+        comparePages(plain, mapped, rootPtr.getRootId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageCleaner;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 20;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        bp = Database.resetBufferPool(64);
+        bp.getReadAhead().setEnabled(false);
+    }
+
+    private List<Page> dirty(TransactionId tid, int... pageNos) throws Exception {
+        List<Page> pages = new ArrayList<>();
+        for (int pgNo : pageNos) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+            pages.add(p);
+        }
+        return pages;
+    }
+
+    /**
+     * Unit test for PageCleaner.clean(): committed pages are written, with
+     * adjacent pages coalesced into one write
+     */
+    @Test public void writesCommittedPagesCoalesced() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Page> pages = dirty(tid, 3, 4, 5, 6, 10, 11);
+        bp.transactionComplete(tid, true);
+
+        PageCleaner cleaner = bp.getPageCleaner();
+        assertEquals(6, cleaner.getBacklog());
+        FileHandleManager files = Database.getFileHandleManager();
+        long writes = files.getWrites();
+        assertEquals(6, cleaner.clean());
+        assertEquals(2, files.getWrites() - writes);
+        assertEquals(2, cleaner.getWriteRuns());
+        assertEquals(6, cleaner.getPagesWritten());
+        assertEquals(0, cleaner.getBacklog());
+        for (Page p : pages) {
+            assertNull(p.isDirty());
+        }
+        assertEquals(0, cleaner.clean());
+    }
+
+    /**
+     * Unit test for PageCleaner.clean(): pages of running transactions, and
+     * pages dirtied again after commit, are left alone
+     */
+    @Test public void skipsUncommittedPages() throws Exception {
+        TransactionId running = new TransactionId();
+        Page a = dirty(running, 1).get(0);
+
+        TransactionId committed = new TransactionId();
+        Page b = dirty(committed, 2).get(0);
+        bp.transactionComplete(committed, true);
+        TransactionId next = new TransactionId();
+        b.markDirty(true, next);
+
+        assertEquals(0, bp.getPageCleaner().clean());
+        assertEquals(running, a.isDirty());
+        assertEquals(next, b.isDirty());
+    }
+
+    /**
+     * Unit test for PageCleaner: the update records are logged before the
+     * pages are written
+     */
+    @Test public void logsBeforeWriting() throws Exception {
+        TransactionId tid = new TransactionId();
+        dirty(tid, 0, 1);
+        bp.transactionComplete(tid, true);
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(2, bp.getPageCleaner().clean());
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+    }
+
+    /**
+     * Unit test for PageCleaner.start(): the background sweeps write
+     * committed pages
+     */
+    @Test public void backgroundSweeps() throws Exception {
+        PageCleaner cleaner = bp.getPageCleaner();
+        cleaner.start();
+        try {
+            TransactionId tid = new TransactionId();
+            List<Page> pages = dirty(tid, 7, 8, 9);
+            bp.transactionComplete(tid, true);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (cleaner.getPagesWritten() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, cleaner.getPagesWritten());
+            for (Page p : pages) {
+                assertNull(p.isDirty());
+            }
+        } finally {
+            cleaner.stop();
+        }
+        assertFalse(cleaner.isRunning());
+    }
+
+    private static void insert(HeapFile f, TransactionId tid, int value) throws Exception {
+        f.insertTuple(tid, Utility.getHeapTuple(new int[]{value, value})).get(0).markDirty(true, tid);
+    }
+
+    /** @return true if the page holds a tuple whose first field is value */
+    private static boolean holds(Page page, int value) {
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete(): a transaction that
+     * aborts after its page was logged goes back to the last committed
+     * state of the page, not to the state before that commit
+     */
+    @Test public void abortAfterCommit() throws Exception {
+        Database.getLogFile().setLogDeltas(false);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(small.getId(), 0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(small, t1.getId(), -1);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(small, t2.getId(), -2);
+        // written while t2 runs, so its record holds the before-image
+        bp.flushPages(t2.getId());
+        t2.abort();
+
+        Page disk = small.readPage(pid);
+        assertTrue(holds(disk, -1));
+        assertFalse(holds(disk, -2));
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete(): the pages an aborted
+     * transaction dirtied but never got logged are reverted in the pool
+     */
+    @Test public void abortRevertsPoolPage() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(small.getId(), 0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(small, t1.getId(), -1);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(small, t2.getId(), -2);
+        t2.abort();
+
+        // back to the committed state, still waiting to be written
+        Page page = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertTrue(holds(page, -1));
+        assertFalse(holds(page, -2));
+        assertEquals(t1.getId(), page.isDirty());
+
+        bp.flushAllPages();
+        Page disk = small.readPage(pid);
+        assertTrue(holds(disk, -1));
+        assertFalse(holds(disk, -2));
+
+        // nothing committed is waiting, so the page is read from disk again
+        Transaction t3 = new Transaction();
+        t3.start();
+        insert(small, t3.getId(), -3);
+        t3.abort();
+        page = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertTrue(holds(page, -1));
+        assertFalse(holds(page, -3));
+        assertNull(page.isDirty());
+    }
+
+    /**
+     * Unit test for PageCleaner.clean(): a page that another transaction
+     * changes while the cleaner writes it reaches the disk as it was
+     * logged, and an abort of that transaction goes back to the committed
+     * state
+     */
+    @Test public void writesLoggedImage() throws Exception {
+        HeapFile created = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(created.getId(), 0);
+        Transaction t2 = new Transaction();
+        boolean[] changed = {false};
+        HeapFile small = new HeapFile(created.getFile(), created.getTupleDesc()) {
+            @Override public void writePages(List<Page> pages) throws IOException {
+                if (!changed[0]) {
+                    changed[0] = true;
+                    try {
+                        insert(this, t2.getId(), -2);
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.writePages(pages);
+            }
+        };
+        Database.getCatalog().addTable(small, UUID.randomUUID().toString());
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(small, t1.getId(), -1);
+        t1.commit();
+        t2.start();
+        assertEquals(1, bp.getPageCleaner().clean());
+        assertTrue(changed[0]);
+        Page disk = small.readPage(pid);
+        assertTrue(holds(disk, -1));
+        assertFalse(holds(disk, -2));
+
+        t2.abort();
+        Page page = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertTrue(holds(page, -1));
+        assertFalse(holds(page, -2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
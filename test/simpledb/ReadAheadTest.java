@@ -0,0 +1,136 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.ReadAhead;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 40;
+    private static final int POOL_PAGES = 64;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        tid = new TransactionId();
+    }
+
+    private static void awaitLoaded(ReadAhead ra, long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ra.getLoaded() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(n, ra.getLoaded());
+    }
+
+    /**
+     * Unit test for ReadAhead.SequentialStream: the window opens on
+     * sequential access, doubles up to a quarter of the pool and closes on
+     * a jump
+     */
+    @Test public void sequentialWindow() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES);
+        ReadAhead ra = bp.getReadAhead();
+        ra.setEnabled(false);
+        assertEquals(16, ra.getMaxWindow());
+        ra.setEnabled(true);
+
+        ReadAhead.SequentialStream s = ra.sequential(hf.getId(), FILE_PAGES);
+        s.accessed(0);
+        assertEquals(ReadAhead.MIN_WINDOW, s.getWindow());
+        int max = 0;
+        for (int i = 1; i < 20; i++) {
+            s.accessed(i);
+            max = Math.max(max, s.getWindow());
+        }
+        assertEquals(16, max);
+        s.accessed(3);
+        assertEquals(0, s.getWindow());
+        s.accessed(4);
+        assertEquals(ReadAhead.MIN_WINDOW, s.getWindow());
+    }
+
+    /**
+     * Unit test for ReadAhead.prefetch(): a prefetched page is a hit
+     */
+    @Test public void prefetchIsHit() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES);
+        ReadAhead ra = bp.getReadAhead();
+        PageId pid = new HeapPageId(hf.getId(), 5);
+        ra.prefetch(pid);
+        awaitLoaded(ra, 1);
+        // resident pages are not queued again
+        ra.prefetch(pid);
+        assertEquals(1, ra.getIssued());
+
+        FileHandleManager files = Database.getFileHandleManager();
+        long reads = files.getReads();
+        assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+        assertEquals(reads, files.getReads());
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() racing with read-ahead: every page
+     * is read from disk exactly once
+     */
+    @Test public void noDuplicateReads() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES);
+        ReadAhead ra = bp.getReadAhead();
+        FileHandleManager files = Database.getFileHandleManager();
+        long reads = files.getReads();
+        for (int i = 0; i < FILE_PAGES; i++) {
+            ra.prefetch(new HeapPageId(hf.getId(), i));
+        }
+        for (int i = FILE_PAGES - 1; i >= 0; i--) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+        }
+        assertEquals(FILE_PAGES, files.getReads() - reads);
+    }
+
+    /**
+     * Unit test for HeapFile scans with read-ahead: all tuples are seen,
+     * also when the file is larger than the pool
+     */
+    @Test public void scanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(16);
+        for (int round = 0; round < 2; round++) {
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            assertEquals(504 * FILE_PAGES, count);
+        }
+        assertTrue(bp.getReadAhead().getIssued() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest {
+
+    private static final int CAPACITY = 10;
+
+    /**
+     * Minimal stand-in for the BufferPool: keeps at most CAPACITY pages
+     * resident and asks the policy for a victim on every miss.
+     */
+    private static class SimulatedPool {
+        final ReplacementPolicy policy;
+        final Set<PageId> resident = new HashSet<>();
+
+        SimulatedPool(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+
+        void access(PageId pid) {
+            if (resident.contains(pid)) {
+                policy.pageAccessed(pid);
+                return;
+            }
+            if (resident.size() >= CAPACITY) {
+                PageId victim = policy.chooseVictim(p -> true);
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+            }
+            resident.add(pid);
+            policy.pageAdmitted(pid);
+        }
+    }
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    private void checkScanResistance(ReplacementPolicy policy) {
+        SimulatedPool pool = new SimulatedPool(policy);
+        // a small hot set that is used over and over
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 5; i++) {
+                pool.access(pid(i));
+            }
+        }
+        // a scan over many more pages than the pool holds, interleaved with
+        // occasional point accesses to the hot set
+        for (int i = 100; i < 400; i++) {
+            pool.access(pid(i));
+            if (i % 25 == 0) {
+                pool.access(pid(i % 5));
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            assertTrue("hot page " + i + " was evicted by the scan", pool.resident.contains(pid(i)));
+        }
+        assertEquals(CAPACITY, policy.size());
+    }
+
+    private void checkVictimFilter(ReplacementPolicy policy) {
+        for (int i = 0; i < CAPACITY; i++) {
+            policy.pageAdmitted(pid(i));
+        }
+        PageId victim = policy.chooseVictim(p -> p.getPageNumber() == 7);
+        assertEquals(pid(7), victim);
+        assertEquals(CAPACITY - 1, policy.size());
+        assertNull(policy.chooseVictim(p -> p.getPageNumber() == 7));
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    private void checkRemove(ReplacementPolicy policy) {
+        for (int i = 0; i < CAPACITY; i++) {
+            policy.pageAdmitted(pid(i));
+        }
+        policy.pageRemoved(pid(3));
+        policy.pageRemoved(pid(3));
+        assertEquals(CAPACITY - 1, policy.size());
+        Set<PageId> victims = new HashSet<>();
+        PageId victim;
+        while ((victim = policy.chooseVictim(p -> true)) != null) {
+            assertTrue(victims.add(victim));
+        }
+        assertEquals(CAPACITY - 1, victims.size());
+        assertFalse(victims.contains(pid(3)));
+        assertEquals(0, policy.size());
+    }
+
+    /**
+     * Unit test for ClockProPolicy: hot pages survive a large scan
+     */
+    @Test public void clockProScanResistance() {
+        checkScanResistance(new ClockProPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: hot pages survive a large scan
+     */
+    @Test public void lru2ScanResistance() {
+        checkScanResistance(new LruKPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for ClockProPolicy.chooseVictim() with a filter
+     */
+    @Test public void clockProVictimFilter() {
+        checkVictimFilter(new ClockProPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for LruKPolicy.chooseVictim() with a filter
+     */
+    @Test public void lru2VictimFilter() {
+        checkVictimFilter(new LruKPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for ClockProPolicy.pageRemoved()
+     */
+    @Test public void clockProRemove() {
+        checkRemove(new ClockProPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for LruKPolicy.pageRemoved()
+     */
+    @Test public void lru2Remove() {
+        checkRemove(new LruKPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: the page with the oldest second-to-last
+     * reference goes first
+     */
+    @Test public void lru2Order() {
+        LruKPolicy policy = new LruKPolicy(2, 3);
+        policy.pageAdmitted(pid(0));
+        policy.pageAdmitted(pid(1));
+        policy.pageAdmitted(pid(2));
+        policy.pageAccessed(pid(0));
+        policy.pageAccessed(pid(1));
+        policy.pageAccessed(pid(2));
+        policy.pageAccessed(pid(0));
+        // page 1 has the oldest second reference
+        assertEquals(pid(1), policy.chooseVictim(p -> true));
+        assertEquals(pid(2), policy.chooseVictim(p -> true));
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
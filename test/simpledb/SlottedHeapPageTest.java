@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.SlottedHeapPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    // tuples per fixed-format page of (int, string)
+    private static final int FIXED_SLOTS = (4096 * 8) / ((4 + Type.STRING_LEN + 4) * 8 + 1);
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        pid = new HeapPageId(-3, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-3, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<Tuple> tuples(HeapPage page) {
+        List<Tuple> out = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            out.add(it.next());
+        }
+        return out;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage: tuples and record ids survive a round
+     * trip through the page bytes
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        String[] values = {"", "a", "short", new String(new char[Type.STRING_LEN]).replace('\0', 'x')};
+        for (int i = 0; i < values.length; i++) {
+            page.insertTuple(tuple(i, values[i]));
+        }
+        List<Tuple> got = tuples(new SlottedHeapPage(pid, page.getPageData()));
+        assertEquals(values.length, got.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(i, ((IntField) got.get(i).getField(0)).getValue());
+            assertEquals(values[i], ((StringField) got.get(i).getField(1)).getValue());
+            assertEquals(new RecordId(pid, i), got.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Unit test for SlottedHeapPage: short strings fit many more tuples on a
+     * page than the fixed format
+     */
+    @Test public void shortStringsAreDense() throws Exception {
+        HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+        SlottedHeapPage slotted = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int fixedCount = 0;
+        while (fixed.hasRoomFor(tuple(fixedCount, "name-" + fixedCount))) {
+            fixed.insertTuple(tuple(fixedCount, "name-" + fixedCount));
+            fixedCount++;
+        }
+        int slottedCount = 0;
+        while (slotted.hasRoomFor(tuple(slottedCount, "name-" + slottedCount))) {
+            slotted.insertTuple(tuple(slottedCount, "name-" + slottedCount));
+            slottedCount++;
+        }
+        assertEquals(fixedCount, tuples(fixed).size());
+        assertEquals(slottedCount, tuples(new SlottedHeapPage(pid, slotted.getPageData())).size());
+        assertTrue(slottedCount + " vs " + fixedCount, slottedCount >= 5 * fixedCount);
+    }
+
+    /**
+     * Unit test for SlottedHeapPage: the space of deleted tuples is reused
+     * by compaction, slot numbers stay put, and an emptied page is all zeroes
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.hasRoomFor(tuple(i, "x")); i++) {
+            page.insertTuple(tuple(i, "x"));
+        }
+        List<Tuple> all = tuples(page);
+        for (int i = 0; i < all.size(); i += 2) {
+            page.deleteTuple(all.get(i));
+        }
+        // longer than the holes, so the page must be compacted
+        String longer = "a string much longer than one character";
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(-1, longer))) {
+            page.insertTuple(tuple(-1, longer));
+            inserted++;
+        }
+        assertTrue(inserted > 0);
+        for (Tuple t : tuples(new SlottedHeapPage(pid, page.getPageData()))) {
+            int v = ((IntField) t.getField(0)).getValue();
+            if (v == -1) {
+                assertEquals(longer, ((StringField) t.getField(1)).getValue());
+            } else {
+                assertEquals(1, v % 2);
+                assertEquals(new RecordId(pid, v), t.getRecordId());
+            }
+        }
+
+        for (Tuple t : tuples(page)) {
+            page.deleteTuple(t);
+        }
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile with slotted pages: inserted tuples are found by
+     * a scan and take fewer pages than in the fixed format
+     */
+    @Test public void heapFileInsertAndScan() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int rows = 1000;
+        for (int i = 0; i < rows; i++) {
+            hf.insertTuple(tid, tuple(i, "row " + i));
+        }
+        int fixedPages = (rows + FIXED_SLOTS - 1) / FIXED_SLOTS;
+        assertTrue(hf.numPages() * 5 <= fixedPages);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("row " + ((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        it.close();
+        assertEquals(rows, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.DictionaryField;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+
+    private static final String[] STATUSES = {"open", "closed", "pending", "rejected", "on hold"};
+    private static final int ROWS = 2000;
+    // tuples per fixed-format page of (int, string)
+    private static final int FIXED_SLOTS = (4096 * 8) / ((4 + Type.STRING_LEN + 4) * 8 + 1);
+
+    private TupleDesc td;
+    private File f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        f = File.createTempFile("dict", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".dict1").deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private HeapFile open(HeapFile.PageFormat format) {
+        HeapFile hf = new HeapFile(f, td, format, new int[]{1});
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private void fill(HeapFile hf) throws Exception {
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(STATUSES[i % STATUSES.length], Type.STRING_LEN));
+            for (Page p : hf.insertTuple(tid, t)) {
+                p.markDirty(true, tid);
+            }
+        }
+    }
+
+    private List<Tuple> scan(HeapFile hf) throws Exception {
+        List<Tuple> out = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next());
+        }
+        it.close();
+        return out;
+    }
+
+    private void checkValues(List<Tuple> tuples) {
+        assertEquals(ROWS, tuples.size());
+        for (Tuple t : tuples) {
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(STATUSES[i % STATUSES.length], ((StringField) t.getField(1)).getValue());
+        }
+    }
+
+    /**
+     * Unit test for HeapFile with a dictionary-encoded column: pages store
+     * codes, so they hold many more tuples, and every occurrence of a value
+     * decodes to the same field
+     */
+    @Test public void encodedColumn() throws Exception {
+        HeapFile hf = open(HeapFile.PageFormat.FIXED);
+        fill(hf);
+        assertTrue(hf.numPages() * 10 <= (ROWS + FIXED_SLOTS - 1) / FIXED_SLOTS);
+        assertEquals(STATUSES.length + 1, hf.getDictionary(1).size());
+        assertNull(hf.getDictionary(0));
+
+        List<Tuple> tuples = scan(hf);
+        checkValues(tuples);
+        Map<String, DictionaryField> seen = new HashMap<>();
+        for (Tuple t : tuples) {
+            DictionaryField d = (DictionaryField) t.getField(1);
+            DictionaryField prev = seen.putIfAbsent(d.getValue(), d);
+            if (prev != null) {
+                assertSame(prev, d);
+            }
+        }
+    }
+
+    /**
+     * Unit test for StringDictionary: the codes survive reopening the file,
+     * and a value torn by a crash is dropped
+     */
+    @Test public void reopen() throws Exception {
+        fill(open(HeapFile.PageFormat.FIXED));
+        Database.getBufferPool().flushAllPages();
+        try (FileOutputStream out = new FileOutputStream(f.getPath() + ".dict1", true)) {
+            out.write(new byte[]{10, 'x', 'y'});
+        }
+
+        Database.resetBufferPool(50);
+        HeapFile hf = open(HeapFile.PageFormat.FIXED);
+        checkValues(scan(hf));
+        StringDictionary dict = hf.getDictionary(1);
+        assertEquals(STATUSES.length + 1, dict.size());
+        assertEquals(STATUSES.length + 1, dict.encode(new StringField("new", Type.STRING_LEN)));
+        assertEquals("new", dict.decode(STATUSES.length + 1).getValue());
+    }
+
+    /**
+     * Unit test for DictionaryField and Predicate: fields of one dictionary
+     * compare by code, and still equal plain StringFields of their value
+     */
+    @Test public void compareCodes() throws Exception {
+        HeapFile hf = open(HeapFile.PageFormat.SLOTTED);
+        fill(hf);
+        List<Tuple> tuples = scan(hf);
+        checkValues(tuples);
+
+        Predicate eq = new Predicate(1, Predicate.Op.EQUALS, new StringField("pending", Type.STRING_LEN));
+        Predicate ne = new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("pending", Type.STRING_LEN));
+        Predicate missing = new Predicate(1, Predicate.Op.EQUALS, new StringField("unknown", Type.STRING_LEN));
+        int matches = 0;
+        for (Tuple t : tuples) {
+            assertNotEquals(eq.filter(t), ne.filter(t));
+            assertFalse(missing.filter(t));
+            if (eq.filter(t)) {
+                matches++;
+            }
+        }
+        assertEquals(ROWS / STATUSES.length, matches);
+
+        DictionaryField open = hf.getDictionary(1).lookup(new StringField("open", Type.STRING_LEN));
+        StringField plain = new StringField("open", Type.STRING_LEN);
+        assertEquals(open, plain);
+        assertEquals(plain, open);
+        assertEquals(plain.hashCode(), open.hashCode());
+        Map<StringField, Integer> groups = new HashMap<>();
+        for (Tuple t : tuples) {
+            groups.merge((StringField) t.getField(1), 1, Integer::sum);
+        }
+        assertEquals(STATUSES.length, groups.size());
+        assertEquals(ROWS / STATUSES.length, (int) groups.get(plain));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.Vacuum;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class VacuumTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 10;
+    // two int columns fit 504 tuples per page
+    private static final int PER_PAGE = 504;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, PER_PAGE * FILE_PAGES, null, null);
+        tid = new TransactionId();
+    }
+
+    /** Delete all but keep tuples of each page in [from, to). */
+    private void thin(int from, int to, int keep) throws Exception {
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+            List<Tuple> tuples = new ArrayList<>();
+            page.iterator().forEachRemaining(tuples::add);
+            for (Tuple t : tuples.subList(keep, tuples.size())) {
+                hf.deleteTuple(tid, t).get(0).markDirty(true, tid);
+            }
+        }
+        Database.getBufferPool().flushPages(tid);
+    }
+
+    private List<String> contents() throws Exception {
+        List<String> rows = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getField(0) + " " + t.getField(1));
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Unit test for Vacuum.run(): sparse pages are packed into the front of
+     * the file and the empty pages at the end are cut off
+     */
+    @Test public void compactAndTruncate() throws Exception {
+        thin(0, FILE_PAGES, PER_PAGE / 5);
+        List<String> before = contents();
+
+        Vacuum v = hf.getVacuum();
+        v.setRate(0);
+        assertEquals(FILE_PAGES - 2, v.run());
+        assertEquals(2, hf.numPages());
+        assertEquals(FILE_PAGES - 2, v.getPagesTruncated());
+        assertEquals(1.0, v.getProgress(), 0);
+
+        Database.resetBufferPool(50);
+        assertEquals(before, contents());
+        // a second pass finds nothing to do
+        assertEquals(0, v.run());
+        assertEquals(2, v.getPasses());
+    }
+
+    /**
+     * Unit test for Vacuum.MoveListener: every moved tuple is reported with
+     * its old and new RecordId
+     */
+    @Test public void reportMoves() throws Exception {
+        thin(0, FILE_PAGES, 10);
+        Map<RecordId, RecordId> moves = new HashMap<>();
+        Map<RecordId, Integer> values = new HashMap<>();
+        Vacuum v = hf.getVacuum();
+        v.setRate(0);
+        v.addListener((t, tuple, from) -> {
+            assertNull(moves.put(from, tuple.getRecordId()));
+            values.put(tuple.getRecordId(), ((IntField) tuple.getField(0)).getValue());
+        });
+        v.run();
+
+        assertEquals((FILE_PAGES - 1) * 10, moves.size());
+        assertEquals(moves.size(), v.getTuplesMoved());
+        assertEquals(1, hf.numPages());
+        for (RecordId from : moves.keySet()) {
+            assertNotEquals(0, from.getPageId().getPageNumber());
+        }
+        for (Map.Entry<RecordId, Integer> e : values.entrySet()) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, e.getKey().getPageId(), Permissions.READ_ONLY);
+            Tuple found = null;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                Tuple t = it.next();
+                if (t.getRecordId().equals(e.getKey())) {
+                    found = t;
+                }
+            }
+            assertNotNull(found);
+            assertEquals((int) e.getValue(), ((IntField) found.getField(0)).getValue());
+        }
+    }
+
+    /**
+     * Unit test for Vacuum.run(): a batch that fails is rolled back, and
+     * the file is not cut
+     */
+    @Test public void failedBatchRollsBack() throws Exception {
+        thin(0, FILE_PAGES, PER_PAGE / 5);
+        List<String> before = contents();
+
+        Vacuum v = hf.getVacuum();
+        v.setRate(0);
+        v.addListener((t, tuple, from) -> {
+            throw new DbException("index full");
+        });
+        try {
+            v.run();
+            fail("the listener should have failed the pass");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(FILE_PAGES, hf.numPages());
+        assertEquals(0, v.getPagesTruncated());
+        assertEquals(before, contents());
+    }
+
+    /**
+     * Unit test for Vacuum.run(): the moves are committed before the file
+     * is cut, so a failure between the truncate and its commit loses no
+     * tuples, also after a restart
+     */
+    @Test public void failedCutKeepsMoves() throws Exception {
+        thin(0, FILE_PAGES, PER_PAGE / 5);
+        List<String> before = contents();
+        File f = hf.getFile();
+        hf = new HeapFile(f, hf.getTupleDesc()) {
+            @Override protected void truncate(int numPages) throws IOException {
+                super.truncate(numPages);
+                throw new IOException("crash after the cut");
+            }
+        };
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        Vacuum v = hf.getVacuum();
+        v.setRate(0);
+        try {
+            v.run();
+            fail("the truncate should have failed the pass");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, hf.numPages());
+        assertEquals(before, contents());
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, f);
+        Database.getLogFile().recover();
+        assertEquals(before, contents());
+    }
+
+    /**
+     * Unit test for Vacuum.start(): a throttled pass runs in the background
+     */
+    @Test public void backgroundPass() throws Exception {
+        thin(0, FILE_PAGES, PER_PAGE / 5);
+        Vacuum v = hf.getVacuum();
+        v.setRate(200);
+        v.start();
+        try {
+            for (int i = 0; i < 500 && v.getPasses() == 0; i++) {
+                Thread.sleep(10);
+            }
+        } finally {
+            v.stop();
+        }
+        assertFalse(v.isRunning());
+        assertEquals(1, v.getPasses());
+        assertEquals(2, hf.numPages());
+        assertTrue(v.getPagesScanned() >= FILE_PAGES - 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReadAhead;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class VectoredIoTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 20;
+
+    private HeapFile hf;
+    private FileHandleManager files;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        files = Database.getFileHandleManager();
+    }
+
+    private List<PageId> pageIds(int... pageNos) {
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo : pageNos) {
+            pids.add(new HeapPageId(hf.getId(), pgNo));
+        }
+        return pids;
+    }
+
+    /**
+     * Unit test for HeapFile.readPages(): the pages come back in the order
+     * asked for, and adjacent pages are read together
+     */
+    @Test public void readPages() throws Exception {
+        List<PageId> pids = pageIds(7, 5, 6, 12);
+        long reads = files.getReads();
+        List<Page> pages = hf.readPages(pids);
+        assertEquals(2, files.getReads() - reads);
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(hf.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for ReadAhead.prefetch() of several pages: a run of pages is
+     * loaded with one read
+     */
+    @Test public void prefetchRun() throws Exception {
+        BufferPool bp = Database.resetBufferPool(64);
+        ReadAhead ra = bp.getReadAhead();
+        long reads = files.getReads();
+        ra.prefetch(pageIds(0, 1, 2, 3, 4, 5, 6, 7));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ra.getLoaded() < 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(8, ra.getLoaded());
+        assertEquals(1, files.getReads() - reads);
+
+        TransactionId tid = new TransactionId();
+        for (PageId pid : pageIds(0, 1, 2, 3, 4, 5, 6, 7)) {
+            assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+        }
+        assertEquals(1, files.getReads() - reads);
+    }
+
+    /**
+     * Unit test for BufferPool.flushAllPages(): dirty pages that are
+     * adjacent in their file are written together
+     */
+    @Test public void flushAllPagesCoalesced() throws Exception {
+        BufferPool bp = Database.resetBufferPool(64);
+        bp.getReadAhead().setEnabled(false);
+        TransactionId tid = new TransactionId();
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : pageIds(2, 3, 4, 5, 9, 10)) {
+            Page p = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+            pages.add(p);
+        }
+        long writes = files.getWrites();
+        bp.flushAllPages();
+        assertEquals(2, files.getWrites() - writes);
+        for (Page p : pages) {
+            assertNull(p.isDirty());
+        }
+        writes = files.getWrites();
+        bp.flushAllPages();
+        assertEquals(writes, files.getWrites());
+    }
+
+    /**
+     * Unit test for BufferPool.flushAllPages(): a page that a transaction
+     * changes while it is written reaches the disk as it was logged, and
+     * stays dirty with the change
+     */
+    @Test public void flushAllPagesWritesLoggedImage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(64);
+        HeapFile created = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(created.getId(), 0);
+        TransactionId later = new TransactionId();
+        boolean[] changed = {false};
+        HeapFile small = new HeapFile(created.getFile(), created.getTupleDesc()) {
+            @Override public void writePages(List<Page> pages) throws IOException {
+                if (!changed[0]) {
+                    changed[0] = true;
+                    try {
+                        insertTuple(later, Utility.getHeapTuple(new int[]{-2, -2})).get(0).markDirty(true, later);
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.writePages(pages);
+            }
+        };
+        Database.getCatalog().addTable(small, UUID.randomUUID().toString());
+
+        TransactionId tid = new TransactionId();
+        Page page = small.insertTuple(tid, Utility.getHeapTuple(new int[]{-1, -1})).get(0);
+        page.markDirty(true, tid);
+        byte[] logged = page.getPageData();
+        bp.flushAllPages();
+        assertTrue(changed[0]);
+        assertArrayEquals(logged, small.readPage(pid).getPageData());
+        assertEquals(later, bp.getPage(later, pid, Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VectoredIoTest.class);
+    }
+}
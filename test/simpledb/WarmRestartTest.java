@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.WarmRestart;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class WarmRestartTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 40;
+
+    private HeapFile hf;
+    private File dumpFile;
+    private FileHandleManager files;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        dumpFile = File.createTempFile("warm", ".pages");
+        dumpFile.delete();
+        dumpFile.deleteOnExit();
+        files = Database.getFileHandleManager();
+        tid = new TransactionId();
+    }
+
+    /** Start a pool without read-ahead that saves to and reloads from dumpFile. */
+    private WarmRestart restart(int pages) {
+        BufferPool bp = Database.resetBufferPool(pages);
+        bp.getReadAhead().setEnabled(false);
+        WarmRestart warm = bp.getWarmRestart();
+        warm.setFile(dumpFile);
+        warm.setRate(0);
+        return warm;
+    }
+
+    private void read(int from, int to) throws Exception {
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Unit test for WarmRestart.dump() and reload(): the saved pages come
+     * back into a new pool with one read per run of adjacent pages
+     */
+    @Test public void dumpAndReload() throws Exception {
+        WarmRestart warm = restart(64);
+        read(30, 40);
+        read(5, 20);
+        assertEquals(25, warm.dump());
+
+        warm = restart(64);
+        long reads = files.getReads();
+        assertEquals(25, warm.reload());
+        assertEquals(2, files.getReads() - reads);
+
+        reads = files.getReads();
+        read(30, 40);
+        read(5, 20);
+        assertEquals(0, files.getReads() - reads);
+    }
+
+    /**
+     * Unit test for WarmRestart.reload(): when the dump does not fit in the
+     * pool, the pages used most before the restart are the ones reloaded
+     */
+    @Test public void keepHottest() throws Exception {
+        WarmRestart warm = restart(64);
+        read(0, 30);
+        read(20, 25);
+        warm.dump();
+
+        warm = restart(8);
+        assertEquals(8, warm.reload());
+        long reads = files.getReads();
+        read(20, 25);
+        assertEquals(0, files.getReads() - reads);
+    }
+
+    /**
+     * Unit test for WarmRestart.reload(): pages of tables that are gone are
+     * skipped, and a missing dump loads nothing
+     */
+    @Test public void skipDroppedTables() throws Exception {
+        WarmRestart warm = restart(64);
+        assertEquals(0, warm.reload());
+        read(0, 10);
+        warm.dump();
+
+        Database.getCatalog().clear();
+        warm = restart(64);
+        assertEquals(0, warm.reload());
+        assertEquals(10, warm.getSkipped());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmRestartTest.class);
+    }
+}
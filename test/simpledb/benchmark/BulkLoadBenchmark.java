@@ -0,0 +1,66 @@
+package simpledb.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+
+/**
+ * Measures the throughput of BulkLoader, in rows and input megabytes per
+ * second, converting a generated comma-separated file of random ints with
+ * one parsing thread and with one per processor.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.BulkLoadBenchmark [rows] [columns]
+ * </pre>
+ */
+public class BulkLoadBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        File in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("bulk", ".dat");
+        out.deleteOnExit();
+        Random r = new Random(1);
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in), 1 << 16)) {
+            for (int i = 0; i < rows; i++) {
+                for (int c = 0; c < columns; c++) {
+                    if (c > 0) {
+                        w.write(',');
+                    }
+                    w.write(Integer.toString(r.nextInt(1000000)));
+                }
+                w.write('\n');
+            }
+        }
+        double mb = in.length() / (1024.0 * 1024.0);
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d rows of %d int columns, %.1f MB of text%n", rows, columns, mb);
+        System.out.printf("%-8s %10s %14s %10s%n", "threads", "ms", "rows/s", "MB/s");
+        for (int threads : processors > 1 ? new int[]{1, processors} : new int[]{1}) {
+            BulkLoader loader = new BulkLoader(Utility.getTypes(columns), ',', BufferPool.getPageSize());
+            loader.setThreads(threads);
+            // warm up
+            loader.load(in, out);
+            long total = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                loader.load(in, out);
+                total += System.nanoTime() - start;
+            }
+            double ms = total / 1e6 / ROUNDS;
+            System.out.printf("%-8d %10.0f %14.0f %10.1f%n", threads, ms, rows / (ms / 1e3), mb / (ms / 1e3));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares summing one column of a wide table (twenty int columns) stored
+ * in a HeapFile and in a ColumnarFile. The scan of the ColumnarFile is told
+ * that only that column is needed (SeqScan#setColumns), so it reads the
+ * column's pages and the segment headers only. Each scan starts from an
+ * empty BufferPool; the table reports the scan time and the pages read.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.ColumnarScanBenchmark [rows]
+ * </pre>
+ */
+public class ColumnarScanBenchmark {
+
+    private static final int COLUMNS = 20;
+    private static final int SUMMED = 7;
+    private static final int POOL_PAGES = 256;
+    private static final int ROUNDS = 5;
+
+    private static double[] sum(DbFile f, boolean columnsOnly) throws Exception {
+        long total = 0;
+        long reads = 0;
+        long sum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+            bp.getReadAhead().setEnabled(false);
+            FileHandleManager files = Database.getFileHandleManager();
+            long before = files.getReads();
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "t");
+            if (columnsOnly) {
+                scan.setColumns(SUMMED);
+            }
+            sum = 0;
+            scan.open();
+            while (scan.hasNext()) {
+                sum += ((IntField) scan.next().getField(SUMMED)).getValue();
+            }
+            scan.close();
+            total += System.nanoTime() - start;
+            reads += files.getReads() - before;
+        }
+        return new double[]{total / 1e6 / ROUNDS, reads / (double) ROUNDS, sum};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Database.reset();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, 1000, null, null);
+
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        ColumnarFile columnar = new ColumnarFile(f, heap.getTupleDesc());
+        Database.getCatalog().addTable(columnar, "columnar");
+        Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = heap.iterator(tid);
+        it.open();
+        long start = System.nanoTime();
+        for (int i = 1; it.hasNext(); i++) {
+            Tuple t = it.next();
+            for (Page p : columnar.insertTuple(tid, t)) {
+                p.markDirty(true, tid);
+            }
+            // write every full segment out before the pool fills
+            if (i % columnar.getRowsPerSegment() == 0) {
+                Database.getBufferPool().flushAllPages();
+            }
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        double loadMs = (System.nanoTime() - start) / 1e6;
+
+        // warm up
+        sum(heap, false);
+        sum(columnar, true);
+
+        System.out.printf("%d rows of %d int columns; heap file %d pages, columnar file %d pages (loaded in %.0f ms)%n",
+                rows, COLUMNS, heap.numPages(), columnar.numPages(), loadMs);
+        System.out.printf("%-22s %10s %12s %14s%n", "scan", "ms", "pages read", "sum");
+        double[] r = sum(heap, false);
+        System.out.printf("%-22s %10.1f %12.0f %14.0f%n", "heap, all columns", r[0], r[1], r[2]);
+        r = sum(columnar, false);
+        System.out.printf("%-22s %10.1f %12.0f %14.0f%n", "columnar, all columns", r[0], r[1], r[2]);
+        r = sum(columnar, true);
+        System.out.printf("%-22s %10.1f %12.0f %14.0f%n", "columnar, one column", r[0], r[1], r[2]);
+    }
+}
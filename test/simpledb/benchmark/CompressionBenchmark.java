@@ -0,0 +1,100 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares full scans of a raw HeapFile and of a CompressedHeapFile with
+ * the same tuples: three int columns of small values (0 to 999). Each scan
+ * starts from an empty BufferPool, so every page is read from the file;
+ * the table reports the bytes read per scan and the scan time. With the
+ * files in the operating system's cache the time mostly shows the cost of
+ * decompression; on a cold disk, the bytes read are what counts.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.CompressionBenchmark [pages]
+ * </pre>
+ */
+public class CompressionBenchmark {
+
+    private static final int POOL_PAGES = 256;
+    private static final int ROUNDS = 5;
+    // three int columns fit 337 tuples per page
+    private static final int TUPLES_PER_PAGE = 337;
+
+    private static double[] scan(HeapFile hf) throws Exception {
+        long total = 0;
+        long bytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+            bp.getReadAhead().setEnabled(false);
+            FileHandleManager files = Database.getFileHandleManager();
+            long read = files.getBytesRead();
+            long start = System.nanoTime();
+            DbFileIterator it = hf.iterator(new TransactionId());
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            total += System.nanoTime() - start;
+            bytes += files.getBytesRead() - read;
+        }
+        return new double[]{total / 1e6 / ROUNDS, bytes / (double) ROUNDS};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Database.reset();
+        HeapFile raw = SystemTestUtil.createRandomHeapFile(3, TUPLES_PER_PAGE * pages, 1000, null, null);
+
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".extents").deleteOnExit();
+        CompressedHeapFile compressed = new CompressedHeapFile(f, raw.getTupleDesc());
+        Database.getCatalog().addTable(compressed, "compressed");
+        List<Page> copies = new ArrayList<>();
+        for (int i = 0; i < raw.numPages(); i++) {
+            byte[] data = raw.readPage(new HeapPageId(raw.getId(), i)).getPageData();
+            copies.add(new HeapPage(new HeapPageId(compressed.getId(), i), data));
+        }
+        // the second round rewrites every page in place, warmed up
+        double writeUs = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < copies.size(); i += 64) {
+                compressed.writePages(copies.subList(i, Math.min(i + 64, copies.size())));
+            }
+            writeUs = (System.nanoTime() - start) / 1e3 / copies.size();
+        }
+
+        // warm up
+        scan(raw);
+        scan(compressed);
+
+        System.out.printf("%d pages, %d tuples; raw file %d KB, compressed file %d KB (%.1fx), %.1f us to compress and write a page%n",
+                raw.numPages(), TUPLES_PER_PAGE * pages, raw.getFile().length() / 1024,
+                compressed.getFile().length() / 1024,
+                raw.getFile().length() / (double) compressed.getFile().length(), writeUs);
+        System.out.printf("%-12s %10s %14s %14s%n", "file", "ms/scan", "KB read/scan", "tuples/s");
+        for (HeapFile hf : new HeapFile[]{raw, compressed}) {
+            double[] r = scan(hf);
+            System.out.printf("%-12s %10.1f %14.0f %14.0f%n", hf == raw ? "raw" : "compressed",
+                    r[0], r[1] / 1024, TUPLES_PER_PAGE * pages / (r[0] / 1e3));
+        }
+    }
+}
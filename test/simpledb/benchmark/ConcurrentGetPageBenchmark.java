@@ -0,0 +1,90 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures getPage throughput of the BufferPool as the number of threads
+ * grows, once with a single shard (equivalent to one global latch) and once
+ * with the default number of shards. Each thread does uniform random
+ * lookups over a table that fits in half the pool, so after warm-up every
+ * call is a hit and the time goes to the latch and the frame lookup.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.ConcurrentGetPageBenchmark [poolPages] [maxThreads]
+ * </pre>
+ */
+public class ConcurrentGetPageBenchmark {
+
+    private static final int CALLS_PER_THREAD = 1000000;
+
+    private static double run(BufferPool bp, HeapFile hf, int threads) throws InterruptedException {
+        int pages = hf.numPages();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong calls = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers.add(new Thread(() -> {
+                Random r = new Random(seed);
+                TransactionId tid = new TransactionId();
+                PageId[] ids = new PageId[pages];
+                for (int i = 0; i < pages; i++) {
+                    ids[i] = new HeapPageId(hf.getId(), i);
+                }
+                try {
+                    start.await();
+                    for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                        bp.getPage(tid, ids[r.nextInt(pages)], Permissions.READ_ONLY);
+                    }
+                    calls.addAndGet(CALLS_PER_THREAD);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread w : workers) {
+            w.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return calls.get() / seconds / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        Database.reset();
+        // two int columns fit 504 tuples per page
+        int filePages = poolPages / 2;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * filePages, null, null);
+
+        System.out.printf("pool of %d pages, table of %d pages, %d getPage calls per thread%n",
+                poolPages, hf.numPages(), CALLS_PER_THREAD);
+        System.out.printf("%-8s %18s %18s%n", "threads", "1 shard Mcalls/s", "sharded Mcalls/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double single = run(new BufferPool(poolPages, 1, ClockProPolicy::new), hf, threads);
+            double sharded = run(new BufferPool(poolPages), hf, threads);
+            System.out.printf("%-8d %18.2f %18.2f%n", threads, single, sharded);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+/**
+ * Compares a table with a low-cardinality string column stored plainly and
+ * dictionary-encoded (see simpledb.storage.StringDictionary): the pages
+ * each takes, and the time of a scan with an equality filter on the column
+ * from a cold and a warm BufferPool.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.DictionaryScanBenchmark [rows]
+ * </pre>
+ */
+public class DictionaryScanBenchmark {
+
+    private static final String[] COUNTRIES = {"France", "Germany", "Italy", "Japan", "Kenya",
+            "Mexico", "Norway", "Peru", "Spain", "Vietnam"};
+    private static final int ROUNDS = 5;
+
+    private static HeapFile create(TupleDesc td, int rows, boolean encoded) throws Exception {
+        File f = File.createTempFile(encoded ? "dict" : "plain", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".dict1").deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, HeapFile.PageFormat.FIXED, encoded ? new int[]{1} : new int[0]);
+        Database.getCatalog().addTable(hf, f.getName());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(COUNTRIES[i % COUNTRIES.length], Type.STRING_LEN));
+            for (Page p : hf.insertTuple(tid, t)) {
+                p.markDirty(true, tid);
+            }
+        }
+        Database.getBufferPool().flushAllPages();
+        return hf;
+    }
+
+    private static double scanMs(HeapFile hf, boolean cold) throws Exception {
+        long nanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            if (cold) {
+                Database.resetBufferPool(hf.numPages() + 16);
+            }
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                    new StringField("Japan", Type.STRING_LEN)), new SeqScan(tid, hf.getId(), "t"));
+            filter.open();
+            int n = 0;
+            while (filter.hasNext()) {
+                filter.next();
+                n++;
+            }
+            filter.close();
+            nanos += System.nanoTime() - start;
+            if (n == 0) {
+                throw new AssertionError("no rows matched");
+            }
+        }
+        return nanos / 1e6 / ROUNDS;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Database.reset();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"id", "country"});
+        Database.resetBufferPool(20000);
+        HeapFile plain = create(td, rows, false);
+        HeapFile encoded = create(td, rows, true);
+
+        // warm up
+        scanMs(plain, false);
+        scanMs(encoded, false);
+
+        System.out.printf("%d rows, %d distinct strings%n", rows, COUNTRIES.length);
+        System.out.printf("%-10s %8s %14s %14s%n", "column", "pages", "cold scan ms", "warm scan ms");
+        for (HeapFile hf : new HeapFile[]{plain, encoded}) {
+            double cold = scanMs(hf, true);
+            Database.resetBufferPool(hf.numPages() + 16);
+            scanMs(hf, false);
+            double warm = scanMs(hf, false);
+            System.out.printf("%-10s %8d %14.1f %14.1f%n", hf == plain ? "plain" : "dictionary",
+                    hf.numPages(), cold, warm);
+        }
+    }
+}
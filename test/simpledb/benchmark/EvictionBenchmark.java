@@ -0,0 +1,178 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import simpledb.index.BTreePageId;
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+
+/**
+ * Compares buffer pool hit ratios of the replacement policies on a mixed
+ * workload: skewed point lookups that walk a small B+ tree (internal pages
+ * plus leaves) and fetch a dimension page, interleaved with repeated
+ * sequential scans over a fact table several times larger than the pool.
+ * <p>
+ * The pool is simulated, so only the policy's decisions are measured.
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.EvictionBenchmark [poolPages]
+ * </pre>
+ */
+public class EvictionBenchmark {
+
+    private static final int INDEX_TABLE = 1;
+    private static final int DIMENSION_TABLE = 2;
+    private static final int FACT_TABLE = 3;
+
+    private static final int INTERNAL_PAGES = 20;
+    private static final int LEAF_PAGES = 400;
+    private static final int DIMENSION_PAGES = 100;
+    private static final int FACT_PAGES = 20000;
+    private static final int OPERATIONS = 2000000;
+
+    /** Plain LRU, as a reference point. */
+    private static class LruPolicy implements ReplacementPolicy {
+        private final LinkedHashMap<PageId, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+        public void pageAdmitted(PageId pid) {
+            order.put(pid, Boolean.TRUE);
+        }
+
+        public void pageAccessed(PageId pid) {
+            order.get(pid);
+        }
+
+        public void pageRemoved(PageId pid) {
+            order.remove(pid);
+        }
+
+        public PageId chooseVictim(Predicate<PageId> evictable) {
+            Iterator<PageId> it = order.keySet().iterator();
+            while (it.hasNext()) {
+                PageId pid = it.next();
+                if (evictable.test(pid)) {
+                    it.remove();
+                    return pid;
+                }
+            }
+            return null;
+        }
+
+        public int size() {
+            return order.size();
+        }
+
+        public void setCapacity(int capacity) {
+            // the order map grows and shrinks with the pool
+        }
+
+        public List<PageId> residentByHotness() {
+            List<PageId> pids = new ArrayList<>(order.keySet());
+            Collections.reverse(pids);
+            return pids;
+        }
+    }
+
+    private static class Result {
+        long pointAccesses, pointHits, scanAccesses, scanHits;
+        long nanos;
+    }
+
+    private static Result run(ReplacementPolicy policy, int poolPages, double scanShare, long seed) {
+        Random r = new Random(seed);
+        Set<PageId> resident = new HashSet<>();
+        Predicate<PageId> any = pid -> true;
+        Result res = new Result();
+        int scanCursor = 0;
+
+        long start = System.nanoTime();
+        for (int op = 0; op < OPERATIONS; op++) {
+            if (r.nextDouble() < scanShare) {
+                PageId pid = new HeapPageId(FACT_TABLE, scanCursor);
+                scanCursor = (scanCursor + 1) % FACT_PAGES;
+                res.scanAccesses++;
+                if (access(policy, resident, pid, poolPages, any)) {
+                    res.scanHits++;
+                }
+            } else {
+                // root-to-leaf walk plus a dimension page; 80% of lookups go
+                // to 20% of the keys
+                int key = r.nextDouble() < 0.8 ? r.nextInt(LEAF_PAGES / 5) : r.nextInt(LEAF_PAGES);
+                PageId[] path = {
+                        new BTreePageId(INDEX_TABLE, 1, BTreePageId.INTERNAL),
+                        new BTreePageId(INDEX_TABLE, 2 + key % INTERNAL_PAGES, BTreePageId.INTERNAL),
+                        new BTreePageId(INDEX_TABLE, 100 + key, BTreePageId.LEAF),
+                        new HeapPageId(DIMENSION_TABLE, key % DIMENSION_PAGES)
+                };
+                for (PageId pid : path) {
+                    res.pointAccesses++;
+                    if (access(policy, resident, pid, poolPages, any)) {
+                        res.pointHits++;
+                    }
+                }
+            }
+        }
+        res.nanos = System.nanoTime() - start;
+        return res;
+    }
+
+    private static boolean access(ReplacementPolicy policy, Set<PageId> resident, PageId pid,
+                                  int poolPages, Predicate<PageId> any) {
+        if (resident.contains(pid)) {
+            policy.pageAccessed(pid);
+            return true;
+        }
+        if (resident.size() >= poolPages) {
+            resident.remove(policy.chooseVictim(any));
+        }
+        resident.add(pid);
+        policy.pageAdmitted(pid);
+        return false;
+    }
+
+    public static void main(String[] args) {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        System.out.printf("pool of %d pages, hot set of %d pages, fact table of %d pages, %d operations%n",
+                poolPages, INTERNAL_PAGES + LEAF_PAGES + DIMENSION_PAGES, FACT_PAGES, OPERATIONS);
+        System.out.printf("%-10s %-10s %10s %10s %10s %10s%n",
+                "scan share", "policy", "point hit", "scan hit", "total hit", "ns/access");
+        for (double scanShare : new double[]{0.0, 0.1, 0.3, 0.5, 0.8}) {
+            for (String name : new String[]{"LRU", "LRU-2", "CLOCK-Pro"}) {
+                ReplacementPolicy policy;
+                switch (name) {
+                    case "LRU":
+                        policy = new LruPolicy();
+                        break;
+                    case "LRU-2":
+                        policy = new LruKPolicy(poolPages);
+                        break;
+                    default:
+                        policy = new ClockProPolicy(poolPages);
+                }
+                Result res = run(policy, poolPages, scanShare, 42);
+                long accesses = res.pointAccesses + res.scanAccesses;
+                System.out.printf("%-10.1f %-10s %9.2f%% %9.2f%% %9.2f%% %10.1f%n",
+                        scanShare, name,
+                        percent(res.pointHits, res.pointAccesses),
+                        percent(res.scanHits, res.scanAccesses),
+                        percent(res.pointHits + res.scanHits, accesses),
+                        res.nanos / (double) accesses);
+            }
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandleManager;
+
+/**
+ * Compares page-sized random reads and writes done the way HeapFile and
+ * BTreeFile used to do them (open a RandomAccessFile, seek, transfer, close)
+ * with positional I/O on a channel kept open by the FileHandleManager.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.FileHandleBenchmark [pages]
+ * </pre>
+ */
+public class FileHandleBenchmark {
+
+    private static final int OPERATIONS = 50000;
+
+    private interface PageIo {
+        void run(long offset, byte[] page) throws Exception;
+    }
+
+    private static double run(PageIo io, int pages) throws Exception {
+        Random r = new Random(42);
+        byte[] page = new byte[BufferPool.getPageSize()];
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            io.run((long) r.nextInt(pages) * page.length, page);
+        }
+        return (System.nanoTime() - start) / 1e3 / OPERATIONS;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        File f = File.createTempFile("handles", ".dat");
+        f.deleteOnExit();
+        FileHandleManager files = new FileHandleManager();
+        files.write(f, (long) pages * BufferPool.getPageSize() - 1, new byte[1]);
+
+        PageIo openRead = (offset, page) -> {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                raf.seek(offset);
+                raf.readFully(page);
+            }
+        };
+        PageIo openWrite = (offset, page) -> {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.seek(offset);
+                raf.write(page);
+            }
+        };
+        PageIo pooledRead = (offset, page) -> files.read(f, offset, page, 0, page.length);
+        PageIo pooledWrite = (offset, page) -> files.write(f, offset, page);
+
+        // warm up
+        run(openRead, pages);
+        run(pooledRead, pages);
+
+        System.out.printf("file of %d pages, %d random page operations%n", pages, OPERATIONS);
+        System.out.printf("%-8s %16s %16s%n", "op", "open/close us", "pooled us");
+        System.out.printf("%-8s %16.2f %16.2f%n", "read", run(openRead, pages), run(pooledRead, pages));
+        System.out.printf("%-8s %16.2f %16.2f%n", "write", run(openWrite, pages), run(pooledWrite, pages));
+        System.out.printf("opens by the pool: %d%n", files.getOpens());
+        files.closeAll();
+    }
+}
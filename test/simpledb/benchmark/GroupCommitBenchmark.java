@@ -0,0 +1,90 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.storage.GroupCommit;
+import simpledb.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures commit throughput with 1 to 64 concurrent sessions, each
+ * running empty begin/commit transactions back to back, with every commit
+ * forcing the log itself and with group commit (see
+ * simpledb.storage.GroupCommit), and the number of log forces per commit.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.GroupCommitBenchmark [seconds per run] [max wait us]
+ * </pre>
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] SESSIONS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static double run(int sessions, long millis, long[] forces) throws Exception {
+        GroupCommit gc = Database.getLogFile().getGroupCommit();
+        long forcesBefore = gc.getForces();
+        LongAdder commits = new LongAdder();
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    go.await();
+                    while (!done.get()) {
+                        Transaction tx = new Transaction();
+                        tx.start();
+                        tx.commit();
+                        commits.increment();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(millis);
+        done.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        forces[0] = gc.getForces() - forcesBefore;
+        return commits.sum() * 1e9 / elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? (long) (Double.parseDouble(args[0]) * 1000) : 2000;
+        long maxWait = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        Database.reset();
+        GroupCommit gc = Database.getLogFile().getGroupCommit();
+        gc.setMaxWait(maxWait);
+        long[] forces = new long[1];
+
+        // warm up
+        run(4, millis / 2, forces);
+
+        System.out.printf("%d ms per run, group commit max wait %d us%n", millis, maxWait);
+        System.out.printf("%-9s %14s %14s %14s %14s%n", "sessions", "solo commit/s", "forces/commit",
+                "group commit/s", "forces/commit");
+        for (int sessions : SESSIONS) {
+            gc.setEnabled(false);
+            long before = gc.getCommits();
+            double solo = run(sessions, millis, forces);
+            double soloForces = forces[0] / (double) (gc.getCommits() - before);
+            gc.setEnabled(true);
+            before = gc.getCommits();
+            double group = run(sessions, millis, forces);
+            double groupForces = forces[0] / (double) (gc.getCommits() - before);
+            System.out.printf("%-9d %14.0f %14.2f %14.0f %14.2f%n", sessions, solo, soloForces, group, groupForces);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Measures what it costs to turn page bytes into tuples, with eager and
+ * with lazy decoding, for three access patterns: counting the rows, a
+ * filter on an int column that keeps 1% of them, and projecting one string
+ * column. The table has two int and two string columns, and every page is
+ * built from the same bytes, so no I/O is involved. Allocation is measured
+ * with the JVM's per-thread allocation counter.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.LazyDecodingBenchmark [pages]
+ * </pre>
+ */
+public class LazyDecodingBenchmark {
+
+    private interface Scan {
+        long run(HeapPage page);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static double[] run(byte[] data, HeapPageId pid, int pages, Scan scan) throws Exception {
+        long sink = 0;
+        // warm up
+        for (int i = 0; i < pages; i++) {
+            sink += scan.run(new HeapPage(pid, data));
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            sink += scan.run(new HeapPage(pid, data));
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (sink == 42) {
+            System.out.println();
+        }
+        return new double[]{elapsed / 1e3 / pages, bytes / (double) pages};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(1, td), "lazy");
+        HeapPageId pid = new HeapPageId(1, 0);
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; full.getNumEmptySlots() > 0; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name-" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(i * 7));
+            t.setField(3, new StringField("comment for row " + i, Type.STRING_LEN));
+            full.insertTuple(t);
+        }
+        byte[] data = full.getPageData();
+
+        Scan count = page -> {
+            long n = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+                n++;
+            }
+            return n;
+        };
+        Scan filter = page -> {
+            long n = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() % 100 == 0) {
+                    n += ((IntField) t.getField(2)).getValue();
+                }
+            }
+            return n;
+        };
+        Scan project = page -> {
+            long n = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                n += ((StringField) it.next().getField(1)).getValue().length();
+            }
+            return n;
+        };
+
+        System.out.printf("%d pages of %d tuples (int, string, int, string)%n",
+                pages, full.iterator().hasNext() ? count.run(full) : 0);
+        System.out.printf("%-10s %14s %14s %14s %14s%n", "scan", "eager us/page", "lazy us/page",
+                "eager B/page", "lazy B/page");
+        String[] names = {"count", "filter 1%", "project"};
+        Scan[] scans = {count, filter, project};
+        for (int i = 0; i < scans.length; i++) {
+            HeapPage.setLazyDecoding(false);
+            double[] eager = run(data, pid, pages, scans[i]);
+            HeapPage.setLazyDecoding(true);
+            double[] lazy = run(data, pid, pages, scans[i]);
+            System.out.printf("%-10s %14.2f %14.2f %14.0f %14.0f%n",
+                    names[i], eager[0], lazy[0], eager[1], lazy[1]);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares DbFile.readPage latency with and without memory mapping, for
+ * random pages of a HeapFile and of a BTreeFile (whose plain read path
+ * streams from the start of the file up to the page). The BufferPool is
+ * not involved, so every call is a page miss. Building a HeapPage decodes
+ * every tuple, which hides much of the I/O cost, so HeapFile reads into an
+ * off-heap frame (no decoding) are measured as well.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.MappedReadBenchmark [pages]
+ * </pre>
+ */
+public class MappedReadBenchmark {
+
+    private static final int READS = 20000;
+
+    private interface PageIds {
+        PageId get(int i);
+    }
+
+    private interface Reader {
+        void read(PageId pid);
+    }
+
+    private static double run(Reader reader, int pages, PageIds ids) {
+        Random r = new Random(42);
+        // warm up
+        for (int i = 0; i < READS / 10; i++) {
+            reader.read(ids.get(r.nextInt(pages)));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            reader.read(ids.get(r.nextInt(pages)));
+        }
+        return (System.nanoTime() - start) / 1e3 / READS;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Database.reset();
+
+        // two int columns fit 504 tuples per page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        int rows = BTreeUtility.getNumTuplesPerPage(2) * pages;
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        // the encoder writes the leaves first, as pages 1, 2, ..., and holds
+        // at most getNumTuplesPerPage tuples per leaf
+        int leaves = rows / BTreeUtility.getNumTuplesPerPage(2);
+        PageIds heapIds = i -> new HeapPageId(hf.getId(), i);
+        PageIds leafIds = i -> new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF);
+
+        System.out.printf("heap file of %d pages, B+ tree of %d pages, %d random reads%n",
+                hf.numPages(), bf.numPages(), READS);
+        System.out.printf("%-16s %14s %14s%n", "file", "plain us/read", "mmap us/read");
+        FrameArena arena = new FrameArena(1, BufferPool.getPageSize());
+        Reader heap = hf::readPage;
+        Reader heapFrame = pid -> hf.readPage(pid, arena.frame(0), 0);
+        Reader tree = bf::readPage;
+
+        double plain = run(heap, hf.numPages(), heapIds);
+        double plainFrame = run(heapFrame, hf.numPages(), heapIds);
+        hf.setMemoryMapped(true);
+        double mapped = run(heap, hf.numPages(), heapIds);
+        double mappedFrame = run(heapFrame, hf.numPages(), heapIds);
+        System.out.printf("%-16s %14.2f %14.2f%n", "HeapFile", plain, mapped);
+        System.out.printf("%-16s %14.2f %14.2f%n", "HeapFile, frame", plainFrame, mappedFrame);
+
+        plain = run(tree, leaves, leafIds);
+        bf.setMemoryMapped(true);
+        mapped = run(tree, leaves, leafIds);
+        System.out.printf("%-16s %14.2f %14.2f%n", "BTreeFile", plain, mapped);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockProPolicy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Fills a BufferPool with HeapFile pages read READ_ONLY, once with on-heap
+ * pages and once with off-heap frames, and reports how much Java heap the
+ * resident pages keep alive and how long a full GC takes with them resident.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.OffHeapFrameBenchmark [poolPages]
+ * </pre>
+ * (the off-heap run needs -XX:MaxDirectMemorySize of at least poolPages
+ * times the page size if that exceeds the heap size)
+ */
+public class OffHeapFrameBenchmark {
+
+    // keeps the pool under test reachable while the heap is measured
+    private static BufferPool resident;
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void run(String name, BufferPool bp, HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        resident = bp;
+        long before = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        long loadNanos = System.nanoTime() - start;
+        long after = usedHeap();
+
+        long gcStart = System.nanoTime();
+        System.gc();
+        long gcNanos = System.nanoTime() - gcStart;
+
+        System.out.printf("%-10s %12.1f %14.2f %12.1f%n", name,
+                (after - before) / (double) hf.numPages(), loadNanos / 1e6, gcNanos / 1e6);
+        resident = null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Database.reset();
+        // two int columns fit 504 tuples per page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * poolPages, null, null);
+
+        System.out.printf("pool of %d pages of %d bytes, all resident%n", poolPages, BufferPool.getPageSize());
+        System.out.printf("%-10s %12s %14s %12s%n", "pages", "heap B/page", "load ms", "full GC ms");
+        run("on-heap", new BufferPool(poolPages, 1, ClockProPolicy::new, false), hf);
+        run("off-heap", new BufferPool(poolPages, 1, ClockProPolicy::new, true), hf);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Measures the time and allocation of the page operations that copy page
+ * bytes: getPageData (every flush, twice per logged write),
+ * setBeforeImage (every commit) and a setBeforeImage followed by one
+ * insert and delete, which pays for the copy on write. The page is full,
+ * with two int and two string columns.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.PageSerializationBenchmark [iterations]
+ * </pre>
+ */
+public class PageSerializationBenchmark {
+
+    private interface Op {
+        long run(HeapPage page) throws Exception;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static double[] run(HeapPage page, int iterations, Op op) throws Exception {
+        long sink = 0;
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            sink += op.run(page);
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += op.run(page);
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (sink == 42) {
+            System.out.println();
+        }
+        return new double[]{elapsed / 1e3 / iterations, bytes / (double) iterations};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(1, td), "pages");
+        HeapPageId pid = new HeapPageId(1, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name-" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(i * 7));
+            t.setField(3, new StringField("comment for row " + i, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        Tuple victim = page.iterator().next();
+
+        String[] names = {"getPageData", "setBeforeImage", "image+write"};
+        Op[] ops = {
+                p -> p.getPageData().length,
+                p -> {
+                    p.setBeforeImage();
+                    return 1;
+                },
+                p -> {
+                    p.setBeforeImage();
+                    p.deleteTuple(victim);
+                    p.insertTuple(victim);
+                    return 1;
+                },
+        };
+        System.out.printf("page of %d bytes, %d iterations%n", HeapPage.createEmptyPageData().length, iterations);
+        System.out.printf("%-16s %10s %10s%n", "op", "us/op", "B/op");
+        for (int i = 0; i < ops.length; i++) {
+            double[] r = run(page, iterations, ops[i]);
+            System.out.printf("%-16s %10.2f %10.0f%n", names[i], r[0], r[1]);
+        }
+    }
+}
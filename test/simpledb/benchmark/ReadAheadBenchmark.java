@@ -0,0 +1,70 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times full scans of a HeapFile that is larger than the BufferPool, with
+ * read-ahead off and on. Each scan starts from an empty pool, so every page
+ * is a miss; with read-ahead the misses are served by background reads
+ * while the scan decodes the pages before them. The gain depends on the
+ * number of cores and on how slow the disk is; with the file in the
+ * operating system's cache it mostly measures the overlap of decoding.
+ * The table also reports the file reads issued per scan: read-ahead reads
+ * each window of pages with a single read.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.ReadAheadBenchmark [pages]
+ * </pre>
+ */
+public class ReadAheadBenchmark {
+
+    private static final int POOL_PAGES = 256;
+    private static final int ROUNDS = 5;
+
+    private static double[] scan(HeapFile hf, boolean readAhead) throws Exception {
+        long total = 0;
+        long reads = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+            bp.getReadAhead().setEnabled(readAhead);
+            FileHandleManager files = Database.getFileHandleManager();
+            long before = files.getReads();
+            long start = System.nanoTime();
+            DbFileIterator it = hf.iterator(new TransactionId());
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            total += System.nanoTime() - start;
+            reads += files.getReads() - before;
+        }
+        return new double[]{total / 1e6 / ROUNDS, reads / (double) ROUNDS};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Database.reset();
+        // two int columns fit 504 tuples per page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+
+        // warm up
+        scan(hf, false);
+        scan(hf, true);
+
+        System.out.printf("heap file of %d pages, pool of %d pages, %d cores%n",
+                hf.numPages(), POOL_PAGES, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-12s %10s %12s%n", "read-ahead", "ms/scan", "reads/scan");
+        for (boolean readAhead : new boolean[]{false, true}) {
+            double[] r = scan(hf, readAhead);
+            System.out.printf("%-12s %10.1f %12.0f%n", readAhead ? "on" : "off", r[0], r[1]);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandleManager;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how much of a working set survives a scan of a table several
+ * times the size of the pool, with and without rings (see
+ * simpledb.storage.BufferRing). A small table is read a few times so its
+ * pages are hot, the large table is scanned once, and the small table is
+ * read again; the table reports the pages of the small table read back
+ * from disk and the time of the large scan.
+ * <p>
+ * Run with
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.benchmark.RingScanBenchmark [poolPages]
+ * </pre>
+ */
+public class RingScanBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static void readAll(HeapFile f, TransactionId tid) throws Exception {
+        for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        }
+    }
+
+    private static double[] run(HeapFile small, HeapFile large, int poolPages, boolean rings) throws Exception {
+        long scanNanos = 0;
+        long misses = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            BufferPool bp = Database.resetBufferPool(poolPages);
+            if (!rings) {
+                bp.setRingThreshold(Double.POSITIVE_INFINITY);
+            }
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 3; i++) {
+                readAll(small, tid);
+            }
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(tid, large.getId(), "t");
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+            scanNanos += System.nanoTime() - start;
+            FileHandleManager files = Database.getFileHandleManager();
+            long reads = files.getReads();
+            readAll(small, tid);
+            misses += files.getReads() - reads;
+        }
+        return new double[]{misses / (double) ROUNDS, scanNanos / 1e6 / ROUNDS};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        Database.reset();
+        // two int columns fit 504 tuples per page
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 504 * (poolPages / 2), 1000, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * (poolPages * 4), 1000, null, null);
+
+        // warm up
+        run(small, large, poolPages, true);
+        run(small, large, poolPages, false);
+
+        System.out.printf("pool %d pages, working set %d pages, scanned table %d pages%n",
+                poolPages, small.numPages(), large.numPages());
+        System.out.printf("%-8s %22s %12s%n", "rings", "working set re-reads", "scan ms");
+        for (boolean rings : new boolean[]{false, true}) {
+            double[] r = run(small, large, poolPages, rings);
+            System.out.printf("%-8s %22.0f %12.1f%n", rings ? "on" : "off", r[0], r[1]);
+        }
+    }
+}